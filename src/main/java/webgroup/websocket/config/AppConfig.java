@@ -1,16 +1,36 @@
 package webgroup.websocket.config;
 
 
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.client.RestTemplate;
+import webgroup.websocket.services.ClusterBus;
+import webgroup.websocket.services.LoopbackClusterBus;
+
+import java.util.UUID;
 
 @Configuration
+@EnableConfigurationProperties(NotificationProperties.class)
 public class AppConfig {
 
     @Bean
     public RestTemplate restTemplate() {
         return new RestTemplate();
     }
-}
 
+    /**
+     * Шина кластера по умолчанию: узел один в своей сети и ничего не пересылает.
+     * Для нескольких реплик объявляется бин ClusterBus с сетевым транспортом.
+     */
+    @Bean
+    @ConditionalOnMissingBean(ClusterBus.class)
+    public ClusterBus clusterBus(NotificationProperties properties) {
+        String nodeId = properties.getCluster().getNodeId();
+        if (nodeId == null || nodeId.isBlank()) {
+            nodeId = UUID.randomUUID().toString();
+        }
+        return new LoopbackClusterBus(new LoopbackClusterBus.Network(), nodeId);
+    }
+}
@@ -2,15 +2,25 @@ package webgroup.websocket.config;
 
 
 import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.web.socket.WebSocketExtension;
 import org.springframework.web.socket.WebSocketHandler;
 import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
 
 import java.security.Principal;
+import java.util.List;
 import java.util.Map;
 
 
 public class CustomHandshakeHandler extends DefaultHandshakeHandler {
 
+    private static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+
+    private final boolean permessageDeflate;
+
+    public CustomHandshakeHandler(boolean permessageDeflate) {
+        this.permessageDeflate = permessageDeflate;
+    }
+
     @Override
     protected Principal determineUser(ServerHttpRequest request,
                                       WebSocketHandler wsHandler,
@@ -26,5 +36,21 @@ public class CustomHandshakeHandler extends DefaultHandshakeHandler {
         String finalUserId = userId;
         return () -> finalUserId;
     }
-}
 
+    /**
+     * permessage-deflate контейнер согласует сам, если его предлагает клиент; при выключенной
+     * настройке расширение убирается из ответа на рукопожатие.
+     */
+    @Override
+    protected List<WebSocketExtension> filterRequestedExtensions(ServerHttpRequest request,
+                                                                 List<WebSocketExtension> requestedExtensions,
+                                                                 List<WebSocketExtension> supportedExtensions) {
+        List<WebSocketExtension> extensions = super.filterRequestedExtensions(request, requestedExtensions, supportedExtensions);
+        if (permessageDeflate) {
+            return extensions;
+        }
+        return extensions.stream()
+                .filter(extension -> !PERMESSAGE_DEFLATE.equalsIgnoreCase(extension.getName()))
+                .toList();
+    }
+}
@@ -0,0 +1,160 @@
+package webgroup.websocket.config;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.broker.AbstractSubscriptionRegistry;
+import org.springframework.messaging.simp.broker.DefaultSubscriptionRegistry;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.CollectionUtils;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.util.PathMatcher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Регистр подписок простого брокера, в котором точные destinations вроде /topic/notify/{userId}
+ * находятся одним поиском по хешу. {@link DefaultSubscriptionRegistry} кэширует ограниченное число
+ * destinations, а при промахе обходит подписки всех сессий — при сотнях тысяч персональных
+ * destinations почти каждая отправка становится промахом. Подписки с шаблоном или селектором
+ * передаются стандартному регистру, и он опрашивается, только пока такие подписки есть.
+ * Подписчики destination хранятся неизменяемой копией, которая пересоздаётся при (от)подписке,
+ * поэтому поиск идёт без блокировок и возвращает готовый результат без копирования.
+ */
+public class ExactMatchSubscriptionRegistry extends AbstractSubscriptionRegistry {
+
+    private static final MultiValueMap<String, String> NO_SUBSCRIPTIONS =
+            CollectionUtils.unmodifiableMultiValueMap(new LinkedMultiValueMap<>());
+
+    private final PathMatcher pathMatcher = new AntPathMatcher();
+    private final DefaultSubscriptionRegistry patternRegistry = new DefaultSubscriptionRegistry();
+    private String selectorHeaderName;
+
+    /** destination → sessionId → subscriptionId. */
+    private final Map<String, MultiValueMap<String, String>> byDestination = new ConcurrentHashMap<>();
+    /** sessionId → subscriptionId → destination, для отписки. */
+    private final Map<String, Map<String, String>> bySession = new ConcurrentHashMap<>();
+    /** sessionId → подписки, переданные стандартному регистру. */
+    private final Map<String, Set<String>> patternSubscriptions = new ConcurrentHashMap<>();
+
+    /**
+     * Заголовок SUBSCRIBE с SpEL-селектором, как у {@link DefaultSubscriptionRegistry};
+     * {@code null} — селекторы не поддерживаются (по умолчанию в Spring).
+     */
+    public void setSelectorHeaderName(String selectorHeaderName) {
+        this.selectorHeaderName = selectorHeaderName;
+        patternRegistry.setSelectorHeaderName(selectorHeaderName);
+    }
+
+    @Override
+    protected void addSubscriptionInternal(String sessionId, String subscriptionId, String destination, Message<?> message) {
+        if (pathMatcher.isPattern(destination) || hasSelector(message)) {
+            patternSubscriptions.computeIfAbsent(sessionId, id -> ConcurrentHashMap.newKeySet()).add(subscriptionId);
+            patternRegistry.registerSubscription(message);
+            return;
+        }
+        bySession.computeIfAbsent(sessionId, id -> new ConcurrentHashMap<>()).put(subscriptionId, destination);
+        byDestination.compute(destination, (key, current) -> with(current, sessionId, subscriptionId));
+    }
+
+    @Override
+    protected void removeSubscriptionInternal(String sessionId, String subscriptionId, Message<?> message) {
+        String[] destination = new String[1];
+        bySession.computeIfPresent(sessionId, (id, subscriptions) -> {
+            destination[0] = subscriptions.remove(subscriptionId);
+            return subscriptions.isEmpty() ? null : subscriptions;
+        });
+        if (destination[0] != null) {
+            byDestination.computeIfPresent(destination[0], (key, current) -> without(current, sessionId, subscriptionId));
+            return;
+        }
+        // пустой набор удаляется, иначе поиск навсегда теряет быстрый путь без стандартного регистра
+        boolean[] removed = new boolean[1];
+        patternSubscriptions.computeIfPresent(sessionId, (id, patterns) -> {
+            removed[0] = patterns.remove(subscriptionId);
+            return patterns.isEmpty() ? null : patterns;
+        });
+        if (removed[0]) {
+            patternRegistry.unregisterSubscription(message);
+        }
+    }
+
+    /**
+     * Число сессий с подписками, переданными стандартному регистру.
+     */
+    int patternSessionCount() {
+        return patternSubscriptions.size();
+    }
+
+    @Override
+    public void unregisterAllSubscriptions(String sessionId) {
+        Map<String, String> subscriptions = bySession.remove(sessionId);
+        if (subscriptions != null) {
+            subscriptions.forEach((subscriptionId, destination) ->
+                    byDestination.computeIfPresent(destination, (key, current) -> without(current, sessionId, subscriptionId)));
+        }
+        if (patternSubscriptions.remove(sessionId) != null) {
+            patternRegistry.unregisterAllSubscriptions(sessionId);
+        }
+    }
+
+    @Override
+    protected MultiValueMap<String, String> findSubscriptionsInternal(String destination, Message<?> message) {
+        MultiValueMap<String, String> exact = byDestination.get(destination);
+        if (patternSubscriptions.isEmpty()) {
+            return exact != null ? exact : NO_SUBSCRIPTIONS;
+        }
+        MultiValueMap<String, String> matched = patternRegistry.findSubscriptions(message);
+        if (exact == null || matched.isEmpty()) {
+            return exact == null ? matched : exact;
+        }
+        MultiValueMap<String, String> merged = copy(exact);
+        matched.forEach(merged::addAll);
+        return merged;
+    }
+
+    /**
+     * Число destinations с точными подписками.
+     */
+    public int destinationCount() {
+        return byDestination.size();
+    }
+
+    private boolean hasSelector(Message<?> message) {
+        return selectorHeaderName != null
+                && SimpMessageHeaderAccessor.getFirstNativeHeader(selectorHeaderName, message.getHeaders()) != null;
+    }
+
+    private static MultiValueMap<String, String> with(MultiValueMap<String, String> current,
+                                                      String sessionId, String subscriptionId) {
+        MultiValueMap<String, String> updated = current == null ? new LinkedMultiValueMap<>(2) : copy(current);
+        List<String> ids = updated.computeIfAbsent(sessionId, id -> new ArrayList<>(1));
+        if (!ids.contains(subscriptionId)) {
+            ids.add(subscriptionId);
+        }
+        return CollectionUtils.unmodifiableMultiValueMap(updated);
+    }
+
+    private static MultiValueMap<String, String> without(MultiValueMap<String, String> current,
+                                                         String sessionId, String subscriptionId) {
+        MultiValueMap<String, String> updated = copy(current);
+        List<String> ids = updated.get(sessionId);
+        if (ids != null) {
+            ids.remove(subscriptionId);
+            if (ids.isEmpty()) {
+                updated.remove(sessionId);
+            }
+        }
+        return updated.isEmpty() ? null : CollectionUtils.unmodifiableMultiValueMap(updated);
+    }
+
+    private static MultiValueMap<String, String> copy(MultiValueMap<String, String> source) {
+        MultiValueMap<String, String> copy = new LinkedMultiValueMap<>(source.size() + 1);
+        source.forEach((sessionId, ids) -> copy.put(sessionId, new ArrayList<>(ids)));
+        return copy;
+    }
+}
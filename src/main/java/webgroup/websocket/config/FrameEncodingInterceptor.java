@@ -0,0 +1,127 @@
+package webgroup.websocket.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+import webgroup.websocket.utils.FrameEncoding;
+import webgroup.websocket.utils.NotificationFrame;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Подменяет тело уведомления на CBOR и/или сжатое для сессий, выбравших это при CONNECT.
+ * Брокер рассылает по подписчикам одно сообщение, а кодировка известна только для сессии,
+ * поэтому выбор делается на clientOutboundChannel, где у сообщения уже есть sessionId.
+ * Spring отправляет бинарный WebSocket-кадр только для application/octet-stream, поэтому такие
+ * кадры уходят с этим content-type и заголовком {@value #ENCODING_HEADER}: cbor, json+deflate
+ * или cbor+deflate. SockJS передаёт только текст, бинарные кадры доступны на эндпоинте без SockJS.
+ * Кадры меньше {@code compression.minSize} не сжимаются.
+ */
+@Component
+@Slf4j
+public class FrameEncodingInterceptor implements ChannelInterceptor {
+
+    public static final String ENCODING_HEADER = "encoding";
+
+    private final WebSocketSessionRegistry sessionRegistry;
+    private final NotificationProperties.Compression compression;
+    private final long minCompressedSize;
+    private final Map<String, SessionEncoding> encodings = new ConcurrentHashMap<>();
+
+    private final Counter cborFrames;
+    private final Counter deflatedFrames;
+    private final DistributionSummary savedBytes;
+
+    public FrameEncodingInterceptor(WebSocketSessionRegistry sessionRegistry,
+                                    NotificationProperties properties,
+                                    MeterRegistry meterRegistry) {
+        this.sessionRegistry = sessionRegistry;
+        this.compression = properties.getCompression();
+        this.minCompressedSize = compression.getMinSize().toBytes();
+        this.cborFrames = Counter.builder("notification.frames.encoded")
+                .tag("encoding", "cbor")
+                .description("Уведомления, отправленные в CBOR")
+                .register(meterRegistry);
+        this.deflatedFrames = Counter.builder("notification.frames.encoded")
+                .tag("encoding", "deflate")
+                .description("Уведомления, отправленные сжатыми")
+                .register(meterRegistry);
+        this.savedBytes = DistributionSummary.builder("notification.compression.saved")
+                .baseUnit("bytes")
+                .description("Сэкономленные сжатием байты на кадр")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return кодировка, которая будет использоваться для сессии
+     */
+    public SessionEncoding negotiate(String sessionId, FrameEncoding requested, boolean deflate) {
+        SessionEncoding encoding = new SessionEncoding(requested, deflate && compression.isAppLevel());
+        if (encoding.equals(SessionEncoding.DEFAULT)) {
+            return SessionEncoding.DEFAULT;
+        }
+        if (!sessionRegistry.supportsBinary(sessionId)) {
+            log.debug("Сессия {} запросила {} через SockJS, используется JSON", sessionId, encoding);
+            return SessionEncoding.DEFAULT;
+        }
+        encodings.put(sessionId, encoding);
+        return encoding;
+    }
+
+    public void sessionClosed(String sessionId) {
+        encodings.remove(sessionId);
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        if (encodings.isEmpty()) {
+            return message;
+        }
+        MessageHeaders headers = message.getHeaders();
+        if (SimpMessageHeaderAccessor.getMessageType(headers) != SimpMessageType.MESSAGE
+                || !(headers.get(NotificationWebSocketSender.FRAME_HEADER) instanceof NotificationFrame frame)) {
+            return message;
+        }
+        SessionEncoding encoding = encodings.get(SimpMessageHeaderAccessor.getSessionId(headers));
+        if (encoding == null) {
+            return message;
+        }
+
+        boolean cbor = encoding.format() == FrameEncoding.CBOR && frame.hasCbor();
+        byte[] body = cbor ? frame.cborPayload() : frame.payload();
+        boolean deflate = encoding.deflate() && body.length >= minCompressedSize;
+        if (!cbor && !deflate) {
+            return message;
+        }
+        if (deflate) {
+            byte[] deflated = frame.deflated(cbor ? FrameEncoding.CBOR : FrameEncoding.JSON, compression.getLevel());
+            deflatedFrames.increment();
+            savedBytes.record(body.length - deflated.length);
+            body = deflated;
+        }
+        if (cbor) {
+            cborFrames.increment();
+        }
+
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+        accessor.setContentType(MimeTypeUtils.APPLICATION_OCTET_STREAM);
+        accessor.setNativeHeader(ENCODING_HEADER, (cbor ? "cbor" : "json") + (deflate ? "+deflate" : ""));
+        return MessageBuilder.createMessage(body, accessor.getMessageHeaders());
+    }
+
+    public record SessionEncoding(FrameEncoding format, boolean deflate) {
+
+        static final SessionEncoding DEFAULT = new SessionEncoding(FrameEncoding.JSON, false);
+    }
+}
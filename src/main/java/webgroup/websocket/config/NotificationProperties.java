@@ -0,0 +1,279 @@
+package webgroup.websocket.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "notification")
+public class NotificationProperties {
+
+    private FanOut fanOut = new FanOut();
+
+    private Retry retry = new Retry();
+
+    private Pending pending = new Pending();
+
+    private Delivery delivery = new Delivery();
+
+    private Replay replay = new Replay();
+
+    private Lanes lanes = new Lanes();
+
+    private Transport transport = new Transport();
+
+    private Coalescing coalescing = new Coalescing();
+
+    private Compression compression = new Compression();
+
+    private Execution execution = new Execution();
+
+    private Cluster cluster = new Cluster();
+
+    private DeliveryIndex deliveryIndex = new DeliveryIndex();
+
+    private Outbox outbox = new Outbox();
+
+    private Ingest ingest = new Ingest();
+
+    @Data
+    public static class FanOut {
+
+        private int corePoolSize = 4;
+
+        private int maxPoolSize = 8;
+
+        private int queueCapacity = 1000;
+
+        private Duration keepAlive = Duration.ofSeconds(60);
+
+        private RejectionPolicy rejectionPolicy = RejectionPolicy.ABORT;
+
+        private int batchSize = 1000;
+
+        private int chunkSize = 500;
+    }
+
+    @Data
+    public static class Retry {
+
+        private int maxAttempts = 3;
+
+        private Duration initialDelay = Duration.ofMillis(200);
+
+        private double multiplier = 2.0;
+
+        private Duration maxDelay = Duration.ofSeconds(10);
+
+        /** Доля случайного разброса задержки, 0.2 = ±20%. */
+        private double jitter = 0.2;
+
+        private int threads = 1;
+    }
+
+    @Data
+    public static class Pending {
+
+        /** Шаг колеса таймеров доставки отложенных уведомлений. */
+        private Duration tick = Duration.ofSeconds(1);
+
+        /** Число корзин колеса, степень двойки. */
+        private int wheelSize = 4096;
+
+        /** Максимум уведомлений в одном кадре /topic/pending. */
+        private int drainPageSize = 200;
+
+        /** Через сколько повторить доставку отложенных уведомлений, если она завершилась ошибкой. */
+        private Duration retryDelay = Duration.ofSeconds(30);
+    }
+
+    @Data
+    public static class Delivery {
+
+        /** Максимум неподтверждённых уведомлений на пользователя. */
+        private int windowSize = 32;
+
+        /** Время ожидания ack до повторной отправки. */
+        private Duration ackTimeout = Duration.ofSeconds(10);
+
+        /** Число повторных отправок без ack, после которых уведомление уходит в pending. */
+        private int maxRedeliveries = 3;
+    }
+
+    @Data
+    public static class Replay {
+
+        /** Максимум уведомлений в буфере одного пользователя. */
+        private int bufferSize = 64;
+
+        /** Сколько хранятся уведомления в буфере; столько же ждём переподключения перед переносом в pending. */
+        private Duration maxAge = Duration.ofMinutes(2);
+
+        /** Общий лимит памяти всех буферов. */
+        private DataSize maxMemory = DataSize.ofMegabytes(64);
+    }
+
+    @Data
+    public static class Lanes {
+
+        /** Число полос доставки; 0 — по числу ядер. */
+        private int count = 0;
+
+        /** Глубина полосы, после которой рассылка откладывает уведомления в pending. */
+        private int queueCapacity = 10000;
+    }
+
+    @Data
+    public static class Transport {
+
+        /** Максимальное время одной отправки в сессию; дольше — сессия закрывается. */
+        private Duration sendTimeLimit = Duration.ofSeconds(10);
+
+        /** Лимит исходящего буфера сессии, пока предыдущая отправка не завершилась. */
+        private DataSize sendBufferSizeLimit = DataSize.ofKilobytes(512);
+
+        /** Максимальный размер входящего STOMP-сообщения. */
+        private DataSize messageSizeLimit = DataSize.ofKilobytes(64);
+
+        /** Что делать, когда клиент не успевает подтверждать уведомления и его окно заполнено. */
+        private SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.DISCONNECT_TO_PENDING;
+
+        /** Максимум уведомлений в одной сводке при политике COALESCE. */
+        private int coalesceMaxEvents = 100;
+    }
+
+    @Data
+    public static class Coalescing {
+
+        /** Сколько копить уведомления пользователя перед отправкой одной сводкой, например 200ms; 0 — не копить. */
+        private Duration linger = Duration.ZERO;
+
+        /** Сводка отправляется сразу, набрав столько уведомлений. */
+        private int maxBatch = 50;
+    }
+
+    @Data
+    public static class Compression {
+
+        /** Разрешить расширение permessage-deflate, если его предлагает клиент; сжимает все кадры сессии. */
+        private boolean permessageDeflate = true;
+
+        /** Сжатие отдельных кадров для клиентов, передавших encoding: deflate при CONNECT. */
+        private boolean appLevel = true;
+
+        /**
+         * Кадры меньше этого размера отправляются несжатыми: одиночное уведомление сжимается
+         * лишь на десятую часть, а кадр до 1 КБ и без сжатия укладывается в один TCP-сегмент.
+         */
+        private DataSize minSize = DataSize.ofKilobytes(1);
+
+        /** Уровень сжатия DEFLATE от 1 (быстрее) до 9 (плотнее). */
+        private int level = 1;
+    }
+
+    @Data
+    public static class Execution {
+
+        /**
+         * Виртуальные потоки для clientInbound/clientOutbound каналов, воркеров рассылки и
+         * (через spring.threads.virtual.enabled) обработки REST-запросов.
+         */
+        private boolean virtualThreads = false;
+
+        /** Потоки clientInboundChannel в режиме платформенных потоков; 0 — значение Spring по умолчанию. */
+        private int inboundThreads = 0;
+
+        /** Потоки clientOutboundChannel в режиме платформенных потоков; 0 — значение Spring по умолчанию. */
+        private int outboundThreads = 0;
+    }
+
+    @Data
+    public static class Cluster {
+
+        /** Идентификатор узла в кластере; пусто — случайный при запуске. */
+        private String nodeId = "";
+
+        /** Сообщения другому узлу уходят одной пачкой, как только их столько накопится. */
+        private int batchSize = 500;
+
+        /** Сколько копить сообщения другому узлу перед отправкой пачки. */
+        private Duration linger = Duration.ofMillis(5);
+
+        /** Точек кольца согласованного хеширования на узел; больше — равномернее доли узлов. */
+        private int virtualNodes = 128;
+
+        /** Как часто узел сообщает остальным, что он работает. */
+        private Duration heartbeatInterval = Duration.ofSeconds(1);
+
+        /**
+         * Узел, от которого столько времени не было ни одной пачки, считается упавшим и исключается
+         * из кольца: его доля переходит к остальным, а рассылки перестают ждать его подтверждений.
+         */
+        private Duration nodeTimeout = Duration.ofSeconds(10);
+
+        /**
+         * Как часто индекс расписаний сверяется с базой: подхватывает правки, сделанные в обход
+         * приложения или потерянные при доставке между узлами; 0 — не сверять.
+         */
+        private Duration scheduleResync = Duration.ofMinutes(5);
+    }
+
+    @Data
+    public static class DeliveryIndex {
+
+        /** На сколько связей user_event рассчитан фильтр; при превышении растёт доля ложных срабатываний. */
+        private long expectedLinks = 10_000_000;
+
+        /** Доля ложных срабатываний, перепроверяемых запросом к user_event. */
+        private double falsePositiveRate = 0.01;
+    }
+
+    @Data
+    public static class Outbox {
+
+        /** Сколько строк outbox забирает воркер за один запрос. */
+        private int batchSize = 100;
+
+        /** Воркеров ретранслятора на узле. */
+        private int workers = 2;
+
+        /** На сколько строка закрепляется за узлом; если рассылка не завершилась, строку заберёт другой воркер. */
+        private Duration lease = Duration.ofMinutes(5);
+
+        /** Опрос outbox без уведомления LISTEN/NOTIFY: страховка от потерянных уведомлений и истёкших закреплений. */
+        private Duration pollInterval = Duration.ofSeconds(5);
+
+        /** Задержка повторной попытки, когда очередь рассылки заполнена. */
+        private Duration retryDelay = Duration.ofSeconds(1);
+
+        /** Число попыток рассылки, после которого строка удаляется с ошибкой в журнале. */
+        private int maxAttempts = 5;
+    }
+
+    @Data
+    public static class Ingest {
+
+        /** Наибольшее число событий в одном запросе POST /events/batch. */
+        private int maxBatchSize = 1000;
+    }
+
+    public enum SlowConsumerPolicy {
+        /** Вытеснить самое старое неподтверждённое уведомление и отправить новое. */
+        DROP_OLDEST,
+        /** Копить уведомления и отправить их одной сводкой, когда клиент подтвердит окно. */
+        COALESCE,
+        /** Перенести неподтверждённое в pending_notification и закрыть сессии пользователя. */
+        DISCONNECT_TO_PENDING
+    }
+
+    public enum RejectionPolicy {
+        /** Отклонить событие, контроллер ответит 503. */
+        ABORT,
+        /** Выполнить рассылку в вызывающем потоке (естественный backpressure). */
+        CALLER_RUNS,
+        /** Вытеснить самое старое событие из очереди. */
+        DISCARD_OLDEST
+    }
+}
@@ -2,13 +2,15 @@ package webgroup.websocket.config;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.stereotype.Component;
 import webgroup.websocket.services.UserPresenceService;
-
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import webgroup.websocket.utils.DeliveryResult;
+import webgroup.websocket.utils.NotificationFrame;
 
 @Component
 @RequiredArgsConstructor
@@ -16,40 +18,55 @@ import java.util.concurrent.ConcurrentHashMap;
 public class NotificationWebSocketSender {
 
     private final SimpMessagingTemplate messagingTemplate;
-    private final Set<Long> onlineUsers = ConcurrentHashMap.newKeySet();
-    private final Map<String, Long> sessionUserMap = new ConcurrentHashMap<>();
     private final UserPresenceService userPresenceService;
 
-    public void registerSession(String sessionId, Long userId) {
-        sessionUserMap.put(sessionId, userId);
-        onlineUsers.add(userId);
-        log.info("Сессия зарегистрирована: sessionId={}, userId={}. Онлайн: {}", sessionId, userId, onlineUsers.size());
+    public static final String SEQ_HEADER = "seq";
+
+    /** Заголовок сообщения (не STOMP) с исходным кадром для перекодирования под сессию. */
+    public static final String FRAME_HEADER = "notificationFrame";
+
+    /**
+     * Отправляет уведомление с номером последовательности в нативном заголовке {@value #SEQ_HEADER},
+     * которым клиент подтверждает получение.
+     */
+    public DeliveryResult sendToUser(Long userId, NotificationFrame frame, long seq) {
+        return send(userId, "/topic/notify/" + userId, frame, seq);
     }
 
-    public void unregisterSession(String sessionId) {
-        Long userId = sessionUserMap.remove(sessionId);
-        if (userId != null) {
-            onlineUsers.remove(userId);
-            log.info("Сессия удалена: sessionId={}, userId={}. Онлайн: {}", sessionId, userId, onlineUsers.size());
-        } else {
-            log.warn("Попытка удалить неизвестную сессию: sessionId={}", sessionId);
-        }
+    public DeliveryResult sendPendingToUser(Long userId, NotificationFrame frame) {
+        return send(userId, "/topic/pending/" + userId, frame, 0);
     }
 
-    public boolean sendToUser(Long userId, String message) {
+    private DeliveryResult send(Long userId, String destination, NotificationFrame frame, long seq) {
         if (!userPresenceService.isUserOnline(userId)) {
-            log.warn("Пользователь {} не в сети. Сообщение не отправлено: {}", userId, message);
-            return false;
+            log.debug("Пользователь {} не в сети. Уведомление eventId={} не отправлено", userId, frame.eventId());
+            return DeliveryResult.OFFLINE;
         }
 
         try {
-            messagingTemplate.convertAndSend("/topic/notify/" + userId, message);
-            log.info("Сообщение отправлено пользователю {}: {}", userId, message);
-            return true;
+            messagingTemplate.send(destination, toMessage(destination, frame, seq));
+            log.debug("Уведомление eventId={} отправлено пользователю {}", frame.eventId(), userId);
+            return DeliveryResult.SENT;
         } catch (Exception e) {
             log.error("Не удалось отправить сообщение пользователю {}. Ошибка: {}", userId, e.getMessage(), e);
-            return false;
+            return DeliveryResult.FAILED;
+        }
+    }
+
+    /**
+     * Тело кадра общее для всех получателей, поэтому конвертация сообщения не нужна —
+     * для каждого получателя создаются только заголовки с его destination.
+     */
+    private static Message<byte[]> toMessage(String destination, NotificationFrame frame, long seq) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(destination);
+        accessor.setContentType(frame.contentType());
+        accessor.setHeader(FRAME_HEADER, frame);
+        if (seq > 0) {
+            accessor.setNativeHeader(SEQ_HEADER, Long.toString(seq));
         }
+        accessor.setLeaveMutable(true);
+        return MessageBuilder.createMessage(frame.payload(), accessor.getMessageHeaders());
     }
 
     public void sendToTopic(String destination, String payload) {
@@ -1,15 +1,26 @@
 package webgroup.websocket.config;
 
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
 import org.springframework.web.socket.config.annotation.*;
 
 @Configuration
 @EnableWebSocketMessageBroker
+@RequiredArgsConstructor
 @Slf4j
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
+    private final NotificationProperties properties;
+    private final WebSocketSessionRegistry sessionRegistry;
+    private final FrameEncodingInterceptor frameEncodingInterceptor;
+
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
         config.enableSimpleBroker("/topic");
@@ -18,16 +29,79 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
     }
 
 
+    /**
+     * Простой брокер получает {@link ExactMatchSubscriptionRegistry}: в Spring нет настройки
+     * регистра подписок для simple broker, поэтому он подменяется до инициализации бина.
+     */
+    @Bean
+    public static BeanPostProcessor subscriptionRegistryPostProcessor() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean instanceof SimpleBrokerMessageHandler broker) {
+                    broker.setSubscriptionRegistry(new ExactMatchSubscriptionRegistry());
+                }
+                return bean;
+            }
+        };
+    }
+
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
+        boolean permessageDeflate = properties.getCompression().isPermessageDeflate();
         registry.addEndpoint("/ws")
-                .setHandshakeHandler(new CustomHandshakeHandler())
+                .setHandshakeHandler(new CustomHandshakeHandler(permessageDeflate))
                 .setAllowedOriginPatterns("*")
                 .withSockJS();
 
-        log.info("STOMP endpoint зарегистрирован: '/ws' с SockJS и CORS='*'");
+        // без SockJS: клиенты с бинарными кадрами (CBOR)
+        registry.addEndpoint("/ws-native")
+                .setHandshakeHandler(new CustomHandshakeHandler(permessageDeflate))
+                .setAllowedOriginPatterns("*");
+
+        log.info("STOMP endpoint зарегистрирован: '/ws' с SockJS и '/ws-native' без SockJS, CORS='*'");
     }
-}
 
+    /**
+     * Пока в сессию идёт отправка, остальные кадры для неё копятся в буфере сессии, и поток
+     * clientOutboundChannel освобождается сразу — медленный клиент держит не больше одного потока
+     * и не дольше sendTimeLimit. Превысившую лимиты сессию Spring закрывает.
+     */
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        NotificationProperties.Transport transport = properties.getTransport();
+        registration.setSendTimeLimit((int) transport.getSendTimeLimit().toMillis())
+                .setSendBufferSizeLimit((int) transport.getSendBufferSizeLimit().toBytes())
+                .setMessageSizeLimit((int) transport.getMessageSizeLimit().toBytes())
+                .addDecoratorFactory(sessionRegistry);
 
+        log.info("Лимиты транспорта: sendTimeLimit={}, sendBufferSizeLimit={}, messageSizeLimit={}, политика отстающих={}",
+                transport.getSendTimeLimit(), transport.getSendBufferSizeLimit(), transport.getMessageSizeLimit(),
+                transport.getSlowConsumerPolicy());
+    }
 
+    /**
+     * Обработчики /app/ping и /app/ack не обращаются к базе в потоке канала: доставка pending
+     * уходит в полосу пользователя, подтверждение обрабатывается в памяти. Поэтому режим
+     * виртуальных потоков на пропускную способность канала почти не влияет, сравнение —
+     * ExecutionModeBenchmark.
+     */
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        configureExecutor(registration, "ws-inbound-", properties.getExecution().getInboundThreads());
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        configureExecutor(registration, "ws-outbound-", properties.getExecution().getOutboundThreads());
+        registration.interceptors(frameEncodingInterceptor);
+    }
+
+    private void configureExecutor(ChannelRegistration registration, String threadNamePrefix, int threads) {
+        if (properties.getExecution().isVirtualThreads()) {
+            registration.executor(new VirtualThreadTaskExecutor(threadNamePrefix));
+        } else if (threads > 0) {
+            registration.taskExecutor().corePoolSize(threads).maxPoolSize(threads);
+        }
+    }
+}
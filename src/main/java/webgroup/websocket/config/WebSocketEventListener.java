@@ -3,10 +3,22 @@ package webgroup.websocket.config;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.messaging.SessionConnectedEvent;
 import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import webgroup.websocket.services.ClusterRouter;
+import webgroup.websocket.services.DeliveryTracker;
+import webgroup.websocket.services.PendingDeliveryScheduler;
+import webgroup.websocket.services.UserPresenceService;
+import webgroup.websocket.utils.FrameEncoding;
+
+import java.security.Principal;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 @Component
@@ -14,21 +26,38 @@ import org.springframework.web.socket.messaging.SessionDisconnectEvent;
 @Slf4j
 public class WebSocketEventListener {
 
-    private final NotificationWebSocketSender webSocketSender;
+    private final UserPresenceService userPresenceService;
+    private final PendingDeliveryScheduler pendingDeliveryScheduler;
+    private final DeliveryTracker deliveryTracker;
+    private final FrameEncodingInterceptor frameEncodingInterceptor;
+    private final ClusterRouter clusterRouter;
+
+    /** lastSeq из CONNECT до подписки на /topic/notify; {@link #NO_SEQ} — клиент его не передал. */
+    private final Map<String, Long> pendingResumes = new ConcurrentHashMap<>();
+    private static final long NO_SEQ = -1;
 
     @EventListener
     public void handleSessionConnected(SessionConnectedEvent event) {
         StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
-        String userIdStr = accessor.getFirstNativeHeader("userId");
         String sessionId = accessor.getSessionId();
+        String userIdStr = resolveUserId(accessor, event.getUser());
 
         log.debug("Новое WebSocket-соединение: sessionId={}, rawUserId={}", sessionId, userIdStr);
 
         if (userIdStr != null) {
             try {
                 Long userId = Long.parseLong(userIdStr);
-                webSocketSender.registerSession(sessionId, userId);
+                if (userPresenceService.sessionConnected(sessionId, userId)) {
+                    clusterRouter.userOnline(userId);
+                }
                 log.info("Пользователь {} подключился по WebSocket (sessionId={})", userId, sessionId);
+                Long lastSeq = resolveLastSeq(accessor, sessionId);
+                pendingResumes.put(sessionId, lastSeq == null ? NO_SEQ : lastSeq);
+                String encodingHeader = connectHeader(accessor, FrameEncodingInterceptor.ENCODING_HEADER);
+                FrameEncoding requested = FrameEncoding.fromHeaders(encodingHeader, connectHeader(accessor, "content-type"));
+                FrameEncodingInterceptor.SessionEncoding encoding = frameEncodingInterceptor.negotiate(
+                        sessionId, requested, FrameEncoding.requestsDeflate(encodingHeader));
+                log.debug("Кодировка уведомлений сессии {}: {}", sessionId, encoding);
             } catch (NumberFormatException e) {
                 log.warn("Ошибка парсинга userId='{}' из заголовка. sessionId={}", userIdStr, sessionId);
             }
@@ -37,17 +66,81 @@ public class WebSocketEventListener {
         }
     }
 
+    /**
+     * Досылка выполняется после подписки: брокер отдаёт сообщения только существующим подпискам,
+     * и всё, что отправлено до SUBSCRIBE, клиент не получит.
+     */
     @EventListener
-    public void handleSessionDisconnect(SessionDisconnectEvent event) {
+    public void handleSessionSubscribe(SessionSubscribeEvent event) {
         StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
         String sessionId = accessor.getSessionId();
+        Long userId = userPresenceService.userOfSession(sessionId);
+        String destination = accessor.getDestination();
+        if (userId == null || destination == null) {
+            return;
+        }
+
+        if (destination.equals("/topic/notify/" + userId)) {
+            Long lastSeq = pendingResumes.remove(sessionId);
+            if (lastSeq != null) {
+                deliveryTracker.userConnected(userId, lastSeq == NO_SEQ ? null : lastSeq);
+            }
+        } else if (destination.equals("/topic/pending/" + userId)) {
+            pendingDeliveryScheduler.userConnected(userId);
+        }
+    }
+
+    @EventListener
+    public void handleSessionDisconnect(SessionDisconnectEvent event) {
+        String sessionId = event.getSessionId();
+        pendingResumes.remove(sessionId);
+        frameEncodingInterceptor.sessionClosed(sessionId);
 
         log.debug("Отключение WebSocket-сессии: sessionId={}", sessionId);
-        webSocketSender.unregisterSession(sessionId);
+        UserPresenceService.SessionClosed closed = userPresenceService.sessionDisconnected(sessionId);
         log.info("Отключен пользователь WebSocket-сессии: sessionId={}", sessionId);
+        if (closed != null && closed.lastSession()) {
+            deliveryTracker.userDisconnected(closed.userId());
+            clusterRouter.userOffline(closed.userId());
+        }
     }
-}
-
 
+    /**
+     * userId берётся из нативного заголовка исходного CONNECT-кадра (CONNECTED-событие несёт его
+     * во вложенном сообщении), иначе — из Principal, определённого при рукопожатии.
+     */
+    private String resolveUserId(StompHeaderAccessor accessor, Principal principal) {
+        String userId = connectHeader(accessor, "userId");
+        if (userId != null) {
+            return userId;
+        }
+        return principal != null && !"anonymous".equals(principal.getName()) ? principal.getName() : null;
+    }
 
+    /**
+     * Последний номер последовательности, полученный клиентом до разрыва, из заголовка lastSeq.
+     */
+    private Long resolveLastSeq(StompHeaderAccessor accessor, String sessionId) {
+        String lastSeq = connectHeader(accessor, "lastSeq");
+        if (lastSeq == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(lastSeq);
+        } catch (NumberFormatException e) {
+            log.warn("Ошибка парсинга lastSeq='{}' из заголовка. sessionId={}", lastSeq, sessionId);
+            return null;
+        }
+    }
 
+    private static String connectHeader(StompHeaderAccessor accessor, String name) {
+        Object connectMessage = accessor.getHeader(SimpMessageHeaderAccessor.CONNECT_MESSAGE_HEADER);
+        if (connectMessage instanceof Message<?> message) {
+            String value = StompHeaderAccessor.wrap(message).getFirstNativeHeader(name);
+            if (value != null) {
+                return value;
+            }
+        }
+        return accessor.getFirstNativeHeader(name);
+    }
+}
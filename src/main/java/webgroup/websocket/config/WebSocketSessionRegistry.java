@@ -0,0 +1,98 @@
+package webgroup.websocket.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketHandlerDecoratorFactory;
+import org.springframework.web.socket.sockjs.transport.SockJsSession;
+import webgroup.websocket.services.UserPresenceService;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Открытые WebSocket-сессии по id для принудительного закрытия отстающих клиентов.
+ * Подключается декоратором транспорта, поэтому видит и закрытия самого Spring: сессию, превысившую
+ * sendTimeLimit или sendBufferSizeLimit, он закрывает со статусом SESSION_NOT_RELIABLE.
+ */
+@Component
+@Slf4j
+public class WebSocketSessionRegistry implements WebSocketHandlerDecoratorFactory {
+
+    /** Статус закрытия сессий, отключённых политикой DISCONNECT_TO_PENDING. */
+    public static final CloseStatus SLOW_CONSUMER = CloseStatus.POLICY_VIOLATION.withReason("slow consumer");
+
+    private final UserPresenceService userPresenceService;
+    private final Map<String, WebSocketSession> sessions = new ConcurrentHashMap<>();
+    private final Counter transportLimitCounter;
+
+    public WebSocketSessionRegistry(UserPresenceService userPresenceService, MeterRegistry meterRegistry) {
+        this.userPresenceService = userPresenceService;
+        this.transportLimitCounter = Counter.builder("notification.slow.consumer")
+                .tag("policy", "transport_limit")
+                .description("Сессии, закрытые из-за лимитов отправки транспорта")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                sessions.put(session.getId(), session);
+                super.afterConnectionEstablished(session);
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                sessions.remove(session.getId());
+                if (closeStatus.equalsCode(CloseStatus.SESSION_NOT_RELIABLE)) {
+                    transportLimitCounter.increment();
+                    log.warn("Сессия {} закрыта по лимиту отправки: {}", session.getId(), closeStatus);
+                }
+                super.afterConnectionClosed(session, closeStatus);
+            }
+        };
+    }
+
+    /**
+     * Закрывает все сессии пользователя; отключение обрабатывается обычным SessionDisconnectEvent.
+     *
+     * @return число закрытых сессий
+     */
+    public int closeUserSessions(Long userId, CloseStatus status) {
+        int closed = 0;
+        for (String sessionId : userPresenceService.sessionsOf(userId)) {
+            WebSocketSession session = sessions.get(sessionId);
+            if (session == null || !session.isOpen()) {
+                continue;
+            }
+            try {
+                session.close(status);
+                closed++;
+            } catch (IOException e) {
+                log.warn("Не удалось закрыть сессию {} пользователя {}: {}", sessionId, userId, e.getMessage());
+            }
+        }
+        return closed;
+    }
+
+    /**
+     * Можно ли отправлять в сессию бинарные кадры: SockJS передаёт только текст.
+     */
+    public boolean supportsBinary(String sessionId) {
+        WebSocketSession session = sessions.get(sessionId);
+        return session != null && !(session instanceof SockJsSession);
+    }
+
+    public int sessionCount() {
+        return sessions.size();
+    }
+}
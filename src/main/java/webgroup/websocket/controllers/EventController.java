@@ -6,11 +6,10 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import webgroup.websocket.config.NotificationProperties;
+import webgroup.websocket.dto.EventBatchResultDTO;
 import webgroup.websocket.dto.EventDTO;
-import webgroup.websocket.entities.Event;
-import webgroup.websocket.mappers.EventMapper;
 import webgroup.websocket.services.EventService;
-import webgroup.websocket.services.NotificationService;
 
 import java.util.List;
 
@@ -24,9 +23,12 @@ import jakarta.validation.Valid;
 public class EventController {
 
     private final EventService eventService;
-    private final NotificationService notificationService;
-    private final EventMapper eventMapper;
+    private final NotificationProperties notificationProperties;
 
+    /**
+     * Событие сохраняется вместе со строкой outbox и рассылается ретранслятором,
+     * поэтому ответ 202 не ждёт постановки в очередь рассылки.
+     */
     @PostMapping
     public ResponseEntity<EventDTO> createEvent(@Valid @RequestBody EventDTO eventDto) {
         log.info("Получен запрос на создание события: {}", eventDto.getMessage());
@@ -38,19 +40,30 @@ public class EventController {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
 
-        log.info("Событие успешно сохранено: ID={}, message={}", savedDto.getId(), savedDto.getMessage());
+        log.info("Событие успешно сохранено и поставлено в outbox: ID={}, message={}", savedDto.getId(), savedDto.getMessage());
+        return ResponseEntity.accepted().body(savedDto);
+    }
 
-        try {
-            Event savedEntity = eventMapper.toEntity(savedDto); // преобразуем DTO в Entity
-            notificationService.processEvent(savedEntity);      // передаём сущность в сервис
-        } catch (Exception ex) {
-            log.error("Ошибка при обработке события в NotificationService: {}", ex.getMessage(), ex);
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(savedDto);
+    /**
+     * Пачка событий сохраняется одним запросом и рассылается за один проход по аудитории.
+     * Ошибки проверки не отклоняют весь запрос: результат возвращается для каждого элемента,
+     * 400 — только если не принято ни одно событие.
+     */
+    @PostMapping("/batch")
+    public ResponseEntity<List<EventBatchResultDTO>> createEvents(@RequestBody List<EventDTO> eventDtos) {
+        int maxBatchSize = notificationProperties.getIngest().getMaxBatchSize();
+        if (eventDtos.isEmpty() || eventDtos.size() > maxBatchSize) {
+            log.warn("Пачка из {} событий отклонена: допустимо от 1 до {}", eventDtos.size(), maxBatchSize);
+            return ResponseEntity.badRequest().build();
         }
+        log.info("Получен запрос на создание пачки из {} событий", eventDtos.size());
 
-        return ResponseEntity.ok(savedDto);
-    }
+        List<EventBatchResultDTO> results = eventService.saveAll(eventDtos);
 
+        boolean anyAccepted = results.stream()
+                .anyMatch(result -> result.getStatus() == EventBatchResultDTO.Status.ACCEPTED);
+        return anyAccepted ? ResponseEntity.accepted().body(results) : ResponseEntity.badRequest().body(results);
+    }
 
     @GetMapping
     public List<EventDTO> getAllEvents() {
@@ -4,6 +4,7 @@ package webgroup.websocket.controllers;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import webgroup.websocket.services.ClusterRouter;
 import webgroup.websocket.services.UserPresenceService;
 
 @RestController
@@ -11,10 +12,11 @@ import webgroup.websocket.services.UserPresenceService;
 public class UserIsOnlineController {
 
     private final UserPresenceService userPresenceService;
+    private final ClusterRouter clusterRouter;
 
     @GetMapping("/api/user/online")
     public ResponseEntity<Boolean> isUserOnline(@RequestParam Long userId) {
-        boolean result = userPresenceService.isUserOnline(userId);
+        boolean result = userPresenceService.isUserOnline(userId) || clusterRouter.isOnlineElsewhere(userId);
         return ResponseEntity.ok(result);
     }
 }
@@ -4,10 +4,13 @@ package webgroup.websocket.controllers;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.stereotype.Controller;
 
 import webgroup.websocket.entities.AckMessage;
+import webgroup.websocket.services.DeliveryTracker;
 import webgroup.websocket.services.NotificationService;
+import webgroup.websocket.services.UserPresenceService;
 
 
 import java.util.Map;
@@ -19,24 +22,44 @@ import java.util.Map;
 public class WebSocketController {
 
     private final NotificationService notificationService;
+    private final DeliveryTracker deliveryTracker;
+    private final UserPresenceService userPresenceService;
 
-    public WebSocketController(NotificationService notificationService) {
+    public WebSocketController(NotificationService notificationService,
+                               DeliveryTracker deliveryTracker,
+                               UserPresenceService userPresenceService) {
         this.notificationService = notificationService;
-
+        this.deliveryTracker = deliveryTracker;
+        this.userPresenceService = userPresenceService;
     }
 
+    /**
+     * messageId — номер последовательности из заголовка seq полученного уведомления.
+     * Подтверждение относится к пользователю, за которым закреплена сессия при подключении;
+     * userId из тела сообщения не используется, иначе клиент мог бы подтвердить чужие уведомления.
+     */
     @MessageMapping("/ack")
-    public void handleAck(AckMessage ackMessage) {
-        log.info("Подтверждение получено в вебсокет контроллер: userId={}, eventId={}",
-                ackMessage.getUserId(), ackMessage.getMessageId());
-
+    public void handleAck(AckMessage ackMessage, SimpMessageHeaderAccessor headerAccessor) {
+        String sessionId = headerAccessor.getSessionId();
+        Long userId = sessionId == null ? null : userPresenceService.userOfSession(sessionId);
+        log.debug("Подтверждение получено в вебсокет контроллер: sessionId={}, userId={}, seq={}",
+                sessionId, userId, ackMessage.getMessageId());
+        if (userId == null) {
+            log.warn("Подтверждение от сессии {} без пользователя отклонено", sessionId);
+            return;
+        }
+        if (ackMessage.getMessageId() == null) {
+            log.warn("Подтверждение без номера последовательности от userId={}", userId);
+            return;
+        }
+        deliveryTracker.ack(userId, ackMessage.getMessageId());
     }
 
     @MessageMapping("/ping")
     public void requestPendingNotifications(@Payload Map<String, Long> payload) {
         Long userId = payload.get("userId");
         log.info("Получен запрос на отложенные уведомления от userId={}", userId);
-        notificationService.sendPendingToFront(userId);
+        notificationService.drainPending(userId);
     }
 
 }
\ No newline at end of file
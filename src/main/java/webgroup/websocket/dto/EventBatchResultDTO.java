@@ -0,0 +1,40 @@
+package webgroup.websocket.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Результат одного элемента запроса POST /events/batch.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class EventBatchResultDTO {
+
+    /** Позиция события в запросе. */
+    private int index;
+
+    private Status status;
+
+    /** ID сохранённого события; {@code null}, если событие отклонено. */
+    private Long id;
+
+    /** Причины отклонения. */
+    private List<String> errors;
+
+    public static EventBatchResultDTO accepted(int index, Long id) {
+        return new EventBatchResultDTO(index, Status.ACCEPTED, id, List.of());
+    }
+
+    public static EventBatchResultDTO rejected(int index, List<String> errors) {
+        return new EventBatchResultDTO(index, Status.REJECTED, null, errors);
+    }
+
+    public enum Status {
+        ACCEPTED,
+        REJECTED
+    }
+}
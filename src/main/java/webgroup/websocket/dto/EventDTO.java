@@ -3,6 +3,7 @@ package webgroup.websocket.dto;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.PastOrPresent;
+import jakarta.validation.constraints.Size;
 import lombok.Data;
 
 import java.time.LocalDateTime;
@@ -13,6 +14,7 @@ public class EventDTO {
     private Long id;
 
     @NotBlank(message = "Сообщение события не может быть пустым")
+    @Size(max = 255, message = "Сообщение события не может быть длиннее 255 символов")
     private String message;
 
     @NotNull(message = "Время события должно быть указано")
@@ -0,0 +1,21 @@
+package webgroup.websocket.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PendingNotificationDTO {
+
+    private Long id;
+
+    private Long eventId;
+
+    private String message;
+
+    private LocalDateTime scheduledTime;
+}
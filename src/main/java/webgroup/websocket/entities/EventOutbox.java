@@ -0,0 +1,31 @@
+package webgroup.websocket.entities;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * Событие, ожидающее рассылки. Строка пишется в одной транзакции с событием и удаляется,
+ * когда рассылка завершена; запись и выборка идут через {@code EventOutboxRepository}.
+ */
+@Entity
+@Data
+@Table(name = "event_outbox", indexes = {
+        @Index(columnList = "lockedUntil")
+})
+public class EventOutbox {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    private Long eventId;
+
+    private LocalDateTime createdAt;
+
+    /** До этого момента строка закреплена за воркером, забравшим её. */
+    private LocalDateTime lockedUntil;
+
+    private int attempts;
+}
@@ -0,0 +1,129 @@
+package webgroup.websocket.repositories;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+import webgroup.websocket.entities.Event;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Outbox рассылки событий на JDBC. Строка добавляется в транзакции сохранения события вместе
+ * с {@code pg_notify}, который Postgres доставляет слушателям только после коммита. Воркеры
+ * забирают строки пачками через {@code FOR UPDATE SKIP LOCKED}: параллельные воркеры и узлы
+ * получают непересекающиеся пачки, не дожидаясь друг друга. Забранная строка закрепляется
+ * на время lease и удаляется после рассылки; если узел упал, строку заберут после истечения lease.
+ */
+@Repository
+@Slf4j
+public class EventOutboxRepository {
+
+    public static final String CHANNEL = "event_outbox";
+
+    private static final String APPEND =
+            "WITH entry AS (INSERT INTO event_outbox (event_id, created_at, locked_until, attempts) " +
+                    "VALUES (?, now(), now(), 0) RETURNING id) " +
+                    "SELECT pg_notify('" + CHANNEL + "', id::text) FROM entry";
+
+    /**
+     * id событий берутся из последовательности заранее, чтобы вернуть их в порядке входных массивов;
+     * пачке достаточно одного NOTIFY — воркер заберёт все её строки.
+     */
+    private static final String INSERT_EVENTS_AND_APPEND =
+            "WITH input AS (SELECT nextval(pg_get_serial_sequence('event', 'id')) AS id, message, occurred_at, ord " +
+                    "FROM unnest(?::text[], ?::timestamp[]) WITH ORDINALITY AS t(message, occurred_at, ord)), " +
+                    "saved AS (INSERT INTO event (id, message, occurred_at) " +
+                    "SELECT id, message, occurred_at FROM input RETURNING id), " +
+                    "entry AS (INSERT INTO event_outbox (event_id, created_at, locked_until, attempts) " +
+                    "SELECT id, now(), now(), 0 FROM saved RETURNING id), " +
+                    "notified AS (SELECT pg_notify('" + CHANNEL + "', max(id)::text) FROM entry) " +
+                    "SELECT input.id FROM input, notified ORDER BY input.ord";
+
+    private static final String CLAIM =
+            "UPDATE event_outbox SET locked_until = now() + ? * interval '1 millisecond', attempts = attempts + 1 " +
+                    "WHERE id IN (SELECT id FROM event_outbox WHERE locked_until <= now() " +
+                    "ORDER BY id LIMIT ? FOR UPDATE SKIP LOCKED) " +
+                    "RETURNING id, event_id, attempts, created_at";
+
+    private static final String RELEASE =
+            "UPDATE event_outbox SET locked_until = now() + ? * interval '1 millisecond', attempts = attempts - 1 " +
+                    "WHERE id = ANY (?)";
+
+    private static final String DELETE = "DELETE FROM event_outbox WHERE id = ANY (?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public EventOutboxRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Добавляет событие в outbox; вызывается внутри транзакции сохранения события.
+     */
+    public void append(Long eventId) {
+        jdbcTemplate.query(APPEND, (RowCallbackHandler) rs -> {
+        }, eventId);
+        log.debug("Событие ID={} добавлено в outbox", eventId);
+    }
+
+    /**
+     * Сохраняет события и ставит их в outbox одним запросом; вызывается внутри транзакции.
+     *
+     * @return id сохранённых событий в порядке {@code events}
+     */
+    public List<Long> insertEventsAndAppend(List<Event> events) {
+        if (events.isEmpty()) {
+            return List.of();
+        }
+        List<Long> ids = jdbcTemplate.query(INSERT_EVENTS_AND_APPEND, ps -> {
+            ps.setArray(1, ps.getConnection().createArrayOf("text",
+                    events.stream().map(Event::getMessage).toArray()));
+            ps.setArray(2, ps.getConnection().createArrayOf("timestamp",
+                    events.stream().map(event -> Timestamp.valueOf(event.getOccurredAt())).toArray()));
+        }, (rs, rowNum) -> rs.getLong(1));
+        log.debug("Сохранено и добавлено в outbox событий: {}", ids.size());
+        return ids;
+    }
+
+    /**
+     * Забирает до {@code limit} свободных строк и закрепляет их на {@code lease}.
+     */
+    public List<Claim> claim(int limit, Duration lease) {
+        return jdbcTemplate.query(CLAIM, (rs, rowNum) -> new Claim(
+                rs.getLong("id"),
+                rs.getLong("event_id"),
+                rs.getInt("attempts"),
+                rs.getTimestamp("created_at").toLocalDateTime()), lease.toMillis(), limit);
+    }
+
+    /**
+     * Возвращает строки в outbox через {@code delay}, не засчитывая попытку.
+     */
+    public void release(Collection<Long> ids, Duration delay) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.update(RELEASE, ps -> {
+            ps.setLong(1, delay.toMillis());
+            ps.setArray(2, ps.getConnection().createArrayOf("bigint", ids.toArray()));
+        });
+    }
+
+    public int delete(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        return jdbcTemplate.update(DELETE, ps -> ps.setArray(1, ps.getConnection().createArrayOf("bigint", ids.toArray())));
+    }
+
+    /**
+     * Строка outbox, закреплённая за воркером.
+     */
+    public record Claim(long id, long eventId, int attempts, LocalDateTime createdAt) {
+    }
+}
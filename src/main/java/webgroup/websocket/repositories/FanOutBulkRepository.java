@@ -0,0 +1,131 @@
+package webgroup.websocket.repositories;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import webgroup.websocket.config.NotificationProperties;
+import webgroup.websocket.entities.PendingNotification;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * Пакетная запись результатов рассылки в обход Hibernate: при {@code GenerationType.IDENTITY}
+ * Hibernate не умеет батчить вставки, поэтому связи user_event и строки pending_notification
+ * пишутся JDBC-батчами с {@code ON CONFLICT DO NOTHING}.
+ */
+@Repository
+@Slf4j
+public class FanOutBulkRepository {
+
+    private static final String SELECT_LINKED_USERS =
+            "SELECT user_id FROM user_event WHERE event_id = ? AND user_id = ANY (?)";
+
+    private static final String INSERT_USER_EVENT =
+            "INSERT INTO user_event (user_id, event_id) VALUES (?, ?) ON CONFLICT DO NOTHING";
+
+    private static final String SELECT_ALL_LINKS = "SELECT user_id, event_id FROM user_event";
+
+    private static final String INSERT_PENDING =
+            "INSERT INTO pending_notification (user_id, event_id, scheduled_time) VALUES (?, ?, ?) " +
+                    "ON CONFLICT (user_id, event_id) DO NOTHING";
+
+    private static final String SELECT_EARLIEST_PENDING =
+            "SELECT user_id, MIN(scheduled_time) FROM pending_notification GROUP BY user_id";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final JdbcTemplate streamingJdbcTemplate;
+    private final int batchSize;
+
+    public FanOutBulkRepository(JdbcTemplate jdbcTemplate, NotificationProperties properties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.batchSize = properties.getFanOut().getBatchSize();
+        // курсор Postgres работает только внутри транзакции и при заданном fetchSize
+        this.streamingJdbcTemplate = new JdbcTemplate(jdbcTemplate.getDataSource());
+        this.streamingJdbcTemplate.setFetchSize(batchSize);
+    }
+
+    public Set<Long> findUserIdsLinkedToEvent(Long eventId, Collection<Long> userIds) {
+        Set<Long> linked = new HashSet<>();
+        if (userIds.isEmpty()) {
+            return linked;
+        }
+        jdbcTemplate.query(SELECT_LINKED_USERS, ps -> {
+            ps.setLong(1, eventId);
+            ps.setArray(2, ps.getConnection().createArrayOf("bigint", userIds.toArray()));
+        }, rs -> {
+            linked.add(rs.getLong(1));
+        });
+        return linked;
+    }
+
+    public int linkUsersToEvent(Long eventId, Collection<Long> userIds) {
+        if (userIds.isEmpty()) {
+            return 0;
+        }
+        int[][] results = jdbcTemplate.batchUpdate(INSERT_USER_EVENT, userIds, batchSize, (ps, userId) -> {
+            ps.setLong(1, userId);
+            ps.setLong(2, eventId);
+        });
+        int inserted = countInserted(results);
+        log.debug("Событие {} привязано к {} пользователям ({} строк вставлено)", eventId, userIds.size(), inserted);
+        return inserted;
+    }
+
+    public int insertPendingNotifications(Collection<PendingNotification> pendingNotifications) {
+        if (pendingNotifications.isEmpty()) {
+            return 0;
+        }
+        int[][] results = jdbcTemplate.batchUpdate(INSERT_PENDING, pendingNotifications, batchSize, (ps, pending) -> {
+            ps.setLong(1, pending.getUserId());
+            ps.setLong(2, pending.getEventId());
+            ps.setTimestamp(3, Timestamp.valueOf(pending.getScheduledTime()));
+        });
+        int inserted = countInserted(results);
+        log.debug("Записано {} отложенных уведомлений одним батчем ({} строк вставлено)",
+                pendingNotifications.size(), inserted);
+        return inserted;
+    }
+
+    /**
+     * Потоково отдаёт ближайшее время доставки отложенных уведомлений по каждому пользователю.
+     */
+    @Transactional(readOnly = true)
+    public long forEachEarliestPending(BiConsumer<Long, LocalDateTime> consumer) {
+        long[] count = {0};
+        streamingJdbcTemplate.query(SELECT_EARLIEST_PENDING, rs -> {
+            consumer.accept(rs.getLong(1), rs.getTimestamp(2).toLocalDateTime());
+            count[0]++;
+        });
+        return count[0];
+    }
+
+    /**
+     * Потоково отдаёт все связи пользователь — событие.
+     */
+    @Transactional(readOnly = true)
+    public long forEachLink(BiConsumer<Long, Long> consumer) {
+        long[] count = {0};
+        streamingJdbcTemplate.query(SELECT_ALL_LINKS, rs -> {
+            consumer.accept(rs.getLong(1), rs.getLong(2));
+            count[0]++;
+        });
+        return count[0];
+    }
+
+    private static int countInserted(int[][] results) {
+        int inserted = 0;
+        for (int[] batch : results) {
+            for (int count : batch) {
+                // при reWriteBatchedInserts драйвер возвращает SUCCESS_NO_INFO (-2)
+                inserted += Math.max(count, 0);
+            }
+        }
+        return inserted;
+    }
+}
@@ -1,13 +1,19 @@
 package webgroup.websocket.repositories;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import webgroup.websocket.entities.NotificationPeriod;
 
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface NotificationPeriodRepository extends JpaRepository<NotificationPeriod, Long> {
     List<NotificationPeriod> findByUserId(Long userId);
+
+    @Query("SELECT p.user.id FROM NotificationPeriod p WHERE p.id = :id")
+    Optional<Long> findUserIdById(@Param("id") Long id);
 }
 
@@ -1,7 +1,11 @@
 package webgroup.websocket.repositories;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import webgroup.websocket.dto.PendingNotificationDTO;
 import webgroup.websocket.entities.PendingNotification;
 
 import java.util.List;
@@ -16,5 +20,12 @@ public interface PendingNotificationRepository extends JpaRepository<PendingNoti
     boolean existsByUserIdAndEventId(Long userId, Long eventId);
 
     Optional<PendingNotification> findByUserIdAndEventId(Long userId, Long eventId);
+
+    @Query("SELECT new webgroup.websocket.dto.PendingNotificationDTO(p.id, e.id, e.message, p.scheduledTime) " +
+            "FROM PendingNotification p JOIN Event e ON e.id = p.eventId " +
+            "WHERE p.userId = :userId AND p.id > :afterId ORDER BY p.id")
+    List<PendingNotificationDTO> findPageWithEvents(@Param("userId") Long userId,
+                                                    @Param("afterId") Long afterId,
+                                                    Pageable pageable);
 }
 
@@ -0,0 +1,36 @@
+package webgroup.websocket.services;
+
+import java.util.List;
+
+/**
+ * Транспорт между узлами кластера. Узел получает только пачки, адресованные ему или всем;
+ * порядок пачек от одного отправителя сохраняется. По умолчанию используется
+ * {@link LoopbackClusterBus}; другой транспорт (Redis pub/sub, Kafka и т.п.) подключается
+ * объявлением своего бина ClusterBus.
+ */
+public interface ClusterBus {
+
+    /** Адрес для рассылки всем узлам, кроме отправителя. */
+    String BROADCAST = "*";
+
+    String nodeId();
+
+    /**
+     * Подключает узел к шине: с этого момента входящие пачки передаются {@code receiver}.
+     */
+    void join(Receiver receiver);
+
+    /**
+     * Отправляет пачку сообщений узлу {@code targetNode} или всем ({@link #BROADCAST}).
+     * Пачка для неизвестного узла отбрасывается.
+     */
+    void send(String targetNode, List<ClusterMessage> batch);
+
+    void leave();
+
+    @FunctionalInterface
+    interface Receiver {
+
+        void receive(String fromNode, List<ClusterMessage> batch);
+    }
+}
@@ -0,0 +1,11 @@
+package webgroup.websocket.services;
+
+import webgroup.websocket.entities.Event;
+
+import java.util.List;
+
+/**
+ * Другой узел кластера передал уведомление о событии пользователям, подключённым к этому узлу.
+ */
+public record ClusterDeliveryEvent(Event event, List<Long> userIds) {
+}
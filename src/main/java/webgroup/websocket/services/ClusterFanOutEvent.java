@@ -0,0 +1,12 @@
+package webgroup.websocket.services;
+
+import webgroup.websocket.entities.Event;
+
+import java.util.List;
+
+/**
+ * События созданы на другом узле кластера; этот узел выполняет рассылку своей доле пользователей
+ * за один проход по аудитории и подтверждает пачку {@code batchId} узлу {@code originNode}.
+ */
+public record ClusterFanOutEvent(List<Event> events, String originNode, long batchId) {
+}
@@ -0,0 +1,69 @@
+package webgroup.websocket.services;
+
+import java.time.LocalDateTime;
+
+/**
+ * Сообщения между узлами кластера. Простые record без ссылок на сущности JPA, поэтому
+ * транспорт {@link ClusterBus} может передавать их как есть или сериализовать.
+ */
+public sealed interface ClusterMessage {
+
+    /** Узел запущен: остальные добавляют его в кольцо и присылают присутствие перешедших к нему пользователей. */
+    record Hello(String nodeId) implements ClusterMessage {
+    }
+
+    /** Узел остановлен: его доля пользователей переходит к остальным. */
+    record Leave(String nodeId) implements ClusterMessage {
+    }
+
+    /**
+     * Узел работает. Рассылается всем раз в {@code heartbeatInterval}; узел, от которого
+     * дольше {@code nodeTimeout} не было ни одной пачки, исключается из кольца как упавший.
+     */
+    record Heartbeat(String nodeId) implements ClusterMessage {
+    }
+
+    /**
+     * Первая сессия пользователя на узле открыта ({@code online}) или последняя закрыта.
+     * Отправляется только узлу-владельцу пользователя.
+     */
+    record Presence(String nodeId, long userId, boolean online) implements ClusterMessage {
+    }
+
+    /**
+     * Ответ на {@link Hello}: пользователи, подключённые к отправителю и принадлежащие получателю;
+     * заменяет прежние сведения получателя об этом узле.
+     */
+    record PresenceSnapshot(String nodeId, long[] userIds) implements ClusterMessage {
+    }
+
+    /** Уведомление о событии для пользователей, чьи сессии открыты на узле-получателе. */
+    record Deliver(long eventId, String message, LocalDateTime occurredAt, long[] userIds) implements ClusterMessage {
+    }
+
+    /** Наступило время доставки отложенных уведомлений пользователей, подключённых к узлу-получателю. */
+    record PendingDue(long[] userIds) implements ClusterMessage {
+    }
+
+    /**
+     * Новое событие: каждый узел выполняет рассылку для своей доли пользователей и подтверждает
+     * пачку {@code batchId} отправителю сообщением {@link FanOutDone}.
+     */
+    record FanOut(long batchId, long eventId, String message, LocalDateTime occurredAt) implements ClusterMessage {
+    }
+
+    /** Узел {@code nodeId} разослал свою долю пачки {@code batchId}. */
+    record FanOutDone(String nodeId, long batchId) implements ClusterMessage {
+    }
+
+    /**
+     * Пользователи или их периоды уведомлений изменены через узел-отправитель:
+     * остальные узлы перечитывают их расписания из базы.
+     */
+    record ScheduleChanged(long[] userIds) implements ClusterMessage {
+    }
+
+    /** Отложенное уведомление пользователя записано не его владельцем; таймер заводит владелец. */
+    record PendingScheduled(long userId, LocalDateTime scheduledTime) implements ClusterMessage {
+    }
+}
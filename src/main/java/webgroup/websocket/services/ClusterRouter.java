@@ -0,0 +1,622 @@
+package webgroup.websocket.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import webgroup.websocket.config.NotificationProperties;
+import webgroup.websocket.entities.Event;
+import webgroup.websocket.utils.ConsistentHashRing;
+import webgroup.websocket.utils.UserBitmap;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Маршрутизация доставки между узлами кластера через {@link ClusterBus}.
+ * Пространство userId поделено между узлами кольцом {@link ConsistentHashRing}: владелец
+ * пользователя выполняет для него рассылку событий и таймеры отложенных уведомлений и знает,
+ * к каким узлам пользователь подключён. Узел с сессией сообщает владельцу об открытии первой
+ * и закрытии последней сессии; уведомление пользователю, подключённому к другому узлу,
+ * владелец передаёт этому узлу вместо записи в pending_notification.
+ * Когда узел подключается или уходит, кольцо перестраивается, и к новым владельцам переходят
+ * только пользователи изменившихся долей: узлы с их сессиями повторно сообщают присутствие,
+ * а таймеры новые владельцы загружают из pending_notification.
+ * Сообщения каждому узлу копятся до linger или batchSize и уходят одной пачкой, уведомления
+ * об одном событии в пачке объединяются в одно сообщение со списком userId.
+ * Рассылка события другим узлам подтверждается каждым из них; пачка считается разосланной,
+ * только когда подтвердили все узлы кольца на момент отправки. Если кольцо изменилось или
+ * подтверждение не пришло за {@code outbox.lease}, ожидание снимается без завершения: строку
+ * outbox заберут повторно, а уже связанные с событием пользователи будут пропущены.
+ * Узел, от которого дольше {@code nodeTimeout} не было ни одной пачки, включая {@link ClusterMessage.Heartbeat},
+ * исключается из кольца так же, как при {@link ClusterMessage.Leave}: упавший узел не оставляет
+ * свою долю без владельца, а повторные рассылки больше не ждут его подтверждения.
+ */
+@Service
+@Slf4j
+public class ClusterRouter implements SmartInitializingSingleton {
+
+    private final ClusterBus bus;
+    private final UserPresenceService userPresenceService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final String nodeId;
+    private final int batchSize;
+    private final long lingerMillis;
+    private final int virtualNodes;
+    private final long fanOutAckTimeoutMillis;
+    private final long heartbeatMillis;
+    private final long nodeTimeoutMillis;
+
+    private volatile ConsistentHashRing ring;
+    /** Пользователи этого узла → другие узлы, к которым они подключены. */
+    private final Map<Long, Set<String>> remoteOwners = new ConcurrentHashMap<>();
+    private final Map<String, Outbox> outboxes = new ConcurrentHashMap<>();
+    /** Пачки рассылки этого узла → узлы, которые ещё не подтвердили свою долю. */
+    private final Map<Long, PendingFanOut> pendingFanOuts = new ConcurrentHashMap<>();
+    /** Узлы кольца → время последней пачки от них. */
+    private final Map<String, Long> lastSeen = new ConcurrentHashMap<>();
+    private final AtomicLong fanOutBatches = new AtomicLong();
+    private final List<LongConsumer> remoteOnlineListeners = new CopyOnWriteArrayList<>();
+    private final List<BiConsumer<Long, LocalDateTime>> pendingScheduledListeners = new CopyOnWriteArrayList<>();
+    private final List<LongConsumer> scheduleChangedListeners = new CopyOnWriteArrayList<>();
+    private final List<BiConsumer<ConsistentHashRing, ConsistentHashRing>> ringListeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService ticker;
+
+    private final Counter forwardedDeliveries;
+    private final Counter forwardedPendingDue;
+    private final DistributionSummary batchSizes;
+
+    public ClusterRouter(ClusterBus bus,
+                         UserPresenceService userPresenceService,
+                         ApplicationEventPublisher eventPublisher,
+                         NotificationProperties properties,
+                         MeterRegistry meterRegistry) {
+        this.bus = bus;
+        this.userPresenceService = userPresenceService;
+        this.eventPublisher = eventPublisher;
+        this.nodeId = bus.nodeId();
+
+        NotificationProperties.Cluster config = properties.getCluster();
+        this.batchSize = Math.max(1, config.getBatchSize());
+        this.lingerMillis = Math.max(1, config.getLinger().toMillis());
+        this.virtualNodes = config.getVirtualNodes();
+        this.fanOutAckTimeoutMillis = properties.getOutbox().getLease().toMillis();
+        this.heartbeatMillis = Math.max(1, config.getHeartbeatInterval().toMillis());
+        this.nodeTimeoutMillis = Math.max(2 * heartbeatMillis, config.getNodeTimeout().toMillis());
+        this.ring = ConsistentHashRing.of(List.of(nodeId), virtualNodes);
+        this.ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cluster-router");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.forwardedDeliveries = Counter.builder("notification.cluster.forwarded")
+                .description("Уведомления и доставки pending, переданные другому узлу")
+                .tag("kind", "deliver")
+                .register(meterRegistry);
+        this.forwardedPendingDue = Counter.builder("notification.cluster.forwarded")
+                .description("Уведомления и доставки pending, переданные другому узлу")
+                .tag("kind", "pending_due")
+                .register(meterRegistry);
+        this.batchSizes = DistributionSummary.builder("notification.cluster.batch.size")
+                .description("Сообщений в одной пачке между узлами")
+                .register(meterRegistry);
+        Gauge.builder("notification.cluster.remote.users", remoteOwners, Map::size)
+                .description("Пользователи этого узла, подключённые к другим узлам")
+                .register(meterRegistry);
+        Gauge.builder("notification.cluster.fanout.pending", pendingFanOuts, Map::size)
+                .description("Пачки рассылки, ожидающие подтверждения других узлов")
+                .register(meterRegistry);
+        Gauge.builder("notification.cluster.nodes", this, router -> router.ring.nodes().size())
+                .description("Узлы в кольце")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Подключается к шине; остальные узлы добавят этот узел в кольцо и пришлют присутствие
+     * пользователей, перешедших к нему.
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        bus.join(this::receive);
+        bus.send(ClusterBus.BROADCAST, List.of(new ClusterMessage.Hello(nodeId)));
+        ticker.scheduleWithFixedDelay(this::flush, lingerMillis, lingerMillis, TimeUnit.MILLISECONDS);
+        ticker.scheduleWithFixedDelay(this::heartbeat, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+        log.info("Узел {} подключён к шине кластера", nodeId);
+    }
+
+    public String nodeId() {
+        return nodeId;
+    }
+
+    public boolean owns(Long userId) {
+        return ring.ownerOf(userId).equals(nodeId);
+    }
+
+    public String ownerOf(Long userId) {
+        return ring.ownerOf(userId);
+    }
+
+    public ConsistentHashRing ring() {
+        return ring;
+    }
+
+    /**
+     * Пользователи множества, принадлежащие этому узлу. Единственный узел владеет всеми,
+     * и множество возвращается без копирования.
+     */
+    public RoaringBitmap owned(RoaringBitmap users) {
+        ConsistentHashRing current = ring;
+        if (current.nodes().size() == 1 && current.contains(nodeId)) {
+            return users;
+        }
+        RoaringBitmap owned = new RoaringBitmap();
+        users.forEach((int key) -> {
+            if (current.ownerOf(UserBitmap.userId(key)).equals(nodeId)) {
+                owned.add(key);
+            }
+        });
+        return owned;
+    }
+
+    /** Первая сессия пользователя на этом узле открыта. */
+    public void userOnline(Long userId) {
+        String owner = ring.ownerOf(userId);
+        if (!owner.equals(nodeId)) {
+            enqueue(owner, new ClusterMessage.Presence(nodeId, userId, true));
+        }
+    }
+
+    /** Последняя сессия пользователя на этом узле закрыта. */
+    public void userOffline(Long userId) {
+        String owner = ring.ownerOf(userId);
+        if (!owner.equals(nodeId)) {
+            enqueue(owner, new ClusterMessage.Presence(nodeId, userId, false));
+        }
+    }
+
+    /**
+     * Передаёт события остальным узлам: каждый выполнит рассылку своей доле пользователей.
+     * События одного вызова уходят подряд и на узле-получателе рассылаются за один проход.
+     *
+     * @param onCompleted вызывается, когда свою долю подтвердили все остальные узлы кольца;
+     *                    не вызывается, если подтверждения не дождались
+     */
+    public void broadcastFanOut(List<Event> events, Runnable onCompleted) {
+        Set<String> peers = ConcurrentHashMap.newKeySet();
+        ring.nodes().stream().filter(node -> !node.equals(nodeId)).forEach(peers::add);
+        if (peers.isEmpty()) {
+            onCompleted.run();
+            return;
+        }
+        long batchId = fanOutBatches.incrementAndGet();
+        pendingFanOuts.put(batchId, new PendingFanOut(peers, onCompleted, System.currentTimeMillis()));
+        for (Event event : events) {
+            enqueue(ClusterBus.BROADCAST,
+                    new ClusterMessage.FanOut(batchId, event.getId(), event.getMessage(), event.getOccurredAt()));
+        }
+    }
+
+    /**
+     * Доля этого узла в пачке {@code batchId} узла {@code originNode} разослана.
+     */
+    public void fanOutCompleted(String originNode, long batchId) {
+        enqueue(originNode, new ClusterMessage.FanOutDone(nodeId, batchId));
+    }
+
+    public int pendingFanOutCount() {
+        return pendingFanOuts.size();
+    }
+
+    /**
+     * Отложенное уведомление чужого пользователя записано этим узлом: таймер заводит владелец.
+     */
+    public void forwardPendingScheduled(Long userId, LocalDateTime scheduledTime) {
+        enqueue(ring.ownerOf(userId), new ClusterMessage.PendingScheduled(userId, scheduledTime));
+    }
+
+    /**
+     * Расписание пользователя изменено через этот узел: остальные узлы перечитают его из базы,
+     * чтобы аудитория владельца пользователя учитывала правку.
+     */
+    public void broadcastScheduleChanged(Long userId) {
+        enqueue(ClusterBus.BROADCAST, new ClusterMessage.ScheduleChanged(new long[]{userId}));
+    }
+
+    public boolean isOnlineElsewhere(Long userId) {
+        return userId != null && remoteOwners.containsKey(userId);
+    }
+
+    public int remoteUserCount() {
+        return remoteOwners.size();
+    }
+
+    /**
+     * Передаёт уведомление всем другим узлам, к которым подключён пользователь.
+     *
+     * @return {@code false}, если пользователь не подключён к другим узлам
+     */
+    public boolean forward(Long userId, Event event) {
+        Set<String> owners = remoteOwners.get(userId);
+        if (owners == null) {
+            return false;
+        }
+        for (String owner : owners) {
+            Outbox outbox = outboxes.computeIfAbsent(owner, node -> new Outbox());
+            if (outbox.addDelivery(event, userId) >= batchSize) {
+                flush(owner, outbox);
+            }
+            forwardedDeliveries.increment();
+        }
+        return true;
+    }
+
+    /**
+     * Передаёт наступившую доставку отложенных уведомлений узлам, к которым подключён пользователь.
+     *
+     * @return {@code false}, если пользователь не подключён к другим узлам
+     */
+    public boolean forwardPendingDue(Long userId) {
+        Set<String> owners = remoteOwners.get(userId);
+        if (owners == null) {
+            return false;
+        }
+        for (String owner : owners) {
+            Outbox outbox = outboxes.computeIfAbsent(owner, node -> new Outbox());
+            if (outbox.addPendingDue(userId) >= batchSize) {
+                flush(owner, outbox);
+            }
+            forwardedPendingDue.increment();
+        }
+        return true;
+    }
+
+    /**
+     * Вызывается на потоке приёма, когда пользователь подключился к другому узлу.
+     */
+    public void onRemoteUserOnline(LongConsumer listener) {
+        remoteOnlineListeners.add(listener);
+    }
+
+    /**
+     * Вызывается на потоке приёма, когда другой узел записал отложенное уведомление пользователя этого узла.
+     */
+    public void onPendingScheduled(BiConsumer<Long, LocalDateTime> listener) {
+        pendingScheduledListeners.add(listener);
+    }
+
+    /**
+     * Вызывается на потоке приёма для каждого пользователя, расписание которого изменено через другой узел.
+     */
+    public void onScheduleChanged(LongConsumer listener) {
+        scheduleChangedListeners.add(listener);
+    }
+
+    /**
+     * Вызывается с прежним и новым кольцом после подключения или ухода узла.
+     */
+    public void onRingChanged(BiConsumer<ConsistentHashRing, ConsistentHashRing> listener) {
+        ringListeners.add(listener);
+    }
+
+    void flush() {
+        try {
+            expireFanOuts();
+            outboxes.forEach(this::flush);
+        } catch (Exception e) {
+            log.error("Ошибка отправки пачек другим узлам: {}", e.getMessage(), e);
+        }
+    }
+
+    void heartbeat() {
+        try {
+            bus.send(ClusterBus.BROADCAST, List.of(new ClusterMessage.Heartbeat(nodeId)));
+            dropSilentNodes();
+        } catch (Exception e) {
+            log.error("Ошибка проверки узлов кластера: {}", e.getMessage(), e);
+        }
+    }
+
+    private void dropSilentNodes() {
+        long now = System.currentTimeMillis();
+        for (String node : ring.nodes()) {
+            if (node.equals(nodeId)) {
+                continue;
+            }
+            long seen = lastSeen.computeIfAbsent(node, id -> now);
+            if (now - seen > nodeTimeoutMillis) {
+                log.warn("Узел {} не отвечает {} мс и исключается из кольца", node, now - seen);
+                dropNode(node);
+            }
+        }
+    }
+
+    private void dropNode(String node) {
+        lastSeen.remove(node);
+        forgetNode(node);
+        outboxes.remove(node);
+        changeRing(ring.without(node, virtualNodes), null);
+    }
+
+    private void expireFanOuts() {
+        long deadline = System.currentTimeMillis() - fanOutAckTimeoutMillis;
+        pendingFanOuts.entrySet().removeIf(entry -> {
+            if (entry.getValue().startedAt() > deadline) {
+                return false;
+            }
+            log.warn("Пачка рассылки {} не подтверждена узлами {}, строки outbox будут забраны повторно",
+                    entry.getKey(), entry.getValue().peers());
+            return true;
+        });
+    }
+
+    private void flush(String targetNode, Outbox outbox) {
+        List<ClusterMessage> batch = outbox.drain();
+        if (batch.isEmpty()) {
+            return;
+        }
+        batchSizes.record(batch.size());
+        bus.send(targetNode, batch);
+    }
+
+    private void enqueue(String targetNode, ClusterMessage message) {
+        Outbox outbox = outboxes.computeIfAbsent(targetNode, node -> new Outbox());
+        if (outbox.add(message) >= batchSize) {
+            flush(targetNode, outbox);
+        }
+    }
+
+    void receive(String fromNode, List<ClusterMessage> batch) {
+        boolean membership = batch.size() == 1
+                && (batch.get(0) instanceof ClusterMessage.Hello || batch.get(0) instanceof ClusterMessage.Leave);
+        lastSeen.put(fromNode, System.currentTimeMillis());
+        if (!membership && !ring.contains(fromNode)) {
+            // пачка пришла раньше, чем этот узел узнал об отправителе, или отправитель был исключён
+            // по таймауту; в ответ на Hello он пришлёт присутствие своих пользователей этого узла
+            changeRing(ring.with(fromNode, virtualNodes), null);
+            bus.send(fromNode, List.of(new ClusterMessage.Hello(nodeId)));
+        }
+        Map<Long, List<Event>> fanOuts = new LinkedHashMap<>();
+        for (ClusterMessage message : batch) {
+            switch (message) {
+                case ClusterMessage.Hello hello -> {
+                    changeRing(ring.with(hello.nodeId(), virtualNodes), hello.nodeId());
+                    bus.send(hello.nodeId(), List.of(
+                            new ClusterMessage.PresenceSnapshot(nodeId, localUsersOwnedBy(hello.nodeId()))));
+                    log.info("Узел {} подключился к кластеру, узлов в кольце: {}", hello.nodeId(), ring.nodes().size());
+                }
+                case ClusterMessage.Leave leave -> {
+                    dropNode(leave.nodeId());
+                    log.info("Узел {} покинул кластер, узлов в кольце: {}", leave.nodeId(), ring.nodes().size());
+                }
+                case ClusterMessage.Heartbeat heartbeat -> {
+                    // время последней пачки уже отмечено
+                }
+                case ClusterMessage.Presence presence -> {
+                    if (!owns(presence.userId())) {
+                        // отправитель ещё не знает о новом владельце; узнав, он сообщит присутствие ему
+                        log.debug("Присутствие пользователя {} от узла {} адресовано не владельцу",
+                                presence.userId(), presence.nodeId());
+                    } else if (presence.online()) {
+                        addOwner(presence.userId(), presence.nodeId());
+                    } else {
+                        removeOwner(presence.userId(), presence.nodeId());
+                    }
+                }
+                case ClusterMessage.PresenceSnapshot snapshot -> {
+                    forgetNode(snapshot.nodeId());
+                    for (long userId : snapshot.userIds()) {
+                        addOwner(userId, snapshot.nodeId());
+                    }
+                    log.info("Получено присутствие узла {}: пользователей {}",
+                            snapshot.nodeId(), snapshot.userIds().length);
+                }
+                case ClusterMessage.Deliver deliver -> eventPublisher.publishEvent(
+                        new ClusterDeliveryEvent(toEvent(deliver), boxed(deliver.userIds())));
+                case ClusterMessage.PendingDue due -> eventPublisher.publishEvent(
+                        new PendingNotificationsDueEvent(boxed(due.userIds())));
+                case ClusterMessage.FanOut fanOut ->
+                        fanOuts.computeIfAbsent(fanOut.batchId(), id -> new ArrayList<>()).add(toEvent(fanOut));
+                case ClusterMessage.FanOutDone done -> acknowledgeFanOut(done.batchId(), done.nodeId());
+                case ClusterMessage.ScheduleChanged changed -> {
+                    for (long userId : changed.userIds()) {
+                        for (LongConsumer listener : scheduleChangedListeners) {
+                            listener.accept(userId);
+                        }
+                    }
+                }
+                case ClusterMessage.PendingScheduled scheduled -> {
+                    for (BiConsumer<Long, LocalDateTime> listener : pendingScheduledListeners) {
+                        listener.accept(scheduled.userId(), scheduled.scheduledTime());
+                    }
+                }
+            }
+        }
+        fanOuts.forEach((batchId, events) ->
+                eventPublisher.publishEvent(new ClusterFanOutEvent(events, fromNode, batchId)));
+    }
+
+    private void acknowledgeFanOut(long batchId, String peer) {
+        Runnable[] completed = new Runnable[1];
+        pendingFanOuts.computeIfPresent(batchId, (id, pending) -> {
+            pending.peers().remove(peer);
+            if (!pending.peers().isEmpty()) {
+                return pending;
+            }
+            completed[0] = pending.onCompleted();
+            return null;
+        });
+        if (completed[0] != null) {
+            completed[0].run();
+        }
+    }
+
+    /**
+     * Перестраивает кольцо. Пользователи этого узла, сменившие владельца, сообщаются новым
+     * владельцам (кроме {@code announcedTo}, которому присутствие отправляется снимком),
+     * а сведения о присутствии пользователей, ушедших к другим узлам, забываются.
+     */
+    private synchronized void changeRing(ConsistentHashRing updated, String announcedTo) {
+        ConsistentHashRing previous = ring;
+        if (updated == previous) {
+            return;
+        }
+        ring = updated;
+        if (!pendingFanOuts.isEmpty()) {
+            // доли узлов изменились: подтверждения по прежнему кольцу не гарантируют полноту рассылки
+            log.warn("Кольцо изменилось, {} пачек рассылки будут разосланы повторно", pendingFanOuts.size());
+            pendingFanOuts.clear();
+        }
+
+        userPresenceService.forEachOnlineUser(userId -> {
+            String owner = updated.ownerOf(userId);
+            if (!owner.equals(nodeId) && !owner.equals(announcedTo) && !owner.equals(previous.ownerOf(userId))) {
+                enqueue(owner, new ClusterMessage.Presence(nodeId, userId, true));
+            }
+        });
+        remoteOwners.keySet().removeIf(userId -> !updated.ownerOf(userId).equals(nodeId));
+
+        for (BiConsumer<ConsistentHashRing, ConsistentHashRing> listener : ringListeners) {
+            listener.accept(previous, updated);
+        }
+    }
+
+    private long[] localUsersOwnedBy(String owner) {
+        ConsistentHashRing current = ring;
+        return Arrays.stream(userPresenceService.onlineUsersSnapshot())
+                .filter(userId -> current.ownerOf(userId).equals(owner))
+                .toArray();
+    }
+
+    private void addOwner(long userId, String owner) {
+        remoteOwners.compute(userId, (id, nodes) -> {
+            Set<String> updated = nodes == null ? ConcurrentHashMap.newKeySet() : nodes;
+            updated.add(owner);
+            return updated;
+        });
+        for (LongConsumer listener : remoteOnlineListeners) {
+            listener.accept(userId);
+        }
+    }
+
+    private void removeOwner(long userId, String owner) {
+        remoteOwners.computeIfPresent(userId, (id, nodes) -> {
+            nodes.remove(owner);
+            return nodes.isEmpty() ? null : nodes;
+        });
+    }
+
+    /**
+     * Обходит всех удалённых пользователей, поэтому только для подключения и ухода узла.
+     */
+    private void forgetNode(String owner) {
+        for (Long userId : remoteOwners.keySet()) {
+            removeOwner(userId, owner);
+        }
+    }
+
+    private static Event toEvent(ClusterMessage.Deliver deliver) {
+        return toEvent(deliver.eventId(), deliver.message(), deliver.occurredAt());
+    }
+
+    private static Event toEvent(ClusterMessage.FanOut fanOut) {
+        return toEvent(fanOut.eventId(), fanOut.message(), fanOut.occurredAt());
+    }
+
+    private static Event toEvent(long eventId, String message, LocalDateTime occurredAt) {
+        Event event = new Event();
+        event.setId(eventId);
+        event.setMessage(message);
+        event.setOccurredAt(occurredAt);
+        return event;
+    }
+
+    private static List<Long> boxed(long[] userIds) {
+        return Arrays.stream(userIds).boxed().toList();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ticker.shutdownNow();
+        flush();
+        bus.send(ClusterBus.BROADCAST, List.of(new ClusterMessage.Leave(nodeId)));
+        bus.leave();
+    }
+
+    /**
+     * Сообщения одному узлу до следующей отправки. Уведомления группируются по событию.
+     */
+    private static final class Outbox {
+
+        private final List<ClusterMessage> messages = new ArrayList<>();
+        private final Map<Long, PendingDelivery> deliveries = new LinkedHashMap<>();
+        private final List<Long> pendingDue = new ArrayList<>();
+        private int size;
+
+        synchronized int add(ClusterMessage message) {
+            messages.add(message);
+            return ++size;
+        }
+
+        synchronized int addDelivery(Event event, Long userId) {
+            deliveries.computeIfAbsent(event.getId(), id -> new PendingDelivery(event, new ArrayList<>()))
+                    .userIds().add(userId);
+            return ++size;
+        }
+
+        synchronized int addPendingDue(Long userId) {
+            pendingDue.add(userId);
+            return ++size;
+        }
+
+        synchronized List<ClusterMessage> drain() {
+            if (size == 0) {
+                return List.of();
+            }
+            List<ClusterMessage> batch = new ArrayList<>(messages.size() + deliveries.size() + 1);
+            batch.addAll(messages);
+            for (PendingDelivery delivery : deliveries.values()) {
+                Event event = delivery.event();
+                batch.add(new ClusterMessage.Deliver(event.getId(), event.getMessage(), event.getOccurredAt(),
+                        unboxed(delivery.userIds())));
+            }
+            if (!pendingDue.isEmpty()) {
+                batch.add(new ClusterMessage.PendingDue(unboxed(pendingDue)));
+            }
+            messages.clear();
+            deliveries.clear();
+            pendingDue.clear();
+            size = 0;
+            return batch;
+        }
+
+        private static long[] unboxed(List<Long> userIds) {
+            return userIds.stream().mapToLong(Long::longValue).toArray();
+        }
+    }
+
+    private record PendingDelivery(Event event, List<Long> userIds) {
+    }
+
+    private record PendingFanOut(Set<String> peers, Runnable onCompleted, long startedAt) {
+    }
+}
@@ -0,0 +1,166 @@
+package webgroup.websocket.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.stereotype.Service;
+import webgroup.websocket.config.NotificationProperties;
+import webgroup.websocket.repositories.FanOutBulkRepository;
+import webgroup.websocket.utils.BloomFilter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Проверка «событие уже привязано к пользователю» без запроса к user_event для каждой порции.
+ * Связи пользователей этого узла хранятся в фильтре Блума: пользователи, которых фильтр точно
+ * не видел, считаются непривязанными без обращения к базе, в базе перепроверяются только
+ * возможные совпадения. Для нового события это почти все пользователи, и запрос не выполняется вовсе.
+ * Фильтр загружается из user_event в фоне при запуске и после смены владельцев пользователей
+ * в кластере; пока загрузка не завершена, все проверки идут в базу.
+ */
+@Service
+@Slf4j
+public class DeliveryIndex implements SmartInitializingSingleton {
+
+    private final FanOutBulkRepository fanOutBulkRepository;
+    private final ClusterRouter clusterRouter;
+    private final NotificationProperties.DeliveryIndex config;
+    private final ExecutorService loader;
+
+    private volatile BloomFilter filter;
+    /** Фильтр, который сейчас загружается; связи, записанные во время загрузки, попадают и в него. */
+    private volatile BloomFilter loading;
+    private final AtomicLong links = new AtomicLong();
+
+    private final Counter skippedCounter;
+    private final Counter checkedCounter;
+    private final Counter falsePositiveCounter;
+
+    public DeliveryIndex(FanOutBulkRepository fanOutBulkRepository,
+                         ClusterRouter clusterRouter,
+                         NotificationProperties properties,
+                         MeterRegistry meterRegistry) {
+        this.fanOutBulkRepository = fanOutBulkRepository;
+        this.clusterRouter = clusterRouter;
+        this.config = properties.getDeliveryIndex();
+        this.loader = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "delivery-index");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.skippedCounter = Counter.builder("notification.delivery.index.lookups")
+                .tag("result", "absent")
+                .description("Пользователи, непривязанные к событию по фильтру, без запроса к базе")
+                .register(meterRegistry);
+        this.checkedCounter = Counter.builder("notification.delivery.index.lookups")
+                .tag("result", "maybe")
+                .description("Возможные совпадения фильтра, перепроверенные в базе")
+                .register(meterRegistry);
+        this.falsePositiveCounter = Counter.builder("notification.delivery.index.false.positives")
+                .description("Возможные совпадения, не подтверждённые базой")
+                .register(meterRegistry);
+        Gauge.builder("notification.delivery.index.links", links, AtomicLong::get)
+                .description("Связей пользователь — событие в фильтре")
+                .register(meterRegistry);
+        clusterRouter.onRingChanged((previous, current) -> loader.execute(this::reload));
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        loader.execute(this::reload);
+    }
+
+    /**
+     * Пользователи из {@code userIds}, уже привязанные к событию.
+     */
+    public Set<Long> findLinked(Long eventId, Collection<Long> userIds) {
+        BloomFilter current = filter;
+        if (current == null) {
+            return fanOutBulkRepository.findUserIdsLinkedToEvent(eventId, userIds);
+        }
+
+        List<Long> candidates = new ArrayList<>();
+        for (Long userId : userIds) {
+            if (current.mightContain(userId, eventId)) {
+                candidates.add(userId);
+            }
+        }
+        skippedCounter.increment(userIds.size() - candidates.size());
+        if (candidates.isEmpty()) {
+            return Set.of();
+        }
+
+        checkedCounter.increment(candidates.size());
+        Set<Long> linked = fanOutBulkRepository.findUserIdsLinkedToEvent(eventId, candidates);
+        falsePositiveCounter.increment(candidates.size() - linked.size());
+        return linked;
+    }
+
+    /**
+     * Вызывается после записи связей в user_event.
+     */
+    public void recordLinked(Long eventId, Collection<Long> userIds) {
+        BloomFilter current = filter;
+        BloomFilter next = loading;
+        for (Long userId : userIds) {
+            if (current != null) {
+                current.put(userId, eventId);
+            }
+            if (next != null) {
+                next.put(userId, eventId);
+            }
+        }
+        links.addAndGet(userIds.size());
+    }
+
+    /**
+     * Строит фильтр заново по user_event для пользователей этого узла. Новый фильтр создаётся до
+     * начала чтения, поэтому связи, записанные во время загрузки, в нём не теряются.
+     */
+    void reload() {
+        try {
+            // связи пользователей, перешедших к узлу, фильтр не видел: до конца загрузки проверяет база
+            filter = null;
+            BloomFilter next = new BloomFilter(config.getExpectedLinks(), config.getFalsePositiveRate());
+            loading = next;
+            long[] owned = {0};
+            long scanned = fanOutBulkRepository.forEachLink((userId, eventId) -> {
+                if (clusterRouter.owns(userId)) {
+                    next.put(userId, eventId);
+                    owned[0]++;
+                }
+            });
+            links.set(owned[0]);
+            filter = next;
+            loading = null;
+            log.info("Индекс доставок загружен: связей {} из {}, фильтр {} КБ",
+                    owned[0], scanned, next.sizeInBytes() / 1024);
+            if (owned[0] > config.getExpectedLinks()) {
+                log.warn("Связей ({}) больше, чем рассчитан индекс доставок ({}): растёт доля перепроверок в базе",
+                        owned[0], config.getExpectedLinks());
+            }
+        } catch (Exception e) {
+            loading = null;
+            log.error("Ошибка загрузки индекса доставок, проверки идут в базу: {}", e.getMessage(), e);
+        }
+    }
+
+    boolean isLoaded() {
+        return filter != null;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        loader.shutdownNow();
+    }
+}
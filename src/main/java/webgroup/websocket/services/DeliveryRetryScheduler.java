@@ -0,0 +1,165 @@
+package webgroup.websocket.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import webgroup.websocket.config.NotificationProperties;
+import webgroup.websocket.entities.Event;
+import webgroup.websocket.utils.DeliveryResult;
+import webgroup.websocket.utils.NotificationFrame;
+
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Повторная доставка неудавшихся отправок по таймеру с экспоненциальной задержкой и jitter.
+ * Поток рассылки только ставит повтор в очередь и не блокируется; после последней попытки
+ * уведомление уходит в pending_notification.
+ */
+@Service
+@Slf4j
+public class DeliveryRetryScheduler {
+
+    private final DeliveryTracker deliveryTracker;
+    private final PartitionedExecutor partitionedExecutor;
+    private final PendingDeliveryScheduler pendingDeliveryScheduler;
+    private final NotificationProperties.Retry config;
+    private final ScheduledThreadPoolExecutor timer;
+
+    private final Counter scheduledCounter;
+    private final Counter deliveredCounter;
+    private final Counter offlineCounter;
+    private final Counter exhaustedCounter;
+
+    public DeliveryRetryScheduler(DeliveryTracker deliveryTracker,
+                                  PartitionedExecutor partitionedExecutor,
+                                  PendingDeliveryScheduler pendingDeliveryScheduler,
+                                  NotificationProperties properties,
+                                  MeterRegistry meterRegistry) {
+        this.deliveryTracker = deliveryTracker;
+        this.partitionedExecutor = partitionedExecutor;
+        this.pendingDeliveryScheduler = pendingDeliveryScheduler;
+        this.config = properties.getRetry();
+
+        AtomicInteger threadCounter = new AtomicInteger();
+        this.timer = new ScheduledThreadPoolExecutor(config.getThreads(), runnable -> {
+            Thread thread = new Thread(runnable, "delivery-retry-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timer.setRemoveOnCancelPolicy(true);
+
+        this.scheduledCounter = outcomeCounter(meterRegistry, "scheduled");
+        this.deliveredCounter = outcomeCounter(meterRegistry, "delivered");
+        this.offlineCounter = outcomeCounter(meterRegistry, "offline");
+        this.exhaustedCounter = outcomeCounter(meterRegistry, "exhausted");
+        Gauge.builder("notification.retry.queue.size", timer, pool -> pool.getQueue().size())
+                .description("Число отправок, ожидающих повтора")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Планирует повтор отправки после первой неудачной попытки.
+     */
+    public void scheduleRetry(Long userId, Event event, NotificationFrame frame) {
+        scheduledCounter.increment();
+        schedule(new RetryTask(userId, event, frame, 2));
+    }
+
+    public int queueSize() {
+        return timer.getQueue().size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        List<Runnable> unsent = timer.shutdownNow();
+        if (!unsent.isEmpty()) {
+            log.warn("Остановка планировщика повторов: {} отправок не выполнено", unsent.size());
+        }
+    }
+
+    long delayMillis(int attempt) {
+        double base = config.getInitialDelay().toMillis() * Math.pow(config.getMultiplier(), attempt - 2);
+        double capped = Math.min(base, config.getMaxDelay().toMillis());
+        double jitter = config.getJitter() > 0
+                ? ThreadLocalRandom.current().nextDouble(-config.getJitter(), config.getJitter())
+                : 0;
+        return Math.max(0, Math.round(capped * (1 + jitter)));
+    }
+
+    private void schedule(RetryTask task) {
+        if (timer.isShutdown()) {
+            return;
+        }
+        // сама попытка выполняется в полосе пользователя, таймер только отмеряет задержку
+        timer.schedule(() -> partitionedExecutor.execute(task.userId, task), delayMillis(task.attempt), TimeUnit.MILLISECONDS);
+    }
+
+    private void moveToPending(RetryTask task) {
+        pendingDeliveryScheduler.defer(task.userId, task.event);
+    }
+
+    private static Counter outcomeCounter(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("notification.retry.outcome")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    private final class RetryTask implements Runnable {
+
+        private final Long userId;
+        private final Event event;
+        private final NotificationFrame frame;
+        private final int attempt;
+
+        private RetryTask(Long userId, Event event, NotificationFrame frame, int attempt) {
+            this.userId = userId;
+            this.event = event;
+            this.frame = frame;
+            this.attempt = attempt;
+        }
+
+        @Override
+        public void run() {
+            try {
+                DeliveryResult result = deliveryTracker.send(userId, event, frame);
+                switch (result) {
+                    case SENT, BUFFERED -> {
+                        deliveredCounter.increment();
+                        log.info("Уведомление eventId={} доставлено пользователю {} на попытке №{}", event.getId(), userId, attempt);
+                    }
+                    case OFFLINE, WINDOW_FULL -> {
+                        offlineCounter.increment();
+                        log.info("Пользователь {} недоступен ({}), уведомление eventId={} отложено", userId, result, event.getId());
+                        moveToPending(this);
+                    }
+                    case FAILED -> {
+                        if (attempt < config.getMaxAttempts()) {
+                            schedule(new RetryTask(userId, event, frame, attempt + 1));
+                        } else {
+                            exhaustedCounter.increment();
+                            log.warn("Уведомление для пользователя {} (eventId={}) сохранено в pending после {} неудачных попыток",
+                                    userId, event.getId(), attempt);
+                            moveToPending(this);
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                log.error("Ошибка при повторной отправке пользователю {} (eventId={}), уведомление отложено: {}",
+                        userId, event.getId(), e.getMessage(), e);
+                try {
+                    moveToPending(this);
+                } catch (Exception deferError) {
+                    log.error("Не удалось отложить уведомление eventId={} для пользователя {}: {}",
+                            event.getId(), userId, deferError.getMessage(), deferError);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,603 @@
+package webgroup.websocket.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import webgroup.websocket.config.NotificationProperties;
+import webgroup.websocket.config.NotificationWebSocketSender;
+import webgroup.websocket.config.WebSocketSessionRegistry;
+import webgroup.websocket.entities.Event;
+import webgroup.websocket.utils.CoalescedDigest;
+import webgroup.websocket.utils.DeliveryResult;
+import webgroup.websocket.utils.InFlightWindow;
+import webgroup.websocket.utils.NotificationFrame;
+import webgroup.websocket.utils.ReplayRing;
+import webgroup.websocket.utils.TimingWheel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Доставка "хотя бы один раз": каждое уведомление получает номер последовательности пользователя
+ * и остаётся в его {@link InFlightWindow}, пока клиент не подтвердит его через /app/ack.
+ * Без подтверждения уведомление отправляется повторно по истечении ack-timeout, после
+ * {@code maxRedeliveries} повторов — уходит в pending_notification.
+ * После отключения последней сессии пользователь ещё {@code replay.maxAge} считается
+ * возобновляемым: новые уведомления копятся в окне и {@link SessionReplayService}, а при
+ * переподключении с заголовком lastSeq разрыв досылается из памяти. Подтверждения и повторная
+ * доставка обрабатываются в памяти, без обращения к базе.
+ * Окно пользователя принадлежит его полосе {@link PartitionedExecutor}: {@link #send} вызывается
+ * из полосы пользователя, остальные операции сами переходят в неё, поэтому окна не блокируются.
+ * Заполненное окно означает, что клиент отстаёт; что делать с новым уведомлением, решает
+ * {@link NotificationProperties.SlowConsumerPolicy}. При заданном {@code coalescing.linger}
+ * уведомления пользователя копятся в {@link CoalescedDigest} и уходят одним кадром по истечении
+ * окна ожидания или набрав {@code coalescing.maxBatch}.
+ * Окно пользователя, который отключился, не вернулся за время ожидания и ничего не ждёт,
+ * освобождается; новое окно продолжает нумерацию с новой эпохи, поэтому старый lastSeq клиента
+ * не подтвердит уведомления нового окна.
+ */
+@Service
+@Slf4j
+public class DeliveryTracker {
+
+    private static final int WHEEL_SIZE = 512;
+
+    private final NotificationWebSocketSender webSocketSender;
+    private final PendingDeliveryScheduler pendingDeliveryScheduler;
+    private final SessionReplayService sessionReplayService;
+    private final PartitionedExecutor partitionedExecutor;
+    private final UserPresenceService userPresenceService;
+    private final WebSocketSessionRegistry sessionRegistry;
+    private final NotificationProperties.Delivery config;
+    private final NotificationProperties.Transport transport;
+    private final long ackTimeoutMillis;
+    private final long resumeGraceMillis;
+    private final long lingerMillis;
+    private final int maxBatch;
+
+    private final Map<Long, InFlightWindow> windows = new ConcurrentHashMap<>();
+    private final Map<Long, CoalescedDigest> digests = new ConcurrentHashMap<>();
+    private final TimingWheel wheel;
+    private final ScheduledExecutorService ticker;
+    private final AtomicLong inFlightTotal = new AtomicLong();
+    /** Эпоха следующего окна: окно, созданное заново после освобождения, нумерует уведомления дальше прежнего. */
+    private final AtomicLong windowEpochs = new AtomicLong();
+
+    private final Counter ackedCounter;
+    private final Counter redeliveredCounter;
+    private final Counter deferredCounter;
+    private final Counter windowFullCounter;
+    private final Counter bufferedCounter;
+    private final Counter dropOldestCounter;
+    private final Counter coalescedCounter;
+    private final Counter disconnectedCounter;
+    private final DistributionSummary digestEvents;
+
+    public DeliveryTracker(NotificationWebSocketSender webSocketSender,
+                           PendingDeliveryScheduler pendingDeliveryScheduler,
+                           SessionReplayService sessionReplayService,
+                           PartitionedExecutor partitionedExecutor,
+                           UserPresenceService userPresenceService,
+                           WebSocketSessionRegistry sessionRegistry,
+                           NotificationProperties properties,
+                           MeterRegistry meterRegistry) {
+        this.webSocketSender = webSocketSender;
+        this.pendingDeliveryScheduler = pendingDeliveryScheduler;
+        this.sessionReplayService = sessionReplayService;
+        this.partitionedExecutor = partitionedExecutor;
+        this.userPresenceService = userPresenceService;
+        this.sessionRegistry = sessionRegistry;
+        this.config = properties.getDelivery();
+        this.transport = properties.getTransport();
+        this.ackTimeoutMillis = Math.max(1, config.getAckTimeout().toMillis());
+        this.resumeGraceMillis = properties.getReplay().getMaxAge().toMillis();
+        this.lingerMillis = properties.getCoalescing().getLinger().toMillis();
+        this.maxBatch = Math.max(1, properties.getCoalescing().getMaxBatch());
+
+        long shortestTimeout = resumeGraceMillis > 0 ? Math.min(ackTimeoutMillis, resumeGraceMillis) : ackTimeoutMillis;
+        long tickMillis = Math.max(10, shortestTimeout / 10);
+        this.wheel = new TimingWheel(tickMillis, WHEEL_SIZE, System.currentTimeMillis());
+        this.ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "delivery-tracker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.ticker.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+
+        this.ackedCounter = outcomeCounter(meterRegistry, "acked");
+        this.redeliveredCounter = outcomeCounter(meterRegistry, "redelivered");
+        this.deferredCounter = outcomeCounter(meterRegistry, "deferred");
+        this.windowFullCounter = outcomeCounter(meterRegistry, "window_full");
+        this.bufferedCounter = outcomeCounter(meterRegistry, "buffered");
+        this.dropOldestCounter = slowConsumerCounter(meterRegistry, "drop_oldest");
+        this.coalescedCounter = slowConsumerCounter(meterRegistry, "coalesce");
+        this.disconnectedCounter = slowConsumerCounter(meterRegistry, "disconnect_to_pending");
+        this.digestEvents = DistributionSummary.builder("notification.digest.events")
+                .description("Число уведомлений в одном отправленном кадре-сводке")
+                .register(meterRegistry);
+        Gauge.builder("notification.delivery.inflight", inFlightTotal, AtomicLong::get)
+                .description("Число отправленных и ещё не подтверждённых уведомлений")
+                .register(meterRegistry);
+        Gauge.builder("notification.delivery.windows", windows, Map::size)
+                .description("Пользователи с окном доставки в памяти")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Можно ли сейчас доставить пользователю уведомление: он в сети или ещё может переподключиться.
+     * Подсказка для рассылки вне полосы пользователя; окончательное решение принимает {@link #send}.
+     */
+    public boolean isReachable(Long userId) {
+        if (userPresenceService.isUserOnline(userId)) {
+            return true;
+        }
+        InFlightWindow window = windows.get(userId);
+        return window != null && isResumable(window, System.currentTimeMillis());
+    }
+
+    /**
+     * Вызывается только из полосы пользователя.
+     */
+    public DeliveryResult send(Long userId, Event event, NotificationFrame frame) {
+        InFlightWindow window = windowOf(userId);
+        long now = System.currentTimeMillis();
+        boolean resumable = isResumable(window, now);
+        CoalescedDigest digest = digests.get(userId);
+        if (digest != null && digest.size() > 0) {
+            // сводка ещё не отправлена: новое уведомление встаёт за ней, чтобы не обогнать её
+            return coalesce(userId, window, event, frame);
+        }
+        if (lingerMillis > 0 && !resumable) {
+            return coalesce(userId, window, event, frame);
+        }
+        boolean firstInFlight = window.inFlight() == 0;
+        long seq = window.offer(event, frame, now);
+        if (seq < 0) {
+            windowFullCounter.increment();
+            log.debug("Окно неподтверждённых уведомлений пользователя {} заполнено, eventId={}, политика {}",
+                    userId, event.getId(), transport.getSlowConsumerPolicy());
+            switch (transport.getSlowConsumerPolicy()) {
+                case COALESCE -> {
+                    return coalesce(userId, window, event, frame);
+                }
+                case DISCONNECT_TO_PENDING -> {
+                    return disconnectToPending(userId, window);
+                }
+                default -> {
+                    dropOldest(userId, window);
+                    seq = window.offer(event, frame, now);
+                }
+            }
+        }
+        inFlightTotal.incrementAndGet();
+
+        if (resumable) {
+            // таймер окончания ожидания переподключения уже поставлен в userDisconnected
+            sessionReplayService.record(userId, seq, frame);
+            bufferedCounter.increment();
+            return DeliveryResult.BUFFERED;
+        }
+
+        DeliveryResult result = webSocketSender.sendToUser(userId, frame, seq);
+        if (result != DeliveryResult.SENT) {
+            release(userId, window, seq);
+            evictIfIdle(userId, window);
+            return result;
+        }
+        sessionReplayService.record(userId, seq, frame);
+        if (firstInFlight) {
+            scheduleCheck(userId, now + ackTimeoutMillis);
+        }
+        return result;
+    }
+
+    /**
+     * Несколько уведомлений одному пользователю за раз, например событий одной пачки. Они уходят
+     * одной сводкой под одним номером; пока пользователь может переподключиться или если событий
+     * больше {@code coalesceMaxEvents}, каждое отправляется как в {@link #send}.
+     * Вызывается только из полосы пользователя.
+     *
+     * @return результаты в порядке {@code events}
+     */
+    public List<DeliveryResult> sendAll(Long userId, List<Event> events, List<NotificationFrame> frames) {
+        if (events.size() == 1) {
+            return List.of(send(userId, events.get(0), frames.get(0)));
+        }
+        InFlightWindow window = windowOf(userId);
+        List<DeliveryResult> results = new ArrayList<>(events.size());
+        if (isResumable(window, System.currentTimeMillis()) || events.size() > transport.getCoalesceMaxEvents()) {
+            for (int i = 0; i < events.size(); i++) {
+                results.add(send(userId, events.get(i), frames.get(i)));
+            }
+            return results;
+        }
+        for (int i = 0; i < events.size(); i++) {
+            results.add(append(userId, window, events.get(i), frames.get(i)));
+        }
+        flushDigest(userId, window);
+        return results;
+    }
+
+    public void ack(Long userId, long seq) {
+        if (userId == null) {
+            log.debug("Подтверждение seq={} без userId", seq);
+            return;
+        }
+        partitionedExecutor.execute(userId, () -> {
+            InFlightWindow window = windows.get(userId);
+            if (window == null || !release(userId, window, seq)) {
+                log.debug("Повторное или неизвестное подтверждение seq={} от пользователя {}", seq, userId);
+                return;
+            }
+            ackedCounter.increment();
+            flushDigest(userId, window);
+        });
+    }
+
+    /**
+     * Пользователь закрыл последнюю сессию: неподтверждённое остаётся в окне на время ожидания
+     * переподключения и уходит в pending_notification, если пользователь не вернулся.
+     */
+    public void userDisconnected(Long userId) {
+        partitionedExecutor.execute(userId, () -> {
+            InFlightWindow window = windowOf(userId);
+            long now = System.currentTimeMillis();
+            window.detach(now);
+            scheduleCheck(userId, now + resumeGraceMillis);
+        });
+    }
+
+    /**
+     * Пользователь подключился. При заданном {@code lastSeenSeq} всё до него включительно считается
+     * полученным, а разрыв досылается из буфера; без него повторно отправляется всё неподтверждённое.
+     */
+    public void userConnected(Long userId, Long lastSeenSeq) {
+        partitionedExecutor.execute(userId, () -> resume(userId, lastSeenSeq));
+    }
+
+    /**
+     * Число неподтверждённых уведомлений пользователя; точное значение — только из его полосы.
+     */
+    public int inFlight(Long userId) {
+        InFlightWindow window = windows.get(userId);
+        return window == null ? 0 : window.inFlight();
+    }
+
+    /**
+     * Число пользователей, для которых в памяти хранится окно доставки.
+     */
+    public int windowCount() {
+        return windows.size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ticker.shutdownNow();
+    }
+
+    private void resume(Long userId, Long lastSeenSeq) {
+        InFlightWindow window = windows.get(userId);
+        if (window == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        List<ReplayRing.Entry> unacked = new ArrayList<>();
+        window.attach();
+        int acked = lastSeenSeq == null ? 0 : window.ackUpTo(lastSeenSeq);
+        CoalescedDigest digest = digests.get(userId);
+        if (digest != null && lastSeenSeq != null) {
+            digest.releaseUpTo(lastSeenSeq);
+        }
+        window.forEachUnacked(now, (seq, frame) -> unacked.add(new ReplayRing.Entry(seq, frame)));
+        inFlightTotal.addAndGet(-acked);
+
+        List<ReplayRing.Entry> replay = lastSeenSeq == null ? null : sessionReplayService.replay(userId, lastSeenSeq);
+        List<ReplayRing.Entry> toSend = replay != null ? replay : unacked;
+        if (!toSend.isEmpty()) {
+            log.info("Пользователь {} переподключился (lastSeq={}), досылается {} уведомлений из памяти",
+                    userId, lastSeenSeq, toSend.size());
+        }
+        for (ReplayRing.Entry entry : toSend) {
+            webSocketSender.sendToUser(userId, entry.frame(), entry.seq());
+        }
+        if (!unacked.isEmpty()) {
+            scheduleCheck(userId, now + ackTimeoutMillis);
+        }
+        flushDigest(userId, window);
+    }
+
+    void tick() {
+        try {
+            List<Long> due = new ArrayList<>();
+            synchronized (wheel) {
+                wheel.advance(System.currentTimeMillis(), (userId, deadline) -> due.add(userId));
+            }
+            for (Long userId : due) {
+                partitionedExecutor.execute(userId, () -> checkExpired(userId));
+            }
+        } catch (Exception e) {
+            log.error("Ошибка при проверке неподтверждённых уведомлений: {}", e.getMessage(), e);
+        }
+    }
+
+    void checkExpired(Long userId) {
+        InFlightWindow window = windows.get(userId);
+        if (window == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        List<Redelivery> redeliveries = new ArrayList<>();
+        List<Event> exhausted = new ArrayList<>();
+        int inFlightBefore = window.inFlight();
+        boolean graceExpired = false;
+        if (window.detachedAt() > 0) {
+            if (isResumable(window, now)) {
+                // пользователь ещё может вернуться: ничего не отправляем и ждём окончания ожидания
+                scheduleCheck(userId, window.detachedAt() + resumeGraceMillis);
+                return;
+            }
+            window.attach();
+            window.drain((seq, event) -> exhausted.addAll(eventsOf(userId, seq, event)));
+            CoalescedDigest digest = digests.remove(userId);
+            if (digest != null) {
+                exhausted.addAll(digest.takePending());
+            }
+            graceExpired = true;
+        } else {
+            window.forEachExpired(now - ackTimeoutMillis, now, (seq, event, frame, attempts) -> {
+                if (attempts > config.getMaxRedeliveries()) {
+                    exhausted.addAll(eventsOf(userId, seq, event));
+                    return false;
+                }
+                redeliveries.add(new Redelivery(seq, frame));
+                return true;
+            });
+        }
+        inFlightTotal.addAndGet(window.inFlight() - inFlightBefore);
+        long oldest = window.oldestSentAt();
+
+        if (graceExpired) {
+            sessionReplayService.evict(userId);
+            if (!exhausted.isEmpty()) {
+                log.info("Пользователь {} не переподключился, {} неподтверждённых уведомлений отложено",
+                        userId, exhausted.size());
+                defer(userId, exhausted);
+            }
+            evictIfIdle(userId, window);
+            return;
+        }
+
+        for (Redelivery redelivery : redeliveries) {
+            redeliveredCounter.increment();
+            DeliveryResult result = webSocketSender.sendToUser(userId, redelivery.frame(), redelivery.seq());
+            log.debug("Повторная отправка seq={} пользователю {}: {}", redelivery.seq(), userId, result);
+        }
+        if (!exhausted.isEmpty()) {
+            log.warn("Пользователь {} не подтвердил {} уведомлений после {} повторов, они отложены",
+                    userId, exhausted.size(), config.getMaxRedeliveries());
+            defer(userId, exhausted);
+            flushDigest(userId, window);
+        }
+        if (oldest >= 0) {
+            scheduleCheck(userId, oldest + ackTimeoutMillis);
+        }
+    }
+
+    /**
+     * Уведомление копится в сводке, которая уйдёт одним кадром по окончании ожидания пачки или,
+     * если окно заполнено (политика COALESCE), когда в нём появится место.
+     */
+    private DeliveryResult coalesce(Long userId, InFlightWindow window, Event event, NotificationFrame frame) {
+        DeliveryResult result = append(userId, window, event, frame);
+        if (result == DeliveryResult.BUFFERED) {
+            flushDigest(userId, window);
+        }
+        return result;
+    }
+
+    private DeliveryResult append(Long userId, InFlightWindow window, Event event, NotificationFrame frame) {
+        CoalescedDigest digest = digests.computeIfAbsent(userId, id -> new CoalescedDigest());
+        if (digest.size() >= transport.getCoalesceMaxEvents()) {
+            log.debug("Сводка пользователя {} заполнена, eventId={} откладывается", userId, event.getId());
+            return DeliveryResult.WINDOW_FULL;
+        }
+        if (digest.size() == 0 && lingerMillis > 0) {
+            long deadline = System.currentTimeMillis() + lingerMillis;
+            digest.lingerUntil(deadline);
+            ticker.schedule(() -> partitionedExecutor.execute(userId, () -> flushLingering(userId, deadline)),
+                    lingerMillis, TimeUnit.MILLISECONDS);
+        }
+        digest.add(event, frame);
+        if (window.inFlight() >= config.getWindowSize()) {
+            coalescedCounter.increment();
+        }
+        return DeliveryResult.BUFFERED;
+    }
+
+    private void flushLingering(Long userId, long deadline) {
+        InFlightWindow window = windows.get(userId);
+        CoalescedDigest digest = digests.get(userId);
+        // таймер прежней пачки, уже отправленной по размеру, новую не трогает
+        if (window == null || digest == null || digest.lingerUntil() != deadline) {
+            return;
+        }
+        digest.lingerUntil(0);
+        flushDigest(userId, window);
+    }
+
+    /**
+     * DROP_OLDEST: клиенту важнее свежие уведомления — самое старое неподтверждённое вытесняется из окна.
+     */
+    private void dropOldest(Long userId, InFlightWindow window) {
+        long dropped = window.dropOldest();
+        if (dropped < 0) {
+            return;
+        }
+        inFlightTotal.decrementAndGet();
+        eventsOf(userId, dropped, null);
+        dropOldestCounter.increment();
+        log.debug("Пользователь {} не успевает подтверждать уведомления, seq={} вытеснено", userId, dropped);
+    }
+
+    /**
+     * DISCONNECT_TO_PENDING: неподтверждённое уходит в pending_notification, сессии пользователя
+     * закрываются, чтобы не копить для него исходящие кадры. Новое уведомление откладывает вызывающий.
+     */
+    private DeliveryResult disconnectToPending(Long userId, InFlightWindow window) {
+        List<Event> drained = new ArrayList<>();
+        int inFlightBefore = window.inFlight();
+        window.drain((seq, event) -> drained.addAll(eventsOf(userId, seq, event)));
+        inFlightTotal.addAndGet(-inFlightBefore);
+        CoalescedDigest digest = digests.remove(userId);
+        if (digest != null) {
+            drained.addAll(digest.takePending());
+        }
+        // буфер больше не согласован с окном: досылка после переподключения пойдёт из pending
+        sessionReplayService.evict(userId);
+        defer(userId, drained);
+        disconnectedCounter.increment();
+
+        int closed = sessionRegistry.closeUserSessions(userId, WebSocketSessionRegistry.SLOW_CONSUMER);
+        log.warn("Пользователь {} не успевает подтверждать уведомления: {} отложено, закрыто сессий {}",
+                userId, drained.size(), closed);
+        return DeliveryResult.WINDOW_FULL;
+    }
+
+    /**
+     * Отправляет накопленную сводку, если клиент подключён, в окне есть место и пачка собрана:
+     * истекло ожидание или набрано {@code maxBatch} уведомлений.
+     */
+    private void flushDigest(Long userId, InFlightWindow window) {
+        CoalescedDigest digest = digests.get(userId);
+        if (digest == null) {
+            return;
+        }
+        if (digest.isEmpty()) {
+            digests.remove(userId);
+            return;
+        }
+        if (digest.size() == 0 || window.detachedAt() > 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (digest.size() < maxBatch && now < digest.lingerUntil()) {
+            return;
+        }
+        boolean firstInFlight = window.inFlight() == 0;
+        NotificationFrame frame = digest.toFrame();
+        int events = digest.size();
+        long seq = window.offer(digest.lastEvent(), frame, now);
+        if (seq < 0) {
+            return;
+        }
+        inFlightTotal.incrementAndGet();
+        digest.markSent(seq);
+
+        DeliveryResult result = webSocketSender.sendToUser(userId, frame, seq);
+        if (result != DeliveryResult.SENT) {
+            List<Event> unsent = digest.release(seq);
+            release(userId, window, seq);
+            log.debug("Сводка пользователю {} не отправлена ({}), {} уведомлений откладывается",
+                    userId, result, unsent.size());
+            defer(userId, unsent);
+            evictIfIdle(userId, window);
+            return;
+        }
+        sessionReplayService.record(userId, seq, frame);
+        digestEvents.record(events);
+        if (firstInFlight) {
+            scheduleCheck(userId, now + ackTimeoutMillis);
+        }
+        log.debug("Пользователю {} отправлена сводка из {} уведомлений, seq={}", userId, events, seq);
+    }
+
+    /**
+     * События номера окна: для отправленной сводки — все её события, иначе само {@code event}.
+     */
+    private List<Event> eventsOf(Long userId, long seq, Event event) {
+        CoalescedDigest digest = digests.get(userId);
+        List<Event> digestEvents = digest == null ? null : digest.release(seq);
+        if (digestEvents != null) {
+            return digestEvents;
+        }
+        return event == null ? List.of() : List.of(event);
+    }
+
+    private InFlightWindow windowOf(Long userId) {
+        return windows.computeIfAbsent(userId,
+                id -> new InFlightWindow(config.getWindowSize(), (windowEpochs.getAndIncrement() << 32) + 1));
+    }
+
+    /**
+     * Освобождает окно и сводку пользователя, который не в сети, не может переподключиться
+     * и ничего не ждёт: память тратится только на пользователей с активной доставкой.
+     * Вызывается из полосы пользователя.
+     */
+    private void evictIfIdle(Long userId, InFlightWindow window) {
+        if (window.inFlight() > 0 || window.detachedAt() > 0 || userPresenceService.isUserOnline(userId)) {
+            return;
+        }
+        CoalescedDigest digest = digests.get(userId);
+        if (digest != null && !digest.isEmpty()) {
+            return;
+        }
+        windows.remove(userId, window);
+        digests.remove(userId);
+    }
+
+    private boolean isResumable(InFlightWindow window, long now) {
+        return window.detachedAt() > 0 && now - window.detachedAt() < resumeGraceMillis;
+    }
+
+    private boolean release(Long userId, InFlightWindow window, long seq) {
+        boolean released = window.ack(seq);
+        if (released) {
+            inFlightTotal.decrementAndGet();
+            eventsOf(userId, seq, null);
+        }
+        return released;
+    }
+
+    private void scheduleCheck(Long userId, long deadlineMillis) {
+        synchronized (wheel) {
+            wheel.add(userId, deadlineMillis);
+        }
+    }
+
+    private void defer(Long userId, List<Event> events) {
+        for (Event event : events) {
+            deferredCounter.increment();
+            try {
+                pendingDeliveryScheduler.defer(userId, event);
+            } catch (Exception e) {
+                log.error("Не удалось отложить уведомление eventId={} для пользователя {}: {}",
+                        event.getId(), userId, e.getMessage(), e);
+            }
+        }
+    }
+
+    private static Counter outcomeCounter(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("notification.delivery.outcome")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    private static Counter slowConsumerCounter(MeterRegistry meterRegistry, String policy) {
+        return Counter.builder("notification.slow.consumer")
+                .tag("policy", policy)
+                .register(meterRegistry);
+    }
+
+    private record Redelivery(long seq, NotificationFrame frame) {
+    }
+}
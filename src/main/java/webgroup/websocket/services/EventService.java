@@ -1,14 +1,19 @@
 package webgroup.websocket.services;
 
+import jakarta.validation.Validator;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import webgroup.websocket.dto.EventBatchResultDTO;
 import webgroup.websocket.dto.EventDTO;
 import webgroup.websocket.entities.Event;
 import webgroup.websocket.mappers.EventMapper;
+import webgroup.websocket.repositories.EventOutboxRepository;
 import webgroup.websocket.repositories.EventRepository;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
@@ -20,8 +25,14 @@ import java.util.stream.Collectors;
 public class EventService {
 
     private final EventRepository eventRepository;
+    private final EventOutboxRepository eventOutboxRepository;
     private final EventMapper eventMapper;
+    private final Validator validator;
 
+    /**
+     * Сохраняет событие и в той же транзакции ставит его в outbox рассылки:
+     * событие, пережившее коммит, будет разослано и после падения процесса.
+     */
     @Transactional
     public EventDTO save(EventDTO eventDto) {
         if (eventDto == null) {
@@ -33,13 +44,54 @@ public class EventService {
 
         Event event = eventMapper.toEntity(eventDto);
         Event saved = eventRepository.save(event);
-        eventRepository.flush();
+        eventOutboxRepository.append(saved.getId());
 
         log.info("Событие сохранено в БД: ID={}, message={}", saved.getId(), saved.getMessage());
 
         return eventMapper.toDto(saved);
     }
 
+    /**
+     * Сохраняет пачку событий: каждое событие проверяется отдельно, прошедшие проверку
+     * сохраняются вместе со строками outbox одним запросом, и ретранслятор рассылает их
+     * за один проход по аудитории.
+     *
+     * @return результат для каждого элемента в порядке {@code eventDtos}
+     */
+    @Transactional
+    public List<EventBatchResultDTO> saveAll(List<EventDTO> eventDtos) {
+        log.info("Попытка сохранить пачку из {} событий", eventDtos.size());
+
+        EventBatchResultDTO[] results = new EventBatchResultDTO[eventDtos.size()];
+        List<Integer> validIndexes = new ArrayList<>(eventDtos.size());
+        List<Event> events = new ArrayList<>(eventDtos.size());
+        for (int i = 0; i < eventDtos.size(); i++) {
+            EventDTO eventDto = eventDtos.get(i);
+            List<String> errors = eventDto == null
+                    ? List.of("Событие не может быть null")
+                    : validator.validate(eventDto).stream()
+                    .map(violation -> violation.getPropertyPath() + ": " + violation.getMessage())
+                    .sorted()
+                    .toList();
+            if (!errors.isEmpty()) {
+                log.warn("Событие #{} пачки отклонено: {}", i, errors);
+                results[i] = EventBatchResultDTO.rejected(i, errors);
+                continue;
+            }
+            validIndexes.add(i);
+            events.add(eventMapper.toEntity(eventDto));
+        }
+
+        List<Long> ids = eventOutboxRepository.insertEventsAndAppend(events);
+        for (int i = 0; i < ids.size(); i++) {
+            int index = validIndexes.get(i);
+            results[index] = EventBatchResultDTO.accepted(index, ids.get(i));
+        }
+
+        log.info("Пачка событий сохранена в БД: принято {}, отклонено {}", ids.size(), eventDtos.size() - ids.size());
+        return Arrays.asList(results);
+    }
+
     @Transactional(readOnly = true)
     public List<EventDTO> findAll() {
         log.info("Запрос на получение всех событий");
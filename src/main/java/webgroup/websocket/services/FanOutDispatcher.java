@@ -0,0 +1,210 @@
+package webgroup.websocket.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import webgroup.websocket.config.NotificationProperties;
+import webgroup.websocket.entities.Event;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ограниченная очередь рассылки событий: HTTP-поток только ставит событие в очередь,
+ * а обход пользователей выполняется пулом воркеров. В режиме виртуальных потоков воркеры
+ * виртуальные, а размер пула по-прежнему ограничивает число одновременных рассылок и
+ * тем самым нагрузку на пул соединений с базой.
+ */
+@Service
+@Slf4j
+public class FanOutDispatcher {
+
+    private final NotificationService notificationService;
+    private final ClusterRouter clusterRouter;
+    private final ThreadPoolExecutor executor;
+    private final Timer queueLagTimer;
+    private final Timer fanOutTimer;
+    private final Counter rejectedCounter;
+    private final Counter discardedCounter;
+    private final Counter failedCounter;
+
+    public FanOutDispatcher(NotificationService notificationService,
+                            ClusterRouter clusterRouter,
+                            NotificationProperties properties,
+                            MeterRegistry meterRegistry) {
+        this.notificationService = notificationService;
+        this.clusterRouter = clusterRouter;
+
+        NotificationProperties.FanOut config = properties.getFanOut();
+        BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(config.getQueueCapacity());
+        this.executor = new ThreadPoolExecutor(
+                config.getCorePoolSize(),
+                Math.max(config.getCorePoolSize(), config.getMaxPoolSize()),
+                config.getKeepAlive().toMillis(), TimeUnit.MILLISECONDS,
+                queue,
+                properties.getExecution().isVirtualThreads()
+                        ? Thread.ofVirtual().name("fan-out-", 1).factory()
+                        : new FanOutThreadFactory(),
+                rejectionHandler(config.getRejectionPolicy()));
+
+        this.queueLagTimer = Timer.builder("notification.fanout.queue.lag")
+                .description("Время ожидания события в очереди рассылки")
+                .register(meterRegistry);
+        this.fanOutTimer = Timer.builder("notification.fanout.duration")
+                .description("Время рассылки одной пачки событий")
+                .register(meterRegistry);
+        this.rejectedCounter = meterRegistry.counter("notification.fanout.rejected");
+        this.discardedCounter = meterRegistry.counter("notification.fanout.discarded");
+        this.failedCounter = meterRegistry.counter("notification.fanout.failed");
+
+        Gauge.builder("notification.fanout.queue.size", queue, BlockingQueue::size)
+                .register(meterRegistry);
+        Gauge.builder("notification.fanout.queue.remaining", queue, BlockingQueue::remainingCapacity)
+                .register(meterRegistry);
+        Gauge.builder("notification.fanout.active", executor, ThreadPoolExecutor::getActiveCount)
+                .register(meterRegistry);
+        Gauge.builder("notification.fanout.queue.oldest.age.ms", queue, FanOutDispatcher::oldestTaskAgeMillis)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Ставит события в очередь рассылки одной задачей и передаёт их остальным узлам кластера:
+     * каждый узел рассылает их своей доле пользователей за один проход по аудитории.
+     *
+     * @param onCompleted вызывается, когда свою долю разослал этот узел и подтвердили все остальные
+     * @throws RejectedExecutionException если очередь заполнена и политика ABORT
+     */
+    public void dispatch(List<Event> events, Runnable onCompleted) {
+        AtomicInteger remaining = new AtomicInteger(2);
+        Runnable part = () -> {
+            if (remaining.decrementAndGet() == 0) {
+                onCompleted.run();
+            }
+        };
+        enqueue(events, part);
+        clusterRouter.broadcastFanOut(events, part);
+    }
+
+    /**
+     * Рассылка доле этого узла событий другого узла; подтверждается только успешная рассылка,
+     * иначе узел-отправитель не удалит строки outbox и их разошлют повторно.
+     */
+    @EventListener
+    public void onClusterFanOut(ClusterFanOutEvent fanOutEvent) {
+        try {
+            enqueue(fanOutEvent.events(),
+                    () -> clusterRouter.fanOutCompleted(fanOutEvent.originNode(), fanOutEvent.batchId()));
+        } catch (RejectedExecutionException e) {
+            log.error("Очередь рассылки заполнена, события {} от узла {} будут разосланы повторно",
+                    ids(fanOutEvent.events()), fanOutEvent.originNode());
+        }
+    }
+
+    private void enqueue(List<Event> events, Runnable onCompleted) {
+        executor.execute(new FanOutTask(events, onCompleted, System.nanoTime()));
+        log.debug("События {} поставлены в очередь рассылки (в очереди: {})", ids(events), executor.getQueue().size());
+    }
+
+    private static List<Long> ids(List<Event> events) {
+        return events.stream().map(Event::getId).toList();
+    }
+
+    public int queueSize() {
+        return executor.getQueue().size();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+            log.warn("Рассылка не завершилась за 30 секунд, в очереди осталось {} событий", executor.getQueue().size());
+            executor.shutdownNow();
+        }
+    }
+
+    private RejectedExecutionHandler rejectionHandler(NotificationProperties.RejectionPolicy policy) {
+        return switch (policy) {
+            case CALLER_RUNS -> (task, pool) -> {
+                if (!pool.isShutdown()) {
+                    log.warn("Очередь рассылки заполнена, событие обрабатывается в вызывающем потоке");
+                    task.run();
+                }
+            };
+            case DISCARD_OLDEST -> (task, pool) -> {
+                if (pool.isShutdown()) {
+                    return;
+                }
+                Runnable oldest = pool.getQueue().poll();
+                if (oldest instanceof FanOutTask discarded) {
+                    discardedCounter.increment();
+                    log.error("Очередь рассылки заполнена, события {} вытеснены", ids(discarded.events));
+                }
+                pool.execute(task);
+            };
+            case ABORT -> (task, pool) -> {
+                rejectedCounter.increment();
+                throw new RejectedExecutionException("Очередь рассылки заполнена");
+            };
+        };
+    }
+
+    private static double oldestTaskAgeMillis(BlockingQueue<Runnable> queue) {
+        Runnable head = queue.peek();
+        if (head instanceof FanOutTask task) {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - task.enqueuedAt);
+        }
+        return 0;
+    }
+
+    private final class FanOutTask implements Runnable {
+
+        private final List<Event> events;
+        private final Runnable onCompleted;
+        private final long enqueuedAt;
+
+        private FanOutTask(List<Event> events, Runnable onCompleted, long enqueuedAt) {
+            this.events = events;
+            this.onCompleted = onCompleted;
+            this.enqueuedAt = enqueuedAt;
+        }
+
+        @Override
+        public void run() {
+            queueLagTimer.record(System.nanoTime() - enqueuedAt, TimeUnit.NANOSECONDS);
+            long started = System.nanoTime();
+            try {
+                notificationService.processEvents(events);
+                onCompleted.run();
+            } catch (Exception ex) {
+                failedCounter.increment();
+                log.error("Ошибка при рассылке событий {}: {}", ids(events), ex.getMessage(), ex);
+            } finally {
+                fanOutTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    private static final class FanOutThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "fan-out-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package webgroup.websocket.services;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Транспорт в памяти процесса: узлы одной {@link Network} обмениваются пачками без сериализации.
+ * У каждого узла свой поток приёма, поэтому отправитель не выполняет обработку получателя,
+ * а пачки от одного узла приходят по порядку. Один узел в своей сети — обычный запуск без кластера;
+ * несколько узлов в общей сети — кластер в одной JVM для тестов.
+ */
+@Slf4j
+public class LoopbackClusterBus implements ClusterBus {
+
+    private final Network network;
+    private final String nodeId;
+    private final ExecutorService inbox;
+    private volatile Receiver receiver;
+
+    public LoopbackClusterBus(Network network, String nodeId) {
+        this.network = network;
+        this.nodeId = nodeId;
+        this.inbox = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cluster-inbox-" + nodeId);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public String nodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public void join(Receiver receiver) {
+        this.receiver = receiver;
+        if (network.nodes.putIfAbsent(nodeId, this) != null) {
+            throw new IllegalStateException("Узел " + nodeId + " уже подключён к шине");
+        }
+    }
+
+    @Override
+    public void send(String targetNode, List<ClusterMessage> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (BROADCAST.equals(targetNode)) {
+            network.nodes.forEach((id, node) -> {
+                if (!id.equals(nodeId)) {
+                    node.accept(nodeId, batch);
+                }
+            });
+            return;
+        }
+        LoopbackClusterBus node = network.nodes.get(targetNode);
+        if (node == null) {
+            log.warn("Узел {} не найден, пачка из {} сообщений отброшена", targetNode, batch.size());
+            return;
+        }
+        node.accept(nodeId, batch);
+    }
+
+    @Override
+    public void leave() {
+        network.nodes.remove(nodeId, this);
+        inbox.shutdown();
+    }
+
+    private void accept(String fromNode, List<ClusterMessage> batch) {
+        try {
+            inbox.execute(() -> {
+                try {
+                    receiver.receive(fromNode, batch);
+                } catch (Exception e) {
+                    log.error("Ошибка обработки пачки от узла {}: {}", fromNode, e.getMessage(), e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.debug("Узел {} остановлен, пачка от {} отброшена", nodeId, fromNode);
+        }
+    }
+
+    /**
+     * Общая «сеть» узлов одной JVM.
+     */
+    public static final class Network {
+
+        private final Map<String, LoopbackClusterBus> nodes = new ConcurrentHashMap<>();
+    }
+}
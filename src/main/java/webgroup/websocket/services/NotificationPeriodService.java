@@ -12,6 +12,7 @@ import webgroup.websocket.repositories.NotificationPeriodRepository;
 import webgroup.websocket.repositories.UserRepository;
 
 import java.util.List;
+import java.util.Optional;
 
 @Service
 @RequiredArgsConstructor
@@ -21,6 +22,7 @@ public class NotificationPeriodService {
     private final NotificationPeriodRepository notificationPeriodRepository;
     private final UserRepository userRepository;
     private final NotificationPeriodMapper mapper;
+    private final ScheduleIndexService scheduleIndexService;
 
     @Transactional(readOnly = true)
     public List<NotificationPeriodDTO> getByUser(Long userId) {
@@ -46,6 +48,7 @@ public class NotificationPeriodService {
         NotificationPeriod period = mapper.toEntity(periodDto);
         period.setUser(user);
         NotificationPeriod saved = notificationPeriodRepository.save(period);
+        rebuildSchedule(userId);
 
         return mapper.toDto(saved);
     }
@@ -64,6 +67,9 @@ public class NotificationPeriodService {
         existing.setEndTime(updatedDto.getEndTime());
 
         NotificationPeriod saved = notificationPeriodRepository.save(existing);
+        if (existing.getUser() != null) {
+            rebuildSchedule(existing.getUser().getId());
+        }
 
         return mapper.toDto(saved);
     }
@@ -78,7 +84,16 @@ public class NotificationPeriodService {
             throw new EntityNotFoundException("Период уведомления не найден с id: " + id);
         }
 
+        Optional<Long> userId = notificationPeriodRepository.findUserIdById(id);
         notificationPeriodRepository.deleteById(id);
+        userId.ifPresent(this::rebuildSchedule);
+    }
+
+    private void rebuildSchedule(Long userId) {
+        if (userId == null) {
+            return;
+        }
+        scheduleIndexService.rebuild(userId);
     }
 }
 
@@ -1,28 +1,32 @@
 package webgroup.websocket.services;
 
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import webgroup.websocket.config.NotificationProperties;
 import webgroup.websocket.config.NotificationWebSocketSender;
+import webgroup.websocket.dto.PendingNotificationDTO;
 import webgroup.websocket.entities.Event;
 import webgroup.websocket.entities.PendingNotification;
 import webgroup.websocket.entities.User;
-import webgroup.websocket.repositories.EventRepository;
+import webgroup.websocket.repositories.FanOutBulkRepository;
 import webgroup.websocket.repositories.PendingNotificationRepository;
 import webgroup.websocket.repositories.UserRepository;
+import webgroup.websocket.utils.DeliveryResult;
+import webgroup.websocket.utils.NotificationFrame;
 import webgroup.websocket.utils.NotificationPeriodUtils;
 import webgroup.websocket.utils.NotificationSchedulerUtils;
 import webgroup.websocket.utils.NotificationUtils;
+import webgroup.websocket.utils.UserBitmap;
 
 import java.time.LocalDateTime;
 import java.util.*;
-
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 
 @Service
@@ -34,104 +38,297 @@ public class NotificationService {
     private final NotificationWebSocketSender webSocketSender;
     private final PendingNotificationRepository pendingNotificationRepository;
     private final NotificationSchedulerUtils notificationSchedulerUtils;
-    private final EventRepository eventRepository;
     private final NotificationUtils notificationUtils;
     private final NotificationPeriodUtils notificationPeriodUtils;
+    private final FanOutBulkRepository fanOutBulkRepository;
+    private final DeliveryIndex deliveryIndex;
+    private final ScheduleIndexService scheduleIndexService;
+    private final PendingDeliveryScheduler pendingDeliveryScheduler;
+    private final NotificationProperties notificationProperties;
+    private final DeliveryTracker deliveryTracker;
+    private final PartitionedExecutor partitionedExecutor;
+    private final ClusterRouter clusterRouter;
+    private final UserPresenceService userPresenceService;
 
-    @Transactional
     public void processEvent(Event event) {
-        log.info("Начата обработка события ID={} [{}]", event.getId(), event.getMessage());
+        processEvents(List.of(event));
+    }
 
-        List<User> users = new CopyOnWriteArrayList<>(userRepository.findAllWithNotificationPeriods());
-        List<User> updatedUsers = new CopyOnWriteArrayList<>();
-        for (User user : users) {
-            log.debug("Обработка пользователя {} (ID={})", user.getFullName(), user.getId());
+    /**
+     * Аудитории событий считаются операциями над битовыми множествами id: окно открыто и пользователь
+     * онлайн — доставка сразу, окно открыто без сессий на узле — доставка через другой узел или
+     * отложенное уведомление, окно закрыто — отложенное уведомление. Сущности пользователей не загружаются.
+     * Пачка событий рассылается за один проход по пользователям: каждый получает события пачки,
+     * для которых его окно открыто, одной сводкой, а связи и отложенные уведомления порции
+     * записываются общими запросами.
+     */
+    public void processEvents(List<Event> events) {
+        events.forEach(event -> log.info("Начата обработка события ID={} [{}]", event.getId(), event.getMessage()));
+
+        // узел рассылает только своей доле пользователей, остальным — их владельцы
+        RoaringBitmap users = clusterRouter.owned(scheduleIndexService.allUsers());
+        RoaringBitmap online = userPresenceService.onlineUsers();
+        Map<LocalDateTime, RoaringBitmap> openAt = new HashMap<>();
+        List<RoaringBitmap> opens = new ArrayList<>(events.size());
+        List<NotificationFrame> frames = new ArrayList<>(events.size());
+        RoaringBitmap anyOpen = new RoaringBitmap();
+        for (Event event : events) {
+            RoaringBitmap open = openAt.computeIfAbsent(event.getOccurredAt(),
+                    at -> RoaringBitmap.and(scheduleIndexService.usersOpenAt(at), users));
+            opens.add(open);
+            anyOpen.or(open);
+            frames.add(open.isEmpty() ? null : notificationUtils.encode(event));
+            log.info("Событие ID={}: окно уведомлений открыто у {} пользователей",
+                    event.getId(), open.getCardinality());
+        }
+        RoaringBitmap deliverNow = RoaringBitmap.and(anyOpen, online);
+        RoaringBitmap openOffline = RoaringBitmap.andNot(anyOpen, online);
+        RoaringBitmap closed = RoaringBitmap.andNot(users, anyOpen);
+        log.info("События {}: окно открыто у {} пользователей, из них в сети {}",
+                ids(events), anyOpen.getCardinality(), deliverNow.getCardinality());
+
+        Batch batch = new Batch(events, frames, opens);
+        int chunkSize = notificationProperties.getFanOut().getChunkSize();
+
+        long[] totals = new long[2];
+        Consumer<ChunkResult> sum = result -> {
+            totals[0] += result.linked();
+            totals[1] += result.pending();
+        };
+        UserBitmap.forEachChunk(deliverNow, chunkSize,
+                ids -> sum.accept(processChunk(batch, ids, Audience.ONLINE)));
+        UserBitmap.forEachChunk(openOffline, chunkSize,
+                ids -> sum.accept(processChunk(batch, ids, Audience.OPEN_OFFLINE)));
+        UserBitmap.forEachChunk(closed, chunkSize,
+                ids -> sum.accept(processChunk(batch, ids, Audience.CLOSED)));
+
+        log.info("События {}: просмотрено пользователей {}, привязано {}, отложено уведомлений {}",
+                ids(events), users.getLongCardinality(), totals[0], totals[1]);
+        log.info("Завершена обработка событий {}", ids(events));
+    }
 
-            boolean alreadyHasEvent = user.getEvents().stream()
-                    .anyMatch(e -> e.getId() != null && e.getId().equals(event.getId()));
+    private ChunkResult processChunk(Batch batch, List<Long> userIds, Audience audience) {
+        List<Event> events = batch.events();
+        List<Set<Long>> alreadyLinked = new ArrayList<>(events.size());
+        List<List<Long>> linkedUserIds = new ArrayList<>(events.size());
+        for (Event event : events) {
+            alreadyLinked.add(deliveryIndex.findLinked(event.getId(), userIds));
+            linkedUserIds.add(new ArrayList<>(userIds.size()));
+        }
 
-            if (alreadyHasEvent) {
-                log.info("Пользователь {} уже получил событие {}", user.getFullName(), event.getId());
+        List<PendingNotification> pendingNotifications = new ArrayList<>();
+        for (Long userId : userIds) {
+            List<Event> due = new ArrayList<>(events.size());
+            List<NotificationFrame> dueFrames = new ArrayList<>(events.size());
+            for (int i = 0; i < events.size(); i++) {
+                Event event = events.get(i);
+                if (alreadyLinked.get(i).contains(userId)) {
+                    log.info("Пользователь ID={} уже получил событие {}", userId, event.getId());
+                    continue;
+                }
+                linkedUserIds.get(i).add(userId);
+                if (audience != Audience.CLOSED && batch.opens().get(i).contains(UserBitmap.key(userId))) {
+                    due.add(event);
+                    dueFrames.add(batch.frames().get(i));
+                } else {
+                    addPending(pendingNotifications, userId, event);
+                }
+            }
+            if (due.isEmpty()) {
                 continue;
             }
 
-            user.addEvent(event);
-            log.debug("Событие {} привязано к пользователю {}", event.getId(), user.getFullName());
-
-            if (notificationPeriodUtils.isWithinNotificationPeriod(user, event.getOccurredAt())) {
-                if (notificationUtils.sendNotification(user, event)) {
-                    log.info("Уведомление успешно отправлено пользователю: {} (eventId={})", user.getId(), event.getId());
-                    updatedUsers.add(user);
-                } else {
-                    log.warn("Не удалось отправить уведомление пользователю: {} (eventId={}). Планируем отложенное уведомление...", user.getId(), event.getId());
-                    notificationSchedulerUtils.schedulePendingNotificationIfNecessary(user, event);
+            // сессии пользователя могут быть открыты и здесь, и на других узлах
+            boolean forwarded = false;
+            for (Event event : due) {
+                forwarded |= clusterRouter.forward(userId, event);
+            }
+            if (audience == Audience.ONLINE || deliveryTracker.isReachable(userId)) {
+                if (partitionedExecutor.offer(userId, () -> deliver(userId, due, dueFrames))) {
+                    continue;
                 }
-
-            } else {
-                notificationSchedulerUtils.schedulePendingNotificationIfNecessary(user, event);
+                log.warn("Полоса пользователя {} заполнена (events={}), уведомления отложены", userId, ids(due));
+                due.forEach(event -> addPending(pendingNotifications, userId, event));
+                continue;
+            }
+            if (forwarded) {
+                log.debug("Пользователь {} подключён к другому узлу, уведомления переданы (events={})",
+                        userId, ids(due));
+                continue;
             }
+            log.info("Пользователь {} не в сети (events={}). Планируем отложенное уведомление...", userId, ids(due));
+            due.forEach(event -> addPending(pendingNotifications, userId, event));
+        }
 
+        int linked = 0;
+        for (int i = 0; i < events.size(); i++) {
+            Long eventId = events.get(i).getId();
+            fanOutBulkRepository.linkUsersToEvent(eventId, linkedUserIds.get(i));
+            deliveryIndex.recordLinked(eventId, linkedUserIds.get(i));
+            linked += linkedUserIds.get(i).size();
         }
+        fanOutBulkRepository.insertPendingNotifications(pendingNotifications);
+        pendingDeliveryScheduler.scheduleAll(pendingNotifications);
+        return new ChunkResult(linked, pendingNotifications.size());
+    }
 
-        if (!updatedUsers.isEmpty()) {
-            userRepository.saveAll(updatedUsers);
-            log.info("Сохранено {} пользователей с новыми событиями", updatedUsers.size());
+    private void addPending(List<PendingNotification> pendingNotifications, Long userId, Event event) {
+        PendingNotification pending = notificationSchedulerUtils.buildPendingNotification(userId, event);
+        if (pending != null) {
+            pendingNotifications.add(pending);
         }
+    }
 
-        log.info("Завершена обработка события ID={}", event.getId());
+    /**
+     * Выполняется в полосе пользователя: несколько событий уходят одной сводкой.
+     */
+    private void deliver(Long userId, List<Event> events, List<NotificationFrame> frames) {
+        if (events.size() == 1) {
+            deliver(userId, events.get(0), frames.get(0));
+            return;
+        }
+        List<Event> rejected = notificationUtils.sendNotifications(userId, events, frames);
+        for (Event event : rejected) {
+            log.info("Пользователь {} отключился до отправки (eventId={}), уведомление отложено", userId, event.getId());
+            pendingDeliveryScheduler.defer(userId, event);
+        }
+        log.debug("Пользователю {} передано уведомлений: {}", userId, events.size() - rejected.size());
     }
 
-    public void sendPendingToFront(Long userId) {
-        List<PendingNotification> pendingList = pendingNotificationRepository.findAllByUserId(userId);
+    /**
+     * Выполняется в полосе пользователя: уведомления одному пользователю уходят по порядку.
+     */
+    private void deliver(Long userId, Event event, NotificationFrame frame) {
+        if (notificationUtils.sendNotification(userId, event, frame)) {
+            log.debug("Уведомление передано пользователю: {} (eventId={})", userId, event.getId());
+            return;
+        }
+        log.info("Пользователь {} отключился до отправки (eventId={}), уведомление отложено", userId, event.getId());
+        pendingDeliveryScheduler.defer(userId, event);
+    }
+
+    private static List<Long> ids(List<Event> events) {
+        return events.stream().map(Event::getId).toList();
+    }
 
-        List<Map<String, Object>> payloadList = new ArrayList<>();
-        List<PendingNotification> toDelete = new ArrayList<>();
+    /**
+     * Уведомление от другого узла для пользователей, подключённых к этому узлу. Узел-отправитель
+     * уже привязал их к событию; если пользователь успел отключиться, уведомление откладывается здесь.
+     * Доставка и запись в pending выполняются в полосе пользователя, а не в потоке шины кластера.
+     */
+    @EventListener
+    public void onClusterDelivery(ClusterDeliveryEvent deliveryEvent) {
+        Event event = deliveryEvent.event();
+        NotificationFrame frame = notificationUtils.encode(event);
+        for (Long userId : deliveryEvent.userIds()) {
+            partitionedExecutor.execute(userId, () -> {
+                if (deliveryTracker.isReachable(userId)) {
+                    deliver(userId, event, frame);
+                    return;
+                }
+                log.info("Пользователь {} отключился до получения уведомления от другого узла (eventId={})",
+                        userId, event.getId());
+                pendingDeliveryScheduler.defer(userId, event);
+            });
+        }
+    }
+
+    @EventListener
+    public void onPendingNotificationsDue(PendingNotificationsDueEvent dueEvent) {
+        dueEvent.userIds().forEach(this::drainPending);
+    }
+
+    /**
+     * Ставит доставку отложенных уведомлений в полосу пользователя: таймер, /app/ping и
+     * переподключение не отправляют одни и те же строки параллельно, а поток вызывающего
+     * не ждёт базу. При ошибке доставка повторяется по таймеру.
+     */
+    public void drainPending(Long userId) {
+        partitionedExecutor.execute(userId, () -> {
+            try {
+                sendPendingToFront(userId);
+            } catch (Exception e) {
+                log.error("Ошибка доставки отложенных уведомлений пользователю {}, повтор по таймеру: {}",
+                        userId, e.getMessage(), e);
+                pendingDeliveryScheduler.retryLater(userId);
+            }
+        });
+    }
+
+    /**
+     * Отправляет отложенные уведомления страницами: строки и события читаются одним join-запросом
+     * на страницу, каждая страница уходит одним кадром и удаляется одним DELETE ... WHERE id IN.
+     * Если окно закрыто или отправка прервалась, таймер доставки заводится заново: к этому моменту
+     * прежний таймер уже сработал, и без нового оставшиеся строки ждали бы следующего события.
+     */
+    public void sendPendingToFront(Long userId) {
         Optional<User> optionalUser = userRepository.findByIdWithNotificationPeriods(userId);
         if (optionalUser.isEmpty()) {
             log.warn("Пользователь с ID={} не найден", userId);
             return;
         }
-        User user = optionalUser.get();
-
         LocalDateTime now = LocalDateTime.now();
-
-        for (PendingNotification pending : pendingList) {
-            if (!notificationPeriodUtils.isWithinNotificationPeriod(user, now)) {
-                log.info("Уведомление для userId={} не отправлено — вне времени уведомлений", userId);
-                continue;
+        if (!notificationPeriodUtils.isWithinNotificationPeriod(optionalUser.get(), now)) {
+            LocalDateTime nextOpening = scheduleIndexService.scheduleOf(optionalUser.get()).nextOpeningAfter(now);
+            log.info("Уведомления для userId={} не отправлены — вне времени уведомлений, следующая попытка в {}",
+                    userId, nextOpening);
+            if (nextOpening != null) {
+                pendingDeliveryScheduler.schedule(userId, nextOpening);
             }
-            eventRepository.findById(pending.getEventId()).ifPresent(event -> {
-                Map<String, Object> map = new HashMap<>();
-                map.put("eventId", event.getId());
-                map.put("msg", event.getMessage());
-                map.put("scheduledTime", pending.getScheduledTime().toString());
-                payloadList.add(map);
-                toDelete.add(pending);
-            });
+            return;
         }
 
-        if (!payloadList.isEmpty()) {
-            try {
-                String json = new ObjectMapper().writeValueAsString(payloadList);
-                webSocketSender.sendToTopic("/topic/pending/" + userId, json);
-                log.info("Отложенные уведомления отправлены пользователю с ID={}", userId);
+        int pageSize = notificationProperties.getPending().getDrainPageSize();
+        long afterId = 0;
+        int sent = 0;
+        while (true) {
+            List<PendingNotificationDTO> page =
+                    pendingNotificationRepository.findPageWithEvents(userId, afterId, PageRequest.of(0, pageSize));
+            if (page.isEmpty()) {
+                break;
+            }
+
+            DeliveryResult result = webSocketSender.sendPendingToUser(userId, notificationUtils.encodePending(page));
+            if (result != DeliveryResult.SENT) {
+                log.warn("Отправка отложенных уведомлений пользователю ID={} прервана: {}, повтор по таймеру",
+                        userId, result);
+                pendingDeliveryScheduler.retryLater(userId);
+                break;
+            }
 
-                pendingNotificationRepository.deleteAll(toDelete);
-                log.info("🗑 Удалено {} отложенных уведомлений пользователя ID={}", toDelete.size(), userId);
+            List<Long> ids = page.stream().map(PendingNotificationDTO::getId).toList();
+            pendingNotificationRepository.deleteAllByIdInBatch(ids);
+            sent += ids.size();
+            afterId = ids.get(ids.size() - 1);
 
-            } catch (JsonProcessingException e) {
-                log.error("Ошибка сериализации отложенных уведомлений: {}", e.getMessage());
+            if (page.size() < pageSize) {
+                break;
             }
+        }
+
+        if (sent > 0) {
+            log.info("Отправлено и удалено {} отложенных уведомлений пользователя ID={}", sent, userId);
         } else {
             log.info("У пользователя ID={} нет подходящих уведомлений для отправки", userId);
         }
     }
 
+    private record ChunkResult(int linked, int pending) {
+    }
 
-}
-
-
-
-
-
+    /**
+     * @param frames закодированные уведомления событий, {@code null} для события, окно которого закрыто у всех
+     * @param opens  пользователи этого узла с открытым окном на момент каждого события
+     */
+    private record Batch(List<Event> events, List<NotificationFrame> frames, List<RoaringBitmap> opens) {
+    }
 
+    private enum Audience {
+        /** Окно открыто, сессии пользователя открыты на этом узле. */
+        ONLINE,
+        /** Окно открыто, сессий на этом узле нет. */
+        OPEN_OFFLINE,
+        /** Окно закрыто. */
+        CLOSED
+    }
+}
@@ -0,0 +1,249 @@
+package webgroup.websocket.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.stereotype.Service;
+import webgroup.websocket.config.NotificationProperties;
+import webgroup.websocket.entities.Event;
+import webgroup.websocket.repositories.EventOutboxRepository;
+import webgroup.websocket.repositories.EventRepository;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Ретранслятор outbox: воркеры забирают строки event_outbox пачками и ставят события в очередь
+ * рассылки, строка удаляется, когда свою долю разослал этот узел и подтвердили все остальные узлы
+ * кольца; иначе после истечения lease строку забирают повторно. Воркеры просыпаются по Postgres NOTIFY, который
+ * отправляется при коммите события, а опрос раз в {@code pollInterval} подбирает строки,
+ * уведомления о которых потерялись, и строки с истёкшим закреплением упавших узлов.
+ * Воркеры разных узлов не мешают друг другу: строки забираются через SKIP LOCKED.
+ */
+@Service
+@Slf4j
+public class OutboxRelay implements SmartInitializingSingleton {
+
+    private final EventOutboxRepository eventOutboxRepository;
+    private final EventRepository eventRepository;
+    private final FanOutDispatcher fanOutDispatcher;
+    private final DataSource dataSource;
+    private final NotificationProperties.Outbox config;
+
+    private final Object signal = new Object();
+    private long generation;
+    private volatile boolean running;
+    private final List<Thread> threads = new ArrayList<>();
+    private final Queue<Long> completed = new ConcurrentLinkedQueue<>();
+
+    private final Counter claimedCounter;
+    private final Counter completedCounter;
+    private final Counter deadCounter;
+    private final Counter notifiedCounter;
+    private final Timer lagTimer;
+
+    public OutboxRelay(EventOutboxRepository eventOutboxRepository,
+                       EventRepository eventRepository,
+                       FanOutDispatcher fanOutDispatcher,
+                       DataSource dataSource,
+                       NotificationProperties properties,
+                       MeterRegistry meterRegistry) {
+        this.eventOutboxRepository = eventOutboxRepository;
+        this.eventRepository = eventRepository;
+        this.fanOutDispatcher = fanOutDispatcher;
+        this.dataSource = dataSource;
+        this.config = properties.getOutbox();
+
+        this.claimedCounter = Counter.builder("notification.outbox.claimed")
+                .description("Строки outbox, забранные воркерами")
+                .register(meterRegistry);
+        this.completedCounter = Counter.builder("notification.outbox.completed")
+                .description("События, разосланные из outbox")
+                .register(meterRegistry);
+        this.deadCounter = Counter.builder("notification.outbox.dead")
+                .description("Строки outbox, удалённые после исчерпания попыток")
+                .register(meterRegistry);
+        this.notifiedCounter = Counter.builder("notification.outbox.notifications")
+                .description("Полученные уведомления NOTIFY о новых событиях")
+                .register(meterRegistry);
+        this.lagTimer = Timer.builder("notification.outbox.lag")
+                .description("Время от сохранения события до постановки в очередь рассылки")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        running = true;
+        threads.add(Thread.ofPlatform().name("outbox-listener").daemon().start(this::listen));
+        for (int i = 1; i <= Math.max(1, config.getWorkers()); i++) {
+            threads.add(Thread.ofPlatform().name("outbox-relay-" + i).daemon().start(this::work));
+        }
+        log.info("Ретранслятор outbox запущен: воркеров {}", threads.size() - 1);
+    }
+
+    private void work() {
+        long pollMillis = Math.max(1, config.getPollInterval().toMillis());
+        while (running) {
+            long seen;
+            synchronized (signal) {
+                seen = generation;
+            }
+            try {
+                if (drain() == config.getBatchSize()) {
+                    continue;
+                }
+            } catch (Exception e) {
+                log.error("Ошибка ретрансляции outbox: {}", e.getMessage(), e);
+            }
+            synchronized (signal) {
+                if (running && generation == seen) {
+                    try {
+                        signal.wait(pollMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Слушает канал outbox на отдельном соединении; при обрыве переподключается через {@code pollInterval},
+     * а до переподключения воркеры продолжают опрос.
+     */
+    private void listen() {
+        int pollMillis = (int) Math.max(1, config.getPollInterval().toMillis());
+        while (running) {
+            try (Connection connection = dataSource.getConnection()) {
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + EventOutboxRepository.CHANNEL);
+                }
+                log.info("Ретранслятор outbox подписан на канал {}", EventOutboxRepository.CHANNEL);
+                // события, сохранённые до подписки
+                wakeUp();
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications(pollMillis);
+                    if (notifications != null && notifications.length > 0) {
+                        notifiedCounter.increment(notifications.length);
+                        wakeUp();
+                    }
+                }
+            } catch (SQLException e) {
+                if (!running) {
+                    return;
+                }
+                log.warn("Подписка на канал {} недоступна, outbox опрашивается раз в {} мс: {}",
+                        EventOutboxRepository.CHANNEL, pollMillis, e.getMessage());
+                try {
+                    Thread.sleep(pollMillis);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    void wakeUp() {
+        synchronized (signal) {
+            generation++;
+            signal.notifyAll();
+        }
+    }
+
+    /**
+     * Забирает одну пачку строк и ставит их события в очередь рассылки одной задачей.
+     *
+     * @return число забранных строк
+     */
+    int drain() {
+        deleteCompleted();
+        List<EventOutboxRepository.Claim> claims = eventOutboxRepository.claim(config.getBatchSize(), config.getLease());
+        if (claims.isEmpty()) {
+            return 0;
+        }
+        claimedCounter.increment(claims.size());
+
+        Map<Long, Event> events = eventRepository.findAllById(claims.stream().map(EventOutboxRepository.Claim::eventId).toList())
+                .stream()
+                .collect(Collectors.toMap(Event::getId, Function.identity()));
+        List<Long> dropped = new ArrayList<>();
+        List<Long> dispatched = new ArrayList<>();
+        List<Event> batch = new ArrayList<>();
+        LocalDateTime now = LocalDateTime.now();
+        for (EventOutboxRepository.Claim claim : claims) {
+            Event event = events.get(claim.eventId());
+            if (event == null) {
+                log.warn("Событие ID={} удалено до рассылки, строка outbox {} удалена", claim.eventId(), claim.id());
+                dropped.add(claim.id());
+                continue;
+            }
+            if (claim.attempts() > config.getMaxAttempts()) {
+                log.error("Событие ID={} не разослано за {} попыток, строка outbox {} удалена",
+                        claim.eventId(), config.getMaxAttempts(), claim.id());
+                deadCounter.increment();
+                dropped.add(claim.id());
+                continue;
+            }
+            dispatched.add(claim.id());
+            batch.add(event);
+            lagTimer.record(Duration.between(claim.createdAt(), now));
+        }
+        eventOutboxRepository.delete(dropped);
+
+        if (!batch.isEmpty()) {
+            try {
+                // вся пачка рассылается за один проход по аудитории
+                fanOutDispatcher.dispatch(batch, () -> completed.addAll(dispatched));
+            } catch (RejectedExecutionException e) {
+                log.warn("Очередь рассылки заполнена, {} строк outbox возвращены через {}",
+                        dispatched.size(), config.getRetryDelay());
+                eventOutboxRepository.release(dispatched, config.getRetryDelay());
+            }
+        }
+        return claims.size();
+    }
+
+    private void deleteCompleted() {
+        List<Long> ids = new ArrayList<>();
+        Long id;
+        while ((id = completed.poll()) != null) {
+            ids.add(id);
+        }
+        if (!ids.isEmpty()) {
+            eventOutboxRepository.delete(ids);
+            completedCounter.increment(ids.size());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        wakeUp();
+        threads.forEach(Thread::interrupt);
+        try {
+            deleteCompleted();
+        } catch (Exception e) {
+            log.warn("Не удалось удалить разосланные строки outbox: {}", e.getMessage());
+        }
+    }
+}
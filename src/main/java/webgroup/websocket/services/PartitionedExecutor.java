@@ -0,0 +1,148 @@
+package webgroup.websocket.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import webgroup.websocket.config.NotificationProperties;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Исполнитель доставки, разбитый на однопоточные полосы по userId.
+ * Все задачи одного пользователя выполняются в одной полосе строго по порядку, поэтому состояние
+ * доставки пользователя ({@link DeliveryTracker}) принадлежит полосе и не требует блокировок,
+ * а разные пользователи обрабатываются параллельно на всех ядрах.
+ * <p>
+ * Задачи никогда не выполняются в потоке вызывающего и не теряются: {@link #execute} всегда
+ * ставит задачу в очередь полосы и не блокирует вызывающего (подтверждения, таймеры, переподключения).
+ * Массовая рассылка ставит задачи через {@link #offer}, который при заполненной полосе возвращает
+ * {@code false}, и вызывающий откладывает уведомления в pending.
+ */
+@Service
+@Slf4j
+public class PartitionedExecutor {
+
+    private final Lane[] lanes;
+    private final int queueCapacity;
+    private final Counter rejectedCounter;
+
+    public PartitionedExecutor(NotificationProperties properties, MeterRegistry meterRegistry) {
+        NotificationProperties.Lanes config = properties.getLanes();
+        int count = config.getCount() > 0 ? config.getCount() : Runtime.getRuntime().availableProcessors();
+        this.queueCapacity = config.getQueueCapacity();
+        this.rejectedCounter = Counter.builder("notification.lane.rejected")
+                .description("Задачи рассылки, не принятые заполненной полосой")
+                .register(meterRegistry);
+        this.lanes = new Lane[count];
+        for (int i = 0; i < count; i++) {
+            lanes[i] = new Lane(i, meterRegistry);
+        }
+        log.info("Запущено {} полос доставки, ёмкость очереди полосы {}", count, config.getQueueCapacity());
+    }
+
+    /**
+     * Ставит задачу в очередь полосы пользователя без ожидания и без ограничения ёмкости.
+     */
+    public void execute(Long userId, Runnable task) {
+        lanes[laneOf(userId)].queue.add(task);
+    }
+
+    /**
+     * Ставит задачу в очередь полосы, если в ней меньше {@code queueCapacity} задач.
+     * Задача из той же полосы принимается всегда, чтобы полоса не отвергала собственное продолжение.
+     *
+     * @return {@code false}, если полоса заполнена и задача не принята
+     */
+    public boolean offer(Long userId, Runnable task) {
+        Lane lane = lanes[laneOf(userId)];
+        if (Thread.currentThread() != lane.thread && lane.queue.size() >= queueCapacity) {
+            rejectedCounter.increment();
+            return false;
+        }
+        lane.queue.add(task);
+        return true;
+    }
+
+    public <T> CompletableFuture<T> submit(Long userId, Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        execute(userId, () -> {
+            try {
+                future.complete(task.call());
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    public int laneOf(Long userId) {
+        // перемешивание Фибоначчи: последовательные id равномерно расходятся по полосам
+        long mixed = (userId == null ? 0 : userId) * 0x9E3779B97F4A7C15L;
+        return (int) ((mixed >>> 32) % lanes.length);
+    }
+
+    public int laneCount() {
+        return lanes.length;
+    }
+
+    public int queueSize(int lane) {
+        return lanes[lane].queue.size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (Lane lane : lanes) {
+            lane.thread.interrupt();
+        }
+    }
+
+    private static final class Lane implements Runnable {
+
+        private final int index;
+        private final BlockingQueue<Runnable> queue;
+        private final Thread thread;
+        private final Counter processed;
+
+        private Lane(int index, MeterRegistry meterRegistry) {
+            this.index = index;
+            this.queue = new LinkedBlockingQueue<>();
+            this.processed = Counter.builder("notification.lane.tasks")
+                    .description("Выполненные задачи доставки полосы")
+                    .tag("lane", Integer.toString(index))
+                    .register(meterRegistry);
+            Gauge.builder("notification.lane.queue.size", queue, BlockingQueue::size)
+                    .description("Глубина очереди полосы доставки")
+                    .tag("lane", Integer.toString(index))
+                    .register(meterRegistry);
+
+            this.thread = new Thread(this, "delivery-lane-" + index);
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                Runnable task;
+                try {
+                    task = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    log.error("Ошибка в полосе доставки {}: {}", index, e.getMessage(), e);
+                } finally {
+                    processed.increment();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package webgroup.websocket.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import webgroup.websocket.config.NotificationProperties;
+import webgroup.websocket.entities.Event;
+import webgroup.websocket.entities.PendingNotification;
+import webgroup.websocket.repositories.FanOutBulkRepository;
+import webgroup.websocket.utils.ConsistentHashRing;
+import webgroup.websocket.utils.LongLongMap;
+import webgroup.websocket.utils.NotificationSchedulerUtils;
+import webgroup.websocket.utils.TimingWheel;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Доставка отложенных уведомлений в момент открытия окна без ожидания /app/ping.
+ * На каждого пользователя заводится один таймер на ближайший scheduledTime его pending-строк.
+ * Когда таймер срабатывает, подключённым пользователям уведомления отправляются сразу
+ * (одним событием на тик), а отключённые помечаются и получают их при следующем подключении.
+ * Событие только передаёт пользователей получателю: запросы к базе выполняются в полосе пользователя,
+ * поэтому медленный запрос не задерживает остальные таймеры.
+ */
+@Service
+@Slf4j
+public class PendingDeliveryScheduler implements SmartInitializingSingleton {
+
+    private final FanOutBulkRepository fanOutBulkRepository;
+    private final NotificationSchedulerUtils notificationSchedulerUtils;
+    private final UserPresenceService userPresenceService;
+    private final ClusterRouter clusterRouter;
+    private final ApplicationEventPublisher eventPublisher;
+    private final long tickMillis;
+    private final Duration retryDelay;
+
+    private final TimingWheel wheel;
+    /** Ближайший срок доставки пользователя; устаревшие записи колеса с ним не совпадают. */
+    private final LongLongMap deadlines = new LongLongMap(1024);
+    private final Set<Long> dueWhileOffline = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService ticker;
+
+    private final Counter pushedCounter;
+    private final Counter deferredCounter;
+
+    public PendingDeliveryScheduler(FanOutBulkRepository fanOutBulkRepository,
+                                    NotificationSchedulerUtils notificationSchedulerUtils,
+                                    UserPresenceService userPresenceService,
+                                    ClusterRouter clusterRouter,
+                                    ApplicationEventPublisher eventPublisher,
+                                    NotificationProperties properties,
+                                    MeterRegistry meterRegistry) {
+        this.fanOutBulkRepository = fanOutBulkRepository;
+        this.notificationSchedulerUtils = notificationSchedulerUtils;
+        this.userPresenceService = userPresenceService;
+        this.clusterRouter = clusterRouter;
+        this.eventPublisher = eventPublisher;
+
+        NotificationProperties.Pending config = properties.getPending();
+        this.tickMillis = Math.max(1, config.getTick().toMillis());
+        this.retryDelay = config.getRetryDelay();
+        this.wheel = new TimingWheel(tickMillis, config.getWheelSize(), System.currentTimeMillis());
+        this.ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "pending-delivery");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.pushedCounter = Counter.builder("notification.pending.pushed")
+                .description("Пользователи, получившие отложенные уведомления по таймеру")
+                .register(meterRegistry);
+        this.deferredCounter = Counter.builder("notification.pending.deferred")
+                .description("Пользователи, не подключённые в момент срабатывания таймера")
+                .register(meterRegistry);
+        Gauge.builder("notification.pending.timers", this, PendingDeliveryScheduler::timerCount)
+                .description("Число пользователей с запланированной доставкой")
+                .register(meterRegistry);
+        Gauge.builder("notification.pending.due.offline", dueWhileOffline, Set::size)
+                .description("Пользователи с наступившей доставкой, ожидающие подключения")
+                .register(meterRegistry);
+        clusterRouter.onRemoteUserOnline(this::remoteUserConnected);
+        clusterRouter.onPendingScheduled(this::addTimer);
+        clusterRouter.onRingChanged((previous, current) -> ticker.execute(() -> rebalance(previous, current)));
+    }
+
+    /**
+     * Загружает таймеры из pending_notification и запускает колесо.
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        long loaded = fanOutBulkRepository.forEachEarliestPending((userId, scheduledTime) -> {
+            if (clusterRouter.owns(userId)) {
+                addTimer(userId, scheduledTime);
+            }
+        });
+        log.info("Загружены таймеры отложенных уведомлений: пользователей {}", loaded);
+        ticker.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Заводит таймер доставки; таймер пользователя другого узла заводит его владелец.
+     */
+    public void schedule(Long userId, LocalDateTime scheduledTime) {
+        if (userId == null || scheduledTime == null) {
+            return;
+        }
+        if (!clusterRouter.owns(userId)) {
+            clusterRouter.forwardPendingScheduled(userId, scheduledTime);
+            return;
+        }
+        addTimer(userId, scheduledTime);
+    }
+
+    private void addTimer(Long userId, LocalDateTime scheduledTime) {
+        long deadline = scheduledTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        synchronized (wheel) {
+            long current = deadlines.get(userId);
+            if (current != LongLongMap.EMPTY && current <= deadline) {
+                return;
+            }
+            // прежний, более поздний таймер останется в колесе и будет проигнорирован при срабатывании
+            deadlines.put(userId, deadline);
+            wheel.add(userId, deadline);
+        }
+    }
+
+    public void scheduleAll(Collection<PendingNotification> pendingNotifications) {
+        for (PendingNotification pending : pendingNotifications) {
+            schedule(pending.getUserId(), pending.getScheduledTime());
+        }
+    }
+
+    /**
+     * Откладывает недоставленное уведомление до следующего окна пользователя.
+     *
+     * @return {@code false}, если у пользователя нет окна уведомлений
+     */
+    public boolean defer(Long userId, Event event) {
+        PendingNotification pending = notificationSchedulerUtils.buildPendingNotification(userId, event);
+        if (pending == null) {
+            return false;
+        }
+        fanOutBulkRepository.insertPendingNotifications(List.of(pending));
+        schedule(pending.getUserId(), pending.getScheduledTime());
+        return true;
+    }
+
+    /**
+     * Доставка не удалась: пробуем снова через {@code pending.retryDelay}, не дожидаясь /app/ping.
+     */
+    public void retryLater(Long userId) {
+        schedule(userId, LocalDateTime.now().plus(retryDelay));
+    }
+
+    /**
+     * Пользователь подключился: если его доставка уже наступила, отправляем сразу.
+     */
+    public void userConnected(Long userId) {
+        if (dueWhileOffline.remove(userId)) {
+            log.debug("Пользователь {} подключился после наступления доставки", userId);
+            pushedCounter.increment();
+            eventPublisher.publishEvent(new PendingNotificationsDueEvent(List.of(userId)));
+        }
+    }
+
+    /**
+     * Пользователь подключился к другому узлу: наступившую здесь доставку выполнит тот узел.
+     */
+    private void remoteUserConnected(long userId) {
+        if (dueWhileOffline.remove(userId) && clusterRouter.forwardPendingDue(userId)) {
+            log.debug("Доставка отложенных уведомлений пользователя {} передана узлу с его сессией", userId);
+            pushedCounter.increment();
+        }
+    }
+
+    /**
+     * Кольцо кластера изменилось: таймеры ушедших к другим узлам пользователей сбрасываются
+     * (их новые владельцы загрузят таймеры из pending_notification), а если узел ушёл —
+     * загружаются таймеры пользователей, перешедших к этому узлу.
+     */
+    void rebalance(ConsistentHashRing previous, ConsistentHashRing current) {
+        try {
+            String self = clusterRouter.nodeId();
+            int dropped;
+            synchronized (wheel) {
+                // записи в колесе без deadlines игнорируются при срабатывании
+                dropped = deadlines.removeIf(userId -> !current.ownerOf(userId).equals(self));
+            }
+            dueWhileOffline.removeIf(userId -> !current.ownerOf(userId).equals(self));
+
+            long adopted = 0;
+            if (!current.nodes().containsAll(previous.nodes())) {
+                adopted = fanOutBulkRepository.forEachEarliestPending((userId, scheduledTime) -> {
+                    if (current.ownerOf(userId).equals(self) && !previous.ownerOf(userId).equals(self)) {
+                        addTimer(userId, scheduledTime);
+                    }
+                });
+            }
+            log.info("Таймеры отложенных уведомлений перераспределены: сброшено {}, просмотрено pending-пользователей {}",
+                    dropped, adopted);
+        } catch (Exception e) {
+            log.error("Ошибка перераспределения таймеров отложенных уведомлений: {}", e.getMessage(), e);
+        }
+    }
+
+    void tick() {
+        try {
+            List<Long> due = new ArrayList<>();
+            synchronized (wheel) {
+                wheel.advance(System.currentTimeMillis(), (userId, deadline) -> {
+                    if (deadlines.remove(userId, deadline)) {
+                        due.add(userId);
+                    }
+                });
+            }
+            if (due.isEmpty()) {
+                return;
+            }
+
+            List<Long> online = new ArrayList<>(due.size());
+            int forwarded = 0;
+            for (Long userId : due) {
+                if (userPresenceService.isUserOnline(userId)) {
+                    online.add(userId);
+                } else if (clusterRouter.forwardPendingDue(userId)) {
+                    forwarded++;
+                } else {
+                    dueWhileOffline.add(userId);
+                    deferredCounter.increment();
+                }
+            }
+            pushedCounter.increment(online.size() + forwarded);
+            log.info("Наступила доставка отложенных уведомлений: в сети {}, на других узлах {}, не в сети {}",
+                    online.size(), forwarded, due.size() - online.size() - forwarded);
+            if (!online.isEmpty()) {
+                eventPublisher.publishEvent(new PendingNotificationsDueEvent(online));
+            }
+        } catch (Exception e) {
+            log.error("Ошибка при срабатывании таймеров отложенных уведомлений: {}", e.getMessage(), e);
+        }
+    }
+
+    public int timerCount() {
+        synchronized (wheel) {
+            return deadlines.size();
+        }
+    }
+
+    public boolean isDueWhileOffline(Long userId) {
+        return dueWhileOffline.contains(userId);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ticker.shutdownNow();
+    }
+}
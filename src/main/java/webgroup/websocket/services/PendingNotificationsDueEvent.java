@@ -0,0 +1,9 @@
+package webgroup.websocket.services;
+
+import java.util.List;
+
+/**
+ * Наступило время доставки отложенных уведомлений для подключённых пользователей.
+ */
+public record PendingNotificationsDueEvent(List<Long> userIds) {
+}
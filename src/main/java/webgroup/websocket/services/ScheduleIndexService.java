@@ -0,0 +1,246 @@
+package webgroup.websocket.services;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import webgroup.websocket.config.NotificationProperties;
+import webgroup.websocket.entities.User;
+import webgroup.websocket.repositories.UserRepository;
+import webgroup.websocket.utils.TimeSlotIndex;
+import webgroup.websocket.utils.UserBitmap;
+import webgroup.websocket.utils.UserChunkScanner;
+import webgroup.websocket.utils.WeeklySchedule;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Кэш скомпилированных расписаний пользователей. Расписание компилируется один раз
+ * и перестраивается только при изменении периодов через {@link NotificationPeriodService}.
+ * Вместе с кэшем инкрементально поддерживается обратный индекс {@link TimeSlotIndex},
+ * по которому рассылка сразу получает пользователей с открытым окном, и множество всех
+ * пользователей — аудитория, из которой рассылка вычитает открытых.
+ * После коммита изменения периоды пользователя перечитываются из базы под блокировкой
+ * пользователя: расписание, применённое последним, прочитано после всех закоммиченных правок,
+ * даже если обработчики коммитов конкурентных правок выполнились в обратном порядке.
+ * Каждый узел кластера держит индекс всех пользователей, а рассылку для пользователя выполняет
+ * его владелец, поэтому о правке сообщается всем узлам через {@link ClusterRouter}; узлы
+ * перечитывают пользователя из базы в своём потоке, а не в потоке шины. Правки в обход
+ * приложения подхватываются периодической сверкой с базой ({@code cluster.scheduleResync}).
+ */
+@Service
+@Slf4j
+public class ScheduleIndexService implements SmartInitializingSingleton {
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final UserChunkScanner userChunkScanner;
+    private final UserRepository userRepository;
+    private final TransactionTemplate readTransaction;
+    private final ClusterRouter clusterRouter;
+    private final long resyncMillis;
+    private final ScheduledExecutorService refresher;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    private final Map<Long, WeeklySchedule> schedules = new ConcurrentHashMap<>();
+    private final TimeSlotIndex timeSlotIndex = new TimeSlotIndex();
+    /** Все известные пользователи, в том числе без периодов уведомлений. */
+    private final UserBitmap allUsers = new UserBitmap();
+
+    public ScheduleIndexService(UserChunkScanner userChunkScanner,
+                                UserRepository userRepository,
+                                PlatformTransactionManager transactionManager,
+                                ClusterRouter clusterRouter,
+                                NotificationProperties properties) {
+        this.userChunkScanner = userChunkScanner;
+        this.userRepository = userRepository;
+        this.clusterRouter = clusterRouter;
+        this.resyncMillis = properties.getCluster().getScheduleResync().toMillis();
+        this.refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "schedule-index");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // после коммита ресурсы исходной транзакции ещё привязаны к потоку: читаем в отдельной
+        this.readTransaction = new TransactionTemplate(transactionManager);
+        this.readTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.readTransaction.setReadOnly(true);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+        clusterRouter.onScheduleChanged(userId -> refresher.execute(() -> refresh(userId)));
+    }
+
+    /**
+     * Загружает расписания всех пользователей до старта веб-сервера,
+     * чтобы обратный индекс был полным к первому событию.
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        long scanned = userChunkScanner.forEachChunk(users -> users.forEach(this::scheduleOf));
+        log.info("Индекс расписаний построен: пользователей {}, с расписанием {}", scanned, schedules.size());
+        if (resyncMillis > 0) {
+            refresher.scheduleWithFixedDelay(this::resync, resyncMillis, resyncMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public WeeklySchedule scheduleOf(User user) {
+        if (user.getId() == null) {
+            return WeeklySchedule.compile(user.getNotificationPeriods());
+        }
+        WeeklySchedule cached = schedules.get(user.getId());
+        if (cached != null) {
+            return cached;
+        }
+        return schedules.computeIfAbsent(user.getId(), id -> {
+            WeeklySchedule compiled = WeeklySchedule.compile(user.getNotificationPeriods());
+            timeSlotIndex.add(id, compiled);
+            allUsers.add(id);
+            return compiled;
+        });
+    }
+
+    public WeeklySchedule scheduleOf(Long userId) {
+        return schedules.getOrDefault(userId, WeeklySchedule.EMPTY);
+    }
+
+    /**
+     * Пользователи, у которых окно уведомлений открыто в момент {@code dateTime}.
+     */
+    public RoaringBitmap usersOpenAt(LocalDateTime dateTime) {
+        int second = WeeklySchedule.secondOfWeek(dateTime);
+        int slot = TimeSlotIndex.slotOf(second);
+
+        RoaringBitmap open = timeSlotIndex.fullyCovered(slot);
+        UserBitmap.forEach(timeSlotIndex.partiallyCovered(slot), userId -> {
+            if (scheduleOf(userId).isOpenAt(second)) {
+                open.add(UserBitmap.key(userId));
+            }
+        });
+        return open;
+    }
+
+    /**
+     * Снимок всех пользователей: аудитория рассылки без загрузки таблицы users.
+     */
+    public RoaringBitmap allUsers() {
+        return allUsers.snapshot();
+    }
+
+    /**
+     * Перестраивает расписание пользователя после коммита текущей транзакции
+     * и сообщает о правке остальным узлам.
+     */
+    public void rebuild(Long userId) {
+        afterCommit(() -> refreshAndBroadcast(userId));
+    }
+
+    public void evict(Long userId) {
+        afterCommit(() -> refreshAndBroadcast(userId));
+    }
+
+    private void refreshAndBroadcast(Long userId) {
+        refresh(userId);
+        clusterRouter.broadcastScheduleChanged(userId);
+    }
+
+    /**
+     * Сверяет индекс с базой: пользователи с другим расписанием, новые и удалённые перечитываются
+     * через {@link #refresh}, чтобы устаревший снимок порции не перезаписал более свежую правку.
+     *
+     * @return число перечитанных пользователей
+     */
+    public int resync() {
+        UserBitmap seen = new UserBitmap();
+        int[] refreshed = new int[1];
+        try {
+            userChunkScanner.forEachChunk(users -> users.forEach(user -> {
+                seen.add(user.getId());
+                WeeklySchedule cached = schedules.get(user.getId());
+                if (cached == null || !cached.equals(WeeklySchedule.compile(user.getNotificationPeriods()))) {
+                    refresh(user.getId());
+                    refreshed[0]++;
+                }
+            }));
+        } catch (Exception e) {
+            log.error("Сверка индекса расписаний с базой прервана: {}", e.getMessage(), e);
+            return refreshed[0];
+        }
+        RoaringBitmap removed = RoaringBitmap.andNot(allUsers.snapshot(), seen.snapshot());
+        UserBitmap.forEach(removed, userId -> {
+            refresh(userId);
+            refreshed[0]++;
+        });
+        if (refreshed[0] > 0) {
+            log.info("Сверка индекса расписаний с базой: перечитано пользователей {}", refreshed[0]);
+        }
+        return refreshed[0];
+    }
+
+    /**
+     * Перечитывает периоды пользователя из базы и применяет их к кэшу и индексу;
+     * удалённый пользователь убирается из аудитории.
+     */
+    public void refresh(Long userId) {
+        synchronized (locks[(int) Math.floorMod(userId, (long) LOCK_STRIPES)]) {
+            Optional<WeeklySchedule> compiled;
+            try {
+                compiled = readTransaction.execute(status -> userRepository.findByIdWithNotificationPeriods(userId)
+                        .map(user -> WeeklySchedule.compile(user.getNotificationPeriods())));
+            } catch (Exception e) {
+                log.error("Не удалось перечитать расписание пользователя {}: {}", userId, e.getMessage(), e);
+                return;
+            }
+            if (compiled == null || compiled.isEmpty()) {
+                schedules.computeIfPresent(userId, (id, previous) -> {
+                    timeSlotIndex.remove(id, previous);
+                    allUsers.remove(id);
+                    return null;
+                });
+                log.debug("Пользователь {} удалён из индекса расписаний", userId);
+                return;
+            }
+            schedules.compute(userId, (id, previous) -> {
+                timeSlotIndex.remove(id, previous);
+                timeSlotIndex.add(id, compiled.get());
+                allUsers.add(id);
+                return compiled.get();
+            });
+            log.debug("Расписание пользователя {} перестроено: {} интервалов", userId, compiled.get().intervalCount());
+        }
+    }
+
+    public int size() {
+        return schedules.size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refresher.shutdownNow();
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+}
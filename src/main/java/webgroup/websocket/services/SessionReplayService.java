@@ -0,0 +1,176 @@
+package webgroup.websocket.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import webgroup.websocket.config.NotificationProperties;
+import webgroup.websocket.utils.NotificationFrame;
+import webgroup.websocket.utils.ReplayRing;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Буферы последних уведомлений для возобновления сессии после кратковременного разрыва.
+ * У каждого пользователя свой {@link ReplayRing} с ограничением по числу записей и возрасту;
+ * общий объём ограничен {@code maxMemory}, при превышении целиком вытесняются буферы
+ * пользователей, к которым дольше всего не обращались.
+ * <p>
+ * Буферы разных пользователей не делят блокировку: запись и чтение синхронизируются только
+ * на буфере своего пользователя, общий объём считается атомарным счётчиком. Вытеснение по
+ * лимиту памяти выполняет один поток за раз, остальные его не ждут.
+ */
+@Service
+@Slf4j
+public class SessionReplayService {
+
+    private final NotificationProperties.Replay config;
+    private final long maxAgeMillis;
+    private final long maxBytes;
+
+    private final ConcurrentHashMap<Long, UserRing> rings = new ConcurrentHashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    private final Counter replayedCounter;
+    private final Counter gapMissedCounter;
+    private final Counter evictedCounter;
+
+    public SessionReplayService(NotificationProperties properties, MeterRegistry meterRegistry) {
+        this.config = properties.getReplay();
+        this.maxAgeMillis = config.getMaxAge().toMillis();
+        this.maxBytes = config.getMaxMemory().toBytes();
+
+        this.replayedCounter = outcomeCounter(meterRegistry, "replayed");
+        this.gapMissedCounter = outcomeCounter(meterRegistry, "gap_missed");
+        this.evictedCounter = outcomeCounter(meterRegistry, "evicted");
+        Gauge.builder("notification.replay.bytes", totalBytes, AtomicLong::get)
+                .description("Память, занятая буферами повторной доставки")
+                .register(meterRegistry);
+    }
+
+    public void record(Long userId, long seq, NotificationFrame frame) {
+        long now = System.currentTimeMillis();
+        while (true) {
+            UserRing ring = rings.computeIfAbsent(userId, id -> new UserRing(new ReplayRing(config.getBufferSize())));
+            synchronized (ring) {
+                if (ring.removed) {
+                    continue;
+                }
+                ring.lastAccess = now;
+                long delta = ring.buffer.append(seq, frame, now) - ring.buffer.trimOlderThan(now - maxAgeMillis);
+                totalBytes.addAndGet(delta);
+            }
+            evictIfNeeded(ring);
+            return;
+        }
+    }
+
+    /**
+     * Уведомления после {@code lastSeenSeq} для повторной отправки;
+     * {@code null}, если буфер не покрывает разрыв целиком.
+     */
+    public List<ReplayRing.Entry> replay(Long userId, long lastSeenSeq) {
+        UserRing ring = rings.get(userId);
+        if (ring == null) {
+            gapMissedCounter.increment();
+            return null;
+        }
+        List<ReplayRing.Entry> entries;
+        synchronized (ring) {
+            long now = System.currentTimeMillis();
+            if (!ring.removed) {
+                ring.lastAccess = now;
+                totalBytes.addAndGet(-ring.buffer.trimOlderThan(now - maxAgeMillis));
+            }
+            entries = !ring.removed && ring.buffer.covers(lastSeenSeq)
+                    ? ring.buffer.entriesAfter(lastSeenSeq)
+                    : null;
+        }
+        if (entries == null) {
+            gapMissedCounter.increment();
+            log.debug("Буфер пользователя {} не покрывает разрыв после seq={}", userId, lastSeenSeq);
+            return null;
+        }
+        replayedCounter.increment(entries.size());
+        return entries;
+    }
+
+    public void evict(Long userId) {
+        UserRing ring = rings.get(userId);
+        if (ring != null) {
+            remove(userId, ring);
+        }
+    }
+
+    public long totalBytes() {
+        return totalBytes.get();
+    }
+
+    private void evictIfNeeded(UserRing current) {
+        if (totalBytes.get() <= maxBytes || !evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            if (totalBytes.get() > maxBytes) {
+                List<Map.Entry<Long, UserRing>> eldest = new ArrayList<>(rings.entrySet());
+                eldest.sort(Comparator.comparingLong(entry -> entry.getValue().lastAccess));
+                for (Map.Entry<Long, UserRing> entry : eldest) {
+                    if (totalBytes.get() <= maxBytes) {
+                        break;
+                    }
+                    if (entry.getValue() != current && remove(entry.getKey(), entry.getValue())) {
+                        evictedCounter.increment();
+                        log.debug("Буфер повторной доставки пользователя {} вытеснен по лимиту памяти", entry.getKey());
+                    }
+                }
+            }
+            synchronized (current) {
+                while (totalBytes.get() > maxBytes && current.buffer.size() > 0) {
+                    totalBytes.addAndGet(-current.buffer.removeOldest());
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private boolean remove(Long userId, UserRing ring) {
+        synchronized (ring) {
+            if (ring.removed) {
+                return false;
+            }
+            ring.removed = true;
+            rings.remove(userId, ring);
+            totalBytes.addAndGet(-ring.buffer.bytes());
+            return true;
+        }
+    }
+
+    private static Counter outcomeCounter(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("notification.replay.outcome")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Буфер пользователя и время последнего обращения к нему; изменяется под монитором самого объекта.
+     */
+    private static final class UserRing {
+
+        private final ReplayRing buffer;
+        private volatile long lastAccess;
+        private boolean removed;
+
+        private UserRing(ReplayRing buffer) {
+            this.buffer = buffer;
+        }
+    }
+}
@@ -1,25 +1,133 @@
 package webgroup.websocket.services;
 
 
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.messaging.simp.user.SimpUserRegistry;
+import org.roaringbitmap.RoaringBitmap;
 import org.springframework.stereotype.Service;
+import webgroup.websocket.utils.UserBitmap;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongConsumer;
+
+/**
+ * Реестр присутствия: для каждого пользователя хранится число открытых WebSocket-сессий,
+ * пользователь онлайн, пока закрыты не все его сессии. Проверка онлайн-статуса — один
+ * lookup по ключу вместо обхода SimpUserRegistry. Заполняется из {@code WebSocketEventListener}.
+ * Пользователи онлайн дублируются в сжатом битовом множестве для выбора аудитории рассылки.
+ */
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class UserPresenceService {
 
-    private final SimpUserRegistry simpUserRegistry;
+    private final Map<String, Long> sessionOwners = new ConcurrentHashMap<>();
+    private final Map<Long, Integer> sessionCounts = new ConcurrentHashMap<>();
+    private final UserBitmap online = new UserBitmap();
 
-    public boolean isUserOnline(Long userId) {
-        boolean isOnline = simpUserRegistry.getUsers().stream()
-                .anyMatch(user -> user.getName().equals(String.valueOf(userId)));
+    /**
+     * @return {@code true}, если это первая сессия пользователя: переход от 0 к 1 считается
+     * атомарно вместе со счётчиком, поэтому при одновременных подключениях он достаётся ровно одному
+     */
+    public boolean sessionConnected(String sessionId, Long userId) {
+        if (sessionOwners.putIfAbsent(sessionId, userId) != null) {
+            log.warn("Сессия уже зарегистрирована: sessionId={}", sessionId);
+            return false;
+        }
+        int sessions = sessionCounts.compute(userId, (id, count) -> {
+            if (count == null) {
+                online.add(id);
+                return 1;
+            }
+            return count + 1;
+        });
+        log.info("Сессия зарегистрирована: sessionId={}, userId={}, сессий пользователя: {}. Онлайн: {}",
+                sessionId, userId, sessions, sessionCounts.size());
+        return sessions == 1;
+    }
 
-        log.info("Проверка онлайн-статуса: userId={}, online={}", userId, isOnline);
+    /**
+     * @return владелец сессии и признак того, что закрыта его последняя сессия (переход от 1 к 0,
+     * посчитанный атомарно); {@code null} для неизвестной сессии
+     */
+    public SessionClosed sessionDisconnected(String sessionId) {
+        Long userId = sessionOwners.remove(sessionId);
+        if (userId == null) {
+            log.warn("Попытка удалить неизвестную сессию: sessionId={}", sessionId);
+            return null;
+        }
+        Integer remaining = sessionCounts.computeIfPresent(userId, (id, count) -> {
+            if (count > 1) {
+                return count - 1;
+            }
+            online.remove(id);
+            return null;
+        });
+        log.info("Сессия удалена: sessionId={}, userId={}, осталось сессий: {}. Онлайн: {}",
+                sessionId, userId, remaining == null ? 0 : remaining, sessionCounts.size());
+        return new SessionClosed(userId, remaining == null);
+    }
+
+    public boolean isUserOnline(Long userId) {
+        boolean isOnline = userId != null && sessionCounts.containsKey(userId);
+        log.debug("Проверка онлайн-статуса: userId={}, online={}", userId, isOnline);
         return isOnline;
     }
-}
 
+    public Long userOfSession(String sessionId) {
+        return sessionOwners.get(sessionId);
+    }
+
+    /**
+     * Сессии пользователя. Обходит все сессии, поэтому только для редких операций вроде
+     * принудительного отключения.
+     */
+    public List<String> sessionsOf(Long userId) {
+        List<String> sessions = new ArrayList<>();
+        sessionOwners.forEach((sessionId, owner) -> {
+            if (owner.equals(userId)) {
+                sessions.add(sessionId);
+            }
+        });
+        return sessions;
+    }
+
+    public int sessionCount(Long userId) {
+        return sessionCounts.getOrDefault(userId, 0);
+    }
+
+    public int onlineUserCount() {
+        return sessionCounts.size();
+    }
 
+    /**
+     * Снимок пользователей онлайн сжатым битовым множеством.
+     */
+    public RoaringBitmap onlineUsers() {
+        return online.snapshot();
+    }
+
+    /**
+     * Снимок идентификаторов пользователей онлайн на момент вызова.
+     */
+    public long[] onlineUsersSnapshot() {
+        long[] snapshot = new long[sessionCounts.size()];
+        int size = 0;
+        for (Long userId : sessionCounts.keySet()) {
+            if (size == snapshot.length) {
+                snapshot = Arrays.copyOf(snapshot, size * 2 + 1);
+            }
+            snapshot[size++] = userId;
+        }
+        return size == snapshot.length ? snapshot : Arrays.copyOf(snapshot, size);
+    }
+
+    public void forEachOnlineUser(LongConsumer consumer) {
+        sessionCounts.keySet().forEach(consumer::accept);
+    }
+
+    public record SessionClosed(Long userId, boolean lastSession) {
+    }
+}
@@ -15,6 +15,7 @@ import java.util.List;
 public class UserService {
 
     private final UserRepository userRepository;
+    private final ScheduleIndexService scheduleIndexService;
 
     @Transactional
     public User createUser(String fullName) {
@@ -23,7 +24,10 @@ public class UserService {
         }
 
         User user = new User(fullName);
-        return userRepository.save(user);
+        User saved = userRepository.save(user);
+        // новый пользователь сразу входит в аудиторию рассылки, пока без периодов уведомлений
+        scheduleIndexService.rebuild(saved.getId());
+        return saved;
     }
 
     @Transactional(readOnly = true)
@@ -44,6 +48,7 @@ public class UserService {
 
         if (userRepository.existsById(userId)) {
             userRepository.deleteById(userId);
+            scheduleIndexService.evict(userId);
             return true;
         }
         return false;
@@ -0,0 +1,144 @@
+package webgroup.websocket.utils;
+
+import webgroup.websocket.entities.Event;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Сводка уведомлений пользователя: пачка событий за короткое окно или всё, что пришло, пока
+ * клиент не успевал подтверждать. Уведомления копятся здесь и затем уходят одним кадром —
+ * JSON-массивом уже сериализованных тел — под одним номером последовательности. Для отправленных сводок
+ * хранится список событий, чтобы при переносе номера в pending не потерять ни одно из них.
+ * Класс не потокобезопасен.
+ */
+public class CoalescedDigest {
+
+    private final List<Event> events = new ArrayList<>();
+    private final List<NotificationFrame> frames = new ArrayList<>();
+    private final Map<Long, List<Event>> sent = new HashMap<>();
+    private long lingerUntil;
+
+    public void add(Event event, NotificationFrame frame) {
+        events.add(event);
+        frames.add(frame);
+    }
+
+    public int size() {
+        return events.size();
+    }
+
+    public boolean isEmpty() {
+        return events.isEmpty() && sent.isEmpty();
+    }
+
+    /**
+     * Последнее событие сводки — его окно хранит как представителя номера.
+     */
+    public Event lastEvent() {
+        return events.get(events.size() - 1);
+    }
+
+    /**
+     * Момент, раньше которого сводку не отправляют, чтобы собрать пачку; {@code 0} — без ожидания.
+     */
+    public long lingerUntil() {
+        return lingerUntil;
+    }
+
+    public void lingerUntil(long deadlineMillis) {
+        this.lingerUntil = deadlineMillis;
+    }
+
+    /**
+     * Одно уведомление уходит своим кадром без обёртки в массив.
+     */
+    public NotificationFrame toFrame() {
+        if (frames.size() == 1) {
+            return frames.get(0);
+        }
+        int length = frames.size() + 1;
+        for (NotificationFrame frame : frames) {
+            length += frame.size();
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+        out.write('[');
+        for (int i = 0; i < frames.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            out.writeBytes(frames.get(i).payload());
+        }
+        out.write(']');
+        List<NotificationFrame> items = List.copyOf(frames);
+        boolean cbor = items.stream().allMatch(NotificationFrame::hasCbor);
+        return new NotificationFrame(null, out.toByteArray(), items.get(0).contentType(),
+                cbor ? () -> toCborArray(items) : null);
+    }
+
+    /**
+     * CBOR-массив собирается из уже закодированных элементов: заголовок массива и тела подряд.
+     */
+    private static byte[] toCborArray(List<NotificationFrame> items) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int size = items.size();
+        if (size < 24) {
+            out.write(0x80 | size);
+        } else if (size < 0x100) {
+            out.write(0x98);
+            out.write(size);
+        } else if (size < 0x10000) {
+            out.write(0x99);
+            out.write(size >>> 8);
+            out.write(size);
+        } else {
+            out.write(0x9a);
+            out.write(size >>> 24);
+            out.write(size >>> 16);
+            out.write(size >>> 8);
+            out.write(size);
+        }
+        for (NotificationFrame item : items) {
+            out.writeBytes(item.cborPayload());
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Сводка отправлена под номером {@code seq}: накопленное переходит в отправленные.
+     */
+    public void markSent(long seq) {
+        sent.put(seq, new ArrayList<>(events));
+        events.clear();
+        frames.clear();
+        lingerUntil = 0;
+    }
+
+    /**
+     * Забирает накопленные и ещё не отправленные события.
+     */
+    public List<Event> takePending() {
+        List<Event> pending = new ArrayList<>(events);
+        events.clear();
+        frames.clear();
+        lingerUntil = 0;
+        return pending;
+    }
+
+    /**
+     * События отправленной сводки с номером {@code seq}; {@code null}, если номер — обычное уведомление.
+     */
+    public List<Event> release(long seq) {
+        return sent.remove(seq);
+    }
+
+    /**
+     * Забывает отправленные сводки с номерами до {@code seq} включительно — клиент их получил.
+     */
+    public void releaseUpTo(long seq) {
+        sent.keySet().removeIf(sentSeq -> sentSeq <= seq);
+    }
+}
@@ -0,0 +1,100 @@
+package webgroup.websocket.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Неизменяемое кольцо согласованного хеширования userId → узел. Каждый узел занимает
+ * {@code virtualNodes} точек кольца, пользователь принадлежит первой точке по часовой стрелке
+ * от хеша его id. При добавлении или удалении узла меняют владельца только пользователи
+ * этого узла (в среднем 1/N), а не все. Поиск владельца — двоичный поиск по массиву точек.
+ */
+public final class ConsistentHashRing {
+
+    private final Set<String> nodes;
+    private final long[] points;
+    private final String[] owners;
+
+    private ConsistentHashRing(Set<String> nodes, int virtualNodes) {
+        this.nodes = Collections.unmodifiableSet(nodes);
+        long[][] entries = new long[nodes.size() * virtualNodes][];
+        String[] nodeIds = nodes.toArray(String[]::new);
+        int size = 0;
+        for (int n = 0; n < nodeIds.length; n++) {
+            for (int v = 0; v < virtualNodes; v++) {
+                entries[size++] = new long[]{hash(nodeIds[n] + "#" + v), n};
+            }
+        }
+        // при совпадении точек порядок узлов по id делает кольцо одинаковым на всех узлах
+        Arrays.sort(entries, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        this.points = new long[size];
+        this.owners = new String[size];
+        for (int i = 0; i < size; i++) {
+            points[i] = entries[i][0];
+            owners[i] = nodeIds[(int) entries[i][1]];
+        }
+    }
+
+    public static ConsistentHashRing of(Collection<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("Кольцо должно содержать хотя бы один узел");
+        }
+        return new ConsistentHashRing(new TreeSet<>(nodes), Math.max(1, virtualNodes));
+    }
+
+    public String ownerOf(long userId) {
+        int index = Arrays.binarySearch(points, mix(userId));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    public Set<String> nodes() {
+        return nodes;
+    }
+
+    public boolean contains(String node) {
+        return nodes.contains(node);
+    }
+
+    public ConsistentHashRing with(String node, int virtualNodes) {
+        if (nodes.contains(node)) {
+            return this;
+        }
+        Set<String> updated = new TreeSet<>(nodes);
+        updated.add(node);
+        return new ConsistentHashRing(updated, virtualNodes);
+    }
+
+    public ConsistentHashRing without(String node, int virtualNodes) {
+        if (!nodes.contains(node) || nodes.size() == 1) {
+            return this;
+        }
+        Set<String> updated = new TreeSet<>(nodes);
+        updated.remove(node);
+        return new ConsistentHashRing(updated, virtualNodes);
+    }
+
+    /** FNV-1a по байтам строки с финальным перемешиванием. */
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    /** Финализатор SplitMix64: последовательные id равномерно распределяются по кольцу. */
+    private static long mix(long value) {
+        long z = value + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,14 @@
+package webgroup.websocket.utils;
+
+public enum DeliveryResult {
+    /** Кадр передан брокеру. */
+    SENT,
+    /** У пользователя нет открытых сессий — повтор бессмысленен, уведомление откладывается. */
+    OFFLINE,
+    /** Ошибка отправки, которая может пройти при повторе. */
+    FAILED,
+    /** Уведомление принято в память и уйдёт позже: в сводке или после переподключения пользователя. */
+    BUFFERED,
+    /** Окно неподтверждённых уведомлений пользователя заполнено — уведомление откладывается. */
+    WINDOW_FULL
+}
@@ -0,0 +1,55 @@
+package webgroup.websocket.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.Deflater;
+
+/**
+ * Сжатие тел уведомлений в формате zlib (DEFLATE), в браузере распаковывается
+ * {@code DecompressionStream('deflate')}. Deflater переиспользуется через небольшой общий пул
+ * на каждый уровень: его создание заметно дороже самого сжатия небольшого кадра. Пул ограничен
+ * числом ядер, а не числом потоков, поэтому виртуальные потоки не копят нативную память zlib;
+ * лишний Deflater сразу освобождается через {@link Deflater#end()}.
+ */
+public final class FrameCompression {
+
+    private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors();
+
+    @SuppressWarnings("unchecked")
+    private static final ArrayBlockingQueue<Deflater>[] POOLS = new ArrayBlockingQueue[11];
+
+    static {
+        for (int i = 0; i < POOLS.length; i++) {
+            POOLS[i] = new ArrayBlockingQueue<>(POOL_SIZE);
+        }
+    }
+
+    private FrameCompression() {
+    }
+
+    public static byte[] deflate(byte[] payload, int level) {
+        int index = Math.max(Deflater.DEFAULT_COMPRESSION, Math.min(Deflater.BEST_COMPRESSION, level)) + 1;
+        ArrayBlockingQueue<Deflater> pool = POOLS[index];
+        Deflater deflater = pool.poll();
+        if (deflater == null) {
+            deflater = new Deflater(index - 1);
+        }
+        try {
+            deflater.setInput(payload);
+            deflater.finish();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, payload.length / 2));
+            byte[] buffer = new byte[Math.max(64, Math.min(payload.length, 8192))];
+            while (!deflater.finished()) {
+                int written = deflater.deflate(buffer);
+                out.write(buffer, 0, written);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.reset();
+            if (!pool.offer(deflater)) {
+                deflater.end();
+            }
+        }
+    }
+}
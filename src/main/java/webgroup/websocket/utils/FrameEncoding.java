@@ -0,0 +1,52 @@
+package webgroup.websocket.utils;
+
+import org.springframework.util.MimeType;
+
+/**
+ * Кодировка тела уведомлений сессии, выбирается клиентом при CONNECT.
+ */
+public enum FrameEncoding {
+    JSON,
+    CBOR;
+
+    public static final MimeType APPLICATION_CBOR = MimeType.valueOf("application/cbor");
+
+    /**
+     * Кодировка из заголовка {@code encoding} (например {@code cbor} или {@code cbor,deflate})
+     * или {@code content-type} кадра CONNECT; по умолчанию JSON.
+     */
+    public static FrameEncoding fromHeaders(String encoding, String contentType) {
+        if (hasToken(encoding, "cbor")) {
+            return CBOR;
+        }
+        if (contentType != null) {
+            try {
+                if (APPLICATION_CBOR.equalsTypeAndSubtype(MimeType.valueOf(contentType))) {
+                    return CBOR;
+                }
+            } catch (IllegalArgumentException ignored) {
+                // некорректный content-type — остаёмся на JSON
+            }
+        }
+        return JSON;
+    }
+
+    /**
+     * Клиент готов принимать сжатые кадры: {@code deflate} в заголовке {@code encoding}.
+     */
+    public static boolean requestsDeflate(String encoding) {
+        return hasToken(encoding, "deflate");
+    }
+
+    private static boolean hasToken(String header, String token) {
+        if (header == null) {
+            return false;
+        }
+        for (String part : header.split("[,+]")) {
+            if (part.trim().equalsIgnoreCase(token)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,260 @@
+package webgroup.websocket.utils;
+
+import webgroup.websocket.entities.Event;
+
+/**
+ * Окно неподтверждённых уведомлений одного пользователя.
+ * Номера последовательности растут монотонно; неподтверждённые номера лежат в диапазоне
+ * [base, next) и адресуют кольцевые массивы по {@code seq % length}. Массивы создаются
+ * при первой отправке, растут до {@code capacity} и освобождаются, когда окно пустеет,
+ * поэтому простаивающий пользователь стоит несколько полей. Класс не потокобезопасен.
+ */
+public class InFlightWindow {
+
+    private static final int INITIAL_LENGTH = 4;
+
+    private final int capacity;
+    private long base;
+    private long next;
+    private int inFlight;
+    private volatile long detachedAt;
+
+    private long[] sentAt;
+    private byte[] attempts;
+    private Event[] events;
+    private NotificationFrame[] frames;
+
+    public InFlightWindow(int capacity) {
+        this(capacity, 1);
+    }
+
+    /**
+     * @param firstSeq номер первого уведомления окна
+     */
+    public InFlightWindow(int capacity, long firstSeq) {
+        this.capacity = capacity;
+        this.base = firstSeq;
+        this.next = firstSeq;
+    }
+
+    /**
+     * @return номер последовательности или {@code -1}, если окно заполнено
+     */
+    public long offer(Event event, NotificationFrame frame, long nowMillis) {
+        if (next - base >= capacity) {
+            return -1;
+        }
+        ensureLength((int) (next - base) + 1);
+        long seq = next++;
+        int index = indexOf(seq);
+        sentAt[index] = nowMillis;
+        attempts[index] = 1;
+        events[index] = event;
+        frames[index] = frame;
+        inFlight++;
+        return seq;
+    }
+
+    /**
+     * @return {@code true}, если номер был в окне и ещё не подтверждён
+     */
+    public boolean ack(long seq) {
+        if (seq < base || seq >= next) {
+            return false;
+        }
+        int index = indexOf(seq);
+        if (frames[index] == null) {
+            return false;
+        }
+        clear(index);
+        advanceBase();
+        return true;
+    }
+
+    /**
+     * Обходит неподтверждённые номера, отправленные раньше {@code deadlineMillis}.
+     * Если обработчик вернул {@code true}, номер остаётся в окне с новым временем отправки,
+     * иначе удаляется из окна.
+     */
+    public void forEachExpired(long deadlineMillis, long nowMillis, ExpiredHandler handler) {
+        for (long seq = base; seq < next; seq++) {
+            int index = indexOf(seq);
+            if (frames[index] == null || sentAt[index] > deadlineMillis) {
+                continue;
+            }
+            if (handler.expired(seq, events[index], frames[index], attempts[index])) {
+                sentAt[index] = nowMillis;
+                attempts[index]++;
+            } else {
+                clear(index);
+            }
+        }
+        advanceBase();
+    }
+
+    /**
+     * Подтверждает все номера до {@code seq} включительно.
+     *
+     * @return число подтверждённых номеров
+     */
+    public int ackUpTo(long seq) {
+        int acked = 0;
+        for (long current = base; current < next && current <= seq; current++) {
+            int index = indexOf(current);
+            if (frames[index] != null) {
+                clear(index);
+                acked++;
+            }
+        }
+        advanceBase();
+        return acked;
+    }
+
+    /**
+     * Обходит неподтверждённые номера для повторной отправки, время отправки сдвигается на {@code nowMillis}.
+     */
+    public void forEachUnacked(long nowMillis, UnackedHandler handler) {
+        for (long seq = base; seq < next; seq++) {
+            int index = indexOf(seq);
+            if (frames[index] != null) {
+                sentAt[index] = nowMillis;
+                handler.unacked(seq, frames[index]);
+            }
+        }
+    }
+
+    /**
+     * Удаляет из окна все неподтверждённые номера, передавая их обработчику.
+     */
+    public void drain(DrainHandler handler) {
+        for (long seq = base; seq < next; seq++) {
+            int index = indexOf(seq);
+            if (frames[index] != null) {
+                handler.drained(seq, events[index]);
+                clear(index);
+            }
+        }
+        advanceBase();
+    }
+
+    /**
+     * Удаляет самый старый неподтверждённый номер, освобождая место в заполненном окне.
+     *
+     * @return удалённый номер или {@code -1} для пустого окна
+     */
+    public long dropOldest() {
+        if (inFlight == 0) {
+            return -1;
+        }
+        // после advanceBase номер base всегда неподтверждён
+        long seq = base;
+        clear(indexOf(seq));
+        advanceBase();
+        return seq;
+    }
+
+    /**
+     * Самое раннее время отправки среди неподтверждённых номеров, {@code -1} для пустого окна.
+     */
+    public long oldestSentAt() {
+        long oldest = -1;
+        for (long seq = base; seq < next; seq++) {
+            int index = indexOf(seq);
+            if (frames[index] != null && (oldest < 0 || sentAt[index] < oldest)) {
+                oldest = sentAt[index];
+            }
+        }
+        return oldest;
+    }
+
+    public int inFlight() {
+        return inFlight;
+    }
+
+    public long lastSeq() {
+        return next - 1;
+    }
+
+    /**
+     * Время отключения последней сессии пользователя, {@code 0} — пользователь подключён.
+     */
+    public long detachedAt() {
+        return detachedAt;
+    }
+
+    public void detach(long nowMillis) {
+        this.detachedAt = nowMillis;
+    }
+
+    public void attach() {
+        this.detachedAt = 0;
+    }
+
+    private void clear(int index) {
+        events[index] = null;
+        frames[index] = null;
+        inFlight--;
+    }
+
+    private void advanceBase() {
+        while (base < next && frames[indexOf(base)] == null) {
+            base++;
+        }
+        if (base == next && frames != null && frames.length > INITIAL_LENGTH) {
+            sentAt = null;
+            attempts = null;
+            events = null;
+            frames = null;
+        }
+    }
+
+    private int indexOf(long seq) {
+        return (int) (seq % frames.length);
+    }
+
+    private void ensureLength(int required) {
+        if (frames == null) {
+            int length = Math.min(capacity, INITIAL_LENGTH);
+            sentAt = new long[length];
+            attempts = new byte[length];
+            events = new Event[length];
+            frames = new NotificationFrame[length];
+            return;
+        }
+        if (required <= frames.length) {
+            return;
+        }
+        int length = Math.min(capacity, Math.max(required, frames.length * 2));
+        long[] newSentAt = new long[length];
+        byte[] newAttempts = new byte[length];
+        Event[] newEvents = new Event[length];
+        NotificationFrame[] newFrames = new NotificationFrame[length];
+        for (long seq = base; seq < next; seq++) {
+            int from = (int) (seq % frames.length);
+            int to = (int) (seq % length);
+            newSentAt[to] = sentAt[from];
+            newAttempts[to] = attempts[from];
+            newEvents[to] = events[from];
+            newFrames[to] = frames[from];
+        }
+        sentAt = newSentAt;
+        attempts = newAttempts;
+        events = newEvents;
+        frames = newFrames;
+    }
+
+    @FunctionalInterface
+    public interface ExpiredHandler {
+        boolean expired(long seq, Event event, NotificationFrame frame, int attempts);
+    }
+
+    @FunctionalInterface
+    public interface UnackedHandler {
+        void unacked(long seq, NotificationFrame frame);
+    }
+
+    @FunctionalInterface
+    public interface DrainHandler {
+        void drained(long seq, Event event);
+    }
+}
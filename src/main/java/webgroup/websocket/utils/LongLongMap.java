@@ -0,0 +1,150 @@
+package webgroup.websocket.utils;
+
+import java.util.Arrays;
+import java.util.function.LongPredicate;
+
+/**
+ * Хеш-таблица long → long с открытой адресацией и линейным пробированием. Ключи и значения
+ * лежат в двух примитивных массивах, поэтому миллионы записей не создают объектов-обёрток.
+ * Ключ {@link #EMPTY} зарезервирован под пустую ячейку. Класс не потокобезопасен.
+ */
+public class LongLongMap {
+
+    /** Значение, которое {@link #get} возвращает для отсутствующего ключа; как ключ не используется. */
+    public static final long EMPTY = Long.MIN_VALUE;
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+    private long[] values;
+    private int mask;
+    private int size;
+    private int resizeAt;
+
+    public LongLongMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    public long get(long key) {
+        int slot = find(key);
+        return slot < 0 ? EMPTY : values[slot];
+    }
+
+    public void put(long key, long value) {
+        checkKey(key);
+        int slot = slotOf(key);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size >= resizeAt) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    /**
+     * Удаляет запись, только если ключ сейчас связан с {@code value}.
+     */
+    public boolean remove(long key, long value) {
+        int slot = find(key);
+        if (slot < 0 || values[slot] != value) {
+            return false;
+        }
+        delete(slot);
+        return true;
+    }
+
+    /**
+     * Удаляет записи, ключи которых удовлетворяют условию.
+     *
+     * @return число удалённых записей
+     */
+    public int removeIf(LongPredicate keyPredicate) {
+        int before = size;
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(keys.length);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY && !keyPredicate.test(oldKeys[i])) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+        return before - size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int find(long key) {
+        if (key == EMPTY) {
+            return -1;
+        }
+        int slot = slotOf(key);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Удаление со сдвигом: следующие записи цепочки переезжают в освободившуюся ячейку,
+     * поэтому пробирование не требует меток удалённых ячеек.
+     */
+    private void delete(int slot) {
+        size--;
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while (keys[next] != EMPTY) {
+            int home = slotOf(keys[next]);
+            // запись можно сдвинуть в gap, если её домашняя ячейка не лежит между gap и next
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[gap] = EMPTY;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        values = new long[capacity];
+        mask = capacity - 1;
+        size = 0;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private int slotOf(long key) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32)) & mask;
+    }
+
+    private static void checkKey(long key) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("Ключ зарезервирован: " + key);
+        }
+    }
+}
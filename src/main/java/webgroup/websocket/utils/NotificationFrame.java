@@ -0,0 +1,88 @@
+package webgroup.websocket.utils;
+
+import org.springframework.util.MimeType;
+
+import java.util.function.Supplier;
+
+/**
+ * Уже сериализованное тело уведомления. Кодируется один раз на событие и
+ * разделяется между всеми получателями — при отправке меняется только destination.
+ * Компактное CBOR-представление для сессий, договорившихся о нём при CONNECT, кодируется
+ * лениво при первой такой отправке и тоже одно на всех получателей; так же, один раз на кадр,
+ * сжимаются тела для сессий со сжатием.
+ */
+public final class NotificationFrame {
+
+    private final Long eventId;
+    private final byte[] payload;
+    private final MimeType contentType;
+    private final Supplier<byte[]> cborEncoder;
+    private volatile byte[] cborPayload;
+    private volatile byte[] deflatedPayload;
+    private volatile byte[] deflatedCbor;
+
+    public NotificationFrame(Long eventId, byte[] payload, MimeType contentType) {
+        this(eventId, payload, contentType, null);
+    }
+
+    public NotificationFrame(Long eventId, byte[] payload, MimeType contentType, Supplier<byte[]> cborEncoder) {
+        this.eventId = eventId;
+        this.payload = payload;
+        this.contentType = contentType;
+        this.cborEncoder = cborEncoder;
+    }
+
+    public Long eventId() {
+        return eventId;
+    }
+
+    public byte[] payload() {
+        return payload;
+    }
+
+    public MimeType contentType() {
+        return contentType;
+    }
+
+    public int size() {
+        return payload.length;
+    }
+
+    public boolean hasCbor() {
+        return cborEncoder != null;
+    }
+
+    /**
+     * @return CBOR-представление тела или {@code null}, если кадр умеет только JSON
+     */
+    public byte[] cborPayload() {
+        byte[] cbor = cborPayload;
+        if (cbor == null && cborEncoder != null) {
+            // гонка безопасна: одновременные вызовы закодируют одно и то же
+            cbor = cborEncoder.get();
+            cborPayload = cbor;
+        }
+        return cbor;
+    }
+
+    /**
+     * Тело в кодировке {@code encoding}, сжатое {@link FrameCompression}; уровень сжатия
+     * задаётся настройками и одинаков для всех вызовов.
+     */
+    public byte[] deflated(FrameEncoding encoding, int level) {
+        if (encoding == FrameEncoding.CBOR && hasCbor()) {
+            byte[] deflated = deflatedCbor;
+            if (deflated == null) {
+                deflated = FrameCompression.deflate(cborPayload(), level);
+                deflatedCbor = deflated;
+            }
+            return deflated;
+        }
+        byte[] deflated = deflatedPayload;
+        if (deflated == null) {
+            deflated = FrameCompression.deflate(payload, level);
+            deflatedPayload = deflated;
+        }
+        return deflated;
+    }
+}
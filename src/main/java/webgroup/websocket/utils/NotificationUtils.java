@@ -2,12 +2,15 @@ package webgroup.websocket.utils;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
-import webgroup.websocket.config.NotificationWebSocketSender;
+import org.springframework.util.MimeTypeUtils;
+import webgroup.websocket.dto.PendingNotificationDTO;
 import webgroup.websocket.entities.Event;
-import webgroup.websocket.entities.User;
+import webgroup.websocket.services.DeliveryRetryScheduler;
+import webgroup.websocket.services.DeliveryTracker;
 
 
 import java.util.*;
@@ -16,46 +19,108 @@ import java.util.*;
 public class NotificationUtils {
 
     private static final Logger log = LoggerFactory.getLogger(NotificationUtils.class);
-    private final NotificationWebSocketSender webSocketSender;
+    private final DeliveryTracker deliveryTracker;
+    private final DeliveryRetryScheduler deliveryRetryScheduler;
+    private final ObjectMapper objectMapper;
+    private final ObjectMapper cborMapper = new CBORMapper();
 
 
     public NotificationUtils(
-            NotificationWebSocketSender webSocketSender) {
-        this.webSocketSender = webSocketSender;
+            DeliveryTracker deliveryTracker,
+            DeliveryRetryScheduler deliveryRetryScheduler,
+            ObjectMapper objectMapper) {
+        this.deliveryTracker = deliveryTracker;
+        this.deliveryRetryScheduler = deliveryRetryScheduler;
+        this.objectMapper = objectMapper;
     }
 
-
-    public boolean sendNotification(User user, Event event) {
-        String msg = String.format("Новое событие: %s", event.getMessage());
-        Map<String, Object> messagePayload = new HashMap<>();
+    /**
+     * Сериализует уведомление о событии один раз для всех получателей.
+     * CBOR кодируется из того же объекта, только если кадр понадобится CBOR-сессии.
+     */
+    public NotificationFrame encode(Event event) {
+        Map<String, Object> messagePayload = new LinkedHashMap<>();
         messagePayload.put("eventId", event.getId());
-        messagePayload.put("msg", msg);
-        String jsonMsg;
+        messagePayload.put("msg", String.format("Новое событие: %s", event.getMessage()));
         try {
-            jsonMsg = new ObjectMapper().writeValueAsString(messagePayload);
+            byte[] payload = objectMapper.writeValueAsBytes(messagePayload);
+            return new NotificationFrame(event.getId(), payload, MimeTypeUtils.APPLICATION_JSON,
+                    () -> toCbor(messagePayload));
         } catch (JsonProcessingException e) {
-            log.error("Ошибка сериализации сообщения для пользователя {} (ID={}): {}",
-                    user.getFullName(), user.getId(), e.getMessage());
-            return false;
+            throw new IllegalStateException("Ошибка сериализации уведомления для события " + event.getId(), e);
         }
-        for (int attempt = 1; attempt <= 3; attempt++) {
-            log.info("Попытка {} отправки уведомления пользователю {} (ID={}): {}",
-                    attempt, user.getFullName(), user.getId(), msg);
-
-            boolean success = webSocketSender.sendToUser(user.getId(), jsonMsg);
-            if (success) {
-                log.info("Уведомление успешно отправлено пользователю {} (ID={}) на попытке №{}",
-                        user.getFullName(), user.getId(), attempt);
-                return true;
-            } else {
-                log.warn("Попытка {} не удалась для пользователя {} (ID={})", attempt, user.getFullName(), user.getId());
-            }
+    }
+
+    /**
+     * Сериализует страницу отложенных уведомлений в один кадр /topic/pending.
+     */
+    public NotificationFrame encodePending(List<PendingNotificationDTO> page) {
+        List<Map<String, Object>> payloadList = new ArrayList<>(page.size());
+        for (PendingNotificationDTO pending : page) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("eventId", pending.getEventId());
+            map.put("msg", pending.getMessage());
+            map.put("scheduledTime", pending.getScheduledTime().toString());
+            payloadList.add(map);
         }
+        try {
+            byte[] payload = objectMapper.writeValueAsBytes(payloadList);
+            return new NotificationFrame(null, payload, MimeTypeUtils.APPLICATION_JSON, () -> toCbor(payloadList));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Ошибка сериализации отложенных уведомлений", e);
+        }
+    }
 
+    private byte[] toCbor(Object payload) {
+        try {
+            return cborMapper.writeValueAsBytes(payload);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Ошибка сериализации уведомления в CBOR", e);
+        }
+    }
 
-        log.warn("Уведомление для пользователя {} (ID={}) сохранено в pending после 3 неудачных попыток",
-                user.getFullName(), user.getId());
-        return false;
+    /**
+     * Отправляет уведомление без ожидания повторов: при ошибке отправки повтор передаётся
+     * в {@link DeliveryRetryScheduler}, неподтверждённое клиентом повторяет {@link DeliveryTracker}.
+     *
+     * @return {@code false}, если пользователь не в сети или его окно заполнено и уведомление нужно отложить
+     */
+    public boolean sendNotification(Long userId, Event event, NotificationFrame frame) {
+        return handle(userId, event, frame, deliveryTracker.send(userId, event, frame));
+    }
+
+    /**
+     * Отправляет пользователю несколько уведомлений одним кадром-сводкой.
+     *
+     * @return события, которые нужно отложить
+     */
+    public List<Event> sendNotifications(Long userId, List<Event> events, List<NotificationFrame> frames) {
+        List<DeliveryResult> results = deliveryTracker.sendAll(userId, events, frames);
+        List<Event> rejected = new ArrayList<>();
+        for (int i = 0; i < events.size(); i++) {
+            if (!handle(userId, events.get(i), frames.get(i), results.get(i))) {
+                rejected.add(events.get(i));
+            }
+        }
+        return rejected;
+    }
+
+    private boolean handle(Long userId, Event event, NotificationFrame frame, DeliveryResult result) {
+        switch (result) {
+            case SENT, BUFFERED -> {
+                log.debug("Уведомление eventId={} отправлено пользователю ID={}", event.getId(), userId);
+                return true;
+            }
+            case FAILED -> {
+                log.warn("Отправка пользователю ID={} не удалась, eventId={} передано на повтор", userId, event.getId());
+                deliveryRetryScheduler.scheduleRetry(userId, event, frame);
+                return true;
+            }
+            default -> {
+                log.debug("Пользователь ID={} недоступен ({}), eventId={} будет отложено", userId, result, event.getId());
+                return false;
+            }
+        }
     }
 
 
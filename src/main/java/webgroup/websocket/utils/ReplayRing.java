@@ -0,0 +1,138 @@
+package webgroup.websocket.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Кольцевой буфер последних уведомлений пользователя, упорядоченных по номеру последовательности.
+ * При переполнении вытесняется самое старое уведомление. Размер учитывается в байтах,
+ * чтобы сервис повторной доставки мог держать общий лимит памяти. Класс не потокобезопасен.
+ */
+public class ReplayRing {
+
+    /** Оценка накладных расходов на запись: seq, время и ссылка на кадр. */
+    public static final int ENTRY_OVERHEAD = 24;
+
+    private static final int INITIAL_LENGTH = 4;
+
+    private final int capacity;
+    private long[] seqs;
+    private long[] storedAt;
+    private NotificationFrame[] frames;
+    private int head;
+    private int count;
+    private long bytes;
+    private long lastSeq;
+
+    public ReplayRing(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return изменение занятой памяти в байтах
+     */
+    public long append(long seq, NotificationFrame frame, long nowMillis) {
+        long before = bytes;
+        if (count == capacity) {
+            removeOldest();
+        }
+        ensureLength(count + 1);
+        int index = (head + count) % frames.length;
+        seqs[index] = seq;
+        storedAt[index] = nowMillis;
+        frames[index] = frame;
+        count++;
+        bytes += sizeOf(frame);
+        lastSeq = Math.max(lastSeq, seq);
+        return bytes - before;
+    }
+
+    /**
+     * @return освобождённая память в байтах
+     */
+    public long trimOlderThan(long cutoffMillis) {
+        long before = bytes;
+        while (count > 0 && storedAt[head] < cutoffMillis) {
+            removeOldest();
+        }
+        return before - bytes;
+    }
+
+    /**
+     * @return освобождённая память в байтах
+     */
+    public long removeOldest() {
+        if (count == 0) {
+            return 0;
+        }
+        long freed = sizeOf(frames[head]);
+        frames[head] = null;
+        head = (head + 1) % frames.length;
+        count--;
+        bytes -= freed;
+        return freed;
+    }
+
+    /**
+     * Буфер покрывает разрыв, если в нём есть все номера после {@code lastSeenSeq}.
+     */
+    public boolean covers(long lastSeenSeq) {
+        if (lastSeenSeq >= lastSeq) {
+            return true;
+        }
+        return count > 0 && seqs[head] <= lastSeenSeq + 1;
+    }
+
+    public List<Entry> entriesAfter(long lastSeenSeq) {
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int index = (head + i) % frames.length;
+            if (seqs[index] > lastSeenSeq) {
+                entries.add(new Entry(seqs[index], frames[index]));
+            }
+        }
+        return entries;
+    }
+
+    public long bytes() {
+        return bytes;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    private void ensureLength(int required) {
+        if (frames == null) {
+            int length = Math.min(capacity, INITIAL_LENGTH);
+            seqs = new long[length];
+            storedAt = new long[length];
+            frames = new NotificationFrame[length];
+            return;
+        }
+        if (required <= frames.length) {
+            return;
+        }
+        int length = Math.min(capacity, Math.max(required, frames.length * 2));
+        long[] newSeqs = new long[length];
+        long[] newStoredAt = new long[length];
+        NotificationFrame[] newFrames = new NotificationFrame[length];
+        for (int i = 0; i < count; i++) {
+            int from = (head + i) % frames.length;
+            newSeqs[i] = seqs[from];
+            newStoredAt[i] = storedAt[from];
+            newFrames[i] = frames[from];
+        }
+        seqs = newSeqs;
+        storedAt = newStoredAt;
+        frames = newFrames;
+        head = 0;
+    }
+
+    private static long sizeOf(NotificationFrame frame) {
+        return frame.size() + ENTRY_OVERHEAD;
+    }
+
+    public record Entry(long seq, NotificationFrame frame) {
+    }
+}
@@ -0,0 +1,69 @@
+package webgroup.websocket.utils;
+
+import org.roaringbitmap.RoaringBitmap;
+
+/**
+ * Обратный индекс "слот недели -> пользователи, чьё окно уведомлений покрывает слот".
+ * Слот полностью покрытый окном попадает в {@code full}, покрытый частично — в {@code partial};
+ * для частично покрытых слотов точный ответ даёт скомпилированное расписание пользователя.
+ * Пользователи слота хранятся сжатыми битовыми множествами {@link UserBitmap}.
+ */
+public class TimeSlotIndex {
+
+    public static final int SLOT_SECONDS = 15 * 60;
+    public static final int SLOT_COUNT = WeeklySchedule.SECONDS_PER_WEEK / SLOT_SECONDS;
+
+    private final UserBitmap[] full;
+    private final UserBitmap[] partial;
+
+    public TimeSlotIndex() {
+        this.full = new UserBitmap[SLOT_COUNT];
+        this.partial = new UserBitmap[SLOT_COUNT];
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            full[slot] = new UserBitmap();
+            partial[slot] = new UserBitmap();
+        }
+    }
+
+    public static int slotOf(int secondOfWeek) {
+        return secondOfWeek / SLOT_SECONDS;
+    }
+
+    public void add(Long userId, WeeklySchedule schedule) {
+        forEachSlot(schedule, (slot, covered) -> (covered ? full : partial)[slot].add(userId));
+    }
+
+    public void remove(Long userId, WeeklySchedule schedule) {
+        forEachSlot(schedule, (slot, covered) -> (covered ? full : partial)[slot].remove(userId));
+    }
+
+    /** Снимок пользователей, чьё окно покрывает слот целиком. */
+    public RoaringBitmap fullyCovered(int slot) {
+        return full[slot].snapshot();
+    }
+
+    /** Снимок пользователей, чьё окно покрывает часть слота. */
+    public RoaringBitmap partiallyCovered(int slot) {
+        return partial[slot].snapshot();
+    }
+
+    private static void forEachSlot(WeeklySchedule schedule, SlotConsumer consumer) {
+        if (schedule == null) {
+            return;
+        }
+        for (int i = 0; i < schedule.intervalCount(); i++) {
+            int start = schedule.intervalStart(i);
+            int end = schedule.intervalEnd(i);
+            for (int slot = slotOf(start); slot <= slotOf(end - 1); slot++) {
+                int slotStart = slot * SLOT_SECONDS;
+                boolean covered = start <= slotStart && slotStart + SLOT_SECONDS <= end;
+                consumer.accept(slot, covered);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface SlotConsumer {
+        void accept(int slot, boolean fullyCovered);
+    }
+}
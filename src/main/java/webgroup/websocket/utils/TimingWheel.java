@@ -0,0 +1,96 @@
+package webgroup.websocket.utils;
+
+import java.util.Arrays;
+
+/**
+ * Хешированное колесо таймеров для пар (userId, deadline).
+ * Таймер попадает в корзину своего тика; таймеры дальше одного оборота колеса остаются
+ * в корзине и проверяются раз за оборот. Корзины хранят примитивные массивы, поэтому
+ * миллионы таймеров не создают миллионы объектов. Класс не потокобезопасен.
+ */
+public class TimingWheel {
+
+    private final long tickMillis;
+    private final int mask;
+    private final Bucket[] buckets;
+    private long currentTick;
+    private int size;
+
+    public TimingWheel(long tickMillis, int wheelSize, long startMillis) {
+        if (Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("Размер колеса должен быть степенью двойки: " + wheelSize);
+        }
+        this.tickMillis = tickMillis;
+        this.mask = wheelSize - 1;
+        this.buckets = new Bucket[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            buckets[i] = new Bucket();
+        }
+        this.currentTick = startMillis / tickMillis;
+    }
+
+    public void add(long userId, long deadlineMillis) {
+        long tick = Math.max(deadlineMillis / tickMillis, currentTick);
+        buckets[(int) (tick & mask)].add(userId, deadlineMillis);
+        size++;
+    }
+
+    /**
+     * Продвигает колесо до {@code nowMillis} включительно и отдаёт истёкшие таймеры.
+     */
+    public void advance(long nowMillis, ExpiryConsumer consumer) {
+        long targetTick = nowMillis / tickMillis;
+        while (currentTick <= targetTick) {
+            size -= buckets[(int) (currentTick & mask)].expire(currentTick, tickMillis, consumer);
+            currentTick++;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @FunctionalInterface
+    public interface ExpiryConsumer {
+        void expired(long userId, long deadlineMillis);
+    }
+
+    private static final class Bucket {
+
+        private long[] userIds = new long[0];
+        private long[] deadlines = new long[0];
+        private int count;
+
+        void add(long userId, long deadline) {
+            if (count == userIds.length) {
+                int capacity = Math.max(4, count * 2);
+                userIds = Arrays.copyOf(userIds, capacity);
+                deadlines = Arrays.copyOf(deadlines, capacity);
+            }
+            userIds[count] = userId;
+            deadlines[count] = deadline;
+            count++;
+        }
+
+        int expire(long tick, long tickMillis, ExpiryConsumer consumer) {
+            int expired = 0;
+            int i = 0;
+            while (i < count) {
+                if (deadlines[i] / tickMillis <= tick) {
+                    consumer.expired(userIds[i], deadlines[i]);
+                    count--;
+                    userIds[i] = userIds[count];
+                    deadlines[i] = deadlines[count];
+                    expired++;
+                } else {
+                    i++;
+                }
+            }
+            if (count == 0 && userIds.length > 64) {
+                userIds = new long[0];
+                deadlines = new long[0];
+            }
+            return expired;
+        }
+    }
+}
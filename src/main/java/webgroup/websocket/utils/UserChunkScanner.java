@@ -0,0 +1,55 @@
+package webgroup.websocket.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import webgroup.websocket.config.NotificationProperties;
+import webgroup.websocket.entities.User;
+import webgroup.websocket.repositories.UserRepository;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Обход всех пользователей порциями по ключу (keyset pagination по id).
+ * Каждая порция загружается отдельным запросом вне общей транзакции, поэтому
+ * сущности сразу отсоединены от контекста и освобождаются до загрузки следующей порции.
+ */
+@Component
+public class UserChunkScanner {
+
+    private static final Logger log = LoggerFactory.getLogger(UserChunkScanner.class);
+    private final UserRepository userRepository;
+    private final int chunkSize;
+
+    public UserChunkScanner(UserRepository userRepository, NotificationProperties properties) {
+        this.userRepository = userRepository;
+        this.chunkSize = properties.getFanOut().getChunkSize();
+    }
+
+    public long forEachChunk(Consumer<List<User>> consumer) {
+        long lastId = 0L;
+        long scanned = 0;
+        PageRequest page = PageRequest.ofSize(chunkSize);
+
+        while (true) {
+            List<Long> ids = userRepository.findIdsAfter(lastId, page);
+            if (ids.isEmpty()) {
+                break;
+            }
+
+            List<User> chunk = userRepository.findAllWithNotificationPeriodsByIdIn(ids);
+            consumer.accept(chunk);
+
+            scanned += ids.size();
+            lastId = ids.get(ids.size() - 1);
+            log.debug("Обработана порция пользователей: {} (последний ID={})", ids.size(), lastId);
+
+            if (ids.size() < chunkSize) {
+                break;
+            }
+        }
+        return scanned;
+    }
+}
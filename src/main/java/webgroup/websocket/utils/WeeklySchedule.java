@@ -0,0 +1,176 @@
+package webgroup.websocket.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import webgroup.websocket.entities.NotificationPeriod;
+
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Скомпилированное недельное расписание пользователя.
+ * Периоды переводятся в секунды от начала недели (понедельник 00:00), периоды через полночь
+ * разрезаются, пересекающиеся и смежные интервалы сливаются. Интервалы полуоткрытые [start, end).
+ * Проверка "открыто ли окно" и поиск следующего открытия — бинарный поиск по отсортированным массивам.
+ */
+public final class WeeklySchedule {
+
+    private static final Logger log = LoggerFactory.getLogger(WeeklySchedule.class);
+
+    public static final int SECONDS_PER_DAY = 24 * 60 * 60;
+    public static final int SECONDS_PER_WEEK = 7 * SECONDS_PER_DAY;
+
+    public static final WeeklySchedule EMPTY = new WeeklySchedule(new int[0], new int[0], new int[0]);
+
+    private final int[] starts;
+    private final int[] ends;
+    private final int[] openings;
+
+    private WeeklySchedule(int[] starts, int[] ends, int[] openings) {
+        this.starts = starts;
+        this.ends = ends;
+        this.openings = openings;
+    }
+
+    public static WeeklySchedule compile(Collection<NotificationPeriod> periods) {
+        if (periods == null || periods.isEmpty()) {
+            return EMPTY;
+        }
+
+        List<int[]> intervals = new ArrayList<>(periods.size() + 1);
+        for (NotificationPeriod period : periods) {
+            DayOfWeek day = period.getDay();
+            LocalTime start = period.getStartTime();
+            LocalTime end = period.getEndTime();
+            if (day == null || start == null || end == null) {
+                log.warn("Пропущен период из-за null-значений: day={}, start={}, end={}", day, start, end);
+                continue;
+            }
+
+            int dayOffset = (day.getValue() - 1) * SECONDS_PER_DAY;
+            int startSecond = start.toSecondOfDay();
+            int endSecond = end.toSecondOfDay();
+            if (start.isBefore(end)) {
+                // конец периода включается в окно
+                intervals.add(new int[]{dayOffset + startSecond, dayOffset + endSecond + 1});
+            } else {
+                // период через полночь: хвост текущего дня и начало следующего
+                intervals.add(new int[]{dayOffset + startSecond, dayOffset + SECONDS_PER_DAY});
+                int nextDayOffset = (day.getValue() % 7) * SECONDS_PER_DAY;
+                if (endSecond > 0) {
+                    intervals.add(new int[]{nextDayOffset, nextDayOffset + endSecond});
+                }
+            }
+        }
+
+        if (intervals.isEmpty()) {
+            return EMPTY;
+        }
+
+        intervals.sort(Comparator.comparingInt(interval -> interval[0]));
+        int[] starts = new int[intervals.size()];
+        int[] ends = new int[intervals.size()];
+        int count = 0;
+        for (int[] interval : intervals) {
+            if (count > 0 && interval[0] <= ends[count - 1]) {
+                ends[count - 1] = Math.max(ends[count - 1], interval[1]);
+            } else {
+                starts[count] = interval[0];
+                ends[count] = interval[1];
+                count++;
+            }
+        }
+        starts = Arrays.copyOf(starts, count);
+        ends = Arrays.copyOf(ends, count);
+
+        // окно, начатое в воскресенье и продолжающееся в понедельник 00:00, не является новым открытием
+        boolean wrapsWeek = starts[0] == 0 && ends[count - 1] == SECONDS_PER_WEEK;
+        int[] openings = wrapsWeek ? Arrays.copyOfRange(starts, 1, count) : starts.clone();
+
+        return new WeeklySchedule(starts, ends, openings);
+    }
+
+    public static int secondOfWeek(LocalDateTime dateTime) {
+        return (dateTime.getDayOfWeek().getValue() - 1) * SECONDS_PER_DAY + dateTime.toLocalTime().toSecondOfDay();
+    }
+
+    public boolean isEmpty() {
+        return starts.length == 0;
+    }
+
+    /**
+     * Расписания равны, если совпадают их интервалы.
+     */
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof WeeklySchedule schedule
+                && Arrays.equals(starts, schedule.starts) && Arrays.equals(ends, schedule.ends);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(starts) + Arrays.hashCode(ends);
+    }
+
+    public int intervalCount() {
+        return starts.length;
+    }
+
+    public int intervalStart(int index) {
+        return starts[index];
+    }
+
+    public int intervalEnd(int index) {
+        return ends[index];
+    }
+
+    public boolean isOpenAt(LocalDateTime dateTime) {
+        return isOpenAt(secondOfWeek(dateTime));
+    }
+
+    public boolean isOpenAt(int secondOfWeek) {
+        int index = upperBound(starts, secondOfWeek) - 1;
+        return index >= 0 && secondOfWeek < ends[index];
+    }
+
+    /**
+     * Ближайшее начало окна строго после {@code from}; {@code null}, если расписание пустое.
+     */
+    public LocalDateTime nextOpeningAfter(LocalDateTime from) {
+        if (isEmpty()) {
+            return null;
+        }
+        if (openings.length == 0) {
+            // окно открыто всю неделю
+            return from;
+        }
+
+        int second = secondOfWeek(from);
+        int index = upperBound(openings, second);
+        int delta = index < openings.length
+                ? openings[index] - second
+                : openings[0] + SECONDS_PER_WEEK - second;
+        return from.truncatedTo(ChronoUnit.SECONDS).plusSeconds(delta);
+    }
+
+    private static int upperBound(int[] values, int key) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,120 @@
+package webgroup.websocket.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Выбор аудитории события: «доставить сейчас» (окно открыто и пользователь онлайн),
+ * «окно открыто, сессий нет» и «окно закрыто» на множествах Set&lt;Long&gt; и RoaringBitmap.
+ * Время на событие — результат JMH, занимаемую множествами память печатает {@link #main}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AudienceBenchmark {
+
+    @Param({"1000000"})
+    private int users;
+
+    private Set<Long> allSet;
+    private Set<Long> openSet;
+    private Set<Long> onlineSet;
+    private RoaringBitmap allBitmap;
+    private RoaringBitmap openBitmap;
+    private RoaringBitmap onlineBitmap;
+
+    @Setup
+    public void setUp() {
+        Audience audience = Audience.generate(users);
+        allSet = audience.toSet(audience.all);
+        openSet = audience.toSet(audience.open);
+        onlineSet = audience.toSet(audience.online);
+        allBitmap = audience.all;
+        openBitmap = audience.open;
+        onlineBitmap = audience.online;
+    }
+
+    @Benchmark
+    public long hashSet() {
+        long checksum = 0;
+        for (Long userId : allSet) {
+            if (!openSet.contains(userId)) {
+                checksum += userId;
+            } else if (onlineSet.contains(userId)) {
+                checksum += 3 * userId;
+            } else {
+                checksum += 7 * userId;
+            }
+        }
+        return checksum;
+    }
+
+    @Benchmark
+    public long roaringBitmap() {
+        RoaringBitmap openNow = RoaringBitmap.and(openBitmap, allBitmap);
+        long[] checksum = new long[1];
+        RoaringBitmap.and(openNow, onlineBitmap).forEach((int userId) -> checksum[0] += 3L * userId);
+        RoaringBitmap.andNot(openNow, onlineBitmap).forEach((int userId) -> checksum[0] += 7L * userId);
+        RoaringBitmap.andNot(allBitmap, openNow).forEach((int userId) -> checksum[0] += userId);
+        return checksum[0];
+    }
+
+    public static void main(String[] args) throws Exception {
+        Audience audience = Audience.generate(1_000_000);
+        // HashMap.Node (32) + Long (16) + ссылка в таблице (~8) на элемент
+        long setBytes = 56L * (audience.all.getLongCardinality() + audience.open.getLongCardinality()
+                + audience.online.getLongCardinality());
+        long bitmapBytes = audience.all.getLongSizeInBytes() + audience.open.getLongSizeInBytes()
+                + audience.online.getLongSizeInBytes();
+        System.out.printf("Set<Long>: ~%d КБ, RoaringBitmap: %d КБ%n", setBytes / 1024, bitmapBytes / 1024);
+        new Runner(new OptionsBuilder().include(AudienceBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    /** Пользователи с id 1..n, у 30% окно открыто, 10% онлайн. */
+    private record Audience(RoaringBitmap all, RoaringBitmap open, RoaringBitmap online) {
+
+        static Audience generate(int users) {
+            Random random = new Random(42);
+            RoaringBitmap all = new RoaringBitmap();
+            RoaringBitmap open = new RoaringBitmap();
+            RoaringBitmap online = new RoaringBitmap();
+            all.add(1L, users + 1L);
+            for (int userId = 1; userId <= users; userId++) {
+                if (random.nextInt(10) < 3) {
+                    open.add(userId);
+                }
+                if (random.nextInt(10) == 0) {
+                    online.add(userId);
+                }
+            }
+            all.runOptimize();
+            return new Audience(all, open, online);
+        }
+
+        Set<Long> toSet(RoaringBitmap bitmap) {
+            Set<Long> set = new HashSet<>(bitmap.getCardinality() * 2);
+            bitmap.forEach((int userId) -> set.add((long) userId));
+            return set;
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package webgroup.websocket.benchmarks;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.mapstruct.factory.Mappers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.LoggerFactory;
+import org.springframework.messaging.simp.config.ChannelRegistration;
+import org.springframework.messaging.simp.config.TaskExecutorRegistration;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.util.MimeTypeUtils;
+import webgroup.websocket.config.NotificationProperties;
+import webgroup.websocket.config.NotificationWebSocketSender;
+import webgroup.websocket.config.WebSocketConfig;
+import webgroup.websocket.controllers.EventController;
+import webgroup.websocket.controllers.WebSocketController;
+import webgroup.websocket.dto.EventDTO;
+import webgroup.websocket.dto.PendingNotificationDTO;
+import webgroup.websocket.entities.Event;
+import webgroup.websocket.entities.User;
+import webgroup.websocket.mappers.EventMapper;
+import webgroup.websocket.repositories.EventOutboxRepository;
+import webgroup.websocket.repositories.EventRepository;
+import webgroup.websocket.repositories.FanOutBulkRepository;
+import webgroup.websocket.repositories.PendingNotificationRepository;
+import webgroup.websocket.repositories.UserRepository;
+import webgroup.websocket.services.ClusterRouter;
+import webgroup.websocket.services.DeliveryIndex;
+import webgroup.websocket.services.DeliveryTracker;
+import webgroup.websocket.services.EventService;
+import webgroup.websocket.services.NotificationService;
+import webgroup.websocket.services.PartitionedExecutor;
+import webgroup.websocket.services.PendingDeliveryScheduler;
+import webgroup.websocket.services.ScheduleIndexService;
+import webgroup.websocket.services.UserPresenceService;
+import webgroup.websocket.utils.DeliveryResult;
+import webgroup.websocket.utils.NotificationFrame;
+import webgroup.websocket.utils.NotificationPeriodUtils;
+import webgroup.websocket.utils.NotificationSchedulerUtils;
+import webgroup.websocket.utils.NotificationUtils;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Сравнение режимов исполнения {@code notification.execution.virtual-threads} на коде приложения.
+ * База заменена заглушкой с пулом соединений {@code connections} (по умолчанию HikariCP — 10)
+ * и временем запроса {@code queryMillis}; остальное — настоящие компоненты:
+ * <ul>
+ *     <li>{@link #ping} — пачка /app/ping от разных пользователей через clientInboundChannel
+ *     с исполнителем, который настраивает {@link WebSocketConfig}, {@link WebSocketController}
+ *     и доставку отложенных уведомлений {@link NotificationService} в полосах {@link PartitionedExecutor}:
+ *     чтение пользователя, страницы pending и удаление страницы;</li>
+ *     <li>{@link #postEvent} — пачка POST /events: {@link EventController} и {@link EventService}
+ *     с сохранением события и строки outbox в одной транзакции. Потоки запросов — пул Tomcat
+ *     по умолчанию (200) или виртуальный поток на запрос, как при spring.threads.virtual.enabled.</li>
+ * </ul>
+ * Результат — время обработки всей пачки.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExecutionModeBenchmark {
+
+    /** server.tomcat.threads.max по умолчанию. */
+    private static final int TOMCAT_THREADS = 200;
+
+    @Param({"platform", "virtual"})
+    private String mode;
+
+    /** Запросов в пачке. */
+    @Param({"1000"})
+    private int requests;
+
+    /** Соединений в пуле базы. */
+    @Param({"10", "50"})
+    private int connections;
+
+    /** Время одного запроса к базе. */
+    @Param({"2"})
+    private int queryMillis;
+
+    private BlockingDatabase database;
+    private ExecutorSubscribableChannel inboundChannel;
+    private ThreadPoolTaskExecutor platformInbound;
+    private PartitionedExecutor partitionedExecutor;
+    private ExecutorService requestThreads;
+    private EventController eventController;
+    private volatile CountDownLatch drained;
+
+    @Setup
+    public void setUp() {
+        ((Logger) LoggerFactory.getLogger("webgroup")).setLevel(Level.WARN);
+        NotificationProperties properties = new NotificationProperties();
+        properties.getExecution().setVirtualThreads("virtual".equals(mode));
+        database = new BlockingDatabase(connections, queryMillis);
+
+        Executor inboundExecutor = inboundExecutor(properties);
+        if (inboundExecutor instanceof ThreadPoolTaskExecutor pool) {
+            platformInbound = pool;
+        }
+        partitionedExecutor = new PartitionedExecutor(properties, new SimpleMeterRegistry());
+        WebSocketController webSocketController = new WebSocketController(
+                notificationService(properties), mock(DeliveryTracker.class), mock(UserPresenceService.class));
+        inboundChannel = new ExecutorSubscribableChannel(inboundExecutor);
+        inboundChannel.subscribe(message -> {
+            @SuppressWarnings("unchecked")
+            Map<String, Long> payload = (Map<String, Long>) message.getPayload();
+            webSocketController.requestPendingNotifications(payload);
+        });
+
+        requestThreads = "virtual".equals(mode)
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(TOMCAT_THREADS);
+        eventController = new EventController(eventService(), properties);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (platformInbound != null) {
+            platformInbound.shutdown();
+        }
+        partitionedExecutor.shutdown();
+        requestThreads.shutdownNow();
+    }
+
+    @Benchmark
+    public void ping() throws InterruptedException {
+        drained = new CountDownLatch(requests);
+        for (long userId = 1; userId <= requests; userId++) {
+            inboundChannel.send(MessageBuilder.withPayload(Map.of("userId", userId)).build());
+        }
+        drained.await();
+    }
+
+    @Benchmark
+    public void postEvent() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(requests);
+        for (int i = 0; i < requests; i++) {
+            EventDTO dto = new EventDTO();
+            dto.setMessage("Событие " + i);
+            requestThreads.execute(() -> {
+                try {
+                    // @Transactional на EventService.save держит соединение на оба запроса
+                    database.transaction(() -> eventController.createEvent(dto));
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+    }
+
+    /**
+     * Исполнитель clientInboundChannel в том виде, в каком его получает Spring из
+     * {@link WebSocketConfig#configureClientInboundChannel}; без настройки — пул Spring по умолчанию.
+     */
+    private static Executor inboundExecutor(NotificationProperties properties) {
+        InboundRegistration registration = new InboundRegistration();
+        new WebSocketConfig(properties, null, null).configureClientInboundChannel(registration);
+        Executor executor = registration.executor();
+        if (executor instanceof ThreadPoolTaskExecutor pool) {
+            pool.initialize();
+        }
+        return executor;
+    }
+
+    private NotificationService notificationService(NotificationProperties properties) {
+        User user = new User();
+        UserRepository userRepository = mock(UserRepository.class);
+        when(userRepository.findByIdWithNotificationPeriods(anyLong()))
+                .thenAnswer(invocation -> database.query(() -> Optional.of(user)));
+
+        List<PendingNotificationDTO> page = List.of(
+                new PendingNotificationDTO(1L, 100L, "Первое", LocalDateTime.now()),
+                new PendingNotificationDTO(2L, 101L, "Второе", LocalDateTime.now()));
+        PendingNotificationRepository pendingRepository = mock(PendingNotificationRepository.class);
+        when(pendingRepository.findPageWithEvents(anyLong(), eq(0L), any()))
+                .thenAnswer(invocation -> database.query(() -> page));
+        doAnswer(invocation -> {
+            database.query(() -> null);
+            drained.countDown();
+            return null;
+        }).when(pendingRepository).deleteAllByIdInBatch(anyList());
+
+        NotificationPeriodUtils periodUtils = mock(NotificationPeriodUtils.class);
+        when(periodUtils.isWithinNotificationPeriod(any(), any())).thenReturn(true);
+        NotificationFrame frame = new NotificationFrame(0L, "[]".getBytes(), MimeTypeUtils.APPLICATION_JSON);
+        NotificationUtils notificationUtils = mock(NotificationUtils.class);
+        when(notificationUtils.encodePending(anyList())).thenReturn(frame);
+        NotificationWebSocketSender sender = mock(NotificationWebSocketSender.class);
+        when(sender.sendPendingToUser(anyLong(), any())).thenReturn(DeliveryResult.SENT);
+
+        return new NotificationService(userRepository, sender, pendingRepository,
+                mock(NotificationSchedulerUtils.class), notificationUtils, periodUtils,
+                mock(FanOutBulkRepository.class), mock(DeliveryIndex.class), mock(ScheduleIndexService.class),
+                mock(PendingDeliveryScheduler.class), properties, mock(DeliveryTracker.class),
+                partitionedExecutor, mock(ClusterRouter.class), mock(UserPresenceService.class));
+    }
+
+    private EventService eventService() {
+        AtomicLong ids = new AtomicLong();
+        EventRepository eventRepository = mock(EventRepository.class);
+        when(eventRepository.save(any(Event.class))).thenAnswer(invocation -> {
+            Event event = invocation.getArgument(0);
+            database.statement();
+            event.setId(ids.incrementAndGet());
+            return event;
+        });
+        EventOutboxRepository outboxRepository = mock(EventOutboxRepository.class);
+        doAnswer(invocation -> {
+            database.statement();
+            return null;
+        }).when(outboxRepository).append(anyLong());
+        return new EventService(eventRepository, outboxRepository, Mappers.getMapper(EventMapper.class), null);
+    }
+
+    /**
+     * База с пулом соединений: запрос вне транзакции берёт соединение на время запроса,
+     * транзакция — на всё своё время.
+     */
+    private static final class BlockingDatabase {
+
+        private final Semaphore pool;
+        private final long queryMillis;
+
+        private BlockingDatabase(int connections, long queryMillis) {
+            this.pool = new Semaphore(connections);
+            this.queryMillis = queryMillis;
+        }
+
+        <T> T query(Supplier<T> result) {
+            return transaction(() -> {
+                statement();
+                return result.get();
+            });
+        }
+
+        <T> T transaction(Supplier<T> body) {
+            pool.acquireUninterruptibly();
+            try {
+                return body.get();
+            } finally {
+                pool.release();
+            }
+        }
+
+        void statement() {
+            try {
+                Thread.sleep(queryMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** Открывает исполнитель, который {@link ChannelRegistration} передаёт каналу. */
+    private static final class InboundRegistration extends ChannelRegistration {
+
+        Executor executor() {
+            return getExecutor(() -> new DefaultChannelPool().taskExecutor(), executor -> {
+            });
+        }
+    }
+
+    /** Пул канала Spring по умолчанию: ядра * 2 потоков. */
+    private static final class DefaultChannelPool extends TaskExecutorRegistration {
+
+        ThreadPoolTaskExecutor taskExecutor() {
+            return getTaskExecutor();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(ExecutionModeBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,140 @@
+package webgroup.websocket.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import webgroup.websocket.dto.PendingNotificationDTO;
+import webgroup.websocket.entities.Event;
+import webgroup.websocket.utils.FrameCompression;
+import webgroup.websocket.utils.NotificationUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Цена сжатия DEFLATE для типичных кадров: одиночное уведомление и страницы /topic/pending.
+ * Время на кадр — результат JMH, выигрыш в байтах печатает {@link #main} перед запуском.
+ * Уведомления разные: тексты разной длины собираются из словаря уведомлений с числами, датами
+ * и адресами, id событий идут с пропусками, время у каждого своё — повтор одного шаблона
+ * сжимается заметно лучше настоящих страниц.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameCompressionBenchmark {
+
+    /** 0 — одиночное уведомление, иначе число уведомлений в странице pending. */
+    @Param({"0", "5", "10", "50", "200"})
+    private int backlog;
+
+    @Param({"1", "6"})
+    private int level;
+
+    private byte[] payload;
+
+    @Setup
+    public void setUp() {
+        payload = payload(new NotificationUtils(null, null, new ObjectMapper()), backlog);
+    }
+
+    @Benchmark
+    public byte[] deflate() {
+        return FrameCompression.deflate(payload, level);
+    }
+
+    public static void main(String[] args) throws Exception {
+        NotificationUtils utils = new NotificationUtils(null, null, new ObjectMapper());
+        for (int backlog : new int[]{0, 2, 5, 10, 20, 50, 200}) {
+            byte[] payload = payload(utils, backlog);
+            for (int level : new int[]{1, 6}) {
+                int deflated = FrameCompression.deflate(payload, level).length;
+                System.out.printf("backlog=%d level=%d: %d -> %d байт (%.0f%%)%n",
+                        backlog, level, payload.length, deflated, 100.0 * deflated / payload.length);
+            }
+        }
+        new Runner(new OptionsBuilder().include(FrameCompressionBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    private static byte[] payload(NotificationUtils utils, int backlog) {
+        Random random = new Random(backlog);
+        LocalDateTime time = LocalDateTime.of(2024, 3, 4, 9, 0).plusSeconds(random.nextInt(86_400));
+        if (backlog == 0) {
+            Event event = new Event();
+            event.setId(100_000L + random.nextInt(900_000));
+            event.setMessage(message(random));
+            event.setOccurredAt(time);
+            return utils.encode(event).payload();
+        }
+        List<PendingNotificationDTO> page = new ArrayList<>(backlog);
+        long pendingId = random.nextInt(1_000_000);
+        long eventId = random.nextInt(1_000_000);
+        for (int i = 0; i < backlog; i++) {
+            pendingId += 1 + random.nextInt(50);
+            eventId += 1 + random.nextInt(20);
+            time = time.plusSeconds(random.nextInt(3_600)).plusNanos(random.nextInt(1_000_000) * 1000L);
+            page.add(new PendingNotificationDTO(pendingId, eventId, message(random), time));
+        }
+        return utils.encodePending(page).payload();
+    }
+
+    private static final String[] SUBJECTS = {
+            "Плановые работы", "Обновление системы", "Новый комментарий", "Заявка", "Платёж", "Счёт",
+            "Отчёт", "Задача", "Встреча", "Доставка заказа", "Сборка", "Резервное копирование",
+            "Сертификат", "Договор", "Пропуск", "Инцидент", "Рассылка", "Опрос"};
+    private static final String[] ACTIONS = {
+            "назначена на", "перенесена на", "завершена", "отменена", "ожидает подтверждения до",
+            "просрочена с", "согласована", "возвращена на доработку", "запланирована на",
+            "будет выполнена", "начнётся в", "требует вашего ответа до"};
+    private static final String[] DETAILS = {
+            "на сервере", "в офисе", "в кабинете", "по адресу ул. Ленина, д.", "в переговорной",
+            "для отдела", "по проекту", "в филиале", "на складе", "для клиента", "в системе учёта",
+            "по договору №", "в личном кабинете", "через портал", "для группы"};
+    private static final String[] TAILS = {
+            "Подробности во вложении.", "Проверьте данные перед подтверждением.",
+            "При вопросах обращайтесь в поддержку.", "Ответ не требуется.",
+            "Изменения вступят в силу после перезапуска.", "Ссылка действует 24 часа.",
+            "Если это были не вы, смените пароль.", "Спасибо за ожидание."};
+
+    /** Текст уведомления из 1–4 предложений словаря с числами, датами и временем. */
+    private static String message(Random random) {
+        StringBuilder text = new StringBuilder();
+        int sentences = 1 + random.nextInt(4);
+        for (int s = 0; s < sentences; s++) {
+            if (s > 0) {
+                text.append(' ');
+            }
+            text.append(pick(random, SUBJECTS)).append(' ')
+                    .append(random.nextInt(10_000)).append(' ')
+                    .append(pick(random, ACTIONS)).append(' ')
+                    .append(String.format("%02d.%02d %02d:%02d", 1 + random.nextInt(28), 1 + random.nextInt(12),
+                            random.nextInt(24), random.nextInt(60))).append(' ')
+                    .append(pick(random, DETAILS)).append(' ')
+                    .append(random.nextInt(1_000)).append('.');
+            if (random.nextBoolean()) {
+                text.append(' ').append(pick(random, TAILS));
+            }
+        }
+        return text.toString();
+    }
+
+    private static String pick(Random random, String[] words) {
+        return words[random.nextInt(words.length)];
+    }
+}
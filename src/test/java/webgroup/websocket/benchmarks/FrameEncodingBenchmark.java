@@ -0,0 +1,92 @@
+package webgroup.websocket.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import webgroup.websocket.entities.Event;
+import webgroup.websocket.utils.NotificationFrame;
+import webgroup.websocket.utils.NotificationUtils;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнение JSON и CBOR для кадра уведомления: время кодирования и размер кадра.
+ * Запуск: {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=webgroup.websocket.benchmarks.FrameEncodingBenchmark} или из IDE.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameEncodingBenchmark {
+
+    @Param({"32", "512"})
+    private int messageLength;
+
+    private final ObjectMapper jsonMapper = new ObjectMapper();
+    private final ObjectMapper cborMapper = new CBORMapper();
+
+    private NotificationUtils notificationUtils;
+    private Event event;
+    private Map<String, Object> payload;
+
+    @Setup
+    public void setUp() {
+        notificationUtils = new NotificationUtils(null, null, jsonMapper);
+        event = event(messageLength);
+        payload = new LinkedHashMap<>();
+        payload.put("eventId", event.getId());
+        payload.put("msg", "Новое событие: " + event.getMessage());
+    }
+
+    /** Текущий путь: кадр уведомления целиком, тело в JSON. */
+    @Benchmark
+    public NotificationFrame frame() {
+        return notificationUtils.encode(event);
+    }
+
+    @Benchmark
+    public byte[] json() throws Exception {
+        return jsonMapper.writeValueAsBytes(payload);
+    }
+
+    @Benchmark
+    public byte[] cbor() throws Exception {
+        return cborMapper.writeValueAsBytes(payload);
+    }
+
+    public static void main(String[] args) throws Exception {
+        NotificationUtils utils = new NotificationUtils(null, null, new ObjectMapper());
+        for (int length : new int[]{32, 512}) {
+            NotificationFrame frame = utils.encode(event(length));
+            System.out.printf("messageLength=%d: json=%d байт, cbor=%d байт%n",
+                    length, frame.size(), frame.cborPayload().length);
+        }
+        new Runner(new OptionsBuilder().include(FrameEncodingBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    private static Event event(int messageLength) {
+        Event event = new Event();
+        event.setId(123456L);
+        event.setMessage("x".repeat(messageLength));
+        event.setOccurredAt(LocalDateTime.now());
+        return event;
+    }
+}
@@ -0,0 +1,89 @@
+package webgroup.websocket.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.broker.DefaultSubscriptionRegistry;
+import org.springframework.messaging.simp.broker.SubscriptionRegistry;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MultiValueMap;
+import webgroup.websocket.config.ExactMatchSubscriptionRegistry;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Поиск подписчиков персонального destination в стандартном регистре Spring и в
+ * {@link ExactMatchSubscriptionRegistry}: каждый пользователь — отдельная сессия с подписками на
+ * /topic/notify/{userId} и /topic/pending/{userId}, уведомления идут случайным пользователям.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class SubscriptionRegistryBenchmark {
+
+    @Param({"default", "exact"})
+    private String registryType;
+
+    @Param({"1000", "100000"})
+    private int users;
+
+    private SubscriptionRegistry registry;
+    private Message<?>[] messages;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        registry = "exact".equals(registryType) ? new ExactMatchSubscriptionRegistry() : new DefaultSubscriptionRegistry();
+        messages = new Message<?>[users];
+        for (int userId = 0; userId < users; userId++) {
+            String sessionId = "session-" + userId;
+            registry.registerSubscription(subscribe(sessionId, "sub-0", "/topic/notify/" + userId));
+            registry.registerSubscription(subscribe(sessionId, "sub-1", "/topic/pending/" + userId));
+            messages[userId] = message("/topic/notify/" + userId);
+        }
+        MultiValueMap<String, String> found = registry.findSubscriptions(messages[users - 1]);
+        if (!found.containsKey("session-" + (users - 1)) || found.size() != 1) {
+            throw new IllegalStateException("Неверный результат поиска: " + found);
+        }
+    }
+
+    @Benchmark
+    public MultiValueMap<String, String> findSubscriptions() {
+        return registry.findSubscriptions(messages[ThreadLocalRandom.current().nextInt(users)]);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(SubscriptionRegistryBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    private static Message<byte[]> subscribe(String sessionId, String subscriptionId, String destination) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setDestination(destination);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    private static Message<byte[]> message(String destination) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(destination);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+}
@@ -0,0 +1,124 @@
+package webgroup.websocket.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MultiValueMap;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExactMatchSubscriptionRegistryTest {
+
+    private final ExactMatchSubscriptionRegistry registry = new ExactMatchSubscriptionRegistry();
+
+    @Test
+    void subscribe_findsExactDestinationOnly() {
+        registry.registerSubscription(subscribe("s1", "sub1", "/topic/notify/1"));
+        registry.registerSubscription(subscribe("s2", "sub1", "/topic/notify/2"));
+        registry.registerSubscription(subscribe("s3", "sub7", "/topic/notify/1"));
+
+        assertEquals(Map.of("s1", List.of("sub1"), "s3", List.of("sub7")), find("/topic/notify/1"));
+        assertEquals(Map.of("s2", List.of("sub1")), find("/topic/notify/2"));
+        assertTrue(find("/topic/notify/3").isEmpty());
+        assertEquals(2, registry.destinationCount());
+    }
+
+    @Test
+    void unsubscribe_removesSubscriptionAndEmptyDestination() {
+        registry.registerSubscription(subscribe("s1", "sub1", "/topic/notify/1"));
+        registry.registerSubscription(subscribe("s1", "sub2", "/topic/notify/1"));
+
+        registry.unregisterSubscription(unsubscribe("s1", "sub1"));
+        assertEquals(Map.of("s1", List.of("sub2")), find("/topic/notify/1"));
+
+        registry.unregisterSubscription(unsubscribe("s1", "sub2"));
+        assertTrue(find("/topic/notify/1").isEmpty());
+        assertEquals(0, registry.destinationCount());
+    }
+
+    @Test
+    void unregisterAllSubscriptions_dropsExactAndPatternSubscriptionsOfSession() {
+        registry.registerSubscription(subscribe("s1", "sub1", "/topic/notify/1"));
+        registry.registerSubscription(subscribe("s1", "sub2", "/topic/**"));
+        registry.registerSubscription(subscribe("s2", "sub1", "/topic/notify/1"));
+
+        registry.unregisterAllSubscriptions("s1");
+
+        assertEquals(Map.of("s2", List.of("sub1")), find("/topic/notify/1"));
+        assertEquals(0, registry.patternSessionCount());
+    }
+
+    @Test
+    void find_mergesExactAndWildcardSubscriptions() {
+        registry.registerSubscription(subscribe("s1", "sub1", "/topic/notify/1"));
+        registry.registerSubscription(subscribe("s2", "sub9", "/topic/notify/*"));
+
+        assertEquals(Map.of("s1", List.of("sub1"), "s2", List.of("sub9")), find("/topic/notify/1"));
+        assertEquals(Map.of("s2", List.of("sub9")), find("/topic/notify/2"));
+        assertTrue(find("/topic/other").isEmpty());
+    }
+
+    @Test
+    void find_routesSelectorSubscriptionsByMessageHeaders() {
+        registry.setSelectorHeaderName("selector");
+        SimpMessageHeaderAccessor accessor = subscribeAccessor("s1", "sub1", "/topic/notify/1");
+        accessor.setNativeHeader("selector", "headers.priority == 'high'");
+        registry.registerSubscription(MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()));
+
+        assertEquals(Map.of("s1", List.of("sub1")), find("/topic/notify/1", "high"));
+        assertTrue(find("/topic/notify/1", "low").isEmpty());
+        assertEquals(0, registry.destinationCount());
+    }
+
+    @Test
+    void unsubscribe_removesEmptyPatternEntryOfSession() {
+        registry.registerSubscription(subscribe("s1", "sub1", "/topic/**"));
+        registry.registerSubscription(subscribe("s1", "sub2", "/queue/**"));
+
+        registry.unregisterSubscription(unsubscribe("s1", "sub1"));
+        assertEquals(1, registry.patternSessionCount());
+
+        registry.unregisterSubscription(unsubscribe("s1", "sub2"));
+        assertEquals(0, registry.patternSessionCount());
+        assertTrue(find("/topic/notify/1").isEmpty());
+    }
+
+    private MultiValueMap<String, String> find(String destination) {
+        return find(destination, null);
+    }
+
+    private MultiValueMap<String, String> find(String destination, String priority) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(destination);
+        if (priority != null) {
+            accessor.setHeader("priority", priority);
+        }
+        return registry.findSubscriptions(MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()));
+    }
+
+    private static Message<?> subscribe(String sessionId, String subscriptionId, String destination) {
+        return MessageBuilder.createMessage(new byte[0],
+                subscribeAccessor(sessionId, subscriptionId, destination).getMessageHeaders());
+    }
+
+    private static SimpMessageHeaderAccessor subscribeAccessor(String sessionId, String subscriptionId, String destination) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setDestination(destination);
+        accessor.setLeaveMutable(true);
+        return accessor;
+    }
+
+    private static Message<?> unsubscribe(String sessionId, String subscriptionId) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.UNSUBSCRIBE);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+}
@@ -0,0 +1,256 @@
+package webgroup.websocket.config;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.util.unit.DataSize;
+import webgroup.websocket.entities.Event;
+import webgroup.websocket.utils.CoalescedDigest;
+import webgroup.websocket.utils.FrameCompression;
+import webgroup.websocket.utils.FrameEncoding;
+import webgroup.websocket.utils.NotificationFrame;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class FrameEncodingInterceptorTest {
+
+    private static final String SESSION_ID = "s1";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final CBORMapper cborMapper = new CBORMapper();
+
+    @Mock
+    private WebSocketSessionRegistry sessionRegistry;
+
+    private NotificationProperties properties;
+    private FrameEncodingInterceptor interceptor;
+
+    @BeforeEach
+    void setUp() {
+        properties = new NotificationProperties();
+        interceptor = new FrameEncodingInterceptor(sessionRegistry, properties, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void fromHeaders_picksCborFromEncodingOrContentType() {
+        assertEquals(FrameEncoding.CBOR, FrameEncoding.fromHeaders("cbor", null));
+        assertEquals(FrameEncoding.CBOR, FrameEncoding.fromHeaders("deflate, CBOR", null));
+        assertEquals(FrameEncoding.CBOR, FrameEncoding.fromHeaders("cbor+deflate", null));
+        assertEquals(FrameEncoding.CBOR, FrameEncoding.fromHeaders(null, "application/cbor"));
+        assertEquals(FrameEncoding.JSON, FrameEncoding.fromHeaders("json+deflate", "application/json"));
+        assertEquals(FrameEncoding.JSON, FrameEncoding.fromHeaders("cborx", "not a mime type"));
+        assertEquals(FrameEncoding.JSON, FrameEncoding.fromHeaders(null, null));
+
+        assertTrue(FrameEncoding.requestsDeflate("json+deflate"));
+        assertFalse(FrameEncoding.requestsDeflate("cbor"));
+        assertFalse(FrameEncoding.requestsDeflate(null));
+    }
+
+    @Test
+    void negotiate_keepsJsonWithoutRegistering_whenNothingRequested() {
+        assertEquals(FrameEncodingInterceptor.SessionEncoding.DEFAULT,
+                interceptor.negotiate(SESSION_ID, FrameEncoding.JSON, false));
+
+        verifyNoInteractions(sessionRegistry);
+        Message<?> message = message(SESSION_ID, frame(Map.of("eventId", 1)));
+        assertSame(message, interceptor.preSend(message, null));
+    }
+
+    @Test
+    void negotiate_dropsDeflate_whenAppLevelCompressionDisabled() {
+        properties.getCompression().setAppLevel(false);
+        interceptor = new FrameEncodingInterceptor(sessionRegistry, properties, new SimpleMeterRegistry());
+
+        assertEquals(FrameEncodingInterceptor.SessionEncoding.DEFAULT,
+                interceptor.negotiate(SESSION_ID, FrameEncoding.JSON, true));
+    }
+
+    @Test
+    void negotiate_fallsBackToJson_forSockJsSession() {
+        when(sessionRegistry.supportsBinary(SESSION_ID)).thenReturn(false);
+
+        assertEquals(FrameEncodingInterceptor.SessionEncoding.DEFAULT,
+                interceptor.negotiate(SESSION_ID, FrameEncoding.CBOR, true));
+
+        Message<?> message = message(SESSION_ID, frame(Map.of("eventId", 1)));
+        assertSame(message, interceptor.preSend(message, null));
+    }
+
+    @Test
+    void preSend_swapsBodyToCbor_forNegotiatedSessionOnly() throws Exception {
+        when(sessionRegistry.supportsBinary(SESSION_ID)).thenReturn(true);
+        assertEquals(new FrameEncodingInterceptor.SessionEncoding(FrameEncoding.CBOR, false),
+                interceptor.negotiate(SESSION_ID, FrameEncoding.CBOR, false));
+        NotificationFrame frame = frame(Map.of("eventId", 7, "msg", "Новое событие"));
+
+        Message<?> encoded = interceptor.preSend(message(SESSION_ID, frame), null);
+
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(encoded);
+        assertEquals(MimeTypeUtils.APPLICATION_OCTET_STREAM, accessor.getContentType());
+        assertEquals("cbor", accessor.getFirstNativeHeader(FrameEncodingInterceptor.ENCODING_HEADER));
+        assertEquals(Map.of("eventId", 7, "msg", "Новое событие"),
+                cborMapper.readValue((byte[]) encoded.getPayload(), new TypeReference<Map<String, Object>>() {
+                }));
+
+        Message<?> other = message("s2", frame);
+        assertSame(other, interceptor.preSend(other, null));
+
+        interceptor.sessionClosed(SESSION_ID);
+        Message<?> afterClose = message(SESSION_ID, frame);
+        assertSame(afterClose, interceptor.preSend(afterClose, null));
+    }
+
+    @Test
+    void preSend_keepsJson_whenFrameHasNoCbor() {
+        when(sessionRegistry.supportsBinary(SESSION_ID)).thenReturn(true);
+        interceptor.negotiate(SESSION_ID, FrameEncoding.CBOR, false);
+        NotificationFrame jsonOnly = new NotificationFrame(1L, "{}".getBytes(), MimeTypeUtils.APPLICATION_JSON);
+
+        Message<?> message = message(SESSION_ID, jsonOnly);
+
+        assertSame(message, interceptor.preSend(message, null));
+    }
+
+    @Test
+    void preSend_deflatesOnlyFramesFromMinSize_andMarksEncodingHeader() throws Exception {
+        properties.getCompression().setMinSize(DataSize.ofBytes(200));
+        interceptor = new FrameEncodingInterceptor(sessionRegistry, properties, new SimpleMeterRegistry());
+        when(sessionRegistry.supportsBinary(SESSION_ID)).thenReturn(true);
+        interceptor.negotiate(SESSION_ID, FrameEncoding.JSON, true);
+
+        Message<?> small = message(SESSION_ID, frame(Map.of("msg", "x".repeat(100))));
+        assertSame(small, interceptor.preSend(small, null));
+
+        NotificationFrame large = frame(Map.of("msg", "x".repeat(1000)));
+        Message<?> deflated = interceptor.preSend(message(SESSION_ID, large), null);
+
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(deflated);
+        assertEquals(MimeTypeUtils.APPLICATION_OCTET_STREAM, accessor.getContentType());
+        assertEquals("json+deflate", accessor.getFirstNativeHeader(FrameEncodingInterceptor.ENCODING_HEADER));
+        byte[] body = (byte[]) deflated.getPayload();
+        assertTrue(body.length < large.size());
+        assertArrayEquals(large.payload(), inflate(body));
+    }
+
+    @Test
+    void preSend_marksCborDeflate_andInflatesToCbor() throws Exception {
+        properties.getCompression().setMinSize(DataSize.ofBytes(0));
+        interceptor = new FrameEncodingInterceptor(sessionRegistry, properties, new SimpleMeterRegistry());
+        when(sessionRegistry.supportsBinary(SESSION_ID)).thenReturn(true);
+        interceptor.negotiate(SESSION_ID, FrameEncoding.CBOR, true);
+        NotificationFrame frame = frame(Map.of("msg", "y".repeat(500)));
+
+        Message<?> encoded = interceptor.preSend(message(SESSION_ID, frame), null);
+
+        assertEquals("cbor+deflate", SimpMessageHeaderAccessor.wrap(encoded)
+                .getFirstNativeHeader(FrameEncodingInterceptor.ENCODING_HEADER));
+        assertArrayEquals(frame.cborPayload(), inflate((byte[]) encoded.getPayload()));
+    }
+
+    @Test
+    void frameCompression_roundTripsFromManyThreads() throws Exception {
+        byte[] payload = "z".repeat(4096).getBytes();
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+        for (int t = 0; t < 64; t++) {
+            threads.add(Thread.ofVirtual().start(() -> {
+                try {
+                    for (int i = 0; i < 50; i++) {
+                        assertArrayEquals(payload, inflate(FrameCompression.deflate(payload, 1 + i % 9)));
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(List.of(), failures);
+    }
+
+    @Test
+    void digestCbor_writesArrayHeaderForEachLengthClass() throws Exception {
+        for (int size : new int[]{2, 23, 24, 255, 256}) {
+            CoalescedDigest digest = new CoalescedDigest();
+            for (int i = 0; i < size; i++) {
+                Event event = new Event();
+                event.setId((long) i);
+                digest.add(event, frame(Map.of("eventId", i)));
+            }
+
+            byte[] cbor = digest.toFrame().cborPayload();
+
+            int header = cbor[0] & 0xff;
+            if (size < 24) {
+                assertEquals(0x80 | size, header);
+            } else if (size < 0x100) {
+                assertEquals(0x98, header);
+                assertEquals(size, cbor[1] & 0xff);
+            } else {
+                assertEquals(0x99, header);
+                assertEquals(size, ((cbor[1] & 0xff) << 8) | (cbor[2] & 0xff));
+            }
+            List<Map<String, Object>> items = cborMapper.readValue(cbor, new TypeReference<>() {
+            });
+            assertEquals(size, items.size());
+            assertEquals(size - 1, items.get(size - 1).get("eventId"));
+        }
+    }
+
+    private NotificationFrame frame(Map<String, Object> body) {
+        try {
+            byte[] json = objectMapper.writeValueAsBytes(body);
+            byte[] cbor = cborMapper.writeValueAsBytes(body);
+            return new NotificationFrame(1L, json, MimeTypeUtils.APPLICATION_JSON, () -> cbor);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] inflate(byte[] deflated) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(deflated);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            while (!inflater.finished()) {
+                out.write(buffer, 0, inflater.inflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static Message<?> message(String sessionId, NotificationFrame frame) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(sessionId);
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        accessor.setHeader(NotificationWebSocketSender.FRAME_HEADER, frame);
+        accessor.setLeaveMutable(true);
+        return MessageBuilder.createMessage(frame.payload(), accessor.getMessageHeaders());
+    }
+}
@@ -12,11 +12,10 @@ import org.mockito.*;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import webgroup.websocket.config.NotificationProperties;
+import webgroup.websocket.dto.EventBatchResultDTO;
 import webgroup.websocket.dto.EventDTO;
-import webgroup.websocket.entities.Event;
-import webgroup.websocket.mappers.EventMapper;
 import webgroup.websocket.services.EventService;
-import webgroup.websocket.services.NotificationService;
 
 import java.time.LocalDateTime;
 import java.util.List;
@@ -29,11 +28,8 @@ class EventControllerTest {
     @Mock
     private EventService eventService;
 
-    @Mock
-    private NotificationService notificationService;
-
-    @Mock
-    private EventMapper eventMapper;
+    @Spy
+    private NotificationProperties notificationProperties = new NotificationProperties();
 
     @InjectMocks
     private EventController eventController;
@@ -51,7 +47,7 @@ class EventControllerTest {
     }
 
     @Test
-    void createEvent_shouldReturnOkAndProcessNotification_whenValid() throws Exception {
+    void createEvent_shouldReturnAcceptedWithoutWaitingForFanOut_whenValid() throws Exception {
         EventDTO inputDto = new EventDTO();
         inputDto.setMessage("Test event");
         inputDto.setOccurredAt(LocalDateTime.now()); // Добавлено обязательное поле
@@ -61,21 +57,17 @@ class EventControllerTest {
         savedDto.setMessage("Test event");
         savedDto.setOccurredAt(inputDto.getOccurredAt()); // добавь сюда тоже
 
-        Event savedEntity = new Event();
-
         when(eventService.save(any(EventDTO.class))).thenReturn(savedDto);
-        when(eventMapper.toEntity(savedDto)).thenReturn(savedEntity);
 
         mockMvc.perform(MockMvcRequestBuilders.post("/events")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(inputDto)))
-                .andExpect(status().isOk())
+                .andExpect(status().isAccepted())
                 .andExpect(jsonPath("$.id").value(1L))
                 .andExpect(jsonPath("$.message").value("Test event"));
 
         verify(eventService).save(any(EventDTO.class));
-        verify(eventMapper).toEntity(savedDto);
-        verify(notificationService).processEvent(savedEntity);
+        verifyNoMoreInteractions(eventService);
     }
 
 
@@ -98,36 +90,55 @@ class EventControllerTest {
                 .andExpect(status().isInternalServerError());
 
         verify(eventService).save(any(EventDTO.class));
-        verifyNoMoreInteractions(eventMapper, notificationService);
     }
 
     @Test
-    void createEvent_shouldReturnInternalServerError_whenNotificationServiceThrows() throws Exception {
-        EventDTO inputDto = new EventDTO();
-        inputDto.setMessage("Test event");
-        inputDto.setOccurredAt(LocalDateTime.now()); // обязательно!
+    void createEvents_shouldReturnAcceptedWithResultPerItem() throws Exception {
+        EventDTO valid = new EventDTO();
+        valid.setMessage("Event 1");
+        valid.setOccurredAt(LocalDateTime.now());
+        EventDTO invalid = new EventDTO();
+        invalid.setOccurredAt(LocalDateTime.now());
+
+        when(eventService.saveAll(anyList())).thenReturn(List.of(
+                EventBatchResultDTO.accepted(0, 1L),
+                EventBatchResultDTO.rejected(1, List.of("message: Сообщение события не может быть пустым"))));
+
+        mockMvc.perform(MockMvcRequestBuilders.post("/events/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(List.of(valid, invalid))))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].status").value("ACCEPTED"))
+                .andExpect(jsonPath("$[0].id").value(1L))
+                .andExpect(jsonPath("$[1].status").value("REJECTED"))
+                .andExpect(jsonPath("$[1].errors[0]").value("message: Сообщение события не может быть пустым"));
 
-        EventDTO savedDto = new EventDTO();
-        savedDto.setId(1L);
-        savedDto.setMessage("Test event");
-        savedDto.setOccurredAt(inputDto.getOccurredAt());
+        verify(eventService).saveAll(argThat(events -> events.size() == 2));
+    }
 
-        Event savedEntity = new Event();
+    @Test
+    void createEvents_shouldReturnBadRequest_whenNoItemAccepted() throws Exception {
+        when(eventService.saveAll(anyList())).thenReturn(List.of(
+                EventBatchResultDTO.rejected(0, List.of("occurredAt: Время события должно быть указано"))));
 
-        when(eventService.save(any(EventDTO.class))).thenReturn(savedDto);
-        when(eventMapper.toEntity(savedDto)).thenReturn(savedEntity);
-        doThrow(new RuntimeException("Notification failure")).when(notificationService).processEvent(savedEntity);
+        mockMvc.perform(MockMvcRequestBuilders.post("/events/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(List.of(new EventDTO()))))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$[0].status").value("REJECTED"));
+    }
 
-        mockMvc.perform(MockMvcRequestBuilders.post("/events")
+    @Test
+    void createEvents_shouldReturnBadRequest_whenBatchTooLarge() throws Exception {
+        notificationProperties.getIngest().setMaxBatchSize(1);
+
+        mockMvc.perform(MockMvcRequestBuilders.post("/events/batch")
                         .contentType(MediaType.APPLICATION_JSON)
-                        .content(objectMapper.writeValueAsString(inputDto)))
-                .andExpect(status().isInternalServerError())
-                .andExpect(jsonPath("$.id").value(1L))
-                .andExpect(jsonPath("$.message").value("Test event"));
+                        .content(objectMapper.writeValueAsString(List.of(new EventDTO(), new EventDTO()))))
+                .andExpect(status().isBadRequest());
 
-        verify(eventService).save(any(EventDTO.class));
-        verify(eventMapper).toEntity(savedDto);
-        verify(notificationService).processEvent(savedEntity);
+        verifyNoInteractions(eventService);
     }
 
     @Test
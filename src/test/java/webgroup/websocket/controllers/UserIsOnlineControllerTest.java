@@ -6,6 +6,7 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.http.ResponseEntity;
+import webgroup.websocket.services.ClusterRouter;
 import webgroup.websocket.services.UserPresenceService;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -16,6 +17,9 @@ class UserIsOnlineControllerTest {
     @Mock
     private UserPresenceService userPresenceService;
 
+    @Mock
+    private ClusterRouter clusterRouter;
+
     @InjectMocks
     private UserIsOnlineController userIsOnlineController;
 
@@ -45,4 +49,15 @@ class UserIsOnlineControllerTest {
         assertEquals(200, response.getStatusCodeValue());
         assertEquals(false, response.getBody());
     }
+
+    @Test
+    void isUserOnline_shouldReturnTrue_whenUserIsConnectedToAnotherNode() {
+        Long userId = 789L;
+        when(userPresenceService.isUserOnline(userId)).thenReturn(false);
+        when(clusterRouter.isOnlineElsewhere(userId)).thenReturn(true);
+
+        ResponseEntity<Boolean> response = userIsOnlineController.isUserOnline(userId);
+
+        assertEquals(true, response.getBody());
+    }
 }
@@ -5,8 +5,11 @@ import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import webgroup.websocket.entities.AckMessage;
+import webgroup.websocket.services.DeliveryTracker;
 import webgroup.websocket.services.NotificationService;
+import webgroup.websocket.services.UserPresenceService;
 
 import java.util.Map;
 
@@ -17,6 +20,12 @@ class WebSocketControllerTest {
     @Mock
     private NotificationService notificationService;
 
+    @Mock
+    private DeliveryTracker deliveryTracker;
+
+    @Mock
+    private UserPresenceService userPresenceService;
+
     @InjectMocks
     private WebSocketController webSocketController;
 
@@ -27,10 +36,34 @@ class WebSocketControllerTest {
 
     @Test
     void handleAck_shouldLogCorrectly() {
+        when(userPresenceService.userOfSession("s1")).thenReturn(42L);
         AckMessage ackMessage = new AckMessage();
         ackMessage.setUserId(42L);
         ackMessage.setMessageId(99L);
-        webSocketController.handleAck(ackMessage);
+        webSocketController.handleAck(ackMessage, session("s1"));
+        verify(deliveryTracker).ack(42L, 99L);
+    }
+
+    @Test
+    void handleAck_shouldUseSessionOwner_notUserIdFromPayload() {
+        when(userPresenceService.userOfSession("s1")).thenReturn(42L);
+        webSocketController.handleAck(new AckMessage(7L, 99L), session("s1"));
+        verify(deliveryTracker).ack(42L, 99L);
+        verify(deliveryTracker, never()).ack(eq(7L), anyLong());
+    }
+
+    @Test
+    void handleAck_shouldIgnoreAckFromUnknownSession() {
+        when(userPresenceService.userOfSession("unknown")).thenReturn(null);
+        webSocketController.handleAck(new AckMessage(42L, 99L), session("unknown"));
+        verifyNoInteractions(deliveryTracker);
+    }
+
+    @Test
+    void handleAck_shouldIgnoreAckWithoutSeq() {
+        when(userPresenceService.userOfSession("s1")).thenReturn(42L);
+        webSocketController.handleAck(new AckMessage(42L, null), session("s1"));
+        verifyNoInteractions(deliveryTracker);
     }
 
     @Test
@@ -38,13 +71,19 @@ class WebSocketControllerTest {
         Long userId = 123L;
         Map<String, Long> payload = Map.of("userId", userId);
         webSocketController.requestPendingNotifications(payload);
-        verify(notificationService, times(1)).sendPendingToFront(userId);
+        verify(notificationService, times(1)).drainPending(userId);
     }
 
     @Test
     void requestPendingNotifications_shouldHandleMissingUserIdGracefully() {
         Map<String, Long> payload = Map.of();
         webSocketController.requestPendingNotifications(payload);
-        verify(notificationService).sendPendingToFront(null);
+        verify(notificationService).drainPending(null);
+    }
+
+    private static SimpMessageHeaderAccessor session(String sessionId) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create();
+        accessor.setSessionId(sessionId);
+        return accessor;
     }
 }
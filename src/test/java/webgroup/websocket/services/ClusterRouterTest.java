@@ -0,0 +1,467 @@
+package webgroup.websocket.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import webgroup.websocket.config.NotificationProperties;
+import org.springframework.transaction.PlatformTransactionManager;
+import webgroup.websocket.entities.Event;
+import webgroup.websocket.entities.NotificationPeriod;
+import webgroup.websocket.entities.User;
+import webgroup.websocket.repositories.UserRepository;
+import webgroup.websocket.utils.ConsistentHashRing;
+import webgroup.websocket.utils.UserBitmap;
+import webgroup.websocket.utils.UserChunkScanner;
+
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Кластер из нескольких узлов в одной JVM на {@link LoopbackClusterBus}.
+ */
+class ClusterRouterTest {
+
+    private final LoopbackClusterBus.Network network = new LoopbackClusterBus.Network();
+    private final NotificationProperties properties = new NotificationProperties();
+    private final List<Node> nodes = new ArrayList<>();
+    /** Общая база узлов. */
+    private final UserRepository database = mock(UserRepository.class);
+    private Event event;
+
+    @BeforeEach
+    void setUp() {
+        event = new Event();
+        event.setId(100L);
+        event.setMessage("Test event");
+        event.setOccurredAt(LocalDateTime.now());
+    }
+
+    @AfterEach
+    void tearDown() {
+        nodes.forEach(node -> {
+            node.router.shutdown();
+            node.index.shutdown();
+        });
+    }
+
+    @Test
+    void presence_isReportedToOwnerOfUser() throws Exception {
+        Node a = start("a");
+        Node b = start("b");
+        awaitRing(a, b);
+        long userId = userOwnedBy(a.router.ring(), "a", 1);
+
+        b.connect("s1", userId);
+        await(() -> a.router.isOnlineElsewhere(userId));
+        assertFalse(b.router.isOnlineElsewhere(userId));
+
+        b.disconnect("s1");
+        await(() -> !a.router.isOnlineElsewhere(userId));
+    }
+
+    @Test
+    void startingNode_receivesPresenceOfItsUsersFromRunningNodes() throws Exception {
+        Node a = start("a");
+        for (long userId = 1; userId <= 100; userId++) {
+            a.connect("s" + userId, userId);
+        }
+
+        Node b = start("b");
+        awaitRing(a, b);
+
+        long ownedByB = LongStream.rangeClosed(1, 100).filter(userId -> b.router.owns(userId)).count();
+        assertTrue(ownedByB > 0 && ownedByB < 100);
+        await(() -> b.router.remoteUserCount() == ownedByB);
+        assertEquals(0, a.router.remoteUserCount());
+    }
+
+    @Test
+    void joiningNode_takesOverOnlyItsShareOfUsers() throws Exception {
+        Node a = start("a");
+        Node b = start("b");
+        awaitRing(a, b);
+        ConsistentHashRing before = a.router.ring();
+
+        Node c = start("c");
+        awaitRing(a, b, c);
+        ConsistentHashRing after = a.router.ring();
+
+        int users = 30_000;
+        int moved = 0;
+        for (long userId = 1; userId <= users; userId++) {
+            String owner = after.ownerOf(userId);
+            if (!owner.equals(before.ownerOf(userId))) {
+                assertEquals("c", owner);
+                moved++;
+            }
+            assertEquals(owner, c.router.ownerOf(userId));
+        }
+        assertEquals(users / 3.0, moved, users * 0.05);
+    }
+
+    @Test
+    void presence_movesToNewOwner_whenNodeJoinsAndLeaves() throws Exception {
+        Node a = start("a");
+        Node b = start("b");
+        awaitRing(a, b);
+        ConsistentHashRing withC = a.router.ring().with("c", properties.getCluster().getVirtualNodes());
+        long userId = LongStream.iterate(1, id -> id + 1)
+                .filter(id -> a.router.ownerOf(id).equals("a") && withC.ownerOf(id).equals("c"))
+                .findFirst().orElseThrow();
+        b.connect("s1", userId);
+        await(() -> a.router.isOnlineElsewhere(userId));
+
+        Node c = start("c");
+        awaitRing(a, b, c);
+        await(() -> c.router.isOnlineElsewhere(userId));
+        assertFalse(a.router.isOnlineElsewhere(userId));
+
+        c.router.shutdown();
+        nodes.remove(c);
+        awaitRing(a, b);
+        await(() -> a.router.isOnlineElsewhere(userId));
+    }
+
+    @Test
+    void forward_sendsDeliveriesOfOneEventAsOneMessage() throws Exception {
+        properties.getCluster().setLinger(Duration.ofHours(1));
+        Node b = start("b");
+        Node c = start("c");
+        Node a = start("a");
+        awaitRing(a, b, c);
+        long first = userOwnedBy(a.router.ring(), "a", 1);
+        long second = userOwnedBy(a.router.ring(), "a", first + 1);
+        long foreign = userOwnedBy(a.router.ring(), "c", 1);
+        // linger в тесте не истекает: присутствие пользователей b передаётся снимком напрямую
+        a.router.receive("b", List.of(new ClusterMessage.PresenceSnapshot("b", new long[]{first, second})));
+
+        assertTrue(a.router.forward(first, event));
+        assertTrue(a.router.forward(second, event));
+        assertFalse(a.router.forward(foreign, event));
+        a.router.flush();
+
+        verify(b.publisher, timeout(2000)).publishEvent(new ClusterDeliveryEvent(event, List.of(first, second)));
+        assertEquals(1, a.meterRegistry.summary("notification.cluster.batch.size").count());
+        assertEquals(2.0, a.meterRegistry.counter("notification.cluster.forwarded", "kind", "deliver").count());
+        verify(c.publisher, never()).publishEvent(any(Object.class));
+    }
+
+    @Test
+    void forward_sendsBatchImmediately_whenBatchSizeReached() throws Exception {
+        properties.getCluster().setLinger(Duration.ofHours(1));
+        properties.getCluster().setBatchSize(2);
+        Node a = start("a");
+        Node b = start("b");
+        awaitRing(a, b);
+        long first = userOwnedBy(a.router.ring(), "a", 1);
+        long second = userOwnedBy(a.router.ring(), "a", first + 1);
+        a.router.receive("b", List.of(new ClusterMessage.PresenceSnapshot("b", new long[]{first, second})));
+
+        a.router.forward(first, event);
+        a.router.forwardPendingDue(second);
+
+        verify(b.publisher, timeout(2000)).publishEvent(new ClusterDeliveryEvent(event, List.of(first)));
+        verify(b.publisher, timeout(2000)).publishEvent(new PendingNotificationsDueEvent(List.of(second)));
+    }
+
+    @Test
+    void broadcastFanOut_reachesEveryOtherNode() throws Exception {
+        Node a = start("a");
+        Node b = start("b");
+        Node c = start("c");
+        awaitRing(a, b, c);
+
+        Event second = new Event();
+        second.setId(101L);
+        second.setMessage("Second event");
+        second.setOccurredAt(event.getOccurredAt());
+
+        a.router.broadcastFanOut(List.of(event, second), () -> {
+        });
+
+        verify(b.publisher, timeout(2000)).publishEvent(new ClusterFanOutEvent(List.of(event, second), "a", 1L));
+        verify(c.publisher, timeout(2000)).publishEvent(new ClusterFanOutEvent(List.of(event, second), "a", 1L));
+        verify(a.publisher, never()).publishEvent(any(ClusterFanOutEvent.class));
+    }
+
+    @Test
+    void broadcastFanOut_completesOnlyAfterEveryOtherNodeConfirms() throws Exception {
+        Node a = start("a");
+        Node b = start("b");
+        Node c = start("c");
+        awaitRing(a, b, c);
+        CountDownLatch completed = new CountDownLatch(1);
+
+        a.router.broadcastFanOut(List.of(event), completed::countDown);
+        verify(b.publisher, timeout(2000)).publishEvent(new ClusterFanOutEvent(List.of(event), "a", 1L));
+
+        b.router.fanOutCompleted("a", 1L);
+        assertFalse(completed.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(1, a.router.pendingFanOutCount());
+
+        c.router.fanOutCompleted("a", 1L);
+        assertTrue(completed.await(2, TimeUnit.SECONDS));
+        assertEquals(0, a.router.pendingFanOutCount());
+    }
+
+    @Test
+    void broadcastFanOut_isAbandoned_whenNodeLeavesBeforeConfirming() throws Exception {
+        Node a = start("a");
+        Node b = start("b");
+        awaitRing(a, b);
+        CountDownLatch completed = new CountDownLatch(1);
+
+        a.router.broadcastFanOut(List.of(event), completed::countDown);
+        b.router.shutdown();
+        nodes.remove(b);
+        b.index.shutdown();
+
+        await(() -> a.router.pendingFanOutCount() == 0);
+        assertFalse(completed.await(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void broadcastFanOut_completesImmediately_onSingleNode() throws Exception {
+        Node a = start("a");
+        CountDownLatch completed = new CountDownLatch(1);
+
+        a.router.broadcastFanOut(List.of(event), completed::countDown);
+
+        assertTrue(completed.await(0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void forwardPendingScheduled_reachesOwner() throws Exception {
+        Node a = start("a");
+        Node b = start("b");
+        awaitRing(a, b);
+        long userId = userOwnedBy(a.router.ring(), "b", 1);
+        LocalDateTime scheduledTime = LocalDateTime.now().plusHours(1);
+        List<Long> scheduled = new CopyOnWriteArrayList<>();
+        b.router.onPendingScheduled((id, time) -> scheduled.add(id));
+
+        a.router.forwardPendingScheduled(userId, scheduledTime);
+
+        await(() -> scheduled.contains(userId));
+    }
+
+    @Test
+    void stoppedNode_isForgotten() throws Exception {
+        Node a = start("a");
+        Node b = start("b");
+        awaitRing(a, b);
+        long userId = userOwnedBy(a.router.ring(), "a", 1);
+        b.connect("s1", userId);
+        await(() -> a.router.isOnlineElsewhere(userId));
+
+        b.router.shutdown();
+        nodes.remove(b);
+
+        await(() -> a.router.remoteUserCount() == 0);
+        await(() -> a.router.ring().nodes().equals(Set.of("a")));
+        assertFalse(a.router.forward(userId, event));
+    }
+
+    @Test
+    void crashedNode_isDroppedFromRing_andFanOutStopsWaitingForIt() throws Exception {
+        properties.getCluster().setHeartbeatInterval(Duration.ofMillis(20));
+        properties.getCluster().setNodeTimeout(Duration.ofMillis(200));
+        Node a = start("a");
+        CrashingBus busB = new CrashingBus(new LoopbackClusterBus(network, "b"));
+        Node b = start(busB);
+        awaitRing(a, b);
+        long userId = userOwnedBy(a.router.ring(), "a", 1);
+        b.connect("s1", userId);
+        await(() -> a.router.isOnlineElsewhere(userId));
+
+        busB.crash();
+        CountDownLatch abandoned = new CountDownLatch(1);
+        a.router.broadcastFanOut(List.of(event), abandoned::countDown);
+        assertEquals(1, a.router.pendingFanOutCount());
+
+        await(() -> a.router.ring().nodes().equals(Set.of("a")));
+        assertEquals(0, a.router.pendingFanOutCount());
+        assertFalse(a.router.isOnlineElsewhere(userId));
+
+        // строку outbox заберут повторно, и рассылка завершится без упавшего узла
+        CountDownLatch completed = new CountDownLatch(1);
+        a.router.broadcastFanOut(List.of(event), completed::countDown);
+        assertTrue(completed.await(0, TimeUnit.MILLISECONDS));
+        assertFalse(abandoned.await(0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void silentNode_rejoinsWithPresence_whenItIsHeardFromAgain() throws Exception {
+        properties.getCluster().setHeartbeatInterval(Duration.ofMillis(20));
+        properties.getCluster().setNodeTimeout(Duration.ofMillis(200));
+        Node a = start("a");
+        CrashingBus busB = new CrashingBus(new LoopbackClusterBus(network, "b"));
+        Node b = start(busB);
+        awaitRing(a, b);
+        long userId = userOwnedBy(a.router.ring(), "a", 1);
+        b.connect("s1", userId);
+        await(() -> a.router.isOnlineElsewhere(userId));
+
+        busB.mute(true);
+        await(() -> a.router.ring().nodes().equals(Set.of("a")));
+        assertFalse(a.router.isOnlineElsewhere(userId));
+
+        busB.mute(false);
+        awaitRing(a, b);
+        await(() -> a.router.isOnlineElsewhere(userId));
+    }
+
+    @Test
+    void userCreatedOnOneNode_joinsAudienceOfOwningNode() throws Exception {
+        Node a = start("a");
+        Node b = start("b");
+        awaitRing(a, b);
+        long userId = userOwnedBy(a.router.ring(), "b", 1);
+        User user = new User();
+        user.setId(userId);
+        NotificationPeriod period = new NotificationPeriod();
+        period.setDay(DayOfWeek.MONDAY);
+        period.setStartTime(LocalTime.of(9, 0));
+        period.setEndTime(LocalTime.of(18, 0));
+        user.setNotificationPeriods(Set.of(period));
+        when(database.findByIdWithNotificationPeriods(userId)).thenReturn(Optional.of(user));
+
+        // пользователь создан через узел a, рассылку для него выполняет b
+        a.index.rebuild(userId);
+
+        LocalDateTime mondayMorning = LocalDateTime.of(2024, 1, 1, 10, 0);
+        await(() -> b.index.allUsers().contains(UserBitmap.key(userId)));
+        assertTrue(b.index.usersOpenAt(mondayMorning).contains(UserBitmap.key(userId)));
+        assertTrue(b.router.owned(b.index.usersOpenAt(mondayMorning)).contains(UserBitmap.key(userId)));
+    }
+
+    private Node start(String nodeId) {
+        return start(new LoopbackClusterBus(network, nodeId));
+    }
+
+    private Node start(ClusterBus bus) {
+        Node node = new Node(bus);
+        node.router.afterSingletonsInstantiated();
+        nodes.add(node);
+        return node;
+    }
+
+    private static long userOwnedBy(ConsistentHashRing ring, String node, long from) {
+        long userId = from;
+        while (!ring.ownerOf(userId).equals(node)) {
+            userId++;
+        }
+        return userId;
+    }
+
+    /** Ждёт, пока все узлы узнают друг о друге. */
+    private static void awaitRing(Node... expected) throws InterruptedException {
+        Set<String> ids = Arrays.stream(expected).map(node -> node.router.nodeId()).collect(Collectors.toSet());
+        for (Node node : expected) {
+            await(() -> node.router.ring().nodes().equals(ids));
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Условие не выполнено за 2 секунды");
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Шина узла, который перестаёт отправлять пачки: {@link #mute} — на время,
+     * {@link #crash} — насовсем и без {@link ClusterMessage.Leave}, как при падении процесса.
+     */
+    private static final class CrashingBus implements ClusterBus {
+
+        private final ClusterBus delegate;
+        private volatile boolean muted;
+
+        private CrashingBus(ClusterBus delegate) {
+            this.delegate = delegate;
+        }
+
+        private void mute(boolean muted) {
+            this.muted = muted;
+        }
+
+        private void crash() {
+            muted = true;
+            delegate.leave();
+        }
+
+        @Override
+        public String nodeId() {
+            return delegate.nodeId();
+        }
+
+        @Override
+        public void join(Receiver receiver) {
+            delegate.join(receiver);
+        }
+
+        @Override
+        public void send(String targetNode, List<ClusterMessage> batch) {
+            if (!muted) {
+                delegate.send(targetNode, batch);
+            }
+        }
+
+        @Override
+        public void leave() {
+            delegate.leave();
+        }
+    }
+
+    private final class Node {
+
+        private final UserPresenceService presence = new UserPresenceService();
+        private final ApplicationEventPublisher publisher = mock(ApplicationEventPublisher.class);
+        private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        private final ClusterRouter router;
+        private final ScheduleIndexService index;
+
+        private Node(ClusterBus bus) {
+            this.router = new ClusterRouter(bus, presence, publisher, properties, meterRegistry);
+            this.index = new ScheduleIndexService(mock(UserChunkScanner.class), database,
+                    mock(PlatformTransactionManager.class), router, properties);
+        }
+
+        /** То же, что делает WebSocketEventListener при подключении. */
+        private void connect(String sessionId, Long userId) {
+            if (presence.sessionConnected(sessionId, userId)) {
+                router.userOnline(userId);
+            }
+        }
+
+        private void disconnect(String sessionId) {
+            UserPresenceService.SessionClosed closed = presence.sessionDisconnected(sessionId);
+            if (closed.lastSession()) {
+                router.userOffline(closed.userId());
+            }
+        }
+    }
+}
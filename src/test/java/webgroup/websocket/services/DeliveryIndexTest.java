@@ -0,0 +1,136 @@
+package webgroup.websocket.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import webgroup.websocket.config.NotificationProperties;
+import webgroup.websocket.repositories.FanOutBulkRepository;
+import webgroup.websocket.utils.ConsistentHashRing;
+
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class DeliveryIndexTest {
+
+    private static final Long EVENT_ID = 100L;
+
+    @Mock
+    private FanOutBulkRepository fanOutBulkRepository;
+
+    @Mock
+    private ClusterRouter clusterRouter;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private DeliveryIndex deliveryIndex;
+
+    @BeforeEach
+    void setUp() {
+        NotificationProperties properties = new NotificationProperties();
+        properties.getDeliveryIndex().setExpectedLinks(10_000);
+        lenient().when(clusterRouter.owns(anyLong())).thenReturn(true);
+        deliveryIndex = new DeliveryIndex(fanOutBulkRepository, clusterRouter, properties, meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        deliveryIndex.shutdown();
+    }
+
+    @Test
+    void findLinked_queriesDatabase_untilLoaded() {
+        when(fanOutBulkRepository.findUserIdsLinkedToEvent(EVENT_ID, List.of(1L, 2L))).thenReturn(Set.of(1L));
+
+        assertEquals(Set.of(1L), deliveryIndex.findLinked(EVENT_ID, List.of(1L, 2L)));
+        assertFalse(deliveryIndex.isLoaded());
+    }
+
+    @Test
+    void findLinked_skipsDatabase_forNewEvent() {
+        givenLinks();
+        deliveryIndex.reload();
+
+        assertEquals(Set.of(), deliveryIndex.findLinked(EVENT_ID, List.of(1L, 2L, 3L)));
+
+        verify(fanOutBulkRepository, never()).findUserIdsLinkedToEvent(anyLong(), anyCollection());
+        assertEquals(3.0, meterRegistry.counter("notification.delivery.index.lookups", "result", "absent").count());
+    }
+
+    @Test
+    void findLinked_rechecksOnlyPossibleMatchesInDatabase() {
+        givenLinks(new long[]{1L, EVENT_ID}, new long[]{2L, 7L});
+        when(fanOutBulkRepository.findUserIdsLinkedToEvent(EVENT_ID, List.of(1L))).thenReturn(Set.of(1L));
+        deliveryIndex.reload();
+
+        assertEquals(Set.of(1L), deliveryIndex.findLinked(EVENT_ID, List.of(1L, 2L)));
+
+        verify(fanOutBulkRepository).findUserIdsLinkedToEvent(EVENT_ID, List.of(1L));
+    }
+
+    @Test
+    void recordLinked_makesLinksVisible() {
+        givenLinks();
+        deliveryIndex.reload();
+        when(fanOutBulkRepository.findUserIdsLinkedToEvent(EVENT_ID, List.of(5L))).thenReturn(Set.of(5L));
+
+        deliveryIndex.recordLinked(EVENT_ID, List.of(5L));
+
+        assertEquals(Set.of(5L), deliveryIndex.findLinked(EVENT_ID, List.of(5L, 6L)));
+        assertEquals(1.0, meterRegistry.get("notification.delivery.index.links").gauge().value());
+    }
+
+    @Test
+    void reload_keepsOnlyLinksOfOwnedUsers() {
+        when(clusterRouter.owns(2L)).thenReturn(false);
+        givenLinks(new long[]{1L, EVENT_ID}, new long[]{2L, EVENT_ID});
+        when(fanOutBulkRepository.findUserIdsLinkedToEvent(EVENT_ID, List.of(1L))).thenReturn(Set.of(1L));
+        deliveryIndex.reload();
+
+        deliveryIndex.findLinked(EVENT_ID, List.of(1L, 2L));
+
+        verify(fanOutBulkRepository).findUserIdsLinkedToEvent(EVENT_ID, List.of(1L));
+    }
+
+    @Test
+    void ringChange_reloadsFilter() {
+        givenLinks();
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<BiConsumer<ConsistentHashRing, ConsistentHashRing>> listener = ArgumentCaptor.forClass(BiConsumer.class);
+        verify(clusterRouter).onRingChanged(listener.capture());
+
+        listener.getValue().accept(ConsistentHashRing.of(List.of("a"), 1), ConsistentHashRing.of(List.of("a", "b"), 1));
+
+        verify(fanOutBulkRepository, timeout(2000)).forEachLink(any());
+    }
+
+    @Test
+    void reload_fallsBackToDatabase_whenLoadingFails() {
+        when(fanOutBulkRepository.forEachLink(any())).thenThrow(new IllegalStateException("нет соединения"));
+        when(fanOutBulkRepository.findUserIdsLinkedToEvent(EVENT_ID, List.of(1L))).thenReturn(Set.of());
+
+        deliveryIndex.reload();
+
+        assertFalse(deliveryIndex.isLoaded());
+        deliveryIndex.findLinked(EVENT_ID, List.of(1L));
+        verify(fanOutBulkRepository).findUserIdsLinkedToEvent(EVENT_ID, List.of(1L));
+    }
+
+    private void givenLinks(long[]... links) {
+        when(fanOutBulkRepository.forEachLink(any())).thenAnswer(invocation -> {
+            BiConsumer<Long, Long> consumer = invocation.getArgument(0);
+            for (long[] link : links) {
+                consumer.accept(link[0], link[1]);
+            }
+            return (long) links.length;
+        });
+    }
+}
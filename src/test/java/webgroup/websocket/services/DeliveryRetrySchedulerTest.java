@@ -0,0 +1,124 @@
+package webgroup.websocket.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.util.MimeTypeUtils;
+import webgroup.websocket.config.NotificationProperties;
+import webgroup.websocket.entities.Event;
+import webgroup.websocket.utils.DeliveryResult;
+import webgroup.websocket.utils.NotificationFrame;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class DeliveryRetrySchedulerTest {
+
+    @Mock
+    private DeliveryTracker deliveryTracker;
+
+    @Mock
+    private PendingDeliveryScheduler pendingDeliveryScheduler;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final NotificationProperties properties = new NotificationProperties();
+
+    private PartitionedExecutor partitionedExecutor;
+    private DeliveryRetryScheduler scheduler;
+    private Event event;
+    private NotificationFrame frame;
+
+    @BeforeEach
+    void setUp() {
+        properties.getRetry().setInitialDelay(Duration.ofMillis(5));
+        properties.getRetry().setMaxDelay(Duration.ofMillis(20));
+        properties.getRetry().setMaxAttempts(3);
+        partitionedExecutor = new PartitionedExecutor(properties, meterRegistry);
+        scheduler = new DeliveryRetryScheduler(deliveryTracker, partitionedExecutor, pendingDeliveryScheduler,
+                properties, meterRegistry);
+
+        event = new Event();
+        event.setId(100L);
+        event.setOccurredAt(LocalDateTime.now());
+        frame = new NotificationFrame(100L, "{}".getBytes(), MimeTypeUtils.APPLICATION_JSON);
+    }
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdown();
+        partitionedExecutor.shutdown();
+    }
+
+    @Test
+    void scheduleRetry_shouldDeliverOnLaterAttempt() {
+        when(deliveryTracker.send(1L, event, frame)).thenReturn(DeliveryResult.FAILED, DeliveryResult.SENT);
+
+        scheduler.scheduleRetry(1L, event, frame);
+
+        verify(deliveryTracker, timeout(1000).times(2)).send(1L, event, frame);
+        assertTrue(awaitCount("delivered", 1.0));
+        verifyNoInteractions(pendingDeliveryScheduler);
+    }
+
+    @Test
+    void scheduleRetry_shouldMoveToPending_afterLastAttempt() {
+        when(deliveryTracker.send(1L, event, frame)).thenReturn(DeliveryResult.FAILED);
+
+        scheduler.scheduleRetry(1L, event, frame);
+
+        verify(pendingDeliveryScheduler, timeout(1000)).defer(1L, event);
+        // первая попытка была на потоке рассылки, здесь — попытки 2 и 3
+        verify(deliveryTracker, times(2)).send(1L, event, frame);
+        assertTrue(awaitCount("exhausted", 1.0));
+    }
+
+    @Test
+    void scheduleRetry_shouldMoveToPendingImmediately_whenUserWentOffline() {
+        when(deliveryTracker.send(1L, event, frame)).thenReturn(DeliveryResult.OFFLINE);
+
+        scheduler.scheduleRetry(1L, event, frame);
+
+        verify(pendingDeliveryScheduler, timeout(1000)).defer(1L, event);
+        verify(deliveryTracker, times(1)).send(1L, event, frame);
+    }
+
+    @Test
+    void scheduleRetry_shouldMoveToPending_whenSendThrows() {
+        when(deliveryTracker.send(1L, event, frame)).thenThrow(new IllegalStateException("окно недоступно"));
+
+        scheduler.scheduleRetry(1L, event, frame);
+
+        verify(pendingDeliveryScheduler, timeout(1000)).defer(1L, event);
+        verify(deliveryTracker, times(1)).send(1L, event, frame);
+    }
+
+    @Test
+    void delayMillis_shouldGrowExponentiallyUpToMaxDelay() {
+        properties.getRetry().setJitter(0);
+        properties.getRetry().setInitialDelay(Duration.ofMillis(100));
+        properties.getRetry().setMaxDelay(Duration.ofMillis(300));
+
+        assertEquals(100, scheduler.delayMillis(2));
+        assertEquals(200, scheduler.delayMillis(3));
+        assertEquals(300, scheduler.delayMillis(4));
+    }
+
+    private boolean awaitCount(String outcome, double expected) {
+        long deadline = System.currentTimeMillis() + 1000;
+        while (System.currentTimeMillis() < deadline) {
+            if (meterRegistry.counter("notification.retry.outcome", "outcome", outcome).count() == expected) {
+                return true;
+            }
+            Thread.onSpinWait();
+        }
+        return false;
+    }
+}
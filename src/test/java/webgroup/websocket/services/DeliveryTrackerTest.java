@@ -0,0 +1,353 @@
+package webgroup.websocket.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.util.MimeTypeUtils;
+import webgroup.websocket.config.NotificationProperties;
+import webgroup.websocket.config.NotificationWebSocketSender;
+import webgroup.websocket.config.WebSocketSessionRegistry;
+import webgroup.websocket.entities.Event;
+import webgroup.websocket.utils.DeliveryResult;
+import webgroup.websocket.utils.NotificationFrame;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.longThat;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class DeliveryTrackerTest {
+
+    @Mock
+    private NotificationWebSocketSender webSocketSender;
+
+    @Mock
+    private PendingDeliveryScheduler pendingDeliveryScheduler;
+
+    @Mock
+    private UserPresenceService userPresenceService;
+
+    @Mock
+    private WebSocketSessionRegistry sessionRegistry;
+
+    private final NotificationProperties properties = new NotificationProperties();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private PartitionedExecutor partitionedExecutor;
+    private DeliveryTracker tracker;
+    private Event event;
+    private NotificationFrame frame;
+
+    @BeforeEach
+    void setUp() {
+        properties.getDelivery().setWindowSize(2);
+        properties.getDelivery().setAckTimeout(Duration.ofHours(1));
+        event = new Event();
+        event.setId(100L);
+        event.setOccurredAt(LocalDateTime.now());
+        frame = new NotificationFrame(100L, "{}".getBytes(), MimeTypeUtils.APPLICATION_JSON);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (tracker != null) {
+            tracker.shutdown();
+            partitionedExecutor.shutdown();
+        }
+    }
+
+    @Test
+    void send_assignsIncreasingSeqPerUser() throws Exception {
+        tracker = newTracker();
+        when(webSocketSender.sendToUser(eq(1L), eq(frame), anyLong())).thenReturn(DeliveryResult.SENT);
+
+        send();
+        send();
+
+        verify(webSocketSender).sendToUser(1L, frame, 1L);
+        verify(webSocketSender).sendToUser(1L, frame, 2L);
+        assertEquals(2, inFlightOnLane());
+    }
+
+    @Test
+    void ack_releasesSeqOnce() throws Exception {
+        tracker = newTracker();
+        when(webSocketSender.sendToUser(1L, frame, 1L)).thenReturn(DeliveryResult.SENT);
+        send();
+
+        tracker.ack(1L, 1L);
+        tracker.ack(1L, 1L);
+        tracker.ack(2L, 1L);
+
+        assertEquals(0, inFlightOnLane());
+        assertEquals(1.0, meterRegistry.counter("notification.delivery.outcome", "outcome", "acked").count());
+    }
+
+    @Test
+    void send_returnsWindowFull_whenTooManyUnacked() throws Exception {
+        tracker = newTracker();
+        when(webSocketSender.sendToUser(eq(1L), eq(frame), anyLong())).thenReturn(DeliveryResult.SENT);
+        send();
+        send();
+
+        assertEquals(DeliveryResult.WINDOW_FULL, send());
+
+        tracker.ack(1L, 1L);
+        assertEquals(DeliveryResult.SENT, send());
+        verify(webSocketSender).sendToUser(1L, frame, 3L);
+    }
+
+    @Test
+    void send_releasesSeq_whenUserOffline() throws Exception {
+        tracker = newTracker();
+        when(webSocketSender.sendToUser(1L, frame, 1L)).thenReturn(DeliveryResult.OFFLINE);
+
+        assertEquals(DeliveryResult.OFFLINE, send());
+        assertEquals(0, inFlightOnLane());
+    }
+
+    @Test
+    void unackedNotification_isRedeliveredThenDeferred() throws Exception {
+        properties.getDelivery().setAckTimeout(Duration.ofMillis(20));
+        properties.getDelivery().setMaxRedeliveries(1);
+        tracker = newTracker();
+        when(webSocketSender.sendToUser(1L, frame, 1L)).thenReturn(DeliveryResult.SENT);
+
+        send();
+
+        verify(pendingDeliveryScheduler, timeout(2000)).defer(1L, event);
+        verify(webSocketSender, times(2)).sendToUser(1L, frame, 1L);
+        assertEquals(0, inFlightOnLane());
+    }
+
+    @Test
+    void isReachable_whileOnlineOrResumable() throws Exception {
+        tracker = newTracker();
+        when(userPresenceService.isUserOnline(1L)).thenReturn(true, false);
+
+        assertTrue(tracker.isReachable(1L));
+        assertFalse(tracker.isReachable(1L));
+
+        tracker.userDisconnected(1L);
+        inFlightOnLane();
+        assertTrue(tracker.isReachable(1L));
+    }
+
+    @Test
+    void userDisconnected_defersUnacked_whenUserDoesNotReturn() throws Exception {
+        properties.getReplay().setMaxAge(Duration.ofMillis(20));
+        tracker = newTracker();
+        when(webSocketSender.sendToUser(eq(1L), eq(frame), anyLong())).thenReturn(DeliveryResult.SENT);
+        send();
+        send();
+        tracker.ack(1L, 2L);
+
+        tracker.userDisconnected(1L);
+
+        verify(pendingDeliveryScheduler, timeout(2000).times(1)).defer(1L, event);
+        assertEquals(0, inFlightOnLane());
+    }
+
+    @Test
+    void window_isReleased_whenUserDoesNotReturnAndNothingInFlight() throws Exception {
+        properties.getReplay().setMaxAge(Duration.ofMillis(20));
+        tracker = newTracker();
+        when(webSocketSender.sendToUser(eq(1L), eq(frame), anyLong())).thenReturn(DeliveryResult.SENT);
+        send();
+        tracker.ack(1L, 1L);
+
+        tracker.userDisconnected(1L);
+        inFlightOnLane();
+        assertEquals(1, tracker.windowCount());
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while (tracker.windowCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, tracker.windowCount());
+
+        // окно, созданное заново, не переиспользует номера прежнего
+        send();
+        verify(webSocketSender).sendToUser(eq(1L), eq(frame), longThat(seq -> seq > 1L));
+    }
+
+    @Test
+    void send_releasesWindow_whenUserOfflineAndNotResumable() throws Exception {
+        tracker = newTracker();
+        when(webSocketSender.sendToUser(1L, frame, 1L)).thenReturn(DeliveryResult.OFFLINE);
+
+        assertEquals(DeliveryResult.OFFLINE, send());
+
+        assertEquals(0, tracker.windowCount());
+    }
+
+    @Test
+    void send_buffersNotification_whileUserCanResume() throws Exception {
+        tracker = newTracker();
+        tracker.userDisconnected(1L);
+
+        assertEquals(DeliveryResult.BUFFERED, send());
+
+        verifyNoInteractions(webSocketSender);
+        assertEquals(1, inFlightOnLane());
+    }
+
+    @Test
+    void userConnected_replaysOnlyGapAfterLastSeq() throws Exception {
+        tracker = newTracker();
+        when(webSocketSender.sendToUser(eq(1L), eq(frame), anyLong())).thenReturn(DeliveryResult.SENT);
+        send();
+        tracker.userDisconnected(1L);
+        send();
+
+        tracker.userConnected(1L, 1L);
+
+        assertEquals(1, inFlightOnLane());
+        verify(webSocketSender, times(1)).sendToUser(1L, frame, 1L);
+        verify(webSocketSender, times(1)).sendToUser(1L, frame, 2L);
+        verifyNoInteractions(pendingDeliveryScheduler);
+    }
+
+    @Test
+    void slowConsumer_dropOldest_sendsNewestAndForgetsOldest() throws Exception {
+        properties.getTransport().setSlowConsumerPolicy(NotificationProperties.SlowConsumerPolicy.DROP_OLDEST);
+        tracker = newTracker();
+        when(webSocketSender.sendToUser(eq(1L), eq(frame), anyLong())).thenReturn(DeliveryResult.SENT);
+        send();
+        send();
+
+        assertEquals(DeliveryResult.SENT, send());
+        tracker.ack(1L, 1L);
+
+        verify(webSocketSender).sendToUser(1L, frame, 3L);
+        assertEquals(2, inFlightOnLane());
+        assertEquals(1.0, slowConsumerCount("drop_oldest"));
+        assertEquals(0.0, meterRegistry.counter("notification.delivery.outcome", "outcome", "acked").count());
+        verifyNoInteractions(pendingDeliveryScheduler);
+    }
+
+    @Test
+    void slowConsumer_coalesce_sendsDigestWhenWindowFrees() throws Exception {
+        properties.getTransport().setSlowConsumerPolicy(NotificationProperties.SlowConsumerPolicy.COALESCE);
+        tracker = newTracker();
+        when(webSocketSender.sendToUser(eq(1L), any(NotificationFrame.class), anyLong())).thenReturn(DeliveryResult.SENT);
+        send();
+        send();
+
+        assertEquals(DeliveryResult.BUFFERED, send());
+        assertEquals(DeliveryResult.BUFFERED, send());
+        tracker.ack(1L, 1L);
+
+        assertEquals(2, inFlightOnLane());
+        verify(webSocketSender).sendToUser(eq(1L), argThat(digest -> "[{},{}]".equals(new String(digest.payload()))), eq(3L));
+        assertEquals(2.0, slowConsumerCount("coalesce"));
+        verifyNoInteractions(pendingDeliveryScheduler);
+    }
+
+    @Test
+    void slowConsumer_disconnectToPending_defersWindowAndClosesSessions() throws Exception {
+        properties.getTransport().setSlowConsumerPolicy(NotificationProperties.SlowConsumerPolicy.DISCONNECT_TO_PENDING);
+        tracker = newTracker();
+        when(webSocketSender.sendToUser(eq(1L), eq(frame), anyLong())).thenReturn(DeliveryResult.SENT);
+        send();
+        send();
+
+        assertEquals(DeliveryResult.WINDOW_FULL, send());
+
+        assertEquals(0, inFlightOnLane());
+        verify(pendingDeliveryScheduler, times(2)).defer(1L, event);
+        verify(sessionRegistry).closeUserSessions(1L, WebSocketSessionRegistry.SLOW_CONSUMER);
+        assertEquals(1.0, slowConsumerCount("disconnect_to_pending"));
+    }
+
+    @Test
+    void coalescing_sendsBurstAsOneFrame_afterLinger() throws Exception {
+        properties.getCoalescing().setLinger(Duration.ofMillis(30));
+        tracker = newTracker();
+        when(webSocketSender.sendToUser(eq(1L), any(NotificationFrame.class), anyLong())).thenReturn(DeliveryResult.SENT);
+
+        assertEquals(DeliveryResult.BUFFERED, send());
+        assertEquals(DeliveryResult.BUFFERED, send());
+        assertEquals(DeliveryResult.BUFFERED, send());
+
+        verify(webSocketSender, timeout(2000)).sendToUser(eq(1L),
+                argThat(digest -> "[{},{},{}]".equals(new String(digest.payload()))), eq(1L));
+        assertEquals(1, inFlightOnLane());
+        verify(webSocketSender, times(1)).sendToUser(eq(1L), any(NotificationFrame.class), anyLong());
+        assertEquals(3.0, meterRegistry.summary("notification.digest.events").totalAmount());
+    }
+
+    @Test
+    void coalescing_sendsBurstImmediately_whenMaxBatchReached() throws Exception {
+        properties.getCoalescing().setLinger(Duration.ofHours(1));
+        properties.getCoalescing().setMaxBatch(2);
+        tracker = newTracker();
+        when(webSocketSender.sendToUser(eq(1L), any(NotificationFrame.class), anyLong())).thenReturn(DeliveryResult.SENT);
+
+        send();
+        verifyNoInteractions(webSocketSender);
+        send();
+
+        verify(webSocketSender).sendToUser(eq(1L), argThat(digest -> "[{},{}]".equals(new String(digest.payload()))), eq(1L));
+    }
+
+    @Test
+    void coalescing_sendsSingleNotificationWithoutArray() throws Exception {
+        properties.getCoalescing().setLinger(Duration.ofMillis(10));
+        tracker = newTracker();
+        when(webSocketSender.sendToUser(1L, frame, 1L)).thenReturn(DeliveryResult.SENT);
+
+        send();
+
+        verify(webSocketSender, timeout(2000)).sendToUser(1L, frame, 1L);
+    }
+
+    @Test
+    void sendAll_sendsEventsAsOneDigest() throws Exception {
+        tracker = newTracker();
+        Event second = new Event();
+        second.setId(101L);
+        second.setOccurredAt(LocalDateTime.now());
+        when(webSocketSender.sendToUser(eq(1L), any(NotificationFrame.class), anyLong())).thenReturn(DeliveryResult.SENT);
+
+        List<DeliveryResult> results = partitionedExecutor.submit(1L,
+                () -> tracker.sendAll(1L, List.of(event, second), List.of(frame, frame))).get();
+
+        assertEquals(List.of(DeliveryResult.BUFFERED, DeliveryResult.BUFFERED), results);
+        verify(webSocketSender).sendToUser(eq(1L), argThat(digest -> "[{},{}]".equals(new String(digest.payload()))), eq(1L));
+        verify(webSocketSender, times(1)).sendToUser(eq(1L), any(NotificationFrame.class), anyLong());
+        assertEquals(1, inFlightOnLane());
+    }
+
+    private double slowConsumerCount(String policy) {
+        return meterRegistry.counter("notification.slow.consumer", "policy", policy).count();
+    }
+
+    private DeliveryTracker newTracker() {
+        partitionedExecutor = new PartitionedExecutor(properties, meterRegistry);
+        return new DeliveryTracker(webSocketSender, pendingDeliveryScheduler,
+                new SessionReplayService(properties, meterRegistry), partitionedExecutor, userPresenceService,
+                sessionRegistry, properties, meterRegistry);
+    }
+
+    private DeliveryResult send() throws Exception {
+        return partitionedExecutor.submit(1L, () -> tracker.send(1L, event, frame)).get();
+    }
+
+    /** Дожидается выполнения всех задач, уже поставленных в полосу пользователя. */
+    private int inFlightOnLane() throws Exception {
+        return partitionedExecutor.submit(1L, () -> tracker.inFlight(1L)).get();
+    }
+}
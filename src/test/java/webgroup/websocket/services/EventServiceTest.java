@@ -3,15 +3,21 @@ package webgroup.websocket.services;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
+import java.time.LocalDateTime;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 
+import jakarta.validation.Validation;
+import jakarta.validation.Validator;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.*;
+import webgroup.websocket.dto.EventBatchResultDTO;
 import webgroup.websocket.dto.EventDTO;
 import webgroup.websocket.entities.Event;
 import webgroup.websocket.mappers.EventMapper;
+import webgroup.websocket.repositories.EventOutboxRepository;
 import webgroup.websocket.repositories.EventRepository;
 
 public class EventServiceTest {
@@ -19,9 +25,15 @@ public class EventServiceTest {
     @Mock
     private EventRepository eventRepository;
 
+    @Mock
+    private EventOutboxRepository eventOutboxRepository;
+
     @Mock
     private EventMapper eventMapper;
 
+    @Spy
+    private Validator validator = Validation.buildDefaultValidatorFactory().getValidator();
+
     @InjectMocks
     private EventService eventService;
 
@@ -48,7 +60,6 @@ public class EventServiceTest {
 
         when(eventMapper.toEntity(dto)).thenReturn(event);
         when(eventRepository.save(event)).thenReturn(savedEvent);
-        doNothing().when(eventRepository).flush();
         when(eventMapper.toDto(savedEvent)).thenReturn(savedDto);
 
         EventDTO result = eventService.save(dto);
@@ -59,7 +70,7 @@ public class EventServiceTest {
 
         verify(eventMapper).toEntity(dto);
         verify(eventRepository).save(event);
-        verify(eventRepository).flush();
+        verify(eventOutboxRepository).append(1L);
         verify(eventMapper).toDto(savedEvent);
     }
 
@@ -72,6 +83,45 @@ public class EventServiceTest {
         assertEquals("Событие не может быть null", ex.getMessage());
     }
 
+    @Test
+    void saveAll_shouldInsertValidEventsInOneStatement_andReportEachItem() {
+        EventDTO first = eventDto("First");
+        EventDTO blank = eventDto(" ");
+        EventDTO second = eventDto("Second");
+        Event firstEvent = new Event();
+        Event secondEvent = new Event();
+        when(eventMapper.toEntity(first)).thenReturn(firstEvent);
+        when(eventMapper.toEntity(second)).thenReturn(secondEvent);
+        when(eventOutboxRepository.insertEventsAndAppend(List.of(firstEvent, secondEvent))).thenReturn(List.of(10L, 11L));
+
+        List<EventBatchResultDTO> results = eventService.saveAll(Arrays.asList(first, blank, second, null));
+
+        assertEquals(4, results.size());
+        assertEquals(EventBatchResultDTO.accepted(0, 10L), results.get(0));
+        assertEquals(EventBatchResultDTO.Status.REJECTED, results.get(1).getStatus());
+        assertEquals(List.of("message: Сообщение события не может быть пустым"), results.get(1).getErrors());
+        assertEquals(EventBatchResultDTO.accepted(2, 11L), results.get(2));
+        assertEquals(EventBatchResultDTO.rejected(3, List.of("Событие не может быть null")), results.get(3));
+        verify(eventOutboxRepository).insertEventsAndAppend(anyList());
+        verify(eventRepository, never()).save(any());
+    }
+
+    @Test
+    void saveAll_shouldRejectOverLengthMessage_insteadOfFailingWholeInsert() {
+        EventDTO valid = eventDto("x".repeat(255));
+        EventDTO tooLong = eventDto("x".repeat(256));
+        Event validEvent = new Event();
+        when(eventMapper.toEntity(valid)).thenReturn(validEvent);
+        when(eventOutboxRepository.insertEventsAndAppend(List.of(validEvent))).thenReturn(List.of(10L));
+
+        List<EventBatchResultDTO> results = eventService.saveAll(List.of(valid, tooLong));
+
+        assertEquals(EventBatchResultDTO.accepted(0, 10L), results.get(0));
+        assertEquals(EventBatchResultDTO.rejected(1, List.of("message: Сообщение события не может быть длиннее 255 символов")),
+                results.get(1));
+        verify(eventMapper, never()).toEntity(tooLong);
+    }
+
     @Test
     void findAll_shouldReturnMappedList() {
         Event event1 = new Event();
@@ -165,4 +215,11 @@ public class EventServiceTest {
         List<EventDTO> result = eventService.findByUserId(null);
         assertTrue(result.isEmpty());
     }
+
+    private static EventDTO eventDto(String message) {
+        EventDTO dto = new EventDTO();
+        dto.setMessage(message);
+        dto.setOccurredAt(LocalDateTime.now().minusMinutes(1));
+        return dto;
+    }
 }
@@ -0,0 +1,208 @@
+package webgroup.websocket.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import webgroup.websocket.config.NotificationProperties;
+import webgroup.websocket.entities.Event;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class FanOutDispatcherTest {
+
+    @Mock
+    private NotificationService notificationService;
+
+    @Mock
+    private ClusterRouter clusterRouter;
+
+    private static final Runnable NO_OP = () -> {
+    };
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private FanOutDispatcher dispatcher;
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        release.countDown();
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    void dispatch_shouldProcessEventOnWorkerThread() {
+        dispatcher = new FanOutDispatcher(notificationService, clusterRouter, properties(NotificationProperties.RejectionPolicy.ABORT), meterRegistry);
+        Event event = event(1L);
+
+        Runnable onCompleted = mock(Runnable.class);
+        // остальные узлы подтверждают сразу
+        doAnswer(invocation -> {
+            invocation.<Runnable>getArgument(1).run();
+            return null;
+        }).when(clusterRouter).broadcastFanOut(eq(List.of(event)), any());
+
+        dispatcher.dispatch(List.of(event), onCompleted);
+
+        verify(notificationService, timeout(1000)).processEvents(List.of(event));
+        verify(onCompleted, timeout(1000)).run();
+    }
+
+    @Test
+    void dispatch_shouldNotComplete_untilOtherNodesConfirm() throws InterruptedException {
+        dispatcher = new FanOutDispatcher(notificationService, clusterRouter, properties(NotificationProperties.RejectionPolicy.ABORT), meterRegistry);
+        Event event = event(1L);
+        Runnable onCompleted = mock(Runnable.class);
+
+        dispatcher.dispatch(List.of(event), onCompleted);
+
+        verify(notificationService, timeout(1000)).processEvents(List.of(event));
+        ArgumentCaptor<Runnable> peersDone = ArgumentCaptor.forClass(Runnable.class);
+        verify(clusterRouter).broadcastFanOut(eq(List.of(event)), peersDone.capture());
+        Thread.sleep(50);
+        verify(onCompleted, never()).run();
+
+        peersDone.getValue().run();
+        verify(onCompleted, timeout(1000)).run();
+    }
+
+    @Test
+    void onClusterFanOut_processesEventAndConfirmsToOrigin() {
+        dispatcher = new FanOutDispatcher(notificationService, clusterRouter, properties(NotificationProperties.RejectionPolicy.ABORT), meterRegistry);
+        Event event = event(1L);
+
+        dispatcher.onClusterFanOut(new ClusterFanOutEvent(List.of(event), "b", 7L));
+
+        verify(notificationService, timeout(1000)).processEvents(List.of(event));
+        verify(clusterRouter, timeout(1000)).fanOutCompleted("b", 7L);
+        verify(clusterRouter, never()).broadcastFanOut(any(), any());
+    }
+
+    @Test
+    void onClusterFanOut_doesNotConfirm_whenFanOutFails() {
+        dispatcher = new FanOutDispatcher(notificationService, clusterRouter, properties(NotificationProperties.RejectionPolicy.ABORT), meterRegistry);
+        Event event = event(1L);
+        doThrow(new IllegalStateException("db down")).when(notificationService).processEvents(List.of(event));
+
+        dispatcher.onClusterFanOut(new ClusterFanOutEvent(List.of(event), "b", 7L));
+
+        verify(notificationService, timeout(1000)).processEvents(List.of(event));
+        verify(clusterRouter, after(100).never()).fanOutCompleted(any(), anyLong());
+    }
+
+    @Test
+    void dispatch_shouldProcessEventOnVirtualThread_whenVirtualThreadsEnabled() throws InterruptedException {
+        NotificationProperties properties = properties(NotificationProperties.RejectionPolicy.ABORT);
+        properties.getExecution().setVirtualThreads(true);
+        dispatcher = new FanOutDispatcher(notificationService, clusterRouter, properties, meterRegistry);
+        CountDownLatch processed = new CountDownLatch(1);
+        boolean[] virtual = new boolean[1];
+        doAnswer(invocation -> {
+            virtual[0] = Thread.currentThread().isVirtual();
+            processed.countDown();
+            return null;
+        }).when(notificationService).processEvents(any());
+
+        dispatcher.dispatch(List.of(event(1L)), NO_OP);
+
+        assertTrue(processed.await(1, TimeUnit.SECONDS));
+        assertTrue(virtual[0]);
+    }
+
+    @Test
+    void dispatch_shouldReject_whenQueueIsFullAndPolicyIsAbort() throws InterruptedException {
+        dispatcher = new FanOutDispatcher(notificationService, clusterRouter, properties(NotificationProperties.RejectionPolicy.ABORT), meterRegistry);
+        CountDownLatch started = blockWorker();
+
+        dispatcher.dispatch(List.of(event(1L)), NO_OP);
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        dispatcher.dispatch(List.of(event(2L)), NO_OP);
+
+        assertThrows(RejectedExecutionException.class, () -> dispatcher.dispatch(List.of(event(3L)), NO_OP));
+        assertEquals(1.0, meterRegistry.counter("notification.fanout.rejected").count());
+    }
+
+    @Test
+    void dispatch_shouldEvictOldestEvent_whenPolicyIsDiscardOldest() throws InterruptedException {
+        dispatcher = new FanOutDispatcher(notificationService, clusterRouter, properties(NotificationProperties.RejectionPolicy.DISCARD_OLDEST), meterRegistry);
+        CountDownLatch started = blockWorker();
+        Event evicted = event(2L);
+        Event newest = event(3L);
+
+        dispatcher.dispatch(List.of(event(1L)), NO_OP);
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        dispatcher.dispatch(List.of(evicted), NO_OP);
+        dispatcher.dispatch(List.of(newest), NO_OP);
+        release.countDown();
+
+        verify(notificationService, timeout(1000)).processEvents(List.of(newest));
+        verify(notificationService, never()).processEvents(List.of(evicted));
+        assertEquals(1.0, meterRegistry.counter("notification.fanout.discarded").count());
+    }
+
+    @Test
+    void dispatch_shouldCountFailures_whenProcessingThrows() {
+        dispatcher = new FanOutDispatcher(notificationService, clusterRouter, properties(NotificationProperties.RejectionPolicy.ABORT), meterRegistry);
+        Event event = event(1L);
+        doThrow(new RuntimeException("boom")).when(notificationService).processEvents(List.of(event));
+
+        Runnable onCompleted = mock(Runnable.class);
+
+        dispatcher.dispatch(List.of(event), onCompleted);
+
+        verify(notificationService, timeout(1000)).processEvents(List.of(event));
+        assertTrue(waitForCount("notification.fanout.failed", 1.0));
+        verify(onCompleted, never()).run();
+    }
+
+    private CountDownLatch blockWorker() {
+        CountDownLatch started = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(notificationService).processEvents(argThat(events -> events.get(0).getId() == 1L));
+        return started;
+    }
+
+    private boolean waitForCount(String name, double expected) {
+        long deadline = System.currentTimeMillis() + 1000;
+        while (System.currentTimeMillis() < deadline) {
+            if (meterRegistry.counter(name).count() == expected) {
+                return true;
+            }
+            Thread.onSpinWait();
+        }
+        return false;
+    }
+
+    private NotificationProperties properties(NotificationProperties.RejectionPolicy policy) {
+        NotificationProperties properties = new NotificationProperties();
+        properties.getFanOut().setCorePoolSize(1);
+        properties.getFanOut().setMaxPoolSize(1);
+        properties.getFanOut().setQueueCapacity(1);
+        properties.getFanOut().setRejectionPolicy(policy);
+        return properties;
+    }
+
+    private Event event(Long id) {
+        Event event = new Event();
+        event.setId(id);
+        event.setMessage("Event " + id);
+        return event;
+    }
+}
@@ -33,6 +33,9 @@ class NotificationPeriodServiceTest {
     @Mock
     private NotificationPeriodMapper mapper;
 
+    @Mock
+    private ScheduleIndexService scheduleIndexService;
+
     @InjectMocks
     private NotificationPeriodService service;
 
@@ -116,6 +119,7 @@ class NotificationPeriodServiceTest {
         verify(userRepository).findById(userId);
         verify(notificationPeriodRepository).save(entity);
         verify(mapper).toDto(savedEntity);
+        verify(scheduleIndexService).rebuild(userId);
     }
 
     // update
@@ -199,6 +203,17 @@ class NotificationPeriodServiceTest {
 
         verify(notificationPeriodRepository).deleteById(1L);
     }
+
+    @Test
+    void delete_shouldRebuildOwnerSchedule() {
+        when(notificationPeriodRepository.existsById(1L)).thenReturn(true);
+        when(notificationPeriodRepository.findUserIdById(1L)).thenReturn(Optional.of(7L));
+
+        service.delete(1L);
+
+        verify(notificationPeriodRepository).deleteById(1L);
+        verify(scheduleIndexService).rebuild(7L);
+    }
 }
 
 
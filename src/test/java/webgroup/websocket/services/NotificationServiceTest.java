@@ -5,20 +5,35 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.*;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.roaringbitmap.RoaringBitmap;
+import webgroup.websocket.config.NotificationProperties;
 import webgroup.websocket.config.NotificationWebSocketSender;
+import webgroup.websocket.dto.PendingNotificationDTO;
 import webgroup.websocket.entities.Event;
+import webgroup.websocket.entities.NotificationPeriod;
 import webgroup.websocket.entities.PendingNotification;
 import webgroup.websocket.entities.User;
-import webgroup.websocket.repositories.EventRepository;
+import webgroup.websocket.repositories.FanOutBulkRepository;
 import webgroup.websocket.repositories.PendingNotificationRepository;
 import webgroup.websocket.repositories.UserRepository;
+import webgroup.websocket.utils.DeliveryResult;
+import webgroup.websocket.utils.NotificationFrame;
 import webgroup.websocket.utils.NotificationPeriodUtils;
 import webgroup.websocket.utils.NotificationSchedulerUtils;
 import webgroup.websocket.utils.NotificationUtils;
+import webgroup.websocket.utils.UserBitmap;
+import webgroup.websocket.utils.WeeklySchedule;
 
+import org.springframework.util.MimeTypeUtils;
+
+import org.springframework.data.domain.Pageable;
+
+import java.time.DayOfWeek;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
 import java.util.*;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -36,20 +51,45 @@ class NotificationServiceTest {
     @Mock
     private NotificationSchedulerUtils notificationSchedulerUtils;
 
-    @Mock
-    private EventRepository eventRepository;
-
     @Mock
     private NotificationUtils notificationUtils;
 
     @Mock
     private NotificationPeriodUtils notificationPeriodUtils;
 
+    @Mock
+    private FanOutBulkRepository fanOutBulkRepository;
+
+    @Mock
+    private DeliveryIndex deliveryIndex;
+
+    @Mock
+    private ScheduleIndexService scheduleIndexService;
+
+    @Mock
+    private PendingDeliveryScheduler pendingDeliveryScheduler;
+
+    @Spy
+    private NotificationProperties notificationProperties = new NotificationProperties();
+
+    @Mock
+    private DeliveryTracker deliveryTracker;
+
+    @Mock
+    private PartitionedExecutor partitionedExecutor;
+
+    @Mock
+    private ClusterRouter clusterRouter;
+
+    @Mock
+    private UserPresenceService userPresenceService;
+
     @InjectMocks
     private NotificationService notificationService;
 
     private Event event;
     private User user;
+    private NotificationFrame frame;
 
     @BeforeEach
     void setup() {
@@ -63,93 +103,370 @@ class NotificationServiceTest {
         user.setFullName("John Doe");
         user.setEvents(new HashSet<>());
         user.setNotificationPeriods(Collections.emptySet());
+
+        frame = new NotificationFrame(event.getId(), "{}".getBytes(), MimeTypeUtils.APPLICATION_JSON);
+
+        // полоса пользователя выполняет задачу сразу в потоке теста
+        lenient().doAnswer(invocation -> {
+            invocation.<Runnable>getArgument(1).run();
+            return null;
+        }).when(partitionedExecutor).execute(anyLong(), any(Runnable.class));
+        lenient().doAnswer(invocation -> {
+            invocation.<Runnable>getArgument(1).run();
+            return true;
+        }).when(partitionedExecutor).offer(anyLong(), any(Runnable.class));
+        // один узел: вся доля пользователей его
+        lenient().when(clusterRouter.owned(any())).thenAnswer(invocation -> invocation.getArgument(0));
     }
 
     @Test
-    void processEvent_sendsNotificationAndSavesUser_whenUserInNotificationPeriodAndSendSuccessful() {
-        List<User> users = List.of(user);
+    void processEvent_sendsNotificationAndLinksUser_whenUserInNotificationPeriodAndSendSuccessful() {
+        givenUsers(user.getId());
+        givenOpenAt(user.getId());
+        givenOnline(user.getId());
+        when(deliveryIndex.findLinked(event.getId(), List.of(user.getId()))).thenReturn(Set.of());
+        when(notificationUtils.sendNotification(user.getId(), event, frame)).thenReturn(true);
+
+        notificationService.processEvent(event);
 
-        when(userRepository.findAllWithNotificationPeriods()).thenReturn(users);
-        when(notificationPeriodUtils.isWithinNotificationPeriod(user, event.getOccurredAt())).thenReturn(true);
-        when(notificationUtils.sendNotification(user, event)).thenReturn(true);
+        verify(scheduleIndexService).usersOpenAt(event.getOccurredAt());
+        verify(notificationUtils).sendNotification(user.getId(), event, frame);
+        verify(fanOutBulkRepository).linkUsersToEvent(event.getId(), List.of(user.getId()));
+        verify(deliveryIndex).recordLinked(event.getId(), List.of(user.getId()));
+        verify(fanOutBulkRepository, atLeastOnce()).insertPendingNotifications(List.of());
+
+        verify(notificationSchedulerUtils, never()).buildPendingNotification(anyLong(), any());
+        verify(notificationPeriodUtils, never()).isWithinNotificationPeriod(any(), any());
+        verify(userRepository, never()).findAllWithNotificationPeriodsByIdIn(anyList());
+    }
+
+    @Test
+    void processEvent_defersNotification_whenSendNotificationFailsOnLane() {
+        givenUsers(user.getId());
+        givenOpenAt(user.getId());
+        givenOnline(user.getId());
+        when(deliveryIndex.findLinked(event.getId(), List.of(user.getId()))).thenReturn(Set.of());
+        when(notificationUtils.sendNotification(user.getId(), event, frame)).thenReturn(false);
 
         notificationService.processEvent(event);
 
-        verify(userRepository).findAllWithNotificationPeriods();
-        verify(notificationPeriodUtils).isWithinNotificationPeriod(user, event.getOccurredAt());
-        verify(notificationUtils).sendNotification(user, event);
-        verify(userRepository).saveAll(argThat(iterable -> {
-            List<User> list = new ArrayList<>();
-            iterable.forEach(list::add);
-            return list.contains(user);
-        }));
+        verify(partitionedExecutor).offer(eq(user.getId()), any(Runnable.class));
+        verify(fanOutBulkRepository).linkUsersToEvent(event.getId(), List.of(user.getId()));
+        verify(pendingDeliveryScheduler).defer(user.getId(), event);
+        verify(pendingNotificationRepository, never()).save(any());
+    }
+
+    @Test
+    void processEvent_schedulesPendingInBatch_whenOpenWindowUserUnreachable() {
+        PendingNotification pending = pendingFor(user.getId());
+
+        givenUsers(user.getId());
+        givenOpenAt(user.getId());
+        givenOnline();
+        when(deliveryTracker.isReachable(user.getId())).thenReturn(false);
+        when(deliveryIndex.findLinked(event.getId(), List.of(user.getId()))).thenReturn(Set.of());
+        when(notificationSchedulerUtils.buildPendingNotification(user.getId(), event)).thenReturn(pending);
 
-        verify(notificationSchedulerUtils, never()).schedulePendingNotificationIfNecessary(any(), any());
+        notificationService.processEvent(event);
+
+        verify(fanOutBulkRepository).insertPendingNotifications(List.of(pending));
+        verify(pendingDeliveryScheduler).scheduleAll(List.of(pending));
+        verify(partitionedExecutor, never()).offer(anyLong(), any(Runnable.class));
+        verify(notificationUtils, never()).sendNotification(anyLong(), any(), any());
+    }
+
+    @Test
+    void processEvent_schedulesPending_whenUserLaneIsFull() {
+        PendingNotification pending = pendingFor(user.getId());
+
+        givenUsers(user.getId());
+        givenOpenAt(user.getId());
+        givenOnline(user.getId());
+        when(deliveryIndex.findLinked(event.getId(), List.of(user.getId()))).thenReturn(Set.of());
+        when(partitionedExecutor.offer(eq(user.getId()), any(Runnable.class))).thenReturn(false);
+        when(notificationSchedulerUtils.buildPendingNotification(user.getId(), event)).thenReturn(pending);
+
+        notificationService.processEvent(event);
+
+        verify(fanOutBulkRepository).insertPendingNotifications(List.of(pending));
+        verify(pendingDeliveryScheduler).scheduleAll(List.of(pending));
+        verify(notificationUtils, never()).sendNotification(anyLong(), any(), any());
     }
 
     @Test
-    void processEvent_schedulesPendingNotification_whenSendNotificationFails() {
-        List<User> users = List.of(user);
+    void processEvent_deliversToResumableSession_whenUserNotOnline() {
+        givenUsers(user.getId());
+        givenOpenAt(user.getId());
+        givenOnline();
+        when(deliveryTracker.isReachable(user.getId())).thenReturn(true);
+        when(deliveryIndex.findLinked(event.getId(), List.of(user.getId()))).thenReturn(Set.of());
+        when(notificationUtils.sendNotification(user.getId(), event, frame)).thenReturn(true);
+
+        notificationService.processEvent(event);
+
+        verify(notificationUtils).sendNotification(user.getId(), event, frame);
+        verify(notificationSchedulerUtils, never()).buildPendingNotification(anyLong(), any());
+    }
 
-        when(userRepository.findAllWithNotificationPeriods()).thenReturn(users);
-        when(notificationPeriodUtils.isWithinNotificationPeriod(user, event.getOccurredAt())).thenReturn(true);
-        when(notificationUtils.sendNotification(user, event)).thenReturn(false);
+    @Test
+    void processEvent_forwardsToOtherNode_whenUserConnectedElsewhere() {
+        givenUsers(user.getId());
+        givenOpenAt(user.getId());
+        givenOnline();
+        when(deliveryTracker.isReachable(user.getId())).thenReturn(false);
+        when(clusterRouter.forward(user.getId(), event)).thenReturn(true);
+        when(deliveryIndex.findLinked(event.getId(), List.of(user.getId()))).thenReturn(Set.of());
 
         notificationService.processEvent(event);
 
-        verify(notificationSchedulerUtils).schedulePendingNotificationIfNecessary(user, event);
-        verify(userRepository, never()).saveAll(any());
+        verify(fanOutBulkRepository).linkUsersToEvent(event.getId(), List.of(user.getId()));
+        verify(notificationSchedulerUtils, never()).buildPendingNotification(anyLong(), any());
+        verify(partitionedExecutor, never()).offer(anyLong(), any(Runnable.class));
+    }
+
+    @Test
+    void processEvent_fansOutOnlyToOwnedUsers() {
+        Long foreign = 11L;
+        givenUsers(user.getId(), foreign);
+        givenOpenAt(user.getId(), foreign);
+        givenOnline(user.getId(), foreign);
+        when(clusterRouter.owned(any())).thenReturn(RoaringBitmap.bitmapOf(user.getId().intValue()));
+        when(deliveryIndex.findLinked(eq(event.getId()), anyList())).thenReturn(Set.of());
+        when(notificationUtils.sendNotification(user.getId(), event, frame)).thenReturn(true);
+
+        notificationService.processEvent(event);
+
+        verify(fanOutBulkRepository).linkUsersToEvent(event.getId(), List.of(user.getId()));
+        verify(fanOutBulkRepository, never()).linkUsersToEvent(eq(event.getId()), argThat(ids -> ids.contains(foreign)));
+        verify(notificationUtils, never()).sendNotification(eq(foreign), any(), any());
+    }
+
+    @Test
+    void processEvent_splitsAudienceIntoChunks() {
+        notificationProperties.getFanOut().setChunkSize(2);
+        givenUsers(1L, 2L, 3L, 4L, 5L);
+        givenOpenAt(1L, 2L, 3L, 4L, 5L);
+        givenOnline(1L, 2L, 3L, 4L, 5L);
+        when(deliveryIndex.findLinked(eq(event.getId()), anyList())).thenReturn(Set.of());
+        when(notificationUtils.sendNotification(anyLong(), eq(event), eq(frame))).thenReturn(true);
+
+        notificationService.processEvent(event);
+
+        verify(fanOutBulkRepository).linkUsersToEvent(event.getId(), List.of(1L, 2L));
+        verify(fanOutBulkRepository).linkUsersToEvent(event.getId(), List.of(3L, 4L));
+        verify(fanOutBulkRepository).linkUsersToEvent(event.getId(), List.of(5L));
+        verify(notificationUtils, times(5)).sendNotification(anyLong(), eq(event), eq(frame));
+    }
+
+    @Test
+    void onClusterDelivery_deliversToLocalUsersAndDefersDisconnected() {
+        Long gone = 11L;
+        when(notificationUtils.encode(event)).thenReturn(frame);
+        when(deliveryTracker.isReachable(user.getId())).thenReturn(true);
+        when(deliveryTracker.isReachable(gone)).thenReturn(false);
+        when(notificationUtils.sendNotification(user.getId(), event, frame)).thenReturn(true);
+
+        notificationService.onClusterDelivery(new ClusterDeliveryEvent(event, List.of(user.getId(), gone)));
+
+        verify(notificationUtils).sendNotification(user.getId(), event, frame);
+        verify(pendingDeliveryScheduler).defer(gone, event);
+        // проверка доступности и запись в pending идут в полосах пользователей, не в потоке шины
+        verify(partitionedExecutor).execute(eq(user.getId()), any(Runnable.class));
+        verify(partitionedExecutor).execute(eq(gone), any(Runnable.class));
+        verify(fanOutBulkRepository, never()).linkUsersToEvent(anyLong(), anyList());
+        verifyNoInteractions(userRepository);
     }
 
     @Test
     void processEvent_schedulesPendingNotification_whenUserNotInNotificationPeriod() {
-        List<User> users = List.of(user);
+        PendingNotification pending = pendingFor(user.getId());
+
+        givenUsers(user.getId());
+        givenOpenAt();
+        givenOnline(user.getId());
+        when(deliveryIndex.findLinked(event.getId(), List.of(user.getId()))).thenReturn(Set.of());
+        when(notificationSchedulerUtils.buildPendingNotification(user.getId(), event)).thenReturn(pending);
+
+        notificationService.processEvent(event);
+
+        verify(fanOutBulkRepository).insertPendingNotifications(List.of(pending));
+        verify(notificationUtils, never()).sendNotification(anyLong(), any(), any());
+        verify(notificationUtils, never()).encode(any());
+    }
 
-        when(userRepository.findAllWithNotificationPeriods()).thenReturn(users);
-        when(notificationPeriodUtils.isWithinNotificationPeriod(user, event.getOccurredAt())).thenReturn(false);
+    @Test
+    void processEvent_skipsPendingNotification_whenNextNotificationTimeUnknown() {
+        givenUsers(user.getId());
+        givenOpenAt();
+        givenOnline();
+        when(deliveryIndex.findLinked(event.getId(), List.of(user.getId()))).thenReturn(Set.of());
+        when(notificationSchedulerUtils.buildPendingNotification(user.getId(), event)).thenReturn(null);
 
         notificationService.processEvent(event);
 
-        verify(notificationSchedulerUtils).schedulePendingNotificationIfNecessary(user, event);
-        verify(notificationUtils, never()).sendNotification(any(), any());
-        verify(userRepository, never()).saveAll(any());
+        verify(fanOutBulkRepository).linkUsersToEvent(event.getId(), List.of(user.getId()));
+        verify(fanOutBulkRepository, atLeastOnce()).insertPendingNotifications(List.of());
     }
 
     @Test
     void processEvent_doesNotProcessIfUserAlreadyHasEvent() {
-        user.addEvent(event);
-        List<User> users = List.of(user);
+        givenUsers(user.getId());
+        givenOpenAt();
+        givenOnline();
+        when(deliveryIndex.findLinked(event.getId(), List.of(user.getId()))).thenReturn(Set.of(user.getId()));
+
+        notificationService.processEvent(event);
+
+        verify(notificationUtils, never()).sendNotification(anyLong(), any(), any());
+        verify(notificationUtils, never()).encode(any());
+        verify(notificationSchedulerUtils, never()).buildPendingNotification(anyLong(), any());
+        verify(fanOutBulkRepository).linkUsersToEvent(event.getId(), List.of());
+    }
 
-        when(userRepository.findAllWithNotificationPeriods()).thenReturn(users);
+    @Test
+    void processEvent_schedulesPendingOnlyForClosedWindowUsers() {
+        Long closed = 11L;
+        PendingNotification pending = pendingFor(closed);
+
+        givenUsers(user.getId(), closed);
+        givenOpenAt(user.getId());
+        givenOnline(user.getId(), closed);
+        when(deliveryIndex.findLinked(eq(event.getId()), anyList())).thenReturn(Set.of());
+        when(notificationUtils.sendNotification(user.getId(), event, frame)).thenReturn(true);
+        when(notificationSchedulerUtils.buildPendingNotification(closed, event)).thenReturn(pending);
 
         notificationService.processEvent(event);
 
-        verify(notificationUtils, never()).sendNotification(any(), any());
-        verify(notificationSchedulerUtils, never()).schedulePendingNotificationIfNecessary(any(), any());
-        verify(userRepository, never()).saveAll(any());
+        verify(notificationUtils).sendNotification(user.getId(), event, frame);
+        verify(notificationUtils, never()).sendNotification(eq(closed), any(), any());
+        verify(fanOutBulkRepository).linkUsersToEvent(event.getId(), List.of(user.getId()));
+        verify(fanOutBulkRepository).linkUsersToEvent(event.getId(), List.of(closed));
+        verify(fanOutBulkRepository).insertPendingNotifications(List.of(pending));
+    }
+
+    @Test
+    void processEvents_deliversBatchPerUserInOnePass() {
+        Long partlyOpen = 11L;
+        Event second = new Event();
+        second.setId(101L);
+        second.setMessage("Second event");
+        second.setOccurredAt(event.getOccurredAt().minusHours(3));
+        NotificationFrame secondFrame = new NotificationFrame(second.getId(), "{}".getBytes(), MimeTypeUtils.APPLICATION_JSON);
+        PendingNotification pending = pendingFor(partlyOpen);
+
+        givenUsers(user.getId(), partlyOpen);
+        givenOpenAt(user.getId(), partlyOpen);
+        when(scheduleIndexService.usersOpenAt(second.getOccurredAt())).thenReturn(bitmapOf(user.getId()));
+        when(notificationUtils.encode(second)).thenReturn(secondFrame);
+        givenOnline(user.getId(), partlyOpen);
+        when(deliveryIndex.findLinked(anyLong(), anyList())).thenReturn(Set.of());
+        when(notificationUtils.sendNotifications(user.getId(), List.of(event, second), List.of(frame, secondFrame)))
+                .thenReturn(List.of());
+        when(notificationUtils.sendNotification(partlyOpen, event, frame)).thenReturn(true);
+        when(notificationSchedulerUtils.buildPendingNotification(partlyOpen, second)).thenReturn(pending);
+
+        notificationService.processEvents(List.of(event, second));
+
+        verify(scheduleIndexService, times(1)).allUsers();
+        verify(notificationUtils).sendNotifications(user.getId(), List.of(event, second), List.of(frame, secondFrame));
+        verify(notificationUtils, never()).sendNotification(eq(user.getId()), any(), any());
+        verify(fanOutBulkRepository).linkUsersToEvent(event.getId(), List.of(user.getId(), partlyOpen));
+        verify(fanOutBulkRepository).linkUsersToEvent(second.getId(), List.of(user.getId(), partlyOpen));
+        verify(fanOutBulkRepository, times(1)).insertPendingNotifications(anyList());
+        verify(fanOutBulkRepository).insertPendingNotifications(List.of(pending));
+        verify(pendingDeliveryScheduler, never()).defer(anyLong(), any());
+    }
+
+    private void givenUsers(long... userIds) {
+        when(scheduleIndexService.allUsers()).thenReturn(bitmapOf(userIds));
+    }
+
+    private void givenOpenAt(long... userIds) {
+        when(scheduleIndexService.usersOpenAt(event.getOccurredAt())).thenReturn(bitmapOf(userIds));
+        if (userIds.length > 0) {
+            when(notificationUtils.encode(event)).thenReturn(frame);
+        }
+    }
+
+    private void givenOnline(long... userIds) {
+        when(userPresenceService.onlineUsers()).thenReturn(bitmapOf(userIds));
+    }
+
+    private static RoaringBitmap bitmapOf(long... userIds) {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        for (long userId : userIds) {
+            bitmap.add(UserBitmap.key(userId));
+        }
+        return bitmap;
+    }
+
+    private PendingNotification pendingFor(Long userId) {
+        PendingNotification pending = new PendingNotification();
+        pending.setUserId(userId);
+        pending.setEventId(event.getId());
+        pending.setScheduledTime(event.getOccurredAt().plusHours(1));
+        return pending;
     }
 
     @Test
     void sendPendingToFront_sendsNotificationsAndDeletesPending() {
         Long userId = user.getId();
+        PendingNotificationDTO pending = new PendingNotificationDTO(7L, event.getId(), event.getMessage(), LocalDateTime.now());
+        NotificationFrame pendingFrame = new NotificationFrame(null, "[]".getBytes(), MimeTypeUtils.APPLICATION_JSON);
+
+        when(userRepository.findByIdWithNotificationPeriods(userId)).thenReturn(Optional.of(user));
+        when(notificationPeriodUtils.isWithinNotificationPeriod(eq(user), any(LocalDateTime.class))).thenReturn(true);
+        when(pendingNotificationRepository.findPageWithEvents(eq(userId), eq(0L), any(Pageable.class)))
+                .thenReturn(List.of(pending));
+        when(notificationUtils.encodePending(List.of(pending))).thenReturn(pendingFrame);
+        when(webSocketSender.sendPendingToUser(userId, pendingFrame)).thenReturn(DeliveryResult.SENT);
+
+        notificationService.sendPendingToFront(userId);
 
-        PendingNotification pendingNotification = new PendingNotification();
-        pendingNotification.setUserId(userId);
-        pendingNotification.setEventId(event.getId());
-        pendingNotification.setScheduledTime(LocalDateTime.now());
+        verify(pendingNotificationRepository).deleteAllByIdInBatch(List.of(7L));
+        verify(notificationPeriodUtils, times(1)).isWithinNotificationPeriod(eq(user), any(LocalDateTime.class));
+    }
 
-        List<PendingNotification> pendingList = List.of(pendingNotification);
+    @Test
+    void sendPendingToFront_drainsLargeBacklogInPages() {
+        Long userId = user.getId();
+        notificationProperties.getPending().setDrainPageSize(2);
+        PendingNotificationDTO first = new PendingNotificationDTO(1L, 10L, "a", LocalDateTime.now());
+        PendingNotificationDTO second = new PendingNotificationDTO(2L, 11L, "b", LocalDateTime.now());
+        PendingNotificationDTO third = new PendingNotificationDTO(3L, 12L, "c", LocalDateTime.now());
 
-        when(pendingNotificationRepository.findAllByUserId(userId)).thenReturn(pendingList);
         when(userRepository.findByIdWithNotificationPeriods(userId)).thenReturn(Optional.of(user));
         when(notificationPeriodUtils.isWithinNotificationPeriod(eq(user), any(LocalDateTime.class))).thenReturn(true);
-        when(eventRepository.findById(event.getId())).thenReturn(Optional.of(event));
-        doNothing().when(webSocketSender).sendToTopic(anyString(), anyString());
+        when(pendingNotificationRepository.findPageWithEvents(eq(userId), eq(0L), any(Pageable.class)))
+                .thenReturn(List.of(first, second));
+        when(pendingNotificationRepository.findPageWithEvents(eq(userId), eq(2L), any(Pageable.class)))
+                .thenReturn(List.of(third));
+        when(notificationUtils.encodePending(anyList())).thenReturn(frame);
+        when(webSocketSender.sendPendingToUser(userId, frame)).thenReturn(DeliveryResult.SENT);
 
         notificationService.sendPendingToFront(userId);
 
-        verify(webSocketSender).sendToTopic(startsWith("/topic/pending/"), anyString());
-        verify(pendingNotificationRepository).deleteAll(pendingList);
+        verify(webSocketSender, times(2)).sendPendingToUser(userId, frame);
+        verify(pendingNotificationRepository).deleteAllByIdInBatch(List.of(1L, 2L));
+        verify(pendingNotificationRepository).deleteAllByIdInBatch(List.of(3L));
+    }
+
+    @Test
+    void sendPendingToFront_keepsPendingWhenSendFails() {
+        Long userId = user.getId();
+        PendingNotificationDTO pending = new PendingNotificationDTO(7L, event.getId(), event.getMessage(), LocalDateTime.now());
+
+        when(userRepository.findByIdWithNotificationPeriods(userId)).thenReturn(Optional.of(user));
+        when(notificationPeriodUtils.isWithinNotificationPeriod(eq(user), any(LocalDateTime.class))).thenReturn(true);
+        when(pendingNotificationRepository.findPageWithEvents(eq(userId), eq(0L), any(Pageable.class)))
+                .thenReturn(List.of(pending));
+        when(notificationUtils.encodePending(anyList())).thenReturn(frame);
+        when(webSocketSender.sendPendingToUser(userId, frame)).thenReturn(DeliveryResult.OFFLINE);
+
+        notificationService.sendPendingToFront(userId);
+
+        verify(pendingNotificationRepository, never()).deleteAllByIdInBatch(anyList());
+        verify(pendingDeliveryScheduler).retryLater(userId);
     }
 
     @Test
@@ -159,27 +476,79 @@ class NotificationServiceTest {
 
         notificationService.sendPendingToFront(userId);
 
-        verify(webSocketSender, never()).sendToTopic(anyString(), anyString());
-        verify(pendingNotificationRepository, never()).deleteAll(anyList());
+        verify(webSocketSender, never()).sendPendingToUser(anyLong(), any());
+        verify(pendingNotificationRepository, never()).deleteAllByIdInBatch(anyList());
     }
 
     @Test
     void sendPendingToFront_doesNotSendWhenOutsideNotificationPeriod() {
         Long userId = user.getId();
-        PendingNotification pendingNotification = new PendingNotification();
-        pendingNotification.setUserId(userId);
-        pendingNotification.setEventId(event.getId());
-        pendingNotification.setScheduledTime(LocalDateTime.now());
+        when(userRepository.findByIdWithNotificationPeriods(userId)).thenReturn(Optional.of(user));
+        when(notificationPeriodUtils.isWithinNotificationPeriod(eq(user), any(LocalDateTime.class))).thenReturn(false);
+        when(scheduleIndexService.scheduleOf(user)).thenReturn(WeeklySchedule.EMPTY);
+
+        notificationService.sendPendingToFront(userId);
 
-        List<PendingNotification> pendingList = List.of(pendingNotification);
+        verify(pendingNotificationRepository, never()).findPageWithEvents(anyLong(), anyLong(), any());
+        verify(webSocketSender, never()).sendPendingToUser(anyLong(), any());
+        // окон нет — таймер не заводится, строки ждут изменения расписания
+        verify(pendingDeliveryScheduler, never()).schedule(anyLong(), any());
+    }
 
-        when(pendingNotificationRepository.findAllByUserId(userId)).thenReturn(pendingList);
+    @Test
+    void drainPending_outsideWindow_armsTimerForNextOpening_andPushesWhenItOpens() {
+        Long userId = user.getId();
+        NotificationPeriod monday = new NotificationPeriod();
+        monday.setDay(DayOfWeek.MONDAY);
+        monday.setStartTime(LocalTime.of(9, 0));
+        monday.setEndTime(LocalTime.of(10, 0));
+        WeeklySchedule schedule = WeeklySchedule.compile(List.of(monday));
+        PendingNotificationDTO pending = new PendingNotificationDTO(7L, event.getId(), event.getMessage(), LocalDateTime.now());
         when(userRepository.findByIdWithNotificationPeriods(userId)).thenReturn(Optional.of(user));
+        when(scheduleIndexService.scheduleOf(user)).thenReturn(schedule);
         when(notificationPeriodUtils.isWithinNotificationPeriod(eq(user), any(LocalDateTime.class))).thenReturn(false);
 
-        notificationService.sendPendingToFront(userId);
+        // пользователь подключился или прислал /app/ping, пока окно закрыто
+        notificationService.drainPending(userId);
+
+        ArgumentCaptor<LocalDateTime> armedAt = ArgumentCaptor.forClass(LocalDateTime.class);
+        verify(pendingDeliveryScheduler).schedule(eq(userId), armedAt.capture());
+        assertEquals(DayOfWeek.MONDAY, armedAt.getValue().getDayOfWeek());
+        assertEquals(LocalTime.of(9, 0), armedAt.getValue().toLocalTime());
+        verify(webSocketSender, never()).sendPendingToUser(anyLong(), any());
+
+        // окно открылось, таймер сработал
+        when(notificationPeriodUtils.isWithinNotificationPeriod(eq(user), any(LocalDateTime.class))).thenReturn(true);
+        when(pendingNotificationRepository.findPageWithEvents(eq(userId), eq(0L), any(Pageable.class)))
+                .thenReturn(List.of(pending));
+        when(notificationUtils.encodePending(List.of(pending))).thenReturn(frame);
+        when(webSocketSender.sendPendingToUser(userId, frame)).thenReturn(DeliveryResult.SENT);
+
+        notificationService.onPendingNotificationsDue(new PendingNotificationsDueEvent(List.of(userId)));
+
+        verify(webSocketSender).sendPendingToUser(userId, frame);
+        verify(pendingNotificationRepository).deleteAllByIdInBatch(List.of(7L));
+    }
+
+    @Test
+    void onPendingNotificationsDue_drainsEachUser() {
+        when(userRepository.findByIdWithNotificationPeriods(anyLong())).thenReturn(Optional.empty());
+
+        notificationService.onPendingNotificationsDue(new PendingNotificationsDueEvent(List.of(1L, 2L)));
+
+        verify(partitionedExecutor).execute(eq(1L), any(Runnable.class));
+        verify(partitionedExecutor).execute(eq(2L), any(Runnable.class));
+        verify(userRepository).findByIdWithNotificationPeriods(1L);
+        verify(userRepository).findByIdWithNotificationPeriods(2L);
+    }
+
+    @Test
+    void drainPending_retriesLater_whenDrainFails() {
+        when(userRepository.findByIdWithNotificationPeriods(1L)).thenThrow(new IllegalStateException("нет соединения"));
+
+        notificationService.drainPending(1L);
 
-        verify(webSocketSender, never()).sendToTopic(anyString(), anyString());
-        verify(pendingNotificationRepository, never()).deleteAll(anyList());
+        verify(partitionedExecutor).execute(eq(1L), any(Runnable.class));
+        verify(pendingDeliveryScheduler).retryLater(1L);
     }
 }
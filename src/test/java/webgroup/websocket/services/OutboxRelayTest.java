@@ -0,0 +1,142 @@
+package webgroup.websocket.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import webgroup.websocket.config.NotificationProperties;
+import webgroup.websocket.entities.Event;
+import webgroup.websocket.repositories.EventOutboxRepository;
+import webgroup.websocket.repositories.EventRepository;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class OutboxRelayTest {
+
+    @Mock
+    private EventOutboxRepository eventOutboxRepository;
+
+    @Mock
+    private EventRepository eventRepository;
+
+    @Mock
+    private FanOutDispatcher fanOutDispatcher;
+
+    @Mock
+    private DataSource dataSource;
+
+    private final NotificationProperties properties = new NotificationProperties();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private OutboxRelay relay;
+
+    @BeforeEach
+    void setUp() {
+        properties.getOutbox().setBatchSize(10);
+        relay = new OutboxRelay(eventOutboxRepository, eventRepository, fanOutDispatcher, dataSource,
+                properties, meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        relay.shutdown();
+    }
+
+    @Test
+    void drain_dispatchesClaimedEventsAsOneBatchAndDeletesRowsAfterFanOut() {
+        Event first = event(100L);
+        Event second = event(101L);
+        when(eventOutboxRepository.claim(10, properties.getOutbox().getLease()))
+                .thenReturn(List.of(claim(1L, 100L, 1), claim(2L, 101L, 1)))
+                .thenReturn(List.of());
+        when(eventRepository.findAllById(List.of(100L, 101L))).thenReturn(List.of(first, second));
+
+        assertEquals(2, relay.drain());
+
+        ArgumentCaptor<Runnable> onCompleted = ArgumentCaptor.forClass(Runnable.class);
+        verify(fanOutDispatcher).dispatch(eq(List.of(first, second)), onCompleted.capture());
+        verify(eventOutboxRepository, never()).delete(argThat(ids -> !ids.isEmpty()));
+
+        onCompleted.getValue().run();
+        assertEquals(0, relay.drain());
+
+        verify(eventOutboxRepository).delete(List.of(1L, 2L));
+        assertEquals(2.0, meterRegistry.counter("notification.outbox.completed").count());
+    }
+
+    @Test
+    void drain_releasesRows_whenFanOutQueueIsFull() {
+        when(eventOutboxRepository.claim(anyInt(), any())).thenReturn(List.of(claim(1L, 100L, 1), claim(2L, 101L, 1)));
+        when(eventRepository.findAllById(anyList())).thenReturn(List.of(event(100L), event(101L)));
+        doThrow(new RejectedExecutionException("queue full")).when(fanOutDispatcher).dispatch(anyList(), any());
+
+        relay.drain();
+
+        verify(eventOutboxRepository).release(List.of(1L, 2L), properties.getOutbox().getRetryDelay());
+        verify(eventOutboxRepository, never()).delete(argThat(ids -> !ids.isEmpty()));
+    }
+
+    @Test
+    void drain_deletesRowsOfMissingEventsAndExhaustedAttempts() {
+        properties.getOutbox().setMaxAttempts(3);
+        when(eventOutboxRepository.claim(anyInt(), any())).thenReturn(List.of(
+                claim(1L, 100L, 1), claim(2L, 101L, 4)));
+        when(eventRepository.findAllById(anyList())).thenReturn(List.of(event(101L)));
+
+        relay.drain();
+
+        verify(eventOutboxRepository).delete(List.of(1L, 2L));
+        verify(fanOutDispatcher, never()).dispatch(any(), any());
+        assertEquals(1.0, meterRegistry.counter("notification.outbox.dead").count());
+    }
+
+    @Test
+    void workers_pollOutbox_whenNotificationsUnavailable() throws Exception {
+        properties.getOutbox().setWorkers(1);
+        properties.getOutbox().setPollInterval(Duration.ofMillis(20));
+        when(dataSource.getConnection()).thenThrow(new SQLException("нет соединения"));
+        when(eventOutboxRepository.claim(anyInt(), any())).thenReturn(List.of());
+
+        relay.afterSingletonsInstantiated();
+
+        verify(eventOutboxRepository, timeout(2000).atLeast(3)).claim(anyInt(), any());
+    }
+
+    @Test
+    void wakeUp_drainsWithoutWaitingForPoll() throws Exception {
+        properties.getOutbox().setWorkers(1);
+        properties.getOutbox().setPollInterval(Duration.ofHours(1));
+        lenient().when(dataSource.getConnection()).thenThrow(new SQLException("нет соединения"));
+        when(eventOutboxRepository.claim(anyInt(), any())).thenReturn(List.of());
+        relay.afterSingletonsInstantiated();
+        verify(eventOutboxRepository, timeout(2000)).claim(anyInt(), any());
+
+        relay.wakeUp();
+
+        verify(eventOutboxRepository, timeout(2000).times(2)).claim(anyInt(), any());
+    }
+
+    private static EventOutboxRepository.Claim claim(long id, long eventId, int attempts) {
+        return new EventOutboxRepository.Claim(id, eventId, attempts, LocalDateTime.now());
+    }
+
+    private static Event event(Long id) {
+        Event event = new Event();
+        event.setId(id);
+        event.setMessage("Event " + id);
+        event.setOccurredAt(LocalDateTime.now());
+        return event;
+    }
+}
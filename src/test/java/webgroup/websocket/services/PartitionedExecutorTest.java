@@ -0,0 +1,142 @@
+package webgroup.websocket.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import webgroup.websocket.config.NotificationProperties;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PartitionedExecutorTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private PartitionedExecutor executor;
+
+    @BeforeEach
+    void setUp() {
+        NotificationProperties properties = new NotificationProperties();
+        properties.getLanes().setCount(4);
+        properties.getLanes().setQueueCapacity(16);
+        executor = new PartitionedExecutor(properties, meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void execute_preservesOrderPerUser() throws Exception {
+        List<Integer> seen = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 100; i++) {
+            int value = i;
+            executor.execute(7L, () -> seen.add(value));
+        }
+
+        executor.submit(7L, () -> null).get(5, TimeUnit.SECONDS);
+
+        assertEquals(100, seen.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, seen.get(i));
+        }
+    }
+
+    @Test
+    void execute_runsTasksOfOneUserOnSameThread() throws Exception {
+        Set<String> threads = Collections.synchronizedSet(new HashSet<>());
+        for (int i = 0; i < 10; i++) {
+            executor.execute(42L, () -> threads.add(Thread.currentThread().getName()));
+        }
+
+        executor.submit(42L, () -> null).get(5, TimeUnit.SECONDS);
+
+        assertEquals(Set.of("delivery-lane-" + executor.laneOf(42L)), threads);
+    }
+
+    @Test
+    void offer_rejectsWhenLaneFull_andExecuteStillQueuesInOrder() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(5L, () -> {
+            started.countDown();
+            await(release);
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 16; i++) {
+            assertTrue(executor.offer(5L, () -> {
+            }));
+        }
+
+        assertFalse(executor.offer(5L, () -> {
+        }));
+
+        List<Integer> seen = Collections.synchronizedList(new ArrayList<>());
+        executor.execute(5L, () -> seen.add(1));
+        executor.execute(5L, () -> seen.add(2));
+        release.countDown();
+        executor.submit(5L, () -> null).get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of(1, 2), seen);
+    }
+
+    @Test
+    void offer_acceptsTaskFromSameLane_evenWhenLaneFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch started = new CountDownLatch(1);
+        executor.execute(5L, () -> {
+            started.countDown();
+            await(release);
+            // продолжение из самой полосы не отвергается и выполняется после уже поставленных задач
+            assertTrue(executor.offer(5L, () -> order.add("continuation")));
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 16; i++) {
+            assertTrue(executor.offer(5L, () -> order.add("queued")));
+        }
+        release.countDown();
+        executor.submit(5L, () -> null).get(5, TimeUnit.SECONDS);
+        executor.submit(5L, () -> null).get(5, TimeUnit.SECONDS);
+
+        assertEquals(17, order.size());
+        assertEquals("continuation", order.get(16));
+    }
+
+    @Test
+    void laneOf_spreadsSequentialUsersAcrossLanes() {
+        Set<Integer> lanes = new HashSet<>();
+        for (long userId = 1; userId <= 64; userId++) {
+            int lane = executor.laneOf(userId);
+            assertTrue(lane >= 0 && lane < executor.laneCount());
+            lanes.add(lane);
+        }
+
+        assertEquals(4, lanes.size());
+    }
+
+    @Test
+    void submit_completesExceptionally_whenTaskFails() {
+        var future = executor.submit(1L, () -> {
+            throw new IllegalStateException("boom");
+        });
+
+        assertThrows(Exception.class, () -> future.get(5, TimeUnit.SECONDS));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package webgroup.websocket.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import webgroup.websocket.config.NotificationProperties;
+import webgroup.websocket.entities.PendingNotification;
+import webgroup.websocket.entities.Event;
+import webgroup.websocket.repositories.FanOutBulkRepository;
+import webgroup.websocket.utils.ConsistentHashRing;
+import webgroup.websocket.utils.NotificationSchedulerUtils;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.LongConsumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class PendingDeliverySchedulerTest {
+
+    @Mock
+    private FanOutBulkRepository fanOutBulkRepository;
+
+    @Mock
+    private NotificationSchedulerUtils notificationSchedulerUtils;
+
+    @Mock
+    private UserPresenceService userPresenceService;
+
+    @Mock
+    private ClusterRouter clusterRouter;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    private PendingDeliveryScheduler scheduler;
+
+    @BeforeEach
+    void setUp() {
+        // один узел: вся доля пользователей его
+        lenient().when(clusterRouter.owns(anyLong())).thenReturn(true);
+        scheduler = new PendingDeliveryScheduler(fanOutBulkRepository, notificationSchedulerUtils, userPresenceService, clusterRouter, eventPublisher,
+                new NotificationProperties(), new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    void tick_pushesDueUsersOnlineInOneEvent() {
+        scheduler.schedule(1L, LocalDateTime.now().minusSeconds(5));
+        scheduler.schedule(2L, LocalDateTime.now().minusSeconds(1));
+        when(userPresenceService.isUserOnline(anyLong())).thenReturn(true);
+
+        scheduler.tick();
+
+        verify(eventPublisher).publishEvent(new PendingNotificationsDueEvent(List.of(1L, 2L)));
+        assertEquals(0, scheduler.timerCount());
+    }
+
+    @Test
+    void tick_doesNotFireFutureTimers() {
+        scheduler.schedule(1L, LocalDateTime.now().plusHours(2));
+
+        scheduler.tick();
+
+        verifyNoInteractions(eventPublisher);
+        assertEquals(1, scheduler.timerCount());
+    }
+
+    @Test
+    void schedule_keepsEarliestDeadlinePerUser() {
+        PendingNotification later = pending(1L, LocalDateTime.now().plusHours(1));
+        PendingNotification earlier = pending(1L, LocalDateTime.now().minusSeconds(1));
+        scheduler.scheduleAll(List.of(later, earlier));
+        when(userPresenceService.isUserOnline(1L)).thenReturn(true);
+
+        scheduler.tick();
+
+        verify(eventPublisher).publishEvent(new PendingNotificationsDueEvent(List.of(1L)));
+        assertEquals(0, scheduler.timerCount());
+    }
+
+    @Test
+    void retryLater_armsTimerAfterRetryDelay() {
+        scheduler.retryLater(1L);
+
+        scheduler.tick();
+
+        verifyNoInteractions(eventPublisher);
+        assertEquals(1, scheduler.timerCount());
+    }
+
+    @Test
+    void dueWhileOffline_isPushedOnConnect() {
+        scheduler.schedule(1L, LocalDateTime.now().minusSeconds(1));
+        when(userPresenceService.isUserOnline(1L)).thenReturn(false);
+
+        scheduler.tick();
+
+        verify(eventPublisher, never()).publishEvent(any(Object.class));
+        assertTrue(scheduler.isDueWhileOffline(1L));
+
+        scheduler.userConnected(1L);
+        scheduler.userConnected(1L);
+
+        verify(eventPublisher, times(1)).publishEvent(new PendingNotificationsDueEvent(List.of(1L)));
+        assertFalse(scheduler.isDueWhileOffline(1L));
+    }
+
+    @Test
+    void tick_forwardsDueUser_connectedToAnotherNode() {
+        scheduler.schedule(1L, LocalDateTime.now().minusSeconds(1));
+        when(userPresenceService.isUserOnline(1L)).thenReturn(false);
+        when(clusterRouter.forwardPendingDue(1L)).thenReturn(true);
+
+        scheduler.tick();
+
+        verify(eventPublisher, never()).publishEvent(any(Object.class));
+        assertFalse(scheduler.isDueWhileOffline(1L));
+    }
+
+    @Test
+    void dueWhileOffline_isForwarded_whenUserConnectsToAnotherNode() {
+        ArgumentCaptor<LongConsumer> remoteOnline = ArgumentCaptor.forClass(LongConsumer.class);
+        verify(clusterRouter).onRemoteUserOnline(remoteOnline.capture());
+        scheduler.schedule(1L, LocalDateTime.now().minusSeconds(1));
+        when(userPresenceService.isUserOnline(1L)).thenReturn(false);
+        when(clusterRouter.forwardPendingDue(1L)).thenReturn(false, true);
+        scheduler.tick();
+
+        remoteOnline.getValue().accept(1L);
+
+        verify(clusterRouter, times(2)).forwardPendingDue(1L);
+        assertFalse(scheduler.isDueWhileOffline(1L));
+    }
+
+    @Test
+    void schedule_forwardsTimerOfUserOwnedByAnotherNode() {
+        LocalDateTime scheduledTime = LocalDateTime.now().plusMinutes(5);
+        when(clusterRouter.owns(2L)).thenReturn(false);
+
+        scheduler.schedule(2L, scheduledTime);
+
+        verify(clusterRouter).forwardPendingScheduled(2L, scheduledTime);
+        assertEquals(0, scheduler.timerCount());
+    }
+
+    @Test
+    void rebalance_dropsTimersOfMovedUsersAndAdoptsUsersOfLeftNode() {
+        ConsistentHashRing single = ConsistentHashRing.of(List.of("a"), 64);
+        ConsistentHashRing pair = single.with("b", 64);
+        long movedToB = firstUserOwnedBy(pair, "b");
+        long keptByA = firstUserOwnedBy(pair, "a");
+        when(clusterRouter.nodeId()).thenReturn("a");
+        scheduler.schedule(movedToB, LocalDateTime.now().plusMinutes(5));
+        scheduler.schedule(keptByA, LocalDateTime.now().plusMinutes(5));
+
+        scheduler.rebalance(single, pair);
+
+        assertEquals(1, scheduler.timerCount());
+        verify(fanOutBulkRepository, never()).forEachEarliestPending(any());
+
+        when(fanOutBulkRepository.forEachEarliestPending(any())).thenAnswer(invocation -> {
+            BiConsumer<Long, LocalDateTime> consumer = invocation.getArgument(0);
+            consumer.accept(movedToB, LocalDateTime.now().plusMinutes(10));
+            consumer.accept(keptByA, LocalDateTime.now().plusMinutes(10));
+            return 2L;
+        });
+
+        scheduler.rebalance(pair, single);
+
+        assertEquals(2, scheduler.timerCount());
+    }
+
+    @Test
+    void defer_insertsPendingAndSchedulesTimer() {
+        Event event = new Event();
+        event.setId(100L);
+        PendingNotification pending = pending(1L, LocalDateTime.now().plusMinutes(5));
+        when(notificationSchedulerUtils.buildPendingNotification(1L, event)).thenReturn(pending);
+
+        assertTrue(scheduler.defer(1L, event));
+
+        verify(fanOutBulkRepository).insertPendingNotifications(List.of(pending));
+        assertEquals(1, scheduler.timerCount());
+    }
+
+    @Test
+    void afterSingletonsInstantiated_loadsTimersFromDatabase() {
+        when(fanOutBulkRepository.forEachEarliestPending(any())).thenAnswer(invocation -> {
+            BiConsumer<Long, LocalDateTime> consumer = invocation.getArgument(0);
+            consumer.accept(1L, LocalDateTime.now().plusMinutes(10));
+            consumer.accept(2L, LocalDateTime.now().plusMinutes(20));
+            return 2L;
+        });
+
+        scheduler.afterSingletonsInstantiated();
+
+        assertEquals(2, scheduler.timerCount());
+    }
+
+    private static long firstUserOwnedBy(ConsistentHashRing ring, String node) {
+        long userId = 1;
+        while (!ring.ownerOf(userId).equals(node)) {
+            userId++;
+        }
+        return userId;
+    }
+
+    private static PendingNotification pending(Long userId, LocalDateTime scheduledTime) {
+        PendingNotification pending = new PendingNotification();
+        pending.setUserId(userId);
+        pending.setScheduledTime(scheduledTime);
+        return pending;
+    }
+}
@@ -0,0 +1,256 @@
+package webgroup.websocket.services;
+
+import org.junit.jupiter.api.Test;
+import org.roaringbitmap.RoaringBitmap;
+import webgroup.websocket.config.NotificationProperties;
+import webgroup.websocket.entities.NotificationPeriod;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import webgroup.websocket.entities.User;
+import webgroup.websocket.repositories.UserRepository;
+import webgroup.websocket.utils.UserChunkScanner;
+import webgroup.websocket.utils.WeeklySchedule;
+
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ScheduleIndexServiceTest {
+
+    // 2024-01-01 — понедельник
+    private static final LocalDateTime MONDAY = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private final UserChunkScanner userChunkScanner = mock(UserChunkScanner.class);
+    private final ClusterRouter clusterRouter = mock(ClusterRouter.class);
+    private final ScheduleIndexService scheduleIndexService = new ScheduleIndexService(
+            userChunkScanner, userRepository, mock(PlatformTransactionManager.class), clusterRouter,
+            new NotificationProperties());
+
+    @Test
+    void scheduleOf_shouldCompileOnceAndReuse() {
+        User user = user(1L, period(DayOfWeek.MONDAY, "09:00", "18:00"));
+
+        WeeklySchedule first = scheduleIndexService.scheduleOf(user);
+        user.getNotificationPeriods().clear();
+        WeeklySchedule second = scheduleIndexService.scheduleOf(user);
+
+        assertSame(first, second);
+        assertEquals(1, scheduleIndexService.size());
+    }
+
+    @Test
+    void rebuild_shouldReplaceCompiledSchedule() {
+        User user = user(1L, period(DayOfWeek.MONDAY, "09:00", "18:00"));
+        scheduleIndexService.scheduleOf(user);
+
+        givenStored(user(1L, period(DayOfWeek.TUESDAY, "10:00", "11:00")));
+
+        scheduleIndexService.rebuild(1L);
+
+        WeeklySchedule schedule = scheduleIndexService.scheduleOf(user);
+        assertFalse(schedule.isOpenAt(MONDAY.withHour(10)));
+        assertTrue(schedule.isOpenAt(MONDAY.plusDays(1).withHour(10).withMinute(30)));
+    }
+
+    @Test
+    void evict_shouldDropCompiledSchedule() {
+        scheduleIndexService.scheduleOf(user(1L, period(DayOfWeek.MONDAY, "09:00", "18:00")));
+
+        scheduleIndexService.evict(1L);
+
+        assertEquals(0, scheduleIndexService.size());
+    }
+
+    @Test
+    void rebuild_shouldReadPeriodsAfterCommit_soReorderedHooksKeepLatestSchedule() {
+        scheduleIndexService.scheduleOf(user(1L, period(DayOfWeek.MONDAY, "09:00", "18:00")));
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            // правки A и B закоммичены в этом порядке, а их обработчики выполняются в обратном
+            scheduleIndexService.rebuild(1L);
+            scheduleIndexService.rebuild(1L);
+            List<TransactionSynchronization> hooks = TransactionSynchronizationManager.getSynchronizations();
+            verifyNoInteractions(userRepository);
+
+            givenStored(user(1L, period(DayOfWeek.TUESDAY, "10:00", "11:00")));
+            hooks.get(1).afterCommit();
+            hooks.get(0).afterCommit();
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        WeeklySchedule schedule = scheduleIndexService.scheduleOf(1L);
+        assertFalse(schedule.isOpenAt(MONDAY.withHour(10)));
+        assertTrue(schedule.isOpenAt(MONDAY.plusDays(1).withHour(10).withMinute(30)));
+    }
+
+    @Test
+    void rebuild_shouldAnnounceChangeToOtherNodes() {
+        givenStored(user(1L, period(DayOfWeek.MONDAY, "09:00", "18:00")));
+
+        scheduleIndexService.rebuild(1L);
+        scheduleIndexService.evict(1L);
+
+        verify(clusterRouter, times(2)).broadcastScheduleChanged(1L);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void resync_shouldPickUpRowsChangedOutsideApplication() {
+        scheduleIndexService.scheduleOf(user(1L, period(DayOfWeek.MONDAY, "09:00", "18:00")));
+        scheduleIndexService.scheduleOf(user(2L, period(DayOfWeek.MONDAY, "09:00", "18:00")));
+        scheduleIndexService.scheduleOf(user(3L));
+        // в базе: у 2 изменены периоды, 3 удалён, 4 добавлен напрямую
+        User changed = user(2L, period(DayOfWeek.TUESDAY, "09:00", "18:00"));
+        User created = user(4L, period(DayOfWeek.MONDAY, "09:00", "18:00"));
+        doAnswer(invocation -> {
+            invocation.<Consumer<List<User>>>getArgument(0).accept(List.of(
+                    user(1L, period(DayOfWeek.MONDAY, "09:00", "18:00")), changed, created));
+            return 3L;
+        }).when(userChunkScanner).forEachChunk(any(Consumer.class));
+        givenStored(changed);
+        givenStored(created);
+        when(userRepository.findByIdWithNotificationPeriods(3L)).thenReturn(Optional.empty());
+
+        assertEquals(3, scheduleIndexService.resync());
+
+        assertEquals(RoaringBitmap.bitmapOf(1, 2, 4), scheduleIndexService.allUsers());
+        assertEquals(RoaringBitmap.bitmapOf(1, 4), scheduleIndexService.usersOpenAt(MONDAY.withHour(10)));
+        verify(userRepository, never()).findByIdWithNotificationPeriods(1L);
+        verify(clusterRouter, never()).broadcastScheduleChanged(any());
+    }
+
+    @Test
+    void usersOpenAt_shouldReturnUsersWhoseWindowCoversMoment() {
+        scheduleIndexService.scheduleOf(user(1L, period(DayOfWeek.MONDAY, "09:00", "18:00")));
+        scheduleIndexService.scheduleOf(user(2L, period(DayOfWeek.MONDAY, "09:05", "09:20")));
+        scheduleIndexService.scheduleOf(user(3L, period(DayOfWeek.TUESDAY, "09:00", "18:00")));
+
+        assertEquals(RoaringBitmap.bitmapOf(1), scheduleIndexService.usersOpenAt(MONDAY.withHour(9).withMinute(2)));
+        assertEquals(RoaringBitmap.bitmapOf(1, 2), scheduleIndexService.usersOpenAt(MONDAY.withHour(9).withMinute(10)));
+        assertEquals(new RoaringBitmap(), scheduleIndexService.usersOpenAt(MONDAY.withHour(20)));
+    }
+
+    @Test
+    void allUsers_shouldFollowIndexAndEvict() {
+        scheduleIndexService.scheduleOf(user(1L, period(DayOfWeek.MONDAY, "09:00", "18:00")));
+        scheduleIndexService.scheduleOf(user(2L));
+        givenStored(user(3L, period(DayOfWeek.TUESDAY, "09:00", "18:00")));
+        scheduleIndexService.rebuild(3L);
+
+        assertEquals(RoaringBitmap.bitmapOf(1, 2, 3), scheduleIndexService.allUsers());
+
+        scheduleIndexService.evict(2L);
+        assertEquals(RoaringBitmap.bitmapOf(1, 3), scheduleIndexService.allUsers());
+    }
+
+    @Test
+    void usersOpenAt_shouldFollowRebuildAndEvict() {
+        scheduleIndexService.scheduleOf(user(1L, period(DayOfWeek.MONDAY, "09:00", "18:00")));
+        LocalDateTime mondayMorning = MONDAY.withHour(10);
+
+        givenStored(user(1L, period(DayOfWeek.TUESDAY, "09:00", "18:00")));
+        scheduleIndexService.rebuild(1L);
+        assertEquals(new RoaringBitmap(), scheduleIndexService.usersOpenAt(mondayMorning));
+        assertEquals(RoaringBitmap.bitmapOf(1), scheduleIndexService.usersOpenAt(mondayMorning.plusDays(1)));
+
+        when(userRepository.findByIdWithNotificationPeriods(1L)).thenReturn(Optional.empty());
+        scheduleIndexService.evict(1L);
+        assertEquals(new RoaringBitmap(), scheduleIndexService.usersOpenAt(mondayMorning.plusDays(1)));
+    }
+
+    @Test
+    void isOpenAt_shouldIncludeBoundsOfDaytimePeriod() {
+        WeeklySchedule schedule = WeeklySchedule.compile(List.of(period(DayOfWeek.MONDAY, "09:00", "18:00")));
+
+        assertFalse(schedule.isOpenAt(MONDAY.withHour(8).withMinute(59)));
+        assertTrue(schedule.isOpenAt(MONDAY.withHour(9)));
+        assertTrue(schedule.isOpenAt(MONDAY.withHour(18)));
+        assertFalse(schedule.isOpenAt(MONDAY.withHour(18).withMinute(1)));
+        assertFalse(schedule.isOpenAt(MONDAY.plusDays(1).withHour(10)));
+    }
+
+    @Test
+    void isOpenAt_shouldHandlePeriodsPastMidnightAndWeekEnd() {
+        WeeklySchedule schedule = WeeklySchedule.compile(List.of(period(DayOfWeek.SUNDAY, "22:00", "02:00")));
+        LocalDateTime sunday = MONDAY.plusDays(6);
+
+        assertTrue(schedule.isOpenAt(sunday.withHour(23)));
+        assertTrue(schedule.isOpenAt(MONDAY.withHour(1).withMinute(59)));
+        assertFalse(schedule.isOpenAt(MONDAY.withHour(2)));
+        assertFalse(schedule.isOpenAt(sunday.withHour(21)));
+    }
+
+    @Test
+    void compile_shouldMergeOverlappingPeriodsAndSkipIncomplete() {
+        NotificationPeriod incomplete = new NotificationPeriod();
+        incomplete.setDay(DayOfWeek.MONDAY);
+
+        WeeklySchedule schedule = WeeklySchedule.compile(List.of(
+                period(DayOfWeek.MONDAY, "09:00", "12:00"),
+                period(DayOfWeek.MONDAY, "11:00", "14:00"),
+                incomplete));
+
+        assertEquals(1, schedule.intervalCount());
+        assertTrue(schedule.isOpenAt(MONDAY.withHour(13)));
+    }
+
+    @Test
+    void nextOpeningAfter_shouldReturnLaterTodayOrNextDays() {
+        WeeklySchedule schedule = WeeklySchedule.compile(List.of(
+                period(DayOfWeek.MONDAY, "09:00", "10:00"),
+                period(DayOfWeek.WEDNESDAY, "15:00", "16:00")));
+
+        assertEquals(MONDAY.withHour(9), schedule.nextOpeningAfter(MONDAY.withHour(8).withSecond(30)));
+        assertEquals(MONDAY.plusDays(2).withHour(15), schedule.nextOpeningAfter(MONDAY.withHour(9)));
+    }
+
+    @Test
+    void nextOpeningAfter_shouldWrapToNextWeek() {
+        WeeklySchedule schedule = WeeklySchedule.compile(List.of(period(DayOfWeek.MONDAY, "09:00", "10:00")));
+
+        assertEquals(MONDAY.plusWeeks(1).withHour(9), schedule.nextOpeningAfter(MONDAY.withHour(11)));
+    }
+
+    @Test
+    void nextOpeningAfter_shouldIgnoreMidnightContinuationOfSundayPeriod() {
+        WeeklySchedule schedule = WeeklySchedule.compile(List.of(period(DayOfWeek.SUNDAY, "22:00", "02:00")));
+
+        assertEquals(MONDAY.plusDays(6).withHour(22), schedule.nextOpeningAfter(MONDAY.withHour(3)));
+    }
+
+    @Test
+    void nextOpeningAfter_shouldReturnNull_whenScheduleEmpty() {
+        assertNull(WeeklySchedule.compile(Set.of()).nextOpeningAfter(MONDAY));
+    }
+
+    private void givenStored(User user) {
+        when(userRepository.findByIdWithNotificationPeriods(user.getId())).thenReturn(Optional.of(user));
+    }
+
+    private User user(Long id, NotificationPeriod... periods) {
+        User user = new User();
+        user.setId(id);
+        user.setFullName("User " + id);
+        user.setNotificationPeriods(new HashSet<>(List.of(periods)));
+        return user;
+    }
+
+    private NotificationPeriod period(DayOfWeek day, String start, String end) {
+        NotificationPeriod period = new NotificationPeriod();
+        period.setDay(day);
+        period.setStartTime(LocalTime.parse(start));
+        period.setEndTime(LocalTime.parse(end));
+        return period;
+    }
+}
@@ -0,0 +1,86 @@
+package webgroup.websocket.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.util.unit.DataSize;
+import webgroup.websocket.config.NotificationProperties;
+import webgroup.websocket.utils.NotificationFrame;
+import webgroup.websocket.utils.ReplayRing;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SessionReplayServiceTest {
+
+    private final NotificationFrame frame = new NotificationFrame(100L, new byte[100], MimeTypeUtils.APPLICATION_JSON);
+
+    private SessionReplayService newService(DataSize maxMemory) {
+        NotificationProperties properties = new NotificationProperties();
+        properties.getReplay().setMaxMemory(maxMemory);
+        return new SessionReplayService(properties, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void replay_returnsEntriesAfterLastSeenSeq() {
+        SessionReplayService service = newService(DataSize.ofMegabytes(1));
+        service.record(1L, 1L, frame);
+        service.record(1L, 2L, frame);
+        service.record(1L, 3L, frame);
+
+        List<ReplayRing.Entry> entries = service.replay(1L, 1L);
+
+        assertEquals(List.of(2L, 3L), entries.stream().map(ReplayRing.Entry::seq).toList());
+        assertNull(service.replay(2L, 0L));
+    }
+
+    @Test
+    void record_evictsLeastRecentlyUsedRing_whenMemoryLimitExceeded() throws Exception {
+        long entryBytes = frame.size() + ReplayRing.ENTRY_OVERHEAD;
+        SessionReplayService service = newService(DataSize.ofBytes(entryBytes * 2));
+        service.record(1L, 1L, frame);
+        Thread.sleep(2);
+        service.record(2L, 1L, frame);
+        Thread.sleep(2);
+        service.replay(1L, 0L);
+        Thread.sleep(2);
+
+        service.record(3L, 1L, frame);
+
+        assertNotNull(service.replay(1L, 0L));
+        assertNull(service.replay(2L, 0L));
+        assertNotNull(service.replay(3L, 0L));
+        assertEquals(entryBytes * 2, service.totalBytes());
+    }
+
+    @Test
+    void concurrentRecordAndEvict_keepByteCounterExact() throws Exception {
+        SessionReplayService service = newService(DataSize.ofMegabytes(64));
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        CountDownLatch done = new CountDownLatch(8);
+        for (int t = 0; t < 8; t++) {
+            pool.execute(() -> {
+                for (int i = 1; i <= 2_000; i++) {
+                    long userId = i % 50;
+                    service.record(userId, i, frame);
+                    if (i % 7 == 0) {
+                        service.evict(userId);
+                    }
+                }
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        pool.shutdown();
+
+        for (long userId = 0; userId < 50; userId++) {
+            service.evict(userId);
+        }
+        assertEquals(0, service.totalBytes());
+    }
+}
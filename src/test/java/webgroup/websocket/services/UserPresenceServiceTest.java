@@ -1,60 +1,148 @@
 package webgroup.websocket.services;
 
-import static org.mockito.Mockito.*;
 import static org.junit.jupiter.api.Assertions.*;
 
 import org.junit.jupiter.api.Test;
-import org.mockito.Mock;
-import org.mockito.InjectMocks;
-import org.mockito.junit.jupiter.MockitoExtension;
-import org.junit.jupiter.api.extension.ExtendWith;
-import org.springframework.messaging.simp.user.SimpUser;
-import org.springframework.messaging.simp.user.SimpUserRegistry;
+import org.roaringbitmap.RoaringBitmap;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-@ExtendWith(MockitoExtension.class)
 class UserPresenceServiceTest {
 
-    @Mock
-    private SimpUserRegistry simpUserRegistry;
+    private final UserPresenceService userPresenceService = new UserPresenceService();
 
-    @Mock
-    private SimpUser simpUser1;
+    @Test
+    void isUserOnline_shouldReturnTrue_whenUserIsPresent() {
+        userPresenceService.sessionConnected("s1", 41L);
+        userPresenceService.sessionConnected("s2", 42L);
+
+        assertTrue(userPresenceService.isUserOnline(42L));
+    }
 
-    @Mock
-    private SimpUser simpUser2;
+    @Test
+    void isUserOnline_shouldReturnFalse_whenUserNotPresent() {
+        userPresenceService.sessionConnected("s1", 41L);
 
-    @InjectMocks
-    private UserPresenceService userPresenceService;
+        assertFalse(userPresenceService.isUserOnline(99L));
+        assertFalse(userPresenceService.isUserOnline(null));
+    }
 
     @Test
-    void isUserOnline_shouldReturnTrue_whenUserIsPresent() {
-        Long userId = 42L;
+    void sessionDisconnected_shouldKeepUserOnline_whileOtherSessionsRemain() {
+        assertTrue(userPresenceService.sessionConnected("phone", 42L));
+        assertFalse(userPresenceService.sessionConnected("laptop", 42L));
 
-        lenient().when(simpUser1.getName()).thenReturn("41");
-        lenient().when(simpUser2.getName()).thenReturn("42");
-        when(simpUserRegistry.getUsers()).thenReturn(Set.of(simpUser1, simpUser2));
+        assertEquals(new UserPresenceService.SessionClosed(42L, false), userPresenceService.sessionDisconnected("phone"));
 
-        boolean online = userPresenceService.isUserOnline(userId);
+        assertTrue(userPresenceService.isUserOnline(42L));
+        assertEquals(1, userPresenceService.sessionCount(42L));
 
-        assertTrue(online);
-        verify(simpUserRegistry).getUsers();
+        assertEquals(new UserPresenceService.SessionClosed(42L, true), userPresenceService.sessionDisconnected("laptop"));
+
+        assertFalse(userPresenceService.isUserOnline(42L));
+        assertEquals(0, userPresenceService.onlineUserCount());
     }
 
     @Test
-    void isUserOnline_shouldReturnFalse_whenUserNotPresent() {
-        Long userId = 99L;
+    void sessionConnected_shouldIgnoreDuplicateSessionRegistration() {
+        userPresenceService.sessionConnected("s1", 42L);
+        userPresenceService.sessionConnected("s1", 42L);
 
-        when(simpUser1.getName()).thenReturn("41");
-        when(simpUser2.getName()).thenReturn("42");
+        userPresenceService.sessionDisconnected("s1");
 
-        when(simpUserRegistry.getUsers()).thenReturn(Set.of(simpUser1, simpUser2));
+        assertFalse(userPresenceService.isUserOnline(42L));
+    }
 
-        boolean online = userPresenceService.isUserOnline(userId);
+    @Test
+    void sessionDisconnected_shouldReturnNull_forUnknownSession() {
+        assertNull(userPresenceService.sessionDisconnected("unknown"));
+    }
 
-        assertFalse(online);
-        verify(simpUserRegistry).getUsers();
+    @Test
+    void concurrentSessions_reportExactlyOneFirstAndOneLastSession() throws Exception {
+        int sessions = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(sessions);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Boolean>> connected = new ArrayList<>();
+            for (int i = 0; i < sessions; i++) {
+                String sessionId = "s" + i;
+                connected.add(executor.submit(() -> {
+                    start.await();
+                    return userPresenceService.sessionConnected(sessionId, 42L);
+                }));
+            }
+            start.countDown();
+            int first = 0;
+            for (Future<Boolean> result : connected) {
+                first += result.get() ? 1 : 0;
+            }
+
+            CountDownLatch stop = new CountDownLatch(1);
+            List<Future<UserPresenceService.SessionClosed>> closed = new ArrayList<>();
+            for (int i = 0; i < sessions; i++) {
+                String sessionId = "s" + i;
+                closed.add(executor.submit(() -> {
+                    stop.await();
+                    return userPresenceService.sessionDisconnected(sessionId);
+                }));
+            }
+            stop.countDown();
+            int last = 0;
+            for (Future<UserPresenceService.SessionClosed> result : closed) {
+                last += result.get().lastSession() ? 1 : 0;
+            }
+
+            assertEquals(1, first);
+            assertEquals(1, last);
+        } finally {
+            executor.shutdownNow();
+        }
     }
-}
 
+    @Test
+    void sessionsOf_shouldReturnOnlyUserSessions() {
+        userPresenceService.sessionConnected("phone", 42L);
+        userPresenceService.sessionConnected("laptop", 42L);
+        userPresenceService.sessionConnected("other", 7L);
+
+        assertEquals(Set.of("phone", "laptop"), new HashSet<>(userPresenceService.sessionsOf(42L)));
+        assertTrue(userPresenceService.sessionsOf(99L).isEmpty());
+    }
+
+    @Test
+    void onlineUsersSnapshot_shouldListEveryOnlineUserOnce() {
+        userPresenceService.sessionConnected("s1", 1L);
+        userPresenceService.sessionConnected("s2", 1L);
+        userPresenceService.sessionConnected("s3", 2L);
+
+        long[] snapshot = userPresenceService.onlineUsersSnapshot();
+        Set<Long> iterated = new HashSet<>();
+        userPresenceService.forEachOnlineUser(iterated::add);
+
+        assertEquals(Set.of(1L, 2L), new HashSet<>(Arrays.stream(snapshot).boxed().toList()));
+        assertEquals(Set.of(1L, 2L), iterated);
+    }
+
+    @Test
+    void onlineUsers_shouldFollowFirstAndLastSession() {
+        userPresenceService.sessionConnected("phone", 1L);
+        userPresenceService.sessionConnected("laptop", 1L);
+        userPresenceService.sessionConnected("s3", 2L);
+        RoaringBitmap before = userPresenceService.onlineUsers();
+
+        userPresenceService.sessionDisconnected("phone");
+        userPresenceService.sessionDisconnected("s3");
+
+        assertEquals(RoaringBitmap.bitmapOf(1, 2), before);
+        assertEquals(RoaringBitmap.bitmapOf(1), userPresenceService.onlineUsers());
+    }
+}
@@ -11,6 +11,7 @@ import webgroup.websocket.repositories.UserRepository;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 import static org.mockito.Mockito.verify;
 import static org.junit.jupiter.api.Assertions.*;
@@ -22,6 +23,9 @@ class UserServiceTest {
     @Mock
     private UserRepository userRepository;
 
+    @Mock
+    private ScheduleIndexService scheduleIndexService;
+
     @InjectMocks
     private UserService userService;
 
@@ -35,6 +39,7 @@ class UserServiceTest {
 
         assertEquals(fullName, result.getFullName());
         verify(userRepository).save(any(User.class));
+        verify(scheduleIndexService).rebuild(user.getId());
     }
 
     @Test
@@ -79,6 +84,7 @@ class UserServiceTest {
         assertTrue(result);
         verify(userRepository).existsById(userId);
         verify(userRepository).deleteById(userId);
+        verify(scheduleIndexService).evict(userId);
     }
 
     @Test
@@ -91,6 +97,7 @@ class UserServiceTest {
         assertFalse(result);
         verify(userRepository).existsById(userId);
         verify(userRepository, never()).deleteById(anyLong());
+        verify(scheduleIndexService, never()).evict(anyLong());
     }
 
     @Test